@@ -0,0 +1,24 @@
+package de.engehausen.treemap.mat;
+
+import de.engehausen.treemap.ILabelProvider;
+import de.engehausen.treemap.IRectangle;
+
+/**
+ * Optional interface of a {@link ILabelProvider} which caches the labels
+ * it has computed. Computing a label may need to read the indices of the
+ * snapshot, which can take a while; the tree map pane shows cached labels
+ * right away and computes all others in the background.
+ * @param <N> the type of node
+ */
+public interface ICachedLabelProvider<N> extends ILabelProvider<N> {
+
+	/**
+	 * Returns the label of the given rectangle if it is cached,
+	 * without computing it.
+	 * @param rectangle the rectangle, must not be <code>null</code>.
+	 * @return the cached label, or <code>null</code> if the label
+	 * is not cached.
+	 */
+	String getCachedLabel(IRectangle<N> rectangle);
+
+}
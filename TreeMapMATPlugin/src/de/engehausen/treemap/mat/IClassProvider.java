@@ -0,0 +1,24 @@
+package de.engehausen.treemap.mat;
+
+import org.eclipse.mat.SnapshotException;
+
+import de.engehausen.treemap.IWeightedTreeModel;
+
+/**
+ * Optional interface of a {@link IWeightedTreeModel} with synthetic nodes
+ * standing for a class or for objects of one class, e.g. a class and its
+ * instances grouped in a node. The tree map colors such nodes like the
+ * objects of the class; all other synthetic nodes get the default color.
+ */
+public interface IClassProvider {
+
+	/**
+	 * Returns the object ID of the class a synthetic node stands for.
+	 * @param node the synthetic node, must not be <code>null</code>.
+	 * @return the object ID of the class, or <code>-1</code> if the node
+	 * does not stand for one class.
+	 * @throws SnapshotException in case of error
+	 */
+	int getClassId(ISnapshotNode node) throws SnapshotException;
+
+}
@@ -0,0 +1,39 @@
+package de.engehausen.treemap.mat;
+
+import java.util.Iterator;
+
+import de.engehausen.treemap.IWeightedTreeModel;
+
+/**
+ * Optional interface of a {@link IWeightedTreeModel} providing more than
+ * one weight for each node. The weight returned by the weighted tree model
+ * itself is the one of the first metric, and so is the order of the
+ * children it returns.
+ */
+public interface IMetricTreeModel {
+
+	/**
+	 * Returns the metrics the model provides weights for.
+	 * @return the metrics, never <code>null</code> nor empty.
+	 */
+	Metric[] getMetrics();
+
+	/**
+	 * Returns the weight of a node for the given metric.
+	 * @param node the node, must not be <code>null</code>.
+	 * @param metric one of the metrics of the model, must not be <code>null</code>.
+	 * @return the weight of the node.
+	 */
+	long getWeight(ISnapshotNode node, Metric metric);
+
+	/**
+	 * Returns the children of a node by descending weight of the given
+	 * metric. Models are expected to sort the children once per metric,
+	 * not on every call.
+	 * @param node the node, must not be <code>null</code>.
+	 * @param metric one of the metrics of the model, must not be <code>null</code>.
+	 * @return the children, never <code>null</code>.
+	 */
+	Iterator<ISnapshotNode> getChildren(ISnapshotNode node, Metric metric);
+
+}
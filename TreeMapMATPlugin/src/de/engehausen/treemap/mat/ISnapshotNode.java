@@ -4,6 +4,10 @@ package de.engehausen.treemap.mat;
  * Object representation of a node of the snapshot.
  * This is used in conjunction with the a weighted tree model
  * consisting of snapshot nodes.
+ * <p>The ID of a node representing an object is the object ID. The
+ * "virtual" root node has <code>Integer.MAX_VALUE</code> for ID; synthetic
+ * nodes not representing an object, e.g. standing for many small objects,
+ * have negative IDs.
  */
 public interface ISnapshotNode {
 
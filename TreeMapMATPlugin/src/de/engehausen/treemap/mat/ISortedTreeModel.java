@@ -0,0 +1,21 @@
+package de.engehausen.treemap.mat;
+
+import de.engehausen.treemap.IWeightedTreeModel;
+
+/**
+ * Optional interface of a {@link IWeightedTreeModel} indicating whether
+ * the children of a node are returned by descending weight, the order
+ * the tree map layout needs. Models copying or wrapping another model
+ * use it to decide whether they have to sort the children themselves.
+ */
+public interface ISortedTreeModel {
+
+	/**
+	 * Indicates whether the children of each node are returned
+	 * by descending weight.
+	 * @return <code>true</code> if the children are sorted by
+	 * descending weight, <code>false</code> otherwise.
+	 */
+	boolean isSortedByWeight();
+
+}
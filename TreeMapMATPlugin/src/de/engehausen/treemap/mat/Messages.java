@@ -13,16 +13,64 @@ public class Messages extends NLS {
 	public static String STR_ADD;
 	/** "already initialized" error text */
 	public static String STR_ALREADY_INITIALIZED;
+	/** "budget exceeded" message, {0}=memory needed, {1}=budget */
+	public static String STR_BUDGET_EXCEEDED;
+	/** "cached model loaded" message, {0}=cache file */
+	public static String STR_CACHE_LOADED;
+	/** "cannot write cached model" message, {0}=cache file */
+	public static String STR_CACHE_WRITE_FAILED;
+	/** "child index size" message, {0}=number of children, {1}=memory used */
+	public static String STR_CHILD_INDEX_SIZE;
+	/** "class group" label, {0}=package or class name, {1}=number of objects, {2}=memory used */
+	public static String STR_CLASS_GROUP;
 	/** "color" text */
 	public static String STR_COLOR;
+	/** "compact model size" message, {0}=memory used, {1}=memory used by the full model */
+	public static String STR_COMPACT_MODEL_SIZE;
+	/** "compute metrics" text */
+	public static String STR_COMPUTE_METRICS;
 	/** "computation canceled" message */
 	public static String STR_COMP_CANCELLED;
 	/** "convert graph to weighted tree" text */
 	public static String STR_CONVERT_GRAPH_TREE;
 	/** "default color" text */
 	public static String STR_DEFAULT_COLOR;
+	/** "default package" text */
+	public static String STR_DEFAULT_PACKAGE;
 	/** "delete" text */
 	public static String STR_DELETE;
+	/** "focused model size" message, {0}=objects reached, {1}=objects kept */
+	public static String STR_FOCUSED_MODEL_SIZE;
+	/** "GC root group" label, {0}=GC root types or thread name, {1}=number of roots, {2}=their total */
+	public static String STR_GC_ROOT_GROUP;
+	/** "group GC roots" text */
+	public static String STR_GROUP_GC_ROOTS;
+	/** "index page hits" message of the simulated page cache, {0}=traversal mode, {1}=hit rate in percent, {2}=hits, {3}=lookups */
+	public static String STR_INDEX_PAGE_HITS;
+	/** label of a bucket of instances, {0}=class name, {1}=number of the first instance, {2}=number of the last instance, {3}=memory used */
+	public static String STR_INSTANCE_BUCKET;
+	/** "invalid regular expression" message, {0}=expression, {1}=syntax error */
+	public static String STR_INVALID_REGEXP;
+	/** placeholder text of a label not computed yet */
+	public static String STR_LABEL_PENDING;
+	/** "load subtree" job name */
+	public static String STR_LOAD_SUBTREE;
+	/** "load subtree failed" job status */
+	public static String STR_LOAD_SUBTREE_FAILED;
+	/** "mapped storage" message, {0}=memory needed, {1}=directory */
+	public static String STR_MAPPED_STORAGE;
+	/** "count" metric name */
+	public static String STR_METRIC_COUNT;
+	/** "retained" metric name */
+	public static String STR_METRIC_RETAINED;
+	/** "size" metric name */
+	public static String STR_METRIC_SIZE;
+	/** "no GC root" text */
+	public static String STR_NO_GC_ROOT;
+	/** "objects" count, {0}=number of objects */
+	public static String STR_OBJECT_COUNT;
+	/** label of merged nodes, {0}=number of nodes, {1}=their total */
+	public static String STR_OTHERS;
 	/** pane title text */
 	public static String STR_PANE_TITLE;
 	/** "pattern" text */
@@ -31,10 +79,16 @@ public class Messages extends NLS {
 	public static String STR_PATTERN_OR_SUBSTR;
 	/** "preferences description" text */
 	public static String STR_PREF_DESC;
+	/** "read dominator tree" text */
+	public static String STR_READ_DOMINATOR_TREE;
+	/** "read heap sizes" text */
+	public static String STR_READ_HEAP_SIZES;
 	/** "regular expression" abbreviation */
 	public static String STR_REGULAR_EXPRESSION;
-	/** "stack not empty" error text */
-	public static String STR_STACK_NOT_EMPTY;
+	/** "resolve label" job name */
+	public static String STR_RESOLVE_LABEL;
+	/** "traversal time" message, {0}=traversal mode, {1}=wall-clock time in milliseconds */
+	public static String STR_TRAVERSAL_TIME;
 	
 	static {
 		// initialize resource bundle
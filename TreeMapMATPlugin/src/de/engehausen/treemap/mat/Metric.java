@@ -0,0 +1,43 @@
+package de.engehausen.treemap.mat;
+
+import org.eclipse.mat.util.Units;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * The weights a tree model of the object graph can compute for its nodes.
+ * Each weight sums up a value over the subtree of a node, so that the
+ * weight of a node is never smaller than the summed weights of its children.
+ */
+public enum Metric {
+
+	/**
+	 * The summed up shallow size of the objects of the subtree.
+	 */
+	SIZE,
+
+	/**
+	 * The number of objects of the subtree.
+	 */
+	COUNT,
+
+	/**
+	 * An estimate of the memory retained by the subtree: the retained size
+	 * of the object, as computed by MAT, or the shallow size of the object
+	 * plus the estimates of its children, whichever is bigger.
+	 */
+	RETAINED;
+
+	/**
+	 * Formats a weight of this metric for a label: a number of objects
+	 * for {@link #COUNT}, an amount of memory otherwise.
+	 * @param weight the weight
+	 * @return the formatted weight, never <code>null</code>.
+	 */
+	public String format(final long weight) {
+		if (this == COUNT) {
+			return NLS.bind(Messages.STR_OBJECT_COUNT, Long.valueOf(weight));
+		}
+		return Units.Storage.of(weight).format(weight);
+	}
+
+}
@@ -9,6 +9,9 @@ import org.osgi.framework.BundleContext;
  */
 public class Activator extends AbstractUIPlugin {
 
+	/** the symbolic name of the plugin */
+	public static final String PLUGIN_ID = "de.engehausen.treemap.mat"; //$NON-NLS-1$
+
 	private static Activator plugin;
 
 	/**
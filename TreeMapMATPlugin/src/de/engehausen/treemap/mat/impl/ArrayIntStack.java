@@ -0,0 +1,84 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.IOException;
+
+/**
+ * A stack of <code>int</code>s held in an array of an {@link IArrayStorage},
+ * e.g. outside of the Java heap. Like {@link IntStack}, it grows by half
+ * when it is full; the elements are copied into a new array of the storage.
+ */
+public class ArrayIntStack {
+
+	private final IArrayStorage storage;
+	private IIntArray data;
+	private int pos;
+
+	/**
+	 * Creates the stack with the given initial size.
+	 * @param aStorage the storage to create the arrays in, must not be <code>null</code>.
+	 * @param initialSize the initial size, must be &gt; 0.
+	 * @throws IOException in case of error
+	 */
+	public ArrayIntStack(final IArrayStorage aStorage, final int initialSize) throws IOException {
+		storage = aStorage;
+		data = aStorage.createIntArray(initialSize);
+		pos = 0;
+	}
+
+	/**
+	 * Indicates if the stack is empty or not.
+	 * @return <code>true</code> if the stack is empty, <code>false</code> otherwise.
+	 */
+	public boolean isEmpty() {
+		return pos == 0;
+	}
+
+	/**
+	 * Removes the topmost element from the stack.
+	 * @return the topmost element of the stack.
+	 */
+	public int pop() {
+		return data.get(--pos);
+	}
+
+	/**
+	 * Puts the given value onto the stack.
+	 * @param val the value to put onto the stack.
+	 * @throws IOException if the stack needs to grow and the storage
+	 * cannot create a bigger array, or the stack cannot grow any further.
+	 */
+	public void push(final int val) throws IOException {
+		if (pos == data.length()) {
+			// resize by making the array 50% bigger
+			final int length = (int) Math.min(Integer.MAX_VALUE, data.length()*3L/2+1);
+			if (length == pos) {
+				throw new IOException(Integer.toString(length));
+			}
+			final IIntArray resized = storage.createIntArray(length);
+			for (int i = 0; i < pos; i++) {
+				resized.set(i, data.get(i));
+			}
+			data = resized;
+		}
+		data.set(pos++, val);
+	}
+
+	/**
+	 * Returns the number of elements held by the stack.
+	 * @return the number of elements held by the stack.
+	 */
+	public int size() {
+		return pos;
+	}
+
+	/**
+	 * The current maximum size of elements the stack can
+	 * hold without resizing (if the stack cannot hold the
+	 * elements, it will resize).
+	 * @return current maximum number of elements the stack can hold.
+	 */
+	public int max() {
+		return data.length();
+	}
+
+}
@@ -0,0 +1,274 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.IOException;
+
+/**
+ * Index of the children of each node of a tree given by an array of
+ * parent IDs, stored in compressed sparse row format: the children of
+ * all nodes are held in one array, the children of a node occupying
+ * a contiguous range of it; a second array holds the start of each
+ * node's range.
+ * <p>Initially, the children of each node are held in ascending ID order;
+ * {@link #sortByWeight(ILongArray)} reorders them by descending weight.
+ * {@link #sortedCopy(ILongArray, IArrayStorage)} orders them by another
+ * weight in a copy, sharing the offsets.
+ * <p>The "virtual" root node with ID <code>Integer.MAX_VALUE</code> is
+ * mapped to the slot right after the last object ID. Nodes without
+ * a parent in the tree (parent ID <code>-1</code>) are not indexed.
+ */
+public class ChildIndex {
+
+	/** number of elements up to which a range is sorted by insertion */
+	private static final int INSERTION_SORT_LIMIT = 16;
+
+	protected final IIntArray offsets;
+	protected final IIntArray children;
+
+	/**
+	 * Creates the index from the parent IDs of a tree.
+	 * The children of each node are held in ascending ID order.
+	 * @param parent the parent ID of each node, <code>Integer.MAX_VALUE</code>
+	 * for the children of the virtual root node and <code>-1</code> for
+	 * nodes not part of the tree; must not be <code>null</code>.
+	 * @param storage the storage to create the index arrays in, must not be <code>null</code>.
+	 * @throws IOException if the index arrays cannot be created
+	 */
+	public ChildIndex(final IIntArray parent, final IArrayStorage storage) throws IOException {
+		final int root = parent.length();
+		offsets = storage.createIntArray(root+2);
+		// count the children of each node, shifted by one slot
+		int total = 0;
+		for (int i = 0; i < root; i++) {
+			final int p = parent.get(i);
+			if (p >= 0) {
+				final int s = slot(p, root)+1;
+				offsets.set(s, offsets.get(s)+1);
+				total++;
+			}
+		}
+		// turn counts into start positions
+		final int max = offsets.length();
+		for (int i = 1; i < max; i++) {
+			offsets.set(i, offsets.get(i)+offsets.get(i-1));
+		}
+		children = storage.createIntArray(total);
+		// fill; this advances the start of each slot to the start of the next one...
+		for (int i = 0; i < root; i++) {
+			final int p = parent.get(i);
+			if (p >= 0) {
+				final int s = slot(p, root);
+				final int pos = offsets.get(s);
+				children.set(pos, i);
+				offsets.set(s, pos+1);
+			}
+		}
+		// ...so shift back by one slot
+		for (int i = max - 1; i > 0; i--) {
+			offsets.set(i, offsets.get(i-1));
+		}
+		offsets.set(0, 0);
+	}
+
+	/**
+	 * Creates the index from existing arrays, as obtained by
+	 * {@link #getOffsets()} and {@link #getChildren()}.
+	 * @param someOffsets the start position of each node's children, must not be <code>null</code>.
+	 * @param someChildren the children of all nodes, must not be <code>null</code>.
+	 */
+	public ChildIndex(final IIntArray someOffsets, final IIntArray someChildren) {
+		offsets = someOffsets;
+		children = someChildren;
+	}
+
+	/**
+	 * Sorts the children of each node by descending weight; children of
+	 * equal weight are kept in ascending ID order.
+	 * @param weight the weight of each node, must not be <code>null</code>.
+	 */
+	public void sortByWeight(final ILongArray weight) {
+		for (int i = offsets.length() - 2; i >= 0; i--) {
+			sort(weight, offsets.get(i), offsets.get(i+1));
+		}
+	}
+
+	/**
+	 * Creates a copy of the index with the children of each node sorted
+	 * by descending weight; children of equal weight are kept in ascending
+	 * ID order. Only the children array is copied, the offsets are shared.
+	 * @param weight the weight of each node, must not be <code>null</code>.
+	 * @param storage the storage to create the children array of the copy
+	 * in, must not be <code>null</code>.
+	 * @return the sorted copy, never <code>null</code>.
+	 * @throws IOException if the children array cannot be created
+	 */
+	public ChildIndex sortedCopy(final ILongArray weight, final IArrayStorage storage) throws IOException {
+		final int max = children.length();
+		final IIntArray copy = storage.createIntArray(max);
+		for (int i = 0; i < max; i++) {
+			copy.set(i, children.get(i));
+		}
+		final ChildIndex result = new ChildIndex(offsets, copy);
+		result.sortByWeight(weight);
+		return result;
+	}
+
+	/**
+	 * Returns the position of the first child of the given node.
+	 * @param id the node ID
+	 * @return the position of the first child of the node.
+	 */
+	public int getStart(final int id) {
+		return offsets.get(slot(id, offsets.length()-2));
+	}
+
+	/**
+	 * Returns the position after the last child of the given node.
+	 * @param id the node ID
+	 * @return the position after the last child of the node.
+	 */
+	public int getEnd(final int id) {
+		return offsets.get(slot(id, offsets.length()-2)+1);
+	}
+
+	/**
+	 * Indicates whether the given node has children.
+	 * @param id the node ID
+	 * @return <code>true</code> if the node has at least one child.
+	 */
+	public boolean hasChildren(final int id) {
+		final int slot = slot(id, offsets.length()-2);
+		return offsets.get(slot+1) > offsets.get(slot);
+	}
+
+	/**
+	 * Returns the child ID at the given position.
+	 * @param pos the position, between the start and end position of a node.
+	 * @return the child ID.
+	 */
+	public int getChild(final int pos) {
+		return children.get(pos);
+	}
+
+	/**
+	 * Returns the number of children held by the index.
+	 * @return the number of children held by the index.
+	 */
+	public int size() {
+		return children.length();
+	}
+
+	/**
+	 * Returns the array holding the start position of each node's children.
+	 * @return the offsets array, never <code>null</code>.
+	 */
+	public IIntArray getOffsets() {
+		return offsets;
+	}
+
+	/**
+	 * Returns the array holding the children of all nodes.
+	 * @return the children array, never <code>null</code>.
+	 */
+	public IIntArray getChildren() {
+		return children;
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by the index.
+	 * @return the approximate number of bytes used by the index.
+	 */
+	public long getMemoryFootprint() {
+		return 4L*offsets.length() + 4L*children.length();
+	}
+
+	/**
+	 * Sorts a range of the children array by descending weight and
+	 * ascending ID (quick sort, finished off by insertion sort).
+	 * @param weight the weight of each node
+	 * @param from the start of the range (inclusive)
+	 * @param to the end of the range (exclusive)
+	 */
+	private void sort(final ILongArray weight, int from, int to) {
+		while (to - from > INSERTION_SORT_LIMIT) {
+			final int mid = (from + to)>>>1;
+			// median of three as pivot
+			if (before(weight, children.get(mid), children.get(from))) {
+				swap(mid, from);
+			}
+			if (before(weight, children.get(to-1), children.get(mid))) {
+				swap(to-1, mid);
+				if (before(weight, children.get(mid), children.get(from))) {
+					swap(mid, from);
+				}
+			}
+			final int pivot = children.get(mid);
+			int i = from;
+			int j = to - 1;
+			while (i <= j) {
+				while (before(weight, children.get(i), pivot)) {
+					i++;
+				}
+				while (before(weight, pivot, children.get(j))) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i++, j--);
+				}
+			}
+			// recurse into the smaller part, loop on the bigger one
+			if (j - from < to - i) {
+				sort(weight, from, j+1);
+				from = i;
+			} else {
+				sort(weight, i, to);
+				to = j + 1;
+			}
+		}
+		for (int i = from + 1; i < to; i++) {
+			final int c = children.get(i);
+			int j = i - 1;
+			while (j >= from && before(weight, c, children.get(j))) {
+				children.set(j+1, children.get(j));
+				j--;
+			}
+			children.set(j+1, c);
+		}
+	}
+
+	/**
+	 * Indicates whether a node goes before another one in the
+	 * sorted order.
+	 * @param weight the weight of each node
+	 * @param a the first node
+	 * @param b the second node
+	 * @return <code>true</code> if the first node is heavier, or
+	 * equally heavy and has the lower ID.
+	 */
+	private static boolean before(final ILongArray weight, final int a, final int b) {
+		final long wa = weight.get(a);
+		final long wb = weight.get(b);
+		return wa > wb || (wa == wb && a < b);
+	}
+
+	/**
+	 * Swaps two elements of the children array.
+	 * @param i the position of the first element
+	 * @param j the position of the second element
+	 */
+	private void swap(final int i, final int j) {
+		final int t = children.get(i);
+		children.set(i, children.get(j));
+		children.set(j, t);
+	}
+
+	/**
+	 * Maps a node ID to its slot in the offsets array.
+	 * @param id the node ID
+	 * @param root the slot of the virtual root node
+	 * @return the slot.
+	 */
+	private static int slot(final int id, final int root) {
+		return id!=Integer.MAX_VALUE?id:root;
+	}
+
+}
@@ -0,0 +1,188 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.model.IClass;
+import org.eclipse.swt.graphics.RGB;
+
+/**
+ * Table of the color of each class of a snapshot, as given by a
+ * {@link ColorMatcher}. The class names are matched once when the table
+ * is created, so the color of an object can then be found from the ID of
+ * its class without looking at any names.
+ * <p>Colors are identified by an index into a palette: index <code>0</code>
+ * is the default color of the matcher, index <code>i+1</code> is the color
+ * of the matcher's <code>i</code>-th element. The table holds the class
+ * IDs in ascending order, with the color index of each class in a second
+ * array; looking up a class is a binary search.
+ * <p>When the rules change, a table for the new matcher can be derived
+ * from an existing one with {@link #update(ColorMatcher)}: the classes
+ * stay the same, and only the classes which may match differently are
+ * matched again.
+ */
+public class ClassColorTable {
+
+	/** palette index of the default color */
+	public static final int DEFAULT_INDEX = 0;
+
+	private final int[] classIds;
+	private final String[] classNames;
+	private final int[] colorIndices;
+	private final RGB[] palette;
+	private final List<ColorMatcher.ColorElement> elements;
+
+	/**
+	 * Creates the table for all classes of the snapshot.
+	 * @param snapshot the snapshot, must not be <code>null</code>.
+	 * @param matcher the matcher giving the colors of class names, must not be <code>null</code>.
+	 * @throws SnapshotException in case of error
+	 */
+	public ClassColorTable(final ISnapshot snapshot, final ColorMatcher matcher) throws SnapshotException {
+		elements = matcher.getElements();
+		palette = createPalette(matcher);
+		final Collection<IClass> classes = snapshot.getClasses();
+		final IClass[] sorted = classes.toArray(new IClass[classes.size()]);
+		Arrays.sort(sorted, new Comparator<IClass>() {
+			@Override
+			public int compare(final IClass a, final IClass b) {
+				final int x = a.getObjectId();
+				final int y = b.getObjectId();
+				return x<y?-1:(x==y?0:1);
+			}
+		});
+		classIds = new int[sorted.length];
+		classNames = new String[sorted.length];
+		colorIndices = new int[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			classIds[i] = sorted[i].getObjectId();
+			classNames[i] = sorted[i].getName();
+			colorIndices[i] = matcher.matchIndex(classNames[i])+1;
+		}
+	}
+
+	/**
+	 * Creates the table for a new matcher from the table of a previous one.
+	 * @param previous the previous table, must not be <code>null</code>.
+	 * @param matcher the new matcher, must not be <code>null</code>.
+	 */
+	protected ClassColorTable(final ClassColorTable previous, final ColorMatcher matcher) {
+		elements = matcher.getElements();
+		palette = createPalette(matcher);
+		classIds = previous.classIds;
+		classNames = previous.classNames;
+		colorIndices = new int[classIds.length];
+		// the rules up to the first difference in pattern or type still
+		// match the same classes; their colors may have changed, which
+		// is taken care of by the palette
+		final int max = Math.min(elements.size(), previous.elements.size());
+		int same = 0;
+		while (same < max && sameRule(elements.get(same), previous.elements.get(same))) {
+			same++;
+		}
+		for (int i = 0; i < classIds.length; i++) {
+			final int index = previous.colorIndices[i];
+			if (index != DEFAULT_INDEX && index <= same) {
+				colorIndices[i] = index;
+			} else {
+				colorIndices[i] = matcher.matchIndex(classNames[i])+1;
+			}
+		}
+	}
+
+	/**
+	 * Creates the table for a new matcher, matching only the classes
+	 * which may get a different rule under the new matcher.
+	 * @param matcher the new matcher, must not be <code>null</code>.
+	 * @return the table for the new matcher, never <code>null</code>.
+	 */
+	public ClassColorTable update(final ColorMatcher matcher) {
+		return new ClassColorTable(this, matcher);
+	}
+
+	/**
+	 * Returns the number of classes in the table.
+	 * @return the number of classes in the table.
+	 */
+	public int size() {
+		return classIds.length;
+	}
+
+	/**
+	 * Returns the position of the class with the given ID in the table.
+	 * Tables derived from one another through {@link #update(ColorMatcher)}
+	 * hold the classes at the same positions.
+	 * @param classId the object ID of the class
+	 * @return the position, or <code>-1</code> for unknown classes.
+	 */
+	public int getPosition(final int classId) {
+		final int pos = Arrays.binarySearch(classIds, classId);
+		return pos >= 0 ? pos : -1;
+	}
+
+	/**
+	 * Returns the color index of the class at the given position.
+	 * @param position the position, must be &gt;= 0 and &lt; {@link #size()}.
+	 * @return the color index.
+	 */
+	public int getColorIndexAt(final int position) {
+		return colorIndices[position];
+	}
+
+	/**
+	 * Returns the color index of the class with the given ID.
+	 * @param classId the object ID of the class
+	 * @return the color index; {@link #DEFAULT_INDEX} for unknown classes.
+	 */
+	public int getColorIndex(final int classId) {
+		final int pos = getPosition(classId);
+		return pos >= 0 ? colorIndices[pos] : DEFAULT_INDEX;
+	}
+
+	/**
+	 * Returns the color with the given index.
+	 * @param index the color index, must be &gt;= 0 and &lt; {@link #getPaletteSize()}.
+	 * @return the color, never <code>null</code>.
+	 */
+	public RGB getRGB(final int index) {
+		return palette[index];
+	}
+
+	/**
+	 * Returns the number of colors in the palette.
+	 * @return the number of colors in the palette.
+	 */
+	public int getPaletteSize() {
+		return palette.length;
+	}
+
+	/**
+	 * Creates the palette of the given matcher.
+	 * @param matcher the matcher
+	 * @return the palette, never <code>null</code>.
+	 */
+	private static RGB[] createPalette(final ColorMatcher matcher) {
+		final List<ColorMatcher.ColorElement> list = matcher.getElements();
+		final RGB[] result = new RGB[list.size()+1];
+		result[DEFAULT_INDEX] = matcher.getDefaultColor();
+		for (int i = 0; i < list.size(); i++) {
+			result[i+1] = list.get(i).getRGB();
+		}
+		return result;
+	}
+
+	/**
+	 * Indicates whether two rules match the same strings.
+	 * @param a the first rule
+	 * @param b the second rule
+	 * @return <code>true</code> if both rules have the same pattern and type.
+	 */
+	private static boolean sameRule(final ColorMatcher.ColorElement a, final ColorMatcher.ColorElement b) {
+		return a.isRegExp() == b.isRegExp() && a.getPattern().equals(b.getPattern());
+	}
+
+}
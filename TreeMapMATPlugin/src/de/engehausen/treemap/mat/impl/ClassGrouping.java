@@ -0,0 +1,21 @@
+package de.engehausen.treemap.mat.impl;
+
+/**
+ * The ways of grouping the classes of a snapshot in a
+ * {@link ClassHierarchyTreeModelImpl}.
+ */
+public enum ClassGrouping {
+
+	/**
+	 * Classes are grouped by their package; array classes belong to the
+	 * package of their component type.
+	 */
+	PACKAGE,
+
+	/**
+	 * Classes are grouped by their defining class loader, which tells
+	 * the applications hosted by the same virtual machine apart.
+	 */
+	CLASSLOADER
+
+}
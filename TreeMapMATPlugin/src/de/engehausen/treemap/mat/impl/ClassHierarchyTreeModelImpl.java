@@ -0,0 +1,764 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.ClassHistogramRecord;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.model.IClass;
+import org.eclipse.mat.snapshot.model.IObject;
+import org.eclipse.mat.util.IProgressListener;
+import org.eclipse.mat.util.Units;
+import org.eclipse.osgi.util.NLS;
+
+import de.engehausen.treemap.IRectangle;
+import de.engehausen.treemap.ITreeModel;
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ICachedLabelProvider;
+import de.engehausen.treemap.mat.IClassProvider;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.ISnapshotProvider;
+import de.engehausen.treemap.mat.ISortedTreeModel;
+import de.engehausen.treemap.mat.Messages;
+
+/**
+ * Weighted tree model grouping the objects of a snapshot by class. The
+ * children of the root node are the packages or the class loaders, as
+ * given by the {@link ClassGrouping}, their children are the classes and
+ * the children of a class are its instances. The weight of a class is the
+ * shallow size of all of its instances, the weight of a package or class
+ * loader the sum of the weights of its classes.
+ * <p>Unlike {@link WeightedSnapshotTreeModelImpl}, this model does not
+ * traverse the object graph: it is built from the class histogram of the
+ * snapshot, and the instances of a class are read from the snapshot
+ * when the class is expanded. It shows which classes own the heap, not
+ * which objects keep it alive.
+ * <p>The instances of a class with more than {@link #BUCKET_SIZE} instances
+ * are split into buckets of that many instances in ascending ID order, which
+ * are the children of the class; the instances of a bucket are only read
+ * when the bucket is expanded. The weights of the buckets are taken from
+ * the class histogram, as the class's share of the heap divided evenly
+ * among its instances, so listing the buckets reads nothing from the
+ * snapshot. For classes whose instances differ in size, such as arrays,
+ * the weight of a bucket is therefore an estimate, and its instances may
+ * add up to a little more or less.
+ * <p>Packages, class loaders, classes and buckets are synthetic nodes with
+ * negative IDs which do not change between models of the same snapshot: the
+ * ID of a class or class loader is the bitwise complement of its object ID,
+ * the ID of a package the complement of the number of objects plus the
+ * position of its name in alphabetical order, the ID of a bucket the
+ * complement of the number of objects and packages plus the position of
+ * the bucket, numbering the buckets of the classes in the order of their
+ * object IDs. The root node is a "virtual" node with
+ * <code>Integer.MAX_VALUE</code> for ID. Array classes belong to the package
+ * of their component type, arrays of primitive types to the default package.
+ * <p>For coloring, a class and its buckets stand for the class, a class
+ * loader for the class of the loader, and nodes merging instances of a class
+ * for the class (see {@link IClassProvider}).
+ * <p>The model does not change once it has been created, so it can
+ * be read by several threads at the same time.
+ */
+public class ClassHierarchyTreeModelImpl implements IWeightedTreeModel<ISnapshotNode>, ICachedLabelProvider<ISnapshotNode>, ISnapshotProvider, ISortedTreeModel, IClassProvider {
+
+	protected static Iterator<ISnapshotNode> EMPTY_ITERATOR = Collections.<ISnapshotNode>emptyList().iterator();
+	/** marks a group without parent group or class */
+	protected static final int NONE = -1;
+	/** suffix of the names of array classes */
+	private static final String ARRAY_SUFFIX = "[]"; //$NON-NLS-1$
+	/** the number of instances of a bucket */
+	public static final int BUCKET_SIZE = 1024;
+	/** number of elements up to which a range is sorted by insertion */
+	private static final int INSERTION_SORT_LIMIT = 16;
+
+	protected final ISnapshot snapshot;
+	protected final SnapshotNodeCache nodes = new SnapshotNodeCache();
+	protected final LabelCache labels;
+	protected final Group[] groups;
+	protected final int[] rootChildren;
+	protected final Map<Integer, Group> groupsById;
+	/** the class of each bucket, by position of the bucket */
+	protected final Group[] bucketClasses;
+	/** the complement of the ID of the first bucket */
+	protected final int firstBucketID;
+	protected final long rootWeight;
+	/** the instances of the class whose buckets were expanded last, by ascending ID */
+	private volatile Instances lastInstances;
+
+	/**
+	 * Creates the class hierarchy tree model of the snapshot. The class
+	 * histogram is read in one pass; for grouping by class loader, each
+	 * class is looked up once to find its loader.
+	 * @param aSnapshot the snapshot, must not be <code>null</code>.
+	 * @param grouping the grouping of the classes, must not be <code>null</code>.
+	 * @param aListener the progress listener
+	 * @return the weighted tree model
+	 * @throws SnapshotException in case of error
+	 */
+	public static IWeightedTreeModel<ISnapshotNode> createModel(final ISnapshot aSnapshot, final ClassGrouping grouping, final IProgressListener aListener) throws SnapshotException {
+		final Collection<ClassHistogramRecord> records = aSnapshot.getHistogram(aListener).getClassHistogramRecords();
+		if (aListener.isCanceled()) {
+			throw new SnapshotException(Messages.STR_COMP_CANCELLED);
+		}
+		final List<Group> groups = new ArrayList<Group>();
+		// the parent groups, by package name or class loader ID
+		final Map<Object, Integer> parents = new HashMap<Object, Integer>();
+		for (ClassHistogramRecord record : records) {
+			if (record.getNumberOfObjects() == 0) {
+				continue;
+			}
+			final String name = record.getLabel();
+			final Object key;
+			if (grouping == ClassGrouping.CLASSLOADER) {
+				key = Integer.valueOf(((IClass) aSnapshot.getObject(record.getClassId())).getClassLoaderId());
+			} else {
+				key = getPackage(name);
+			}
+			Integer parent = parents.get(key);
+			if (parent == null) {
+				parent = Integer.valueOf(groups.size());
+				parents.put(key, parent);
+				if (grouping == ClassGrouping.CLASSLOADER) {
+					final int loader = ((Integer) key).intValue();
+					groups.add(new Group(getClassLoaderName(aSnapshot, loader), NONE, loader, NONE));
+				} else {
+					final String pkg = (String) key;
+					groups.add(new Group(pkg.length()>0?pkg:Messages.STR_DEFAULT_PACKAGE, NONE, NONE, NONE));
+				}
+			}
+			final Group group = new Group(name, parent.intValue(), record.getClassId(), record.getClassId());
+			group.weight = record.getUsedHeapSize();
+			group.count = record.getNumberOfObjects();
+			groups.get(parent.intValue()).add(groups.size());
+			groups.add(group);
+		}
+		return new ClassHierarchyTreeModelImpl(aSnapshot, groups.toArray(new Group[groups.size()]));
+	}
+
+	/**
+	 * Returns the package of a class.
+	 * @param className the name of the class, must not be <code>null</code>.
+	 * @return the package name, the empty string for the default package.
+	 */
+	protected static String getPackage(final String className) {
+		String name = className;
+		while (name.endsWith(ARRAY_SUFFIX)) {
+			name = name.substring(0, name.length()-ARRAY_SUFFIX.length());
+		}
+		final int pos = name.lastIndexOf('.');
+		return pos>0?name.substring(0, pos):""; //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the name of a class loader; this is the name MAT gives to the
+	 * class loader, such as the name of a web application, if known.
+	 * @param snapshot the snapshot, must not be <code>null</code>.
+	 * @param id the object ID of the class loader
+	 * @return the name, never <code>null</code>.
+	 * @throws SnapshotException in case of error
+	 */
+	protected static String getClassLoaderName(final ISnapshot snapshot, final int id) throws SnapshotException {
+		final IObject loader = snapshot.getObject(id);
+		final String name = loader.getClassSpecificName();
+		return name!=null?name:loader.getTechnicalName();
+	}
+
+	/**
+	 * Creates the tree model.
+	 * @param aSnapshot the snapshot to use, must not be <code>null</code>.
+	 * @param someGroups the packages or class loaders and the classes, each
+	 * group after its parent group; the weights of the parent groups are summed up and the
+	 * children of all groups sorted. Must not be <code>null</code>.
+	 */
+	protected ClassHierarchyTreeModelImpl(final ISnapshot aSnapshot, final Group[] someGroups) {
+		snapshot = aSnapshot;
+		labels = new LabelCache(aSnapshot);
+		groups = someGroups;
+		groupsById = new HashMap<Integer, Group>(2*groups.length);
+		// packages are numbered after all objects, in the order of their names
+		final List<Group> packages = new ArrayList<Group>();
+		for (Group group : groups) {
+			if (group.objectId == NONE) {
+				packages.add(group);
+			} else {
+				group.setID(~group.objectId);
+			}
+		}
+		Collections.sort(packages, new Comparator<Group>() {
+			public int compare(final Group a, final Group b) {
+				return a.name.compareTo(b.name);
+			}
+		});
+		final int objects = aSnapshot.getSnapshotInfo().getNumberOfObjects();
+		for (int i = packages.size() - 1; i >= 0; i--) {
+			packages.get(i).setID(~(objects+i));
+		}
+		// buckets are numbered after the packages, in the order of their classes
+		final List<Group> bucketed = new ArrayList<Group>();
+		for (Group group : groups) {
+			if (group.classId != NONE && group.count > BUCKET_SIZE) {
+				bucketed.add(group);
+			}
+		}
+		Collections.sort(bucketed, new Comparator<Group>() {
+			public int compare(final Group a, final Group b) {
+				return a.classId < b.classId ? -1 : (a.classId > b.classId ? 1 : 0);
+			}
+		});
+		final List<Group> buckets = new ArrayList<Group>();
+		for (Group group : bucketed) {
+			group.firstBucket = buckets.size();
+			for (long i = (group.count+BUCKET_SIZE-1)/BUCKET_SIZE; i > 0; i--) {
+				buckets.add(group);
+			}
+		}
+		bucketClasses = buckets.toArray(new Group[buckets.size()]);
+		firstBucketID = objects + packages.size();
+		final List<Integer> top = new ArrayList<Integer>();
+		// children come after their parents, so sum up backwards
+		for (int i = groups.length - 1; i >= 0; i--) {
+			final Group group = groups[i];
+			groupsById.put(Integer.valueOf(group.id), group);
+			if (group.parent != NONE) {
+				groups[group.parent].weight += group.weight;
+				groups[group.parent].count += group.count;
+			} else {
+				top.add(Integer.valueOf(i));
+			}
+		}
+		long sum = 0;
+		for (Group group : groups) {
+			if (group.parent == NONE) {
+				sum += group.weight;
+			}
+			group.sortChildren(groups);
+		}
+		rootChildren = sort(top, groups);
+		rootWeight = sum;
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getLabel(final ITreeModel<IRectangle<ISnapshotNode>> model, final IRectangle<ISnapshotNode> node) {
+		final int id = node.getNode().getID();
+		if (id < 0 || id == Integer.MAX_VALUE) {
+			return getCachedLabel(node);
+		}
+		try {
+			final String label = labels.get(id);
+			return label!=null?label:labels.create(id, snapshot.getHeapSize(id), snapshot.getHeapSize(id));
+		} catch (SnapshotException e) {
+			return "???"; //$NON-NLS-1$
+		}
+	}
+
+	@Override
+	// non-javadoc: see interface; the labels of groups are always available
+	public String getCachedLabel(final IRectangle<ISnapshotNode> node) {
+		final int id = node.getNode().getID();
+		if (id == Integer.MAX_VALUE) {
+			return Units.Storage.of(rootWeight).format(rootWeight);
+		} else if (isBucket(id)) {
+			final int bucket = ~id - firstBucketID;
+			final Group group = bucketClasses[bucket];
+			final long start = getBucketStart(group, bucket);
+			final long weight = getBucketWeight(group, bucket);
+			return NLS.bind(Messages.STR_INSTANCE_BUCKET, new Object[] { group.name, Long.valueOf(start+1), Long.valueOf(getBucketStart(group, bucket+1)), Units.Storage.of(weight).format(weight) });
+		} else if (id < 0) {
+			final Group group = getGroup(id);
+			return NLS.bind(Messages.STR_CLASS_GROUP, new Object[] { group.name, Long.valueOf(group.count), Units.Storage.of(group.weight).format(group.weight) });
+		}
+		return labels.get(id);
+	}
+
+	@Override
+	public Iterator<ISnapshotNode> getChildren(final ISnapshotNode node) {
+		final int id = node.getID();
+		if (id == Integer.MAX_VALUE) {
+			return new NodeIterator(rootChildren, this);
+		} else if (id >= 0) {
+			return EMPTY_ITERATOR;
+		}
+		try {
+			if (isBucket(id)) {
+				final int bucket = ~id - firstBucketID;
+				final Group group = bucketClasses[bucket];
+				final int[] all = getSortedInstances(group);
+				// the histogram and the instances should agree, but do not rely on it
+				final int end = (int) Math.min(getBucketStart(group, bucket+1), all.length);
+				final int start = (int) Math.min(getBucketStart(group, bucket), end);
+				final int[] ids = new int[end-start];
+				System.arraycopy(all, start, ids, 0, ids.length);
+				return new NodeIterator(sortBySize(ids), this);
+			}
+			final Group group = getGroup(id);
+			if (group.classId == NONE) {
+				return new NodeIterator(group.children, this);
+			} else if (group.firstBucket != NONE) {
+				return new NodeIterator(getBuckets(group), this);
+			}
+			return new NodeIterator(sortBySize(((IClass) snapshot.getObject(group.classId)).getObjectIds()), this);
+		} catch (SnapshotException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public ISnapshotNode getParent(final ISnapshotNode node) {
+		final int id = node.getID();
+		if (id == Integer.MAX_VALUE) {
+			return null;
+		} else if (isBucket(id)) {
+			return bucketClasses[~id - firstBucketID].node;
+		} else if (id < 0) {
+			final int parent = getGroup(id).parent;
+			return parent!=NONE?groups[parent].node:getRoot();
+		}
+		try {
+			final Group group = groupsById.get(Integer.valueOf(~snapshot.getClassOf(id).getObjectId()));
+			if (group == null) {
+				return getRoot();
+			} else if (group.firstBucket != NONE) {
+				final int pos = Arrays.binarySearch(getSortedInstances(group), id);
+				return pos>=0?createNode(~(firstBucketID+group.firstBucket+pos/BUCKET_SIZE)):group.node;
+			}
+			return group.node;
+		} catch (SnapshotException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public ISnapshotNode getRoot() {
+		return nodes.get(Integer.MAX_VALUE);
+	}
+
+	@Override
+	public boolean hasChildren(final ISnapshotNode node) {
+		final int id = node.getID();
+		return id == Integer.MAX_VALUE?rootChildren.length > 0:id < 0;
+	}
+
+	@Override
+	public long getWeight(final ISnapshotNode node) {
+		final int id = node.getID();
+		if (id == Integer.MAX_VALUE) {
+			return rootWeight;
+		} else if (isBucket(id)) {
+			final int bucket = ~id - firstBucketID;
+			return getBucketWeight(bucketClasses[bucket], bucket);
+		} else if (id < 0) {
+			return getGroup(id).weight;
+		}
+		try {
+			return snapshot.getHeapSize(id);
+		} catch (SnapshotException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public ISnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	@Override
+	// non-javadoc: see interface; groups are sorted when creating the model, buckets and instances when expanding a class
+	public boolean isSortedByWeight() {
+		return true;
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public int getClassId(final ISnapshotNode node) throws SnapshotException {
+		if (node instanceof OthersNodeImpl) {
+			// merged instances of a class or a bucket, or merged groups
+			final int parent = ((OthersNodeImpl) node).getParent().getID();
+			return isBucket(parent) || (parent < 0 && parent != Integer.MIN_VALUE && getGroup(parent).classId != NONE)?getClassId(createNode(parent)):NONE;
+		}
+		final int id = node.getID();
+		if (isBucket(id)) {
+			return bucketClasses[~id - firstBucketID].classId;
+		} else if (id >= 0 || id == Integer.MIN_VALUE) {
+			return NONE;
+		}
+		final Group group = getGroup(id);
+		if (group.classId != NONE) {
+			return group.classId;
+		}
+		return group.objectId!=NONE?snapshot.getClassOf(group.objectId).getObjectId():NONE;
+	}
+
+	/**
+	 * Returns the snapshot node with the given ID, taken from a
+	 * bounded cache of recently used nodes for objects.
+	 * @param id the ID to use for the node
+	 * @return the node, never <code>null</code>.
+	 */
+	protected ISnapshotNode createNode(final int id) {
+		return id>=0||isBucket(id)?nodes.get(id):getGroup(id).node;
+	}
+
+	/**
+	 * Indicates whether the given node ID is the one of a bucket.
+	 * @param id the node ID
+	 * @return <code>true</code> if the ID is the one of a bucket.
+	 */
+	protected boolean isBucket(final int id) {
+		final int bucket = ~id - firstBucketID;
+		return id < 0 && bucket >= 0 && bucket < bucketClasses.length;
+	}
+
+	/**
+	 * Returns the position of the first instance of a bucket among the
+	 * instances of its class.
+	 * @param group the class of the bucket
+	 * @param bucket the position of the bucket among all buckets; the
+	 * position after the last bucket of the class gives the number of instances.
+	 * @return the position of the first instance
+	 */
+	protected static long getBucketStart(final Group group, final int bucket) {
+		return Math.min((long) (bucket-group.firstBucket)*BUCKET_SIZE, group.count);
+	}
+
+	/**
+	 * Returns the weight of a bucket: its share of the weight of its class,
+	 * dividing the weight evenly among the instances. The weights of the
+	 * buckets of a class add up to the weight of the class.
+	 * @param group the class of the bucket
+	 * @param bucket the position of the bucket among all buckets
+	 * @return the weight of the bucket
+	 */
+	protected static long getBucketWeight(final Group group, final int bucket) {
+		return getShare(group, getBucketStart(group, bucket+1)) - getShare(group, getBucketStart(group, bucket));
+	}
+
+	/**
+	 * Returns the share of the weight of a class of the given number of its
+	 * instances, rounded down.
+	 * @param group the class
+	 * @param instances the number of instances, at most the number of instances of the class
+	 * @return the share of the weight
+	 */
+	private static long getShare(final Group group, final long instances) {
+		final long each = group.weight / group.count;
+		final long rest = group.weight % group.count;
+		// rest*instances < count^2 does not overflow
+		return each*instances + rest*instances/group.count;
+	}
+
+	/**
+	 * Returns the node IDs of the buckets of a class by descending weight.
+	 * @param group the class, must have buckets
+	 * @return the node IDs, never <code>null</code>.
+	 */
+	protected int[] getBuckets(final Group group) {
+		final int count = (int) ((group.count+BUCKET_SIZE-1)/BUCKET_SIZE);
+		final int[] ids = new int[count];
+		final long[] weights = new long[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = ~(firstBucketID+group.firstBucket+i);
+			weights[i] = getBucketWeight(group, group.firstBucket+i);
+		}
+		return sort(ids, weights);
+	}
+
+	/**
+	 * Returns the IDs of the instances of a class with buckets by ascending
+	 * ID. The IDs of the class expanded last are kept, as its buckets are
+	 * usually expanded one after the other.
+	 * @param group the class, must not be <code>null</code>.
+	 * @return the instance IDs, never <code>null</code>.
+	 * @throws SnapshotException in case of error
+	 */
+	protected int[] getSortedInstances(final Group group) throws SnapshotException {
+		final Instances last = lastInstances;
+		if (last != null && last.classId == group.classId) {
+			return last.ids;
+		}
+		final int[] ids = ((IClass) snapshot.getObject(group.classId)).getObjectIds();
+		Arrays.sort(ids);
+		lastInstances = new Instances(group.classId, ids);
+		return ids;
+	}
+
+	/**
+	 * Returns the group with the given node ID.
+	 * @param id the node ID of the group
+	 * @return the group, never <code>null</code>.
+	 */
+	protected Group getGroup(final int id) {
+		final Group group = groupsById.get(Integer.valueOf(id));
+		if (group == null) {
+			throw new IllegalArgumentException(Integer.toString(id));
+		}
+		return group;
+	}
+
+	/**
+	 * Sorts the IDs of instances by descending size. Most instances of a
+	 * class have the same size, except for arrays and classes, so the IDs
+	 * are only sorted if needed.
+	 * @param ids the instance IDs, must not be <code>null</code>; sorted in place.
+	 * @return the instance IDs, never <code>null</code>.
+	 * @throws SnapshotException in case of error
+	 */
+	protected int[] sortBySize(final int[] ids) throws SnapshotException {
+		final long[] sizes = new long[ids.length];
+		boolean sorted = true;
+		for (int i = 0; i < ids.length; i++) {
+			sizes[i] = snapshot.getHeapSize(ids[i]);
+			sorted &= i == 0 || sizes[i] <= sizes[i-1];
+		}
+		return sorted?ids:sort(ids, sizes);
+	}
+
+	/**
+	 * Sorts node IDs by descending weight; nodes of equal weight keep
+	 * their order (quick sort, finished off by insertion sort).
+	 * @param ids the node IDs, must not be <code>null</code>; sorted in place.
+	 * @param weights the weight of each node, must not be <code>null</code>;
+	 * sorted along with the IDs.
+	 * @return the node IDs, never <code>null</code>.
+	 */
+	protected static int[] sort(final int[] ids, final long[] weights) {
+		final int[] order = new int[ids.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		sort(order, weights, 0, order.length);
+		final int[] sortedIds = ids.clone();
+		final long[] sortedWeights = weights.clone();
+		for (int i = 0; i < order.length; i++) {
+			ids[i] = sortedIds[order[i]];
+			weights[i] = sortedWeights[order[i]];
+		}
+		return ids;
+	}
+
+	/**
+	 * Sorts a range of positions by descending weight and ascending position.
+	 * @param order the positions
+	 * @param weights the weight of each position
+	 * @param from the start of the range (inclusive)
+	 * @param to the end of the range (exclusive)
+	 */
+	private static void sort(final int[] order, final long[] weights, int from, int to) {
+		while (to - from > INSERTION_SORT_LIMIT) {
+			final int mid = (from + to)>>>1;
+			// median of three as pivot
+			if (before(weights, order[mid], order[from])) {
+				swap(order, mid, from);
+			}
+			if (before(weights, order[to-1], order[mid])) {
+				swap(order, to-1, mid);
+				if (before(weights, order[mid], order[from])) {
+					swap(order, mid, from);
+				}
+			}
+			final int pivot = order[mid];
+			int i = from;
+			int j = to - 1;
+			while (i <= j) {
+				while (before(weights, order[i], pivot)) {
+					i++;
+				}
+				while (before(weights, pivot, order[j])) {
+					j--;
+				}
+				if (i <= j) {
+					swap(order, i++, j--);
+				}
+			}
+			// recurse into the smaller part, loop on the bigger one
+			if (j - from < to - i) {
+				sort(order, weights, from, j+1);
+				from = i;
+			} else {
+				sort(order, weights, i, to);
+				to = j + 1;
+			}
+		}
+		for (int i = from + 1; i < to; i++) {
+			final int p = order[i];
+			int j = i - 1;
+			while (j >= from && before(weights, p, order[j])) {
+				order[j+1] = order[j];
+				j--;
+			}
+			order[j+1] = p;
+		}
+	}
+
+	/**
+	 * Indicates whether a position goes before another one in the sorted order.
+	 * @param weights the weight of each position
+	 * @param a the first position
+	 * @param b the second position
+	 * @return <code>true</code> if the first position is heavier, or
+	 * equally heavy and lower.
+	 */
+	private static boolean before(final long[] weights, final int a, final int b) {
+		return weights[a] > weights[b] || (weights[a] == weights[b] && a < b);
+	}
+
+	/**
+	 * Swaps two positions.
+	 * @param order the positions
+	 * @param i the first index
+	 * @param j the second index
+	 */
+	private static void swap(final int[] order, final int i, final int j) {
+		final int t = order[i];
+		order[i] = order[j];
+		order[j] = t;
+	}
+
+	/**
+	 * Sorts group positions by descending weight of the groups.
+	 * @param positions the positions of the groups, must not be <code>null</code>.
+	 * @param groups all groups, must not be <code>null</code>.
+	 * @return the sorted positions, never <code>null</code>.
+	 */
+	protected static int[] sort(final List<Integer> positions, final Group[] groups) {
+		Collections.sort(positions, new Comparator<Integer>() {
+			public int compare(final Integer a, final Integer b) {
+				final long wa = groups[a.intValue()].weight;
+				final long wb = groups[b.intValue()].weight;
+				return wa > wb ? -1 : (wa < wb ? 1 : a.compareTo(b));
+			}
+		});
+		final int[] result = new int[positions.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = groups[positions.get(i).intValue()].id;
+		}
+		return result;
+	}
+
+	/**
+	 * A package, class loader or class of the model.
+	 */
+	protected static class Group {
+
+		protected final String name;
+		protected final int parent;
+		protected final int objectId;
+		protected final int classId;
+		protected long weight;
+		protected long count;
+		protected int id;
+		/** the position of the first bucket of a class, <code>NONE</code> if the instances are not split */
+		protected int firstBucket = NONE;
+		protected ISnapshotNode node;
+		/** the node IDs of the child groups, once sorted */
+		protected int[] children;
+		private List<Integer> positions;
+
+		/**
+		 * Creates the group.
+		 * @param aName the name of the group, must not be <code>null</code>.
+		 * @param aParent the position of the parent group, <code>NONE</code>
+		 * for groups directly below the root
+		 * @param anObjectId the ID of the class or class loader the group stands
+		 * for, <code>NONE</code> for packages
+		 * @param aClassId the ID of the class whose instances are the children
+		 * of the group, <code>NONE</code> if the children are groups
+		 */
+		protected Group(final String aName, final int aParent, final int anObjectId, final int aClassId) {
+			name = aName;
+			parent = aParent;
+			objectId = anObjectId;
+			classId = aClassId;
+		}
+
+		/**
+		 * Sets the node ID of the group.
+		 * @param anID the node ID, negative
+		 */
+		protected void setID(final int anID) {
+			id = anID;
+			node = new SnapshotNodeImpl(anID);
+		}
+
+		/**
+		 * Adds a child group.
+		 * @param position the position of the child group
+		 */
+		protected void add(final int position) {
+			if (positions == null) {
+				positions = new ArrayList<Integer>();
+			}
+			positions.add(Integer.valueOf(position));
+		}
+
+		/**
+		 * Sorts the child groups by descending weight.
+		 * @param groups all groups, must not be <code>null</code>.
+		 */
+		protected void sortChildren(final Group[] groups) {
+			children = positions!=null?sort(positions, groups):new int[0];
+			positions = null;
+		}
+
+	}
+
+	/**
+	 * The IDs of the instances of a class.
+	 */
+	private static class Instances {
+
+		protected final int classId;
+		protected final int[] ids;
+
+		protected Instances(final int aClassId, final int[] someIDs) {
+			classId = aClassId;
+			ids = someIDs;
+		}
+
+	}
+
+	/**
+	 * Node iterator over an array of node IDs. Calls back to
+	 * {@link ClassHierarchyTreeModelImpl#createNode(int)} to create its elements.
+	 */
+	private static class NodeIterator implements Iterator<ISnapshotNode> {
+
+		private final ClassHierarchyTreeModelImpl model;
+		private final int[] ids;
+		private int pos;
+
+		protected NodeIterator(final int[] someIDs, final ClassHierarchyTreeModelImpl aModel) {
+			model = aModel;
+			ids = someIDs;
+			pos = 0;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return pos < ids.length;
+		}
+
+		@Override
+		public ISnapshotNode next() {
+			if (pos == ids.length) {
+				throw new NoSuchElementException();
+			}
+			return model.createNode(ids[pos++]);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
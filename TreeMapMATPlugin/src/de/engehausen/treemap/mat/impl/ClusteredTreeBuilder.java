@@ -0,0 +1,178 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.collect.BitField;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.util.IProgressListener;
+
+import de.engehausen.treemap.mat.Messages;
+
+/**
+ * Builds the <code>parent</code> and <code>weight</code> arrays of a
+ * {@link WeightedSnapshotTreeModelImpl} visiting the objects in an order
+ * that reads the snapshot's outbound index mostly sequentially.
+ * <p>The IDs space is split into blocks of consecutive IDs, each with its
+ * own queue of discovered objects. The builder sweeps over the blocks in
+ * ascending order and expands all queued objects of a block at once, in
+ * ascending ID order; objects discovered in the current or a later block
+ * are expanded in the same sweep, objects discovered in an earlier block
+ * in the next one. A node becomes the child of the node which discovers
+ * it first, so the result is a valid spanning tree. All GC roots are
+ * claimed up front and become children of the virtual root node.
+ * <p>The <code>weight</code> array must hold the heap size of each object
+ * when the build starts. The subtree weights are summed up afterwards by
+ * replaying the expansion order backwards, as every node is expanded after
+ * its parent; the order takes a temporary <code>int</code> per object,
+ * taken from the same array storage as the model's arrays.
+ */
+public class ClusteredTreeBuilder {
+
+	/** number of IDs per block, as a power of two */
+	private static final int BLOCK_SHIFT = 12;
+	/** number of expanded nodes per progress step */
+	private static final int PROGRESS_SHIFT = 12;
+
+	protected final ISnapshot snapshot;
+	protected final IIntArray parent;
+	protected final ILongArray weight;
+	protected final IArrayStorage storage;
+
+	/** the queue of each block, <code>null</code> if empty */
+	private final IntStack[] queues;
+	/** one bit per block with a non-empty queue */
+	private final long[] nonEmpty;
+	private final IndexPageStatistics pages;
+
+	/**
+	 * Creates the builder.
+	 * @param aSnapshot the snapshot to traverse, must not be <code>null</code>.
+	 * @param parents the array receiving the parent ID of each node, must not be <code>null</code>.
+	 * @param weights the array holding the heap size of each node and receiving
+	 * the subtree weight of each node, must not be <code>null</code>.
+	 * @param aStorage the storage to create temporary arrays in, must not be <code>null</code>.
+	 */
+	public ClusteredTreeBuilder(final ISnapshot aSnapshot, final IIntArray parents, final ILongArray weights, final IArrayStorage aStorage) {
+		snapshot = aSnapshot;
+		parent = parents;
+		weight = weights;
+		storage = aStorage;
+		final int blocks = (parents.length()>>BLOCK_SHIFT)+1;
+		queues = new IntStack[blocks];
+		nonEmpty = new long[(blocks>>6)+1];
+		pages = new IndexPageStatistics(parents.length());
+	}
+
+	/**
+	 * Traverses the graph and computes the subtree weights.
+	 * This method must only be called once.
+	 * @param progress the progress listener
+	 * @throws SnapshotException in case of error or cancellation
+	 */
+	public void build(final IProgressListener progress) throws SnapshotException {
+		final int size = parent.length();
+		progress.beginTask(Messages.STR_CONVERT_GRAPH_TREE, (size>>PROGRESS_SHIFT)+1);
+		final IIntArray order;
+		try {
+			order = storage.createIntArray(size);
+		} catch (IOException e) {
+			throw new SnapshotException(e);
+		}
+		final BitField visited = new BitField(size);
+		final int[] gcroots = snapshot.getGCRoots();
+		for (int i = 0; i < gcroots.length; i++) {
+			final int root = gcroots[i];
+			if (!visited.get(root)) {
+				visited.set(root);
+				parent.set(root, Integer.MAX_VALUE); // roots have no parent
+				enqueue(root);
+			}
+		}
+		int count = 0;
+		int block = nextBlock(0);
+		while (block >= 0) {
+			final IntStack queue = queues[block];
+			final int[] batch = queue.removeBottom(queue.size());
+			queues[block] = null;
+			nonEmpty[block>>6] &= ~(1L<<block);
+			Arrays.sort(batch);
+			for (int i = 0; i < batch.length; i++) {
+				final int node = batch[i];
+				order.set(count++, node);
+				pages.lookup(node);
+				final int[] children = snapshot.getOutboundReferentIds(node);
+				for (int j = 0; j < children.length; j++) {
+					final int c = children[j];
+					if (!visited.get(c)) {
+						visited.set(c);
+						parent.set(c, node);
+						enqueue(c);
+					}
+				}
+				if ((count&((1<<PROGRESS_SHIFT)-1)) == 0) {
+					progress.worked(1);
+					if (progress.isCanceled()) {
+						throw new SnapshotException(Messages.STR_COMP_CANCELLED);
+					}
+				}
+			}
+			// continue with the same block if new nodes were queued there
+			block = nextBlock(block);
+			if (block < 0) {
+				// next sweep
+				block = nextBlock(0);
+			}
+		}
+		// every node was expanded after its parent
+		for (int i = count - 1; i >= 0; i--) {
+			final int node = order.get(i);
+			final int p = parent.get(node);
+			if (p != Integer.MAX_VALUE) {
+				weight.set(p, weight.get(p)+weight.get(node));
+			}
+		}
+	}
+
+	/**
+	 * Returns the statistics of the lookups of the outbound index.
+	 * @return the statistics, never <code>null</code>.
+	 */
+	public IndexPageStatistics getPageStatistics() {
+		return pages;
+	}
+
+	/**
+	 * Queues a node in the queue of its block.
+	 * @param node the node
+	 */
+	private void enqueue(final int node) {
+		final int block = node>>BLOCK_SHIFT;
+		IntStack queue = queues[block];
+		if (queue == null) {
+			queue = new IntStack(16);
+			queues[block] = queue;
+		}
+		queue.push(node);
+		nonEmpty[block>>6] |= 1L<<block;
+	}
+
+	/**
+	 * Returns the first block with a non-empty queue, starting at the given block.
+	 * @param from the block to start at
+	 * @return the block, or <code>-1</code> if all queues from the given block on are empty.
+	 */
+	private int nextBlock(final int from) {
+		int word = from>>6;
+		long bits = nonEmpty[word] & (-1L<<from);
+		while (bits == 0) {
+			if (++word == nonEmpty.length) {
+				return -1;
+			}
+			bits = nonEmpty[word];
+		}
+		return (word<<6) + Long.numberOfTrailingZeros(bits);
+	}
+
+}
@@ -1,9 +1,9 @@
 package de.engehausen.treemap.mat.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.StringTokenizer;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -17,39 +17,38 @@ import de.engehausen.treemap.mat.preferences.PreferenceConstants;
  * run time of a tree map pane at the same time.
  * <br>It is somewhat string based, since all rules and colors need to
  * be stored in a single string in the preferences.
+ * <p>A matcher is immutable: its elements are validated and compiled
+ * when it is created, and it can be used by several threads at the same
+ * time. Elements with invalid regular expressions never match; they are
+ * reported by {@link #getInvalidElements()}.
  */
 public class ColorMatcher {
 
-	/** list of color elements (expression->rgb "mappings") */
-	protected List<ColorElement> elements;
+	/** list of color elements (expression->rgb "mappings"), unmodifiable */
+	protected final List<ColorElement> elements;
 	/** default color */
-	protected RGB defaultColor;
+	protected final RGB defaultColor;
+	/** the compiled elements */
+	protected final ColorRules rules;
 
 	/**
-	 * Creates the matcher with the preferences' default color.
+	 * Creates the matcher with the preferences' default color
+	 * and no elements.
 	 */
 	protected ColorMatcher() {
-		this(PreferenceConstants.DEFAULT_COLOR);
-	}
-	
-	/**
-	 * Creates the matcher using the given color (a triplet of
-	 * red-green-blue, 8 bits each).
-	 * @param colorRGB the default color
-	 */
-	protected ColorMatcher(final int colorRGB) {
-		this(new RGB(colorRGB>>16&0xff,
-	                 colorRGB>> 8&0xff,
-	                 colorRGB    &0xff));		
+		this(PreferenceConstants.DEFAULT_COLOR, Collections.<ColorElement>emptyList());
 	}
 
 	/**
-	 * Creates the matcher using the given default color.
-	 * @param colorRGB the default color
+	 * Creates the matcher using the given default color and elements.
+	 * @param color the default color
+	 * @param someElements the color elements, in the order they are
+	 * to be matched; must not be <code>null</code>.
 	 */
-	protected ColorMatcher(final RGB color) {
-		elements = new ArrayList<ColorElement>(20);
+	protected ColorMatcher(final RGB color, final List<ColorElement> someElements) {
+		elements = Collections.unmodifiableList(new ArrayList<ColorElement>(someElements));
 		defaultColor = color;
+		rules = new ColorRules(elements);
 	}
 
 	/**
@@ -61,29 +60,39 @@ public class ColorMatcher {
 	}
 
 	/**
-	 * Sets the default color.
+	 * Returns a matcher with the same elements as this one, but
+	 * the given default color.
 	 * @param color the default color.
+	 * @return the matcher, never <code>null</code>.
 	 */
-	public void setDefaultColor(final RGB color) {
-		defaultColor = color;
+	public ColorMatcher withDefaultColor(final RGB color) {
+		return new ColorMatcher(color, elements);
 	}
 
 	/**
-	 * Sets the default color, represented as a hex string
-	 * (triplet of 8-bit red-green-blue values).
-	 * @param color the color string, must not be <code>null</code>.
+	 * Returns all color elements the matcher holds.
+	 * @return the color elements of the matcher, unmodifiable and
+	 * never <code>null</code>.
 	 */
-	public void setDefaultColor(final String color) {
-		final int c = Integer.parseInt(color, 16);
-		setDefaultColor(new RGB(c>>16&0xff,c>>8&0xff,c&0xff));
+	public List<ColorElement> getElements() {
+		return elements;
 	}
 
 	/**
-	 * Returns all color elements the matcher holds.
-	 * @return the color elements of the matcher, never <code>null</code>.
+	 * Returns the color elements whose regular expression is invalid.
+	 * These elements never match.
+	 * @return the invalid elements, never <code>null</code>.
 	 */
-	public List<ColorElement> getElements() {
-		return elements;
+	public List<ColorElement> getInvalidElements() {
+		final List<ColorElement> result = new ArrayList<ColorElement>();
+		final int max = elements.size();
+		for (int i = 0; i < max; i++) {
+			final ColorElement e = elements.get(i);
+			if (!e.isValid()) {
+				result.add(e);
+			}
+		}
+		return result;
 	}
 
 	/**
@@ -99,17 +108,28 @@ public class ColorMatcher {
 	 * @return a color matcher, never <code>null</code>.
 	 */
 	public static ColorMatcher from(final String str) {
-		final ColorMatcher result = new ColorMatcher();
 		final StringTokenizer tok = new StringTokenizer(str, "\t"); //$NON-NLS-1$
-		result.setDefaultColor(tok.nextToken());
+		final RGB color = toRGB(Integer.parseInt(tok.nextToken(), 16));
+		final List<ColorElement> list = new ArrayList<ColorElement>(20);
 		while (tok.hasMoreTokens()) {
 			try {
-				result.elements.add(new ColorElement(Integer.parseInt(tok.nextToken(), 16), tok.nextToken(), tok.nextToken()));
+				list.add(new ColorElement(Integer.parseInt(tok.nextToken(), 16), tok.nextToken(), tok.nextToken()));
 			} catch (NumberFormatException e) {
 				break;
 			}
 		}
-		return result;
+		return new ColorMatcher(color, list);
+	}
+
+	/**
+	 * Converts a triplet of 8-bit red-green-blue values into a color.
+	 * @param color the color as an integer
+	 * @return the color, never <code>null</code>.
+	 */
+	protected static RGB toRGB(final int color) {
+		return new RGB(color>>16&0xff,
+		               color>> 8&0xff,
+		               color    &0xff);
 	}
 	
 	/**
@@ -135,32 +155,41 @@ public class ColorMatcher {
 	/**
 	 * Matches the given string against the first matching {@link ColorElement}
 	 * in the list of color elements. If none match, the default color is returned.
+	 * This method can be called by several threads at the same time.
 	 * @param string the string to match; must not be <code>null</code>.
 	 * @return the matching color, never <code>null</code>.
 	 */
 	public RGB match(final String string) {
-		// if this turns out to be too expensive, a cache
-		// might be introduced (string->rgb), since there
-		// should not be too many classes 
-		final int max = elements.size();
-		for (int i = 0; i < max; i++) {
-			final ColorElement e = elements.get(i);
-			if (e.match(string)) {
-				return e.getRGB();
-			}
-		}
-		return defaultColor;
+		final int index = matchIndex(string);
+		return index>=0?elements.get(index).getRGB():defaultColor;
+	}
+
+	/**
+	 * Returns the index of the first {@link ColorElement} matching the
+	 * given string. The elements are compiled into {@link ColorRules}
+	 * when the matcher is created, so the time taken hardly depends on
+	 * the number of sub-string elements.
+	 * @param string the string to match; must not be <code>null</code>.
+	 * @return the index of the matching element, or <code>-1</code> if none matches.
+	 */
+	public int matchIndex(final String string) {
+		return rules.matchIndex(string);
 	}
 
 	/**
-	 * Color element describing a pattern/sub-string and color.
+	 * Color element describing a pattern/sub-string and color. Regular
+	 * expressions are compiled when the element is created; the element
+	 * is immutable.
 	 */
 	public static class ColorElement {
 		
-		protected RGB rgb;
-		protected String pattern;
-		protected boolean regexp;
-		private Matcher matcher;
+		protected final RGB rgb;
+		protected final String pattern;
+		protected final boolean regexp;
+		/** the compiled regular expression, <code>null</code> for sub-strings and invalid expressions */
+		protected final Pattern compiled;
+		/** the description of the syntax error of an invalid regular expression */
+		protected final String error;
 
 		/**
 		 * Creates the color element
@@ -170,11 +199,20 @@ public class ColorMatcher {
 		 * the the pattern is just a sub-string used in the matching.
 		 */
 		protected ColorElement(final int color, final String p, final String isRegExp) {
-			rgb = new RGB(color>>16&0xff,
-			              color>> 8&0xff,
-			              color    &0xff);
+			rgb = toRGB(color);
 			pattern = p;
 			regexp = Boolean.parseBoolean(isRegExp);
+			Pattern compiledPattern = null;
+			String syntaxError = null;
+			if (regexp) {
+				try {
+					compiledPattern = Pattern.compile(p);
+				} catch (PatternSyntaxException e) {
+					syntaxError = e.getDescription();
+				}
+			}
+			compiled = compiledPattern;
+			error = syntaxError;
 		}
 
 		/**
@@ -211,29 +249,45 @@ public class ColorMatcher {
 			return regexp;
 		}
 
+		/**
+		 * Indicates whether the element is valid, i.e. is a sub-string or
+		 * a regular expression that compiles.
+		 * @return <code>true</code> if the element is valid.
+		 */
+		public boolean isValid() {
+			return error == null;
+		}
+
+		/**
+		 * Returns the description of the syntax error of an invalid
+		 * regular expression.
+		 * @return the description, <code>null</code> if the element is valid.
+		 */
+		public String getError() {
+			return error;
+		}
+
+		/**
+		 * Returns the compiled regular expression of the element.
+		 * @return the compiled expression, <code>null</code> if the element
+		 * is a sub-string or invalid.
+		 */
+		protected Pattern getCompiledPattern() {
+			return compiled;
+		}
+
 		/**
 		 * Indicates whether the given string matchers the pattern of the
 		 * color element. If {@link #isRegExp()} returns <code>false</code>,
 		 * the match is a simple sub-string check against the "pattern".
+		 * An invalid regular expression never matches.
 		 * @param str the string to match, must not be <code>null</code>.
 		 * @return <code>true</code> if the string matches, <code>false</code>
 		 * otherwise.
 		 */
 		public boolean match(final String str) {
 			if (regexp) {
-				if (matcher == null) {
-					try {
-						matcher = Pattern.compile(pattern).matcher(str);						
-					} catch (PatternSyntaxException e) {
-						// cannot compile pattern, don't try again,
-						// just treat as substring match (which probably won't work...)
-						regexp = false;
-						return false;
-					}
-				} else {
-					matcher.reset(str);
-				}
-				return matcher.matches();
+				return compiled != null && compiled.matcher(str).matches();
 			} else {
 				return str.indexOf(pattern) >= 0;
 			}
@@ -0,0 +1,177 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The rules of a {@link ColorMatcher} compiled for fast matching. All
+ * sub-string rules are combined into one Aho-Corasick automaton, which
+ * finds the first matching sub-string rule in a single pass over the
+ * string, however many rules there are. The regular expressions are
+ * compiled once; only those of rules before the first matching sub-string
+ * rule need to be tried, in rule order, so the first matching rule wins
+ * as before.
+ * <p>The automaton is a complete transition table over the characters
+ * occurring in the sub-strings; all other characters share one column.
+ * For each state, the table also holds the lowest index of the rules whose
+ * sub-strings end in that state.
+ * <p>The rules are immutable once compiled and can be used by several
+ * threads at the same time.
+ */
+public class ColorRules {
+
+	/** marks a state in which no sub-string ends */
+	private static final int NONE = Integer.MAX_VALUE;
+	/** number of characters mapped through a direct lookup */
+	private static final int ASCII = 128;
+
+	/** the column of each ASCII character */
+	private final int[] asciiColumns;
+	/** the non-ASCII characters occurring in the sub-strings, sorted */
+	private final char[] otherChars;
+	/** number of columns of the transition table */
+	private final int columns;
+	/** transition table, <code>columns</code> entries per state */
+	private final int[] transitions;
+	/** lowest index of the rules matching in each state */
+	private final int[] firstRule;
+	/** the indices of the regular expression rules, ascending */
+	private final int[] regexpRules;
+	/** the compiled regular expressions, <code>null</code> if invalid */
+	private final Pattern[] regexps;
+
+	/**
+	 * Compiles the given rules.
+	 * @param elements the rules, in the order they are to be applied; must not be <code>null</code>.
+	 */
+	public ColorRules(final List<ColorMatcher.ColorElement> elements) {
+		final int max = elements.size();
+		final List<Integer> regexpIndices = new ArrayList<Integer>();
+		final List<Pattern> patterns = new ArrayList<Pattern>();
+		// alphabet of the sub-strings
+		asciiColumns = new int[ASCII];
+		final StringBuilder others = new StringBuilder();
+		int count = 1; // column 0 is for all other characters
+		for (int i = 0; i < max; i++) {
+			final ColorMatcher.ColorElement e = elements.get(i);
+			if (e.isRegExp()) {
+				continue;
+			}
+			final String p = e.getPattern();
+			for (int j = p.length() - 1; j >= 0; j--) {
+				final char c = p.charAt(j);
+				if (c < ASCII) {
+					if (asciiColumns[c] == 0) {
+						asciiColumns[c] = count++;
+					}
+				} else if (others.indexOf(String.valueOf(c)) < 0) {
+					others.append(c);
+				}
+			}
+		}
+		otherChars = others.toString().toCharArray();
+		Arrays.sort(otherChars);
+		columns = count + otherChars.length;
+		// build the trie of the sub-strings
+		int[] trie = new int[columns*16];
+		int[] rules = new int[16];
+		Arrays.fill(rules, NONE);
+		int states = 1;
+		for (int i = 0; i < max; i++) {
+			final ColorMatcher.ColorElement e = elements.get(i);
+			if (e.isRegExp()) {
+				regexpIndices.add(Integer.valueOf(i));
+				patterns.add(e.getCompiledPattern());
+				continue;
+			}
+			final String p = e.getPattern();
+			int state = 0;
+			for (int j = 0; j < p.length(); j++) {
+				final int idx = state*columns + column(p.charAt(j));
+				if (trie[idx] == 0) {
+					if (states*columns == trie.length) {
+						trie = Arrays.copyOf(trie, trie.length*2);
+						rules = Arrays.copyOf(rules, rules.length*2);
+						Arrays.fill(rules, states, rules.length, NONE);
+					}
+					trie[idx] = states++;
+				}
+				state = trie[idx];
+			}
+			rules[state] = Math.min(rules[state], i);
+		}
+		// turn the trie into the automaton, breadth-first
+		transitions = Arrays.copyOf(trie, states*columns);
+		firstRule = Arrays.copyOf(rules, states);
+		final int[] fail = new int[states];
+		final int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+		for (int c = 0; c < columns; c++) {
+			final int s = transitions[c];
+			if (s != 0) {
+				queue[tail++] = s;
+			}
+		}
+		while (head < tail) {
+			final int state = queue[head++];
+			firstRule[state] = Math.min(firstRule[state], firstRule[fail[state]]);
+			for (int c = 0; c < columns; c++) {
+				final int idx = state*columns + c;
+				final int s = transitions[idx];
+				final int fallback = transitions[fail[state]*columns + c];
+				if (s != 0) {
+					fail[s] = fallback;
+					queue[tail++] = s;
+				} else {
+					transitions[idx] = fallback;
+				}
+			}
+		}
+		regexpRules = new int[regexpIndices.size()];
+		for (int i = 0; i < regexpRules.length; i++) {
+			regexpRules[i] = regexpIndices.get(i).intValue();
+		}
+		regexps = patterns.toArray(new Pattern[patterns.size()]);
+	}
+
+	/**
+	 * Returns the index of the first rule matching the given string.
+	 * @param string the string to match; must not be <code>null</code>.
+	 * @return the index of the matching rule, or <code>-1</code> if none matches.
+	 */
+	public int matchIndex(final String string) {
+		int best = firstRule[0];
+		int state = 0;
+		final int max = string.length();
+		for (int i = 0; i < max; i++) {
+			state = transitions[state*columns + column(string.charAt(i))];
+			if (firstRule[state] < best) {
+				best = firstRule[state];
+			}
+		}
+		for (int i = 0; i < regexpRules.length && regexpRules[i] < best; i++) {
+			if (regexps[i] != null && regexps[i].matcher(string).matches()) {
+				return regexpRules[i];
+			}
+		}
+		return best!=NONE?best:-1;
+	}
+
+	/**
+	 * Returns the column of the transition table for the given character.
+	 * @param c the character
+	 * @return the column, <code>0</code> for characters not occurring
+	 * in any sub-string.
+	 */
+	private int column(final char c) {
+		if (c < ASCII) {
+			return asciiColumns[c];
+		}
+		final int pos = Arrays.binarySearch(otherChars, c);
+		return pos >= 0 ? columns - otherChars.length + pos : 0;
+	}
+
+}
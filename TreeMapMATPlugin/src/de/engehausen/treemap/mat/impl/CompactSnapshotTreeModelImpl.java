@@ -0,0 +1,421 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.util.IProgressListener;
+import org.eclipse.mat.util.IProgressListener.Severity;
+import org.eclipse.mat.util.Units;
+import org.eclipse.osgi.util.NLS;
+
+import de.engehausen.treemap.IRectangle;
+import de.engehausen.treemap.ITreeModel;
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ICachedLabelProvider;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.ISnapshotProvider;
+import de.engehausen.treemap.mat.ISortedTreeModel;
+import de.engehausen.treemap.mat.Messages;
+
+/**
+ * Compact variant of the {@link WeightedSnapshotTreeModelImpl}, representing
+ * the same tree in less memory. Most nodes of the tree are leaves, and the
+ * weight of a leaf is just the heap size of its object, which is read from
+ * the snapshot when needed. Only the inner nodes get a stored weight and
+ * a slot in the child index; a {@link RankedBitSet} marks the inner nodes
+ * and maps their IDs to these slots. The weights of the inner nodes are
+ * stored in 32 bits each, except for the few too heavy for it (see
+ * {@link PackedLongArray}).
+ * <p>No parent IDs are stored: the parent of an object is one of the
+ * objects referencing it, or the virtual root node for a GC root, and as
+ * the children of each node are sorted by descending weight and ascending
+ * ID, whether a node holds the object among its children is found by
+ * binary search (see {@link #findParent(int)}). Asking for the parent thus
+ * reads the referrers of the object from the snapshot, which is slower
+ * than for the full model; the layout only asks for the children.
+ * <p>The finished model needs 4 bytes per object for the children array
+ * plus 8 bytes per inner node, instead of the 20 bytes per object of the
+ * full model; on synthetic object graphs where 57% of the objects have
+ * children, it took 57% less memory, and the fewer objects have children,
+ * the more is saved.
+ * <p>The model is built as a full model first, which is compacted
+ * afterwards, taking over its children array; the other arrays of the full
+ * model are dropped. The arrays come from the same {@link IArrayStorage},
+ * so while compacting, the finished full model and the compacted arrays
+ * are held, which is about as much as the full model needs while its
+ * graph is traversed. It can be given a memory budget which is checked
+ * before the graph is traversed, based on the number of objects in the
+ * snapshot: the budget must hold the finished model, and the arrays are
+ * kept in memory-mapped files while building if the peak exceeds it.
+ * <p>All state of the model is final and set up by its constructor,
+ * so it can be read by several threads at the same time.
+ */
+public class CompactSnapshotTreeModelImpl implements IWeightedTreeModel<ISnapshotNode>, ICachedLabelProvider<ISnapshotNode>, ISnapshotProvider, ISortedTreeModel {
+
+	protected static Iterator<ISnapshotNode> EMPTY_ITERATOR = Collections.<ISnapshotNode>emptyList().iterator();
+	/**
+	 * bytes per object needed at least by the finished model: the entry
+	 * in the children array, assuming that all objects are reachable,
+	 * plus the inner node bits and their ranks
+	 */
+	protected static final double MIN_BYTES_PER_OBJECT = 4 + 1/8d + 1/128d;
+	/**
+	 * bytes per inner node needed by the finished model: the weight, but
+	 * for the few too heavy for 32 bits, and the child index offset
+	 */
+	protected static final long MAX_BYTES_PER_INNER_NODE = 4 + 4;
+	/** bytes per object of the finished full model: the weight, the parent and the child index */
+	protected static final long FULL_BYTES_PER_OBJECT = 8 + 4 + 4 + 4;
+	/** cache key suffix of compact models */
+	private static final String CACHE_KEY = "-compact"; //$NON-NLS-1$
+
+	protected final ISnapshot snapshot;
+	protected final SnapshotNodeCache nodes = new SnapshotNodeCache();
+	protected final LabelCache labels;
+	protected final RankedBitSet inner;
+	protected final PackedLongArray weight;
+	protected final ChildIndex children;
+	protected final long rootWeight;
+
+	/**
+	 * Creates the compact weighted tree model from the snapshot. If a valid
+	 * cached compact model built with the same traversal mode exists, it is
+	 * used instead; otherwise the newly built model is written to the cache.
+	 * @param aSnapshot the snapshot, must not be <code>null</code>.
+	 * @param aMode the traversal mode, must not be <code>null</code>.
+	 * @param aBudget the maximum number of bytes the model may use,
+	 * <code>0</code> for no limit.
+	 * @param aListener the progress listener
+	 * @return the weighted tree model
+	 * @throws SnapshotException in case of error, or if the model will
+	 * not fit into the budget
+	 */
+	public static IWeightedTreeModel<ISnapshotNode> createModel(final ISnapshot aSnapshot, final TraversalMode aMode, final long aBudget, final IProgressListener aListener) throws SnapshotException {
+		final int size = aSnapshot.getSnapshotInfo().getNumberOfObjects();
+		final long minimum = (long) (MIN_BYTES_PER_OBJECT * size);
+		if (aBudget > 0 && minimum > aBudget) {
+			throw new SnapshotException(NLS.bind(Messages.STR_BUDGET_EXCEEDED, Units.Storage.of(minimum).format(minimum), Units.Storage.of(aBudget).format(aBudget)));
+		}
+		final ModelCache cache = new ModelCache(aSnapshot, aMode.name()+CACHE_KEY);
+		if (cache.load()) {
+			final IIntArray[] ints = cache.getInts();
+			final ILongArray[] longs = cache.getLongs();
+			if (ints.length == 5 && longs.length == 2) {
+				aListener.sendUserMessage(Severity.INFO, NLS.bind(Messages.STR_CACHE_LOADED, cache.getFile().getPath()), null);
+				return new CompactSnapshotTreeModelImpl(aSnapshot, new RankedBitSet(longs[0], ints[2]), new PackedLongArray(ints[3], ints[4], longs[1]), new ChildIndex(ints[0], ints[1]));
+			}
+		}
+		// traversing the graph, or the finished full model and the compacted
+		// arrays, assuming every object is an inner node
+		final long peak = Math.max(WeightedSnapshotTreeModelImpl.BYTES_PER_OBJECT * size, (long) ((FULL_BYTES_PER_OBJECT + 1/8d + 1/128d + MAX_BYTES_PER_INNER_NODE) * size));
+		final IArrayStorage storage = WeightedSnapshotTreeModelImpl.chooseStorage(aSnapshot, aBudget, peak, aListener);
+		final WeightedSnapshotTreeModelImpl full = new WeightedSnapshotTreeModelImpl(aSnapshot, aMode, storage);
+		full.initialize(aListener);
+		final CompactSnapshotTreeModelImpl model;
+		try {
+			model = new CompactSnapshotTreeModelImpl(full, storage);
+		} catch (IOException e) {
+			throw new SnapshotException(e);
+		}
+		final long fullBytes = full.getMemoryFootprint();
+		final long bytes = model.getMemoryFootprint();
+		aListener.sendUserMessage(Severity.INFO, NLS.bind(Messages.STR_COMPACT_MODEL_SIZE, Units.Storage.of(bytes).format(bytes), Units.Storage.of(fullBytes).format(fullBytes)), null);
+		if (aBudget > 0 && bytes > aBudget) {
+			aListener.sendUserMessage(Severity.WARNING, NLS.bind(Messages.STR_BUDGET_EXCEEDED, Units.Storage.of(bytes).format(bytes), Units.Storage.of(aBudget).format(aBudget)), null);
+		}
+		try {
+			cache.store(new IIntArray[] { model.children.getOffsets(), model.children.getChildren(), model.inner.getRanks(), model.weight.getData(), model.weight.getOverflowIndices() }, new ILongArray[] { model.inner.getWords(), model.weight.getOverflowValues() });
+		} catch (IOException e) {
+			aListener.sendUserMessage(Severity.WARNING, NLS.bind(Messages.STR_CACHE_WRITE_FAILED, cache.getFile().getPath()), e);
+		}
+		return model;
+	}
+
+	/**
+	 * Creates the compact model from a fully initialized model. The children
+	 * array is taken over; the other arrays of the full model are no longer
+	 * needed afterwards.
+	 * @param full the fully initialized model, must not be <code>null</code>.
+	 * @param storage the storage to create the arrays of the model in, must not be <code>null</code>.
+	 * @throws IOException if the arrays cannot be created
+	 */
+	protected CompactSnapshotTreeModelImpl(final WeightedSnapshotTreeModelImpl full, final IArrayStorage storage) throws IOException {
+		snapshot = full.snapshot;
+		labels = new LabelCache(snapshot);
+		final int size = full.parent.length();
+		final ChildIndex fullIndex = full.children;
+		inner = new RankedBitSet(storage, size);
+		int overflow = 0;
+		for (int i = 0; i < size; i++) {
+			if (fullIndex.hasChildren(i)) {
+				inner.set(i);
+				if (full.weight.get(i) > PackedLongArray.MAX_PACKED_VALUE) {
+					overflow++;
+				}
+			}
+		}
+		inner.buildRanks();
+		final int count = inner.cardinality();
+		weight = new PackedLongArray(storage, count, overflow);
+		// the ranges of the inner nodes are contiguous and in ID order,
+		// followed by the range of the virtual root node
+		final IIntArray offsets = storage.createIntArray(count+2);
+		int rank = 0;
+		for (int i = 0; i < size; i++) {
+			if (inner.get(i)) {
+				offsets.set(rank, fullIndex.getStart(i));
+				weight.set(rank, full.weight.get(i));
+				rank++;
+			}
+		}
+		offsets.set(count, fullIndex.getStart(Integer.MAX_VALUE));
+		offsets.set(count+1, fullIndex.getEnd(Integer.MAX_VALUE));
+		children = new ChildIndex(offsets, fullIndex.getChildren());
+		rootWeight = sumChildren(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates the compact model from previously computed arrays, e.g. as
+	 * loaded from a {@link ModelCache}.
+	 * @param aSnapshot the snapshot the arrays were computed from, must not be <code>null</code>.
+	 * @param someInnerNodes the inner nodes, must not be <code>null</code>.
+	 * @param someWeights the weight of each inner node, in ID order, must not be <code>null</code>.
+	 * @param aChildIndex the index of the children of the inner nodes, by rank, must not be <code>null</code>.
+	 */
+	protected CompactSnapshotTreeModelImpl(final ISnapshot aSnapshot, final RankedBitSet someInnerNodes, final PackedLongArray someWeights, final ChildIndex aChildIndex) {
+		snapshot = aSnapshot;
+		labels = new LabelCache(aSnapshot);
+		inner = someInnerNodes;
+		weight = someWeights;
+		children = aChildIndex;
+		rootWeight = sumChildren(Integer.MAX_VALUE);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getLabel(final ITreeModel<IRectangle<ISnapshotNode>> model, final IRectangle<ISnapshotNode> node) {
+		try {
+			final int id = node.getNode().getID();
+			final String label = labels.get(id);
+			return label!=null?label:labels.create(id, snapshot.getHeapSize(id), getWeight(id));
+		} catch (SnapshotException e) {
+			return "???"; //$NON-NLS-1$
+		}
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getCachedLabel(final IRectangle<ISnapshotNode> node) {
+		return labels.get(node.getNode().getID());
+	}
+
+	@Override
+	public Iterator<ISnapshotNode> getChildren(final ISnapshotNode node) {
+		final int slot = slot(node.getID());
+		if (slot >= 0) {
+			final int start = children.getStart(slot);
+			final int end = children.getEnd(slot);
+			if (start < end) {
+				return new NodeIterator(start, end, this);
+			}
+		}
+		return EMPTY_ITERATOR;
+	}
+
+	@Override
+	public ISnapshotNode getParent(final ISnapshotNode node) {
+		final int id = node.getID();
+		if (id == Integer.MAX_VALUE) {
+			return null;
+		}
+		final int parent = findParent(id);
+		return parent!=-1?createNode(parent):null;
+	}
+
+	@Override
+	public ISnapshotNode getRoot() {
+		return createNode(Integer.MAX_VALUE);
+	}
+
+	@Override
+	public boolean hasChildren(final ISnapshotNode node) {
+		final int id = node.getID();
+		return id!=Integer.MAX_VALUE?inner.get(id):children.hasChildren(id);
+	}
+
+	@Override
+	public long getWeight(final ISnapshotNode node) {
+		return getWeight(node.getID());
+	}
+
+	@Override
+	public ISnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	@Override
+	// non-javadoc: see interface; the child index is sorted by weight
+	public boolean isSortedByWeight() {
+		return true;
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by the arrays of the model.
+	 * @return the approximate number of bytes used by the model.
+	 */
+	public long getMemoryFootprint() {
+		return inner.getMemoryFootprint() + weight.getMemoryFootprint() + children.getMemoryFootprint();
+	}
+
+	/**
+	 * Returns the weight of the given node; for leaves, this is the
+	 * heap size of the object.
+	 * @param id the node ID
+	 * @return the weight of the node.
+	 */
+	protected long getWeight(final int id) {
+		if (id == Integer.MAX_VALUE) {
+			return rootWeight;
+		} else if (inner.get(id)) {
+			return weight.get(inner.rank(id));
+		}
+		try {
+			return snapshot.getHeapSize(id);
+		} catch (SnapshotException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Finds the parent of an object: the virtual root node if the object
+	 * is among its children, otherwise the object referencing it which
+	 * holds it among its children.
+	 * @param id the object ID
+	 * @return the ID of the parent, or <code>-1</code> if the object is not
+	 * part of the tree.
+	 */
+	protected int findParent(final int id) {
+		final long w = getWeight(id);
+		if (isChild(Integer.MAX_VALUE, id, w)) {
+			return Integer.MAX_VALUE;
+		}
+		final int[] referrers;
+		try {
+			referrers = snapshot.getInboundRefererIds(id);
+		} catch (SnapshotException e) {
+			throw new IllegalStateException(e);
+		}
+		for (int i = 0; i < referrers.length; i++) {
+			final int r = referrers[i];
+			if (r != id && inner.get(r) && isChild(r, id, w)) {
+				return r;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Indicates whether a node holds the given object among its children,
+	 * searching its children sorted by descending weight and ascending ID.
+	 * @param parentID the ID of the inner node, or of the virtual root node
+	 * @param id the object ID
+	 * @param w the weight of the object
+	 * @return <code>true</code> if the object is a child of the node.
+	 */
+	private boolean isChild(final int parentID, final int id, final long w) {
+		final int slot = slot(parentID);
+		int low = children.getStart(slot);
+		int high = children.getEnd(slot) - 1;
+		while (low <= high) {
+			final int mid = (low + high)>>>1;
+			final int c = children.getChild(mid);
+			if (c == id) {
+				return true;
+			}
+			final long wc = getWeight(c);
+			if (wc > w || (wc == w && c < id)) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the slot of the given node in the child index.
+	 * @param id the node ID
+	 * @return the slot, or <code>-1</code> for a leaf.
+	 */
+	protected int slot(final int id) {
+		if (id == Integer.MAX_VALUE) {
+			return id;
+		}
+		return inner.get(id)?inner.rank(id):-1;
+	}
+
+	/**
+	 * Sums up the weights of the children of the given node.
+	 * @param id the node ID
+	 * @return the sum of the weights of the children.
+	 */
+	private long sumChildren(final int id) {
+		final int end = children.getEnd(slot(id));
+		long sum = 0;
+		for (int i = children.getStart(slot(id)); i < end; i++) {
+			sum += getWeight(children.getChild(i));
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the snapshot node with the given ID, taken from a
+	 * bounded cache of recently used nodes.
+	 * @param id the ID to use for the node
+	 * @return the node, never <code>null</code>.
+	 */
+	protected ISnapshotNode createNode(final int id) {
+		return nodes.get(id);
+	}
+
+	/**
+	 * Node iterator over a range of the child index. Calls back to
+	 * {@link CompactSnapshotTreeModelImpl#createNode(int)} to create its elements.
+	 */
+	private static class NodeIterator implements Iterator<ISnapshotNode> {
+
+		private final CompactSnapshotTreeModelImpl model;
+		private final int end;
+		private int pos;
+
+		protected NodeIterator(final int start, final int anEnd, final CompactSnapshotTreeModelImpl aModel) {
+			model = aModel;
+			end = anEnd;
+			pos = start;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return pos < end;
+		}
+
+		@Override
+		public ISnapshotNode next() {
+			if (pos == end) {
+				throw new NoSuchElementException();
+			}
+			return model.createNode(model.children.getChild(pos++));
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
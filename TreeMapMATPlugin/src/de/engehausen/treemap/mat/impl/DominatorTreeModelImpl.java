@@ -0,0 +1,224 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.util.IProgressListener;
+
+import de.engehausen.treemap.IRectangle;
+import de.engehausen.treemap.ITreeModel;
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ICachedLabelProvider;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.ISnapshotProvider;
+import de.engehausen.treemap.mat.ISortedTreeModel;
+import de.engehausen.treemap.mat.Messages;
+
+/**
+ * Weighted tree model of the dominator tree of a snapshot. The weight of
+ * a node is the retained size of its object, i.e. the memory that would
+ * be freed if the object was garbage collected.
+ * <p>Unlike {@link WeightedSnapshotTreeModelImpl}, this model does not
+ * traverse the object graph: the dominator tree and the retained sizes
+ * are computed by MAT when parsing the heap dump, and the model just reads
+ * the snapshot's indices on demand. Containment can safely be concluded
+ * from this tree: a node keeps all of its subtree alive.
+ * <p>The root node is a "virtual" node with <code>Integer.MAX_VALUE</code>
+ * for ID; its children are the objects not dominated by any other object.
+ * <p>The model holds no state other than the weight of the root node, so
+ * it can be read by several threads at the same time once it has been
+ * initialized.
+ */
+public class DominatorTreeModelImpl implements IWeightedTreeModel<ISnapshotNode>, ICachedLabelProvider<ISnapshotNode>, ISnapshotProvider, ISortedTreeModel {
+
+	protected static Iterator<ISnapshotNode> EMPTY_ITERATOR = Collections.<ISnapshotNode>emptyList().iterator();
+	/** ID MAT uses for the root of the dominator tree */
+	protected static final int DOMINATOR_ROOT = -1;
+	protected final ISnapshot snapshot;
+	protected final SnapshotNodeCache nodes = new SnapshotNodeCache();
+	protected final LabelCache labels;
+	protected volatile long rootWeight;
+
+	/**
+	 * Creates the dominator tree model of the snapshot.
+	 * @param aSnapshot the snapshot, must not be <code>null</code>.
+	 * @param aListener the progress listener
+	 * @return the weighted tree model
+	 * @throws SnapshotException in case of error
+	 */
+	public static IWeightedTreeModel<ISnapshotNode> createModel(final ISnapshot aSnapshot, final IProgressListener aListener) throws SnapshotException {
+		final DominatorTreeModelImpl model = new DominatorTreeModelImpl(aSnapshot);
+		model.initialize(aListener);
+		return model;
+	}
+
+	/**
+	 * Creates an uninitialized tree model.
+	 * @param aSnapshot the snapshot to use, must not be <code>null</code>.
+	 */
+	protected DominatorTreeModelImpl(final ISnapshot aSnapshot) {
+		snapshot = aSnapshot;
+		labels = new LabelCache(aSnapshot);
+	}
+
+	/**
+	 * Computes the weight of the virtual root node, which is the sum of
+	 * the retained sizes of all objects not dominated by other objects.
+	 * @param progress the progress listener
+	 * @throws SnapshotException in case of error
+	 */
+	protected void initialize(final IProgressListener progress) throws SnapshotException {
+		final int[] roots = snapshot.getImmediateDominatedIds(DOMINATOR_ROOT);
+		progress.beginTask(Messages.STR_READ_DOMINATOR_TREE, (roots.length>>4)+1);
+		long sum = 0;
+		for (int i = 0; i < roots.length; i++) {
+			sum += snapshot.getRetainedHeapSize(roots[i]);
+			if ((i&0xf) == 0) {
+				progress.worked(1);
+				if (progress.isCanceled()) {
+					throw new SnapshotException(Messages.STR_COMP_CANCELLED);
+				}
+			}
+		}
+		rootWeight = sum;
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getLabel(final ITreeModel<IRectangle<ISnapshotNode>> model, final IRectangle<ISnapshotNode> node) {
+		try {
+			final int id = node.getNode().getID();
+			final String label = labels.get(id);
+			return label!=null?label:labels.create(id, snapshot.getHeapSize(id), snapshot.getRetainedHeapSize(id));
+		} catch (SnapshotException e) {
+			return "???"; //$NON-NLS-1$
+		}
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getCachedLabel(final IRectangle<ISnapshotNode> node) {
+		return labels.get(node.getNode().getID());
+	}
+
+	@Override
+	public Iterator<ISnapshotNode> getChildren(final ISnapshotNode node) {
+		final int[] dominated = getDominated(node.getID());
+		if (dominated.length > 0) {
+			return new NodeIterator(dominated, this);
+		} else {
+			return EMPTY_ITERATOR;
+		}
+	}
+
+	@Override
+	public ISnapshotNode getParent(final ISnapshotNode node) {
+		final int id = node.getID();
+		if (id == Integer.MAX_VALUE) {
+			return null;
+		}
+		try {
+			final int dominator = snapshot.getImmediateDominatorId(id);
+			return createNode(dominator!=DOMINATOR_ROOT?dominator:Integer.MAX_VALUE);
+		} catch (SnapshotException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public ISnapshotNode getRoot() {
+		return createNode(Integer.MAX_VALUE);
+	}
+
+	@Override
+	public boolean hasChildren(final ISnapshotNode node) {
+		return getDominated(node.getID()).length > 0;
+	}
+
+	@Override
+	public long getWeight(final ISnapshotNode node) {
+		final int id = node.getID();
+		if (id == Integer.MAX_VALUE) {
+			return rootWeight;
+		}
+		try {
+			return snapshot.getRetainedHeapSize(id);
+		} catch (SnapshotException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public ISnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	@Override
+	// non-javadoc: see interface; MAT stores the dominated objects by descending retained size
+	public boolean isSortedByWeight() {
+		return true;
+	}
+
+	/**
+	 * Returns the snapshot node with the given ID, taken from a
+	 * bounded cache of recently used nodes.
+	 * @param id the ID to use for the node
+	 * @return the node, never <code>null</code>.
+	 */
+	protected ISnapshotNode createNode(final int id) {
+		return nodes.get(id);
+	}
+
+	/**
+	 * Returns the IDs of the objects immediately dominated by the given node.
+	 * @param id the node ID, <code>Integer.MAX_VALUE</code> for the virtual root.
+	 * @return the IDs of the dominated objects, never <code>null</code>.
+	 */
+	protected int[] getDominated(final int id) {
+		try {
+			return snapshot.getImmediateDominatedIds(id!=Integer.MAX_VALUE?id:DOMINATOR_ROOT);
+		} catch (SnapshotException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Node iterator over an array of object IDs. Calls back to
+	 * {@link DominatorTreeModelImpl#createNode(int)} to create its elements.
+	 */
+	private static class NodeIterator implements Iterator<ISnapshotNode> {
+
+		private final DominatorTreeModelImpl model;
+		private final int[] ids;
+		private int pos;
+
+		protected NodeIterator(final int[] someIDs, final DominatorTreeModelImpl aModel) {
+			model = aModel;
+			ids = someIDs;
+			pos = 0;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return pos < ids.length;
+		}
+
+		@Override
+		public ISnapshotNode next() {
+			if (pos == ids.length) {
+				throw new NoSuchElementException();
+			}
+			return model.createNode(ids[pos++]);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
@@ -0,0 +1,426 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.collect.ArrayInt;
+import org.eclipse.mat.collect.BitField;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.util.IProgressListener;
+import org.eclipse.mat.util.IProgressListener.Severity;
+import org.eclipse.osgi.util.NLS;
+
+import de.engehausen.treemap.IRectangle;
+import de.engehausen.treemap.ITreeModel;
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ICachedLabelProvider;
+import de.engehausen.treemap.mat.IMetricTreeModel;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.ISnapshotProvider;
+import de.engehausen.treemap.mat.ISortedTreeModel;
+import de.engehausen.treemap.mat.Messages;
+import de.engehausen.treemap.mat.Metric;
+
+/**
+ * Weighted tree model of the part of the object graph reachable from
+ * a given set of objects, e.g. the GC roots or the objects of a suspect
+ * cache. The given objects are the children of the virtual root node.
+ * <p>Unlike {@link WeightedSnapshotTreeModelImpl}, which holds arrays
+ * for all objects of the snapshot, the model only holds the objects it
+ * keeps, so building it takes time and memory in proportion to the part
+ * of the heap it covers:
+ * <ul>
+ * <li>the graph is traversed breadth-first, down to a maximum depth;
+ * objects further down are left out, and their sizes are not counted,</li>
+ * <li>nodes whose summed up size is below a minimum weight are collapsed
+ * into their parent: they are not part of the tree, but their weight
+ * is still part of the weight of their parent.</li>
+ * </ul>
+ * As the traversal is breadth-first, each object is the child of one of
+ * its nearest referrers. The model is not stored in the {@link ModelCache}.
+ * <p>The nodes are held by their position in breadth-first order; the
+ * children of each node are held in a {@link ChildIndex} over these
+ * positions, sorted by descending weight; for each further metric, a
+ * copy of the index is sorted by the weights of that metric.
+ * <p>The model is never changed once created and can be read by several
+ * threads at the same time.
+ */
+public class FocusedTreeModelImpl implements IWeightedTreeModel<ISnapshotNode>, ICachedLabelProvider<ISnapshotNode>, ISnapshotProvider, ISortedTreeModel, IMetricTreeModel {
+
+	protected static Iterator<ISnapshotNode> EMPTY_ITERATOR = Collections.<ISnapshotNode>emptyList().iterator();
+	/** number of nodes processed between checks for cancellation */
+	private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+	protected final ISnapshot snapshot;
+	protected final Metric[] metrics;
+	/** the object ID of each node */
+	protected final int[] ids;
+	/** the parent of each node, <code>Integer.MAX_VALUE</code> for the given objects */
+	protected final IIntArray parents;
+	/** the weights of each node, one array per metric */
+	protected final ILongArray[] weights;
+	/** the weights of the virtual root node, including collapsed children */
+	protected final long[] rootWeights;
+	/** the object ID of each node in the upper, and its position in the lower 32 bits, sorted */
+	protected final long[] positions;
+	protected final ChildIndex children;
+	/** the child index sorted by each metric; the first one is <code>children</code> */
+	protected final ChildIndex[] metricChildren;
+	protected final SnapshotNodeCache nodes = new SnapshotNodeCache();
+	protected final LabelCache labels;
+
+	/**
+	 * Creates the tree model of the objects reachable from the given ones.
+	 * @param aSnapshot the snapshot, must not be <code>null</code>.
+	 * @param someIds the IDs of the objects to start from, must not be <code>null</code>.
+	 * @param depth the number of levels of objects to keep, the given objects
+	 * being the first level; <code>0</code> for no limit.
+	 * @param minWeight the summed up size a node needs at least to be kept
+	 * @param someMetrics the metrics to compute; the size is always computed.
+	 * Must not be <code>null</code>.
+	 * @param aListener the progress listener
+	 * @return the tree model, never <code>null</code>.
+	 * @throws SnapshotException in case of error
+	 */
+	public static FocusedTreeModelImpl createModel(final ISnapshot aSnapshot, final int[] someIds, final int depth, final long minWeight, final Metric[] someMetrics, final IProgressListener aListener) throws SnapshotException {
+		final Metric[] metrics = WeightedSnapshotTreeModelImpl.normalize(someMetrics);
+		final int size = aSnapshot.getSnapshotInfo().getNumberOfObjects();
+		// begin task, one step for every 64k objects reached
+		aListener.beginTask(Messages.STR_CONVERT_GRAPH_TREE, (size>>16)+1);
+		final BitField visited = new BitField(size);
+		final ArrayInt ids = new ArrayInt();
+		final ArrayInt parents = new ArrayInt();
+		for (int i = 0; i < someIds.length; i++) {
+			if (!visited.get(someIds[i])) {
+				visited.set(someIds[i]);
+				ids.add(someIds[i]);
+				parents.add(Integer.MAX_VALUE);
+			}
+		}
+		int level = 1;
+		int levelEnd = ids.size();
+		for (int i = 0; i < ids.size(); i++) {
+			if (i == levelEnd) {
+				level++;
+				levelEnd = ids.size();
+			}
+			if (depth > 0 && level >= depth) {
+				// all nodes from here on are at the last level
+				break;
+			}
+			final int before = ids.size();
+			final int[] referents = aSnapshot.getOutboundReferentIds(ids.get(i));
+			for (int j = 0; j < referents.length; j++) {
+				final int c = referents[j];
+				if (!visited.get(c)) {
+					visited.set(c);
+					ids.add(c);
+					parents.add(i);
+				}
+			}
+			if ((before>>16) != (ids.size()>>16)) {
+				aListener.worked((ids.size()>>16) - (before>>16));
+			}
+			if (i % CANCEL_CHECK_INTERVAL == 0 && aListener.isCanceled()) {
+				throw new SnapshotException(Messages.STR_COMP_CANCELLED);
+			}
+		}
+		aListener.done();
+		return new FocusedTreeModelImpl(aSnapshot, ids.toArray(), parents.toArray(), metrics, minWeight, aListener);
+	}
+
+	/**
+	 * Creates the tree model from the objects reached by the traversal.
+	 * Computes the weights of all reached objects bottom-up, then keeps
+	 * the nodes at least as heavy as the minimum weight.
+	 * @param aSnapshot the snapshot, must not be <code>null</code>.
+	 * @param someIds the IDs of the reached objects in breadth-first order,
+	 * must not be <code>null</code>.
+	 * @param someParents the position of the parent of each reached object,
+	 * <code>Integer.MAX_VALUE</code> for the given objects; must not be <code>null</code>.
+	 * @param someMetrics the metrics to compute, the size first, as returned
+	 * by {@link WeightedSnapshotTreeModelImpl#normalize(Metric[])}; must not be <code>null</code>.
+	 * @param minWeight the summed up size a node needs at least to be kept
+	 * @param progress the progress listener
+	 * @throws SnapshotException in case of error
+	 */
+	protected FocusedTreeModelImpl(final ISnapshot aSnapshot, final int[] someIds, final int[] someParents, final Metric[] someMetrics, final long minWeight, final IProgressListener progress) throws SnapshotException {
+		snapshot = aSnapshot;
+		labels = new LabelCache(aSnapshot);
+		metrics = someMetrics;
+		rootWeights = new long[someMetrics.length];
+		final int reached = someIds.length;
+		final long[][] all = new long[someMetrics.length][reached];
+		for (int i = 0; i < reached; i++) {
+			final long size = aSnapshot.getHeapSize(someIds[i]);
+			all[0][i] = size;
+			for (int m = 1; m < someMetrics.length; m++) {
+				all[m][i] = someMetrics[m] == Metric.COUNT ? 1 : size;
+			}
+			if (i % CANCEL_CHECK_INTERVAL == 0 && progress.isCanceled()) {
+				throw new SnapshotException(Messages.STR_COMP_CANCELLED);
+			}
+		}
+		// children come after their parent, so walking backwards
+		// completes the weights of each node before adding them up
+		int kept = 0;
+		for (int i = reached - 1; i >= 0; i--) {
+			final int p = someParents[i];
+			for (int m = 0; m < someMetrics.length; m++) {
+				if (someMetrics[m] == Metric.RETAINED) {
+					// the shallow size of the node plus the estimates of its children
+					all[m][i] = Math.max(all[m][i], aSnapshot.getRetainedHeapSize(someIds[i]));
+				}
+				if (p != Integer.MAX_VALUE) {
+					all[m][p] += all[m][i];
+				} else {
+					rootWeights[m] += all[m][i];
+				}
+			}
+			if (all[0][i] >= minWeight) {
+				kept++;
+			}
+			if (i % CANCEL_CHECK_INTERVAL == 0 && progress.isCanceled()) {
+				throw new SnapshotException(Messages.STR_COMP_CANCELLED);
+			}
+		}
+		// a parent is at least as heavy as its children, so the parent of
+		// a kept node is kept as well, at a lower position
+		final int[] renumbered = new int[reached];
+		ids = new int[kept];
+		parents = new HeapIntArray(kept);
+		weights = new ILongArray[someMetrics.length];
+		for (int m = 0; m < weights.length; m++) {
+			weights[m] = new HeapLongArray(kept);
+		}
+		positions = new long[kept];
+		int pos = 0;
+		for (int i = 0; i < reached; i++) {
+			if (all[0][i] >= minWeight) {
+				final int p = someParents[i];
+				renumbered[i] = pos;
+				ids[pos] = someIds[i];
+				parents.set(pos, p!=Integer.MAX_VALUE?renumbered[p]:Integer.MAX_VALUE);
+				for (int m = 0; m < weights.length; m++) {
+					weights[m].set(pos, all[m][i]);
+				}
+				positions[pos] = ((long) someIds[i]<<32) | pos;
+				pos++;
+			}
+		}
+		Arrays.sort(positions);
+		metricChildren = new ChildIndex[someMetrics.length];
+		try {
+			children = new ChildIndex(parents, HeapArrayStorage.INSTANCE);
+			children.sortByWeight(weights[0]);
+			metricChildren[0] = children;
+			for (int m = 1; m < metricChildren.length; m++) {
+				metricChildren[m] = children.sortedCopy(weights[m], HeapArrayStorage.INSTANCE);
+			}
+		} catch (IOException e) {
+			throw new SnapshotException(e);
+		}
+		progress.sendUserMessage(Severity.INFO, NLS.bind(Messages.STR_FOCUSED_MODEL_SIZE, Integer.valueOf(reached), Integer.valueOf(kept)), null);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getLabel(final ITreeModel<IRectangle<ISnapshotNode>> model, final IRectangle<ISnapshotNode> node) {
+		try {
+			final int id = node.getNode().getID();
+			final String label = labels.get(id);
+			return label!=null?label:labels.create(id, snapshot.getHeapSize(id), getWeight(node.getNode()));
+		} catch (SnapshotException e) {
+			return "???"; //$NON-NLS-1$
+		}
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getCachedLabel(final IRectangle<ISnapshotNode> node) {
+		return labels.get(node.getNode().getID());
+	}
+
+	@Override
+	public Iterator<ISnapshotNode> getChildren(final ISnapshotNode node) {
+		return getChildren(children, position(node));
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public Iterator<ISnapshotNode> getChildren(final ISnapshotNode node, final Metric metric) {
+		return getChildren(metricChildren[indexOf(metric)], position(node));
+	}
+
+	/**
+	 * Returns the children of a node as held by the given child index.
+	 * @param index the child index, must not be <code>null</code>.
+	 * @param pos the position of the node
+	 * @return the children of the node, never <code>null</code>.
+	 */
+	protected Iterator<ISnapshotNode> getChildren(final ChildIndex index, final int pos) {
+		if (pos >= 0 && index.hasChildren(pos)) {
+			return new NodeIterator(index.getStart(pos), index.getEnd(pos), index, this);
+		} else {
+			return EMPTY_ITERATOR;
+		}
+	}
+
+	@Override
+	public ISnapshotNode getParent(final ISnapshotNode node) {
+		final int pos = position(node);
+		if (pos < 0 || pos == Integer.MAX_VALUE) {
+			return null;
+		}
+		final int p = parents.get(pos);
+		return createNode(p!=Integer.MAX_VALUE?ids[p]:Integer.MAX_VALUE);
+	}
+
+	@Override
+	public ISnapshotNode getRoot() {
+		return createNode(Integer.MAX_VALUE);
+	}
+
+	@Override
+	public boolean hasChildren(final ISnapshotNode node) {
+		final int pos = position(node);
+		return pos >= 0 && children.hasChildren(pos);
+	}
+
+	@Override
+	public long getWeight(final ISnapshotNode node) {
+		return getWeight(0, position(node));
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public Metric[] getMetrics() {
+		return metrics.clone();
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public long getWeight(final ISnapshotNode node, final Metric metric) {
+		return getWeight(indexOf(metric), position(node));
+	}
+
+	/**
+	 * Returns the position of a metric of the model.
+	 * @param metric the metric
+	 * @return the position of the metric in {@link #metrics}.
+	 * @throws IllegalArgumentException if the model does not compute the metric
+	 */
+	protected int indexOf(final Metric metric) {
+		for (int i = 0; i < metrics.length; i++) {
+			if (metrics[i] == metric) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException(metric.name());
+	}
+
+	@Override
+	public ISnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	@Override
+	// non-javadoc: see interface; the child index is sorted by weight
+	public boolean isSortedByWeight() {
+		return true;
+	}
+
+	/**
+	 * Returns the number of nodes of the tree, not counting the virtual
+	 * root node.
+	 * @return the number of nodes.
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Returns the weight of a node for a metric.
+	 * @param metric the position of the metric
+	 * @param pos the position of the node
+	 * @return the weight, <code>0</code> if the node is not part of the tree.
+	 */
+	protected long getWeight(final int metric, final int pos) {
+		if (pos == Integer.MAX_VALUE) {
+			return rootWeights[metric];
+		}
+		return pos>=0?weights[metric].get(pos):0;
+	}
+
+	/**
+	 * Returns the position of a node.
+	 * @param node the node
+	 * @return the position, <code>Integer.MAX_VALUE</code> for the virtual
+	 * root node, or <code>-1</code> if the node is not part of the tree.
+	 */
+	protected int position(final ISnapshotNode node) {
+		final int id = node.getID();
+		if (id == Integer.MAX_VALUE) {
+			return id;
+		}
+		if (id < 0) {
+			return -1;
+		}
+		final int found = Arrays.binarySearch(positions, (long) id<<32);
+		final int i = found>=0?found:-found-1;
+		return i<positions.length && (int) (positions[i]>>>32) == id?(int) positions[i]:-1;
+	}
+
+	/**
+	 * Returns the snapshot node with the given ID, see
+	 * {@link WeightedSnapshotTreeModelImpl#createNode(int)}.
+	 * @param id the ID to use for the node
+	 * @return the node, never <code>null</code>.
+	 */
+	protected ISnapshotNode createNode(final int id) {
+		return nodes.get(id);
+	}
+
+	/**
+	 * Node iterator over a range of the child index, mapping the
+	 * positions to nodes.
+	 */
+	private static class NodeIterator implements Iterator<ISnapshotNode> {
+
+		private final FocusedTreeModelImpl model;
+		private final ChildIndex index;
+		private final int end;
+		private int pos;
+
+		protected NodeIterator(final int start, final int anEnd, final ChildIndex anIndex, final FocusedTreeModelImpl aModel) {
+			model = aModel;
+			index = anIndex;
+			end = anEnd;
+			pos = start;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return pos < end;
+		}
+
+		@Override
+		public ISnapshotNode next() {
+			if (pos == end) {
+				throw new NoSuchElementException();
+			}
+			return model.createNode(model.ids[index.getChild(pos++)]);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
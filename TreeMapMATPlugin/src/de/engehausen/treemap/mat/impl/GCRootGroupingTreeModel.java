@@ -0,0 +1,476 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.collect.ArrayInt;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.model.GCRootInfo;
+import org.eclipse.mat.snapshot.model.IObject;
+import org.eclipse.mat.util.IProgressListener;
+import org.eclipse.osgi.util.NLS;
+
+import de.engehausen.treemap.IRectangle;
+import de.engehausen.treemap.ITreeModel;
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ICachedLabelProvider;
+import de.engehausen.treemap.mat.IMetricTreeModel;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.ISnapshotProvider;
+import de.engehausen.treemap.mat.ISortedTreeModel;
+import de.engehausen.treemap.mat.Messages;
+import de.engehausen.treemap.mat.Metric;
+
+/**
+ * Wrapper of a weighted tree model of the object graph adding a level of
+ * groups below the virtual root node: the GC roots, often hundreds of
+ * thousands, are grouped by the set of their GC root types and, if wanted,
+ * by the thread they belong to. The root node then has only a few children,
+ * which keeps laying out the first screen cheap.
+ * <p>The groups and their weights are computed once when creating the
+ * wrapper, by looking up the GC root information of each child of the
+ * root node; if the wrapped model provides several {@link Metric}s, the
+ * weights of the groups are computed for each of them, and the children
+ * of the root node and of the groups are sorted by each of them. Groups are synthetic nodes with negative IDs, the complement
+ * of the number of objects plus the position of the group.
+ * <p>The wrapper does not change once it has been created and can be read
+ * by several threads at the same time if the wrapped model can.
+ */
+public class GCRootGroupingTreeModel implements IWeightedTreeModel<ISnapshotNode>, ICachedLabelProvider<ISnapshotNode>, ISnapshotProvider, ISortedTreeModel, IMetricTreeModel {
+
+	protected final IWeightedTreeModel<ISnapshotNode> source;
+	/** the labels of the source model */
+	protected final LabelDelegate sourceLabels;
+	protected final ISnapshot snapshot;
+	protected final Metric[] metrics;
+	protected final Group[] groups;
+	/** the groups below the root node by descending weight, one order per metric */
+	protected final int[][] rootChildren;
+	/** the group of each child of the root node */
+	protected final Map<Integer, Group> rootGroups;
+	protected final int firstID;
+
+	/**
+	 * Groups the children of the root node of the given model. The model must
+	 * be a model of the object graph, i.e. the children of the root node are
+	 * the GC roots.
+	 * @param aSource the model to wrap, must not be <code>null</code>.
+	 * @param grouping the grouping to use, must not be <code>null</code>.
+	 * @param aListener the progress listener
+	 * @return the given model if the grouping is {@link RootGrouping#NONE}
+	 * or the model does not provide its snapshot, the wrapper otherwise.
+	 * @throws SnapshotException in case of error
+	 */
+	public static IWeightedTreeModel<ISnapshotNode> createModel(final IWeightedTreeModel<ISnapshotNode> aSource, final RootGrouping grouping, final IProgressListener aListener) throws SnapshotException {
+		if (grouping == RootGrouping.NONE || !(aSource instanceof ISnapshotProvider)) {
+			return aSource;
+		}
+		return new GCRootGroupingTreeModel(aSource, ((ISnapshotProvider) aSource).getSnapshot(), grouping == RootGrouping.THREAD, aListener);
+	}
+
+	/**
+	 * Creates the wrapper and computes the groups.
+	 * @param aSource the model to wrap, must not be <code>null</code>.
+	 * @param aSnapshot the snapshot of the model, must not be <code>null</code>.
+	 * @param byThread <code>true</code> to group the GC roots belonging
+	 * to a thread by their thread, too
+	 * @param progress the progress listener
+	 * @throws SnapshotException in case of error
+	 */
+	protected GCRootGroupingTreeModel(final IWeightedTreeModel<ISnapshotNode> aSource, final ISnapshot aSnapshot, final boolean byThread, final IProgressListener progress) throws SnapshotException {
+		source = aSource;
+		sourceLabels = new LabelDelegate(aSource);
+		snapshot = aSnapshot;
+		firstID = ~aSnapshot.getSnapshotInfo().getNumberOfObjects();
+		metrics = source instanceof IMetricTreeModel?((IMetricTreeModel) source).getMetrics():new Metric[] { Metric.SIZE };
+		rootGroups = new HashMap<Integer, Group>();
+		final List<Group> all = new ArrayList<Group>();
+		final Map<Integer, Group> types = new HashMap<Integer, Group>();
+		final Map<Long, Group> threads = new HashMap<Long, Group>();
+		// begin task, use #gcroots/4096 steps for the progress listener
+		progress.beginTask(Messages.STR_GROUP_GC_ROOTS, (snapshot.getGCRoots().length>>12)+1);
+		int count = 0;
+		for (Iterator<ISnapshotNode> i = source.getChildren(source.getRoot()); i.hasNext(); ) {
+			final ISnapshotNode child = i.next();
+			final int id = child.getID();
+			final GCRootInfo[] infos = snapshot.getGCRootInfo(id);
+			int mask = 0;
+			int thread = -1;
+			if (infos != null) {
+				for (int j = 0; j < infos.length; j++) {
+					mask |= infos[j].getType();
+					if (thread < 0 && infos[j].getContextAddress() != 0) {
+						thread = infos[j].getContextId();
+					}
+				}
+			}
+			Group group = types.get(Integer.valueOf(mask));
+			if (group == null) {
+				group = new Group(mask!=0?GCRootInfo.getTypeSetAsString(infos):Messages.STR_NO_GC_ROOT, null, firstID-all.size(), metrics.length);
+				types.put(Integer.valueOf(mask), group);
+				all.add(group);
+			}
+			if (byThread && thread >= 0) {
+				final Long key = Long.valueOf(((long) mask<<32) | thread);
+				Group sub = threads.get(key);
+				if (sub == null) {
+					sub = new Group(getObjectName(snapshot, thread), group, firstID-all.size(), metrics.length);
+					threads.put(key, sub);
+					all.add(sub);
+					group.children.add(sub.id);
+				}
+				group = sub;
+			}
+			group.children.add(id);
+			rootGroups.put(Integer.valueOf(id), group);
+			for (int m = 0; m < metrics.length; m++) {
+				final long weight = getSourceWeight(child, metrics[m]);
+				for (Group g = group; g != null; g = g.parent) {
+					g.weights[m] += weight;
+				}
+			}
+			for (Group g = group; g != null; g = g.parent) {
+				g.count++;
+			}
+			if ((++count&0xfff) == 0) {
+				progress.worked(1);
+				if (progress.isCanceled()) {
+					throw new SnapshotException(Messages.STR_COMP_CANCELLED);
+				}
+			}
+		}
+		groups = all.toArray(new Group[all.size()]);
+		final ArrayInt top = new ArrayInt(types.size());
+		for (Group group : groups) {
+			if (group.parent == null) {
+				top.add(group.id);
+			}
+		}
+		rootChildren = new int[metrics.length][];
+		for (int m = 0; m < metrics.length; m++) {
+			rootChildren[m] = sort(top, metrics[m]);
+		}
+		for (Group group : groups) {
+			group.sorted = new int[metrics.length][];
+			for (int m = 0; m < metrics.length; m++) {
+				group.sorted[m] = sort(group.children, metrics[m]);
+			}
+			group.children = null;
+		}
+		progress.done();
+	}
+
+	/**
+	 * Returns the name of an object, as resolved by MAT, e.g. the name
+	 * of a thread.
+	 * @param aSnapshot the snapshot, must not be <code>null</code>.
+	 * @param id the object ID
+	 * @return the name, never <code>null</code>.
+	 * @throws SnapshotException in case of error
+	 */
+	protected static String getObjectName(final ISnapshot aSnapshot, final int id) throws SnapshotException {
+		final IObject object = aSnapshot.getObject(id);
+		final String name = object.getClassSpecificName();
+		return name!=null?name:object.getTechnicalName();
+	}
+
+	@Override
+	public Iterator<ISnapshotNode> getChildren(final ISnapshotNode node) {
+		final int id = node.getID();
+		if (id == Integer.MAX_VALUE) {
+			return new NodeIterator(rootChildren[0], this);
+		}
+		final Group group = getGroup(node);
+		return group!=null?new NodeIterator(group.sorted[0], this):source.getChildren(node);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public Iterator<ISnapshotNode> getChildren(final ISnapshotNode node, final Metric metric) {
+		final int m = indexOf(metric);
+		if (node.getID() == Integer.MAX_VALUE) {
+			return new NodeIterator(rootChildren[m], this);
+		}
+		final Group group = getGroup(node);
+		if (group != null) {
+			return new NodeIterator(group.sorted[m], this);
+		}
+		return source instanceof IMetricTreeModel?((IMetricTreeModel) source).getChildren(node, metric):source.getChildren(node);
+	}
+
+	@Override
+	public ISnapshotNode getParent(final ISnapshotNode node) {
+		final Group group = getGroup(node);
+		if (group != null) {
+			return group.parent!=null?group.parent.node:getRoot();
+		}
+		final ISnapshotNode parent = source.getParent(node);
+		if (parent != null && parent.getID() == Integer.MAX_VALUE) {
+			final Group rootGroup = rootGroups.get(Integer.valueOf(node.getID()));
+			return rootGroup!=null?rootGroup.node:parent;
+		}
+		return parent;
+	}
+
+	@Override
+	public ISnapshotNode getRoot() {
+		return source.getRoot();
+	}
+
+	@Override
+	public boolean hasChildren(final ISnapshotNode node) {
+		return getGroup(node) != null || source.hasChildren(node);
+	}
+
+	@Override
+	public long getWeight(final ISnapshotNode node) {
+		final Group group = getGroup(node);
+		return group!=null?group.weights[0]:source.getWeight(node);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public Metric[] getMetrics() {
+		return metrics.clone();
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public long getWeight(final ISnapshotNode node, final Metric metric) {
+		final Group group = getGroup(node);
+		if (group != null) {
+			return group.weights[indexOf(metric)];
+		}
+		if (node.getID() == Integer.MAX_VALUE) {
+			// the sum of the groups
+			final int[] top = rootChildren[0];
+			long sum = 0;
+			for (int i = 0; i < top.length; i++) {
+				sum += getWeight(createNode(top[i]), metric);
+			}
+			return sum;
+		}
+		return getSourceWeight(node, metric);
+	}
+
+	/**
+	 * Returns the position of a metric of the wrapper.
+	 * @param metric the metric
+	 * @return the position of the metric in {@link #metrics}.
+	 * @throws IllegalArgumentException if the wrapped model does not provide the metric
+	 */
+	protected int indexOf(final Metric metric) {
+		for (int i = 0; i < metrics.length; i++) {
+			if (metrics[i] == metric) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException(metric.name());
+	}
+
+	/**
+	 * Returns the weight of a node of the wrapped model.
+	 * @param node the node
+	 * @param metric the metric
+	 * @return the weight of the node.
+	 */
+	protected long getSourceWeight(final ISnapshotNode node, final Metric metric) {
+		return source instanceof IMetricTreeModel?((IMetricTreeModel) source).getWeight(node, metric):source.getWeight(node);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getLabel(final ITreeModel<IRectangle<ISnapshotNode>> model, final IRectangle<ISnapshotNode> rectangle) {
+		final Group group = getGroup(rectangle.getNode());
+		if (group != null) {
+			return getGroupLabel(group);
+		}
+		return sourceLabels.getLabel(model, rectangle);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getCachedLabel(final IRectangle<ISnapshotNode> rectangle) {
+		final Group group = getGroup(rectangle.getNode());
+		if (group != null) {
+			return getGroupLabel(group);
+		}
+		return sourceLabels.getCachedLabel(rectangle);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public ISnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	@Override
+	// non-javadoc: see interface; the groups are sorted when creating the wrapper, the rest as by the wrapped model
+	public boolean isSortedByWeight() {
+		return source instanceof ISortedTreeModel && ((ISortedTreeModel) source).isSortedByWeight();
+	}
+
+	/**
+	 * Returns the group the given node stands for.
+	 * @param node the node
+	 * @return the group, or <code>null</code> if the node is not a group.
+	 */
+	protected Group getGroup(final ISnapshotNode node) {
+		final int pos = firstID - node.getID();
+		return node.getID() < 0 && pos >= 0 && pos < groups.length?groups[pos]:null;
+	}
+
+	/**
+	 * Returns the node with the given ID.
+	 * @param id the node ID
+	 * @return the node, never <code>null</code>.
+	 */
+	protected ISnapshotNode createNode(final int id) {
+		final int pos = firstID - id;
+		return id < 0 && pos >= 0 && pos < groups.length?groups[pos].node:new SnapshotNodeImpl(id);
+	}
+
+	/**
+	 * Returns the label of a group node showing its total for the given
+	 * metric, for wrappers weighting the nodes by another metric than
+	 * the first one (see {@link MetricTreeModel}).
+	 * @param node the node, must not be <code>null</code>.
+	 * @param metric one of the metrics of the model, must not be <code>null</code>.
+	 * @return the label, or <code>null</code> if the node is no group.
+	 */
+	public String getGroupLabel(final ISnapshotNode node, final Metric metric) {
+		final Group group = getGroup(node);
+		if (group != null) {
+			return getGroupLabel(group, indexOf(metric));
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the label of a group showing its total for the first metric.
+	 * @param group the group
+	 * @return the label, never <code>null</code>.
+	 */
+	protected String getGroupLabel(final Group group) {
+		return getGroupLabel(group, 0);
+	}
+
+	/**
+	 * Returns the label of a group.
+	 * @param group the group
+	 * @param m the index of the metric to show the total of
+	 * @return the label, never <code>null</code>.
+	 */
+	protected String getGroupLabel(final Group group, final int m) {
+		return NLS.bind(Messages.STR_GC_ROOT_GROUP, new Object[] { group.name, Integer.valueOf(group.count), metrics[m].format(group.weights[m]) });
+	}
+
+	/**
+	 * Sorts node IDs by descending weight; nodes of equal weight
+	 * keep their order.
+	 * @param ids the node IDs, must not be <code>null</code>.
+	 * @param metric the metric to sort by, must not be <code>null</code>.
+	 * @return the sorted IDs, never <code>null</code>.
+	 */
+	protected int[] sort(final ArrayInt ids, final Metric metric) {
+		final int max = ids.size();
+		final Integer[] order = new Integer[max];
+		final long[] weights = new long[max];
+		for (int i = 0; i < max; i++) {
+			order[i] = Integer.valueOf(i);
+			weights[i] = getWeight(createNode(ids.get(i)), metric);
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(final Integer a, final Integer b) {
+				final long wa = weights[a.intValue()];
+				final long wb = weights[b.intValue()];
+				return wa > wb ? -1 : (wa < wb ? 1 : a.compareTo(b));
+			}
+		});
+		final int[] result = new int[max];
+		for (int i = 0; i < max; i++) {
+			result[i] = ids.get(order[i].intValue());
+		}
+		return result;
+	}
+
+	/**
+	 * A group of GC roots.
+	 */
+	protected static class Group {
+
+		protected final String name;
+		protected final Group parent;
+		protected final int id;
+		protected final ISnapshotNode node;
+		/** the weight of the group for each metric */
+		protected final long[] weights;
+		protected int count;
+		/** the node IDs of the children while building */
+		protected ArrayInt children;
+		/** the node IDs of the children by descending weight, one order per metric */
+		protected int[][] sorted;
+
+		/**
+		 * Creates the group.
+		 * @param aName the name of the group, must not be <code>null</code>.
+		 * @param aParent the parent group, <code>null</code> for groups
+		 * directly below the root
+		 * @param anID the node ID of the group
+		 * @param metricCount the number of metrics
+		 */
+		protected Group(final String aName, final Group aParent, final int anID, final int metricCount) {
+			name = aName;
+			parent = aParent;
+			id = anID;
+			node = new SnapshotNodeImpl(anID);
+			weights = new long[metricCount];
+			children = new ArrayInt();
+		}
+
+	}
+
+	/**
+	 * Node iterator over an array of node IDs. Calls back to
+	 * {@link GCRootGroupingTreeModel#createNode(int)} to create its elements.
+	 */
+	private static class NodeIterator implements Iterator<ISnapshotNode> {
+
+		private final GCRootGroupingTreeModel model;
+		private final int[] ids;
+		private int pos;
+
+		protected NodeIterator(final int[] someIDs, final GCRootGroupingTreeModel aModel) {
+			model = aModel;
+			ids = someIDs;
+			pos = 0;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return pos < ids.length;
+		}
+
+		@Override
+		public ISnapshotNode next() {
+			if (pos == ids.length) {
+				throw new NoSuchElementException();
+			}
+			return model.createNode(ids[pos++]);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
@@ -0,0 +1,30 @@
+package de.engehausen.treemap.mat.impl;
+
+/**
+ * Array storage holding the values on the Java heap.
+ */
+public class HeapArrayStorage implements IArrayStorage {
+
+	/** the shared instance; the storage has no state */
+	public static final HeapArrayStorage INSTANCE = new HeapArrayStorage();
+
+	/**
+	 * Creates the storage; use {@link #INSTANCE} instead.
+	 */
+	protected HeapArrayStorage() {
+		super();
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public IIntArray createIntArray(final int length) {
+		return new HeapIntArray(length);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public ILongArray createLongArray(final int length) {
+		return new HeapLongArray(length);
+	}
+
+}
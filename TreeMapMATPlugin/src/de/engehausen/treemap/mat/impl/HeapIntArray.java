@@ -0,0 +1,36 @@
+package de.engehausen.treemap.mat.impl;
+
+/**
+ * Array of <code>int</code>s held on the Java heap.
+ */
+public class HeapIntArray implements IIntArray {
+
+	private final int[] data;
+
+	/**
+	 * Creates the array, all elements being zero.
+	 * @param length the number of elements, must be &gt;= 0.
+	 */
+	public HeapIntArray(final int length) {
+		data = new int[length];
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public int get(final int index) {
+		return data[index];
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public void set(final int index, final int value) {
+		data[index] = value;
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public int length() {
+		return data.length;
+	}
+
+}
@@ -0,0 +1,36 @@
+package de.engehausen.treemap.mat.impl;
+
+/**
+ * Array of <code>long</code>s held on the Java heap.
+ */
+public class HeapLongArray implements ILongArray {
+
+	private final long[] data;
+
+	/**
+	 * Creates the array, all elements being zero.
+	 * @param length the number of elements, must be &gt;= 0.
+	 */
+	public HeapLongArray(final int length) {
+		data = new long[length];
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public long get(final int index) {
+		return data[index];
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public void set(final int index, final long value) {
+		data[index] = value;
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public int length() {
+		return data.length;
+	}
+
+}
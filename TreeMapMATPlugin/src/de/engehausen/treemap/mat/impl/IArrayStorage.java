@@ -0,0 +1,28 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.IOException;
+
+/**
+ * Creates the arrays a tree model is built in. Implementations decide
+ * where the values are held, e.g. on the Java heap or in memory-mapped
+ * files outside of it. Newly created arrays have all elements set to zero.
+ */
+public interface IArrayStorage {
+
+	/**
+	 * Creates an array of <code>int</code>s.
+	 * @param length the number of elements, must be &gt;= 0.
+	 * @return the array, never <code>null</code>.
+	 * @throws IOException in case of error
+	 */
+	IIntArray createIntArray(int length) throws IOException;
+
+	/**
+	 * Creates an array of <code>long</code>s.
+	 * @param length the number of elements, must be &gt;= 0.
+	 * @return the array, never <code>null</code>.
+	 * @throws IOException in case of error
+	 */
+	ILongArray createLongArray(int length) throws IOException;
+
+}
@@ -0,0 +1,29 @@
+package de.engehausen.treemap.mat.impl;
+
+/**
+ * Fixed-size array of <code>long</code>s. Implementations may keep the
+ * values on the Java heap or outside of it.
+ */
+public interface ILongArray {
+
+	/**
+	 * Returns the value at the given index.
+	 * @param index the index, must be &gt;= 0 and &lt; {@link #length()}.
+	 * @return the value at the index.
+	 */
+	long get(int index);
+
+	/**
+	 * Sets the value at the given index.
+	 * @param index the index, must be &gt;= 0 and &lt; {@link #length()}.
+	 * @param value the value to set.
+	 */
+	void set(int index, long value);
+
+	/**
+	 * Returns the number of elements of the array.
+	 * @return the number of elements of the array.
+	 */
+	int length();
+
+}
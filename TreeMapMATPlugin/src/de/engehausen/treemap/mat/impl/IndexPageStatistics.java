@@ -0,0 +1,107 @@
+package de.engehausen.treemap.mat.impl;
+
+/**
+ * Estimates how well the page cache of a snapshot index serves a sequence
+ * of lookups by object ID. MAT reads its indices in pages of consecutive
+ * entries and keeps a limited number of pages in memory; the statistics
+ * simulate such a cache (with the clock replacement strategy) and count the
+ * lookups whose page would have been cached. MAT's real cache differs in
+ * details, and MAT does not tell how often it actually reads from the disk:
+ * the numbers are a model estimate of how local the lookups of a traversal
+ * order are, not a measurement.
+ * <p>The statistics are not thread-safe.
+ */
+public class IndexPageStatistics {
+
+	/** default number of objects per page, as a power of two */
+	public static final int DEFAULT_PAGE_SHIFT = 10;
+	/** default number of cached pages */
+	public static final int DEFAULT_CACHED_PAGES = 1024;
+
+	private final int pageShift;
+	/** the slot of each page plus one, <code>0</code> if the page is not cached */
+	private final int[] slotOfPage;
+	private final int[] pageOfSlot;
+	private final boolean[] referenced;
+	private int used;
+	private int hand;
+	private long lookups;
+	private long hits;
+
+	/**
+	 * Creates the statistics with the default page size and number of pages.
+	 * @param objects the number of objects of the snapshot
+	 */
+	public IndexPageStatistics(final int objects) {
+		this(objects, DEFAULT_PAGE_SHIFT, DEFAULT_CACHED_PAGES);
+	}
+
+	/**
+	 * Creates the statistics.
+	 * @param objects the number of objects of the snapshot
+	 * @param aPageShift the number of objects per page, as a power of two
+	 * @param cachedPages the number of cached pages, must be &gt; 0.
+	 */
+	public IndexPageStatistics(final int objects, final int aPageShift, final int cachedPages) {
+		pageShift = aPageShift;
+		slotOfPage = new int[(objects>>>aPageShift)+1];
+		pageOfSlot = new int[cachedPages];
+		referenced = new boolean[cachedPages];
+	}
+
+	/**
+	 * Records the lookup of an object.
+	 * @param id the object ID
+	 */
+	public void lookup(final int id) {
+		lookups++;
+		final int page = id>>>pageShift;
+		final int slot = slotOfPage[page] - 1;
+		if (slot >= 0) {
+			hits++;
+			referenced[slot] = true;
+			return;
+		}
+		final int free;
+		if (used < pageOfSlot.length) {
+			free = used++;
+		} else {
+			// evict the next page not referenced since the hand passed it
+			while (referenced[hand]) {
+				referenced[hand] = false;
+				hand = (hand + 1) % pageOfSlot.length;
+			}
+			free = hand;
+			slotOfPage[pageOfSlot[free]] = 0;
+			hand = (hand + 1) % pageOfSlot.length;
+		}
+		pageOfSlot[free] = page;
+		slotOfPage[page] = free + 1;
+		referenced[free] = true;
+	}
+
+	/**
+	 * Returns the number of recorded lookups.
+	 * @return the number of recorded lookups.
+	 */
+	public long getLookups() {
+		return lookups;
+	}
+
+	/**
+	 * Returns the number of recorded lookups whose page was cached.
+	 * @return the number of cache hits.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the share of the lookups whose page was cached, in percent.
+	 * @return the hit rate, <code>0</code> if nothing was recorded.
+	 */
+	public double getHitRate() {
+		return lookups>0?100d*hits/lookups:0;
+	}
+
+}
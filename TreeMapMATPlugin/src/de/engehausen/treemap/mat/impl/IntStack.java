@@ -47,6 +47,21 @@ public class IntStack {
 		data[pos++] = val;
 	}
 
+	/**
+	 * Removes the given number of bottommost (i.e. oldest) elements
+	 * from the stack.
+	 * @param count the number of elements to remove, must not be
+	 * bigger than {@link #size()}.
+	 * @return the removed elements, the bottommost one first.
+	 */
+	public int[] removeBottom(final int count) {
+		final int[] result = new int[count];
+		System.arraycopy(data, 0, result, 0, count);
+		System.arraycopy(data, count, data, 0, pos - count);
+		pos -= count;
+		return result;
+	}
+
 	/**
 	 * Returns the number of elements held by the stack.
 	 * @return the number of elements held by the stack.
@@ -0,0 +1,133 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.model.IClass;
+import org.eclipse.mat.util.Units;
+
+import de.engehausen.treemap.mat.Metric;
+
+/**
+ * Bounded cache of the labels of snapshot nodes, keyed by object ID. When
+ * full, the least recently used label is dropped.
+ * <p>A label is built from the name of the object's class and its address,
+ * as MAT's technical name, but without reading the object itself: only the
+ * class of an object and its address are looked up. The class names are
+ * kept for the lifetime of the cache, so that all labels of the instances
+ * of a class share the same name.
+ * <p>The total shown in a label is the one of a single metric; a model
+ * weighted by another metric than its labels show uses a cache of its own
+ * (see {@link MetricTreeModel}).
+ * <p>The cache can be used by several threads at the same time; labels
+ * are built outside the lock, so two threads may build the same label.
+ */
+public class LabelCache {
+
+	/** default number of cached labels */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private final ISnapshot snapshot;
+	private final Map<Integer, String> labels;
+	private final Map<Integer, String> classNames;
+
+	/**
+	 * Creates the cache with the default capacity.
+	 * @param aSnapshot the snapshot, must not be <code>null</code>.
+	 */
+	public LabelCache(final ISnapshot aSnapshot) {
+		this(aSnapshot, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates the cache.
+	 * @param aSnapshot the snapshot, must not be <code>null</code>.
+	 * @param capacity the maximum number of cached labels
+	 */
+	public LabelCache(final ISnapshot aSnapshot, final int capacity) {
+		snapshot = aSnapshot;
+		labels = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Integer, String> eldest) {
+				return size() > capacity;
+			}
+		};
+		classNames = new HashMap<Integer, String>();
+	}
+
+	/**
+	 * Returns the cached label of an object.
+	 * @param id the object ID
+	 * @return the label, or <code>null</code> if it is not cached.
+	 */
+	public synchronized String get(final int id) {
+		return labels.get(Integer.valueOf(id));
+	}
+
+	/**
+	 * Builds the label of an object and caches it. The label consists of
+	 * the technical name of the object, its size and its total size.
+	 * @param id the object ID
+	 * @param size the size of the object
+	 * @param total the total size of the object, e.g. its weight in the tree
+	 * @return the label, never <code>null</code>.
+	 * @throws SnapshotException in case of error
+	 */
+	public String create(final int id, final long size, final long total) throws SnapshotException {
+		return create(id, size, total, Metric.SIZE);
+	}
+
+	/**
+	 * Builds the label of an object and caches it. The label consists of
+	 * the technical name of the object, its size and its total for the
+	 * given metric.
+	 * @param id the object ID
+	 * @param size the size of the object
+	 * @param total the total of the object for the metric, e.g. its weight in the tree
+	 * @param metric the metric of the total, must not be <code>null</code>.
+	 * @return the label, never <code>null</code>.
+	 * @throws SnapshotException in case of error
+	 */
+	public String create(final int id, final long size, final long total, final Metric metric) throws SnapshotException {
+		final StringBuilder sb = new StringBuilder(80);
+		if (snapshot.isClass(id)) {
+			// classes are few, and named differently
+			sb.append(snapshot.getObject(id).getTechnicalName());
+		} else {
+			sb.append(getClassName(id))
+			  .append(" @ 0x").append(Long.toHexString(snapshot.mapIdToAddress(id))); //$NON-NLS-1$
+		}
+		sb.append(" (").append(Units.Storage.of(size).format(size)) //$NON-NLS-1$
+		  .append("/").append(metric.format(total)) //$NON-NLS-1$
+		  .append(")"); //$NON-NLS-1$
+		final String label = sb.toString();
+		synchronized (this) {
+			labels.put(Integer.valueOf(id), label);
+		}
+		return label;
+	}
+
+	/**
+	 * Returns the name of the class of an object.
+	 * @param id the object ID
+	 * @return the class name, never <code>null</code>.
+	 * @throws SnapshotException in case of error
+	 */
+	private String getClassName(final int id) throws SnapshotException {
+		final IClass clazz = snapshot.getClassOf(id);
+		final Integer key = Integer.valueOf(clazz.getObjectId());
+		synchronized (this) {
+			String name = classNames.get(key);
+			if (name == null) {
+				name = clazz.getName();
+				classNames.put(key, name);
+			}
+			return name;
+		}
+	}
+
+}
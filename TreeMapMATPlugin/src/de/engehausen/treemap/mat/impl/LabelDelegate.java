@@ -0,0 +1,42 @@
+package de.engehausen.treemap.mat.impl;
+
+import de.engehausen.treemap.ILabelProvider;
+import de.engehausen.treemap.IRectangle;
+import de.engehausen.treemap.ITreeModel;
+import de.engehausen.treemap.mat.ICachedLabelProvider;
+import de.engehausen.treemap.mat.ISnapshotNode;
+
+/**
+ * The labels of a model wrapping or copying another model, taken from
+ * the other model if it provides labels. Models whose nodes are nodes of
+ * the other model use it to answer the label calls they do not answer
+ * themselves; whether the other model provides labels is checked once.
+ */
+public class LabelDelegate implements ICachedLabelProvider<ISnapshotNode> {
+
+	private final ILabelProvider<ISnapshotNode> labels;
+	private final ICachedLabelProvider<ISnapshotNode> cachedLabels;
+
+	/**
+	 * Creates the delegate.
+	 * @param source the model providing the labels, must not be <code>null</code>.
+	 */
+	@SuppressWarnings("unchecked") // a label provider of a model of snapshot nodes labels snapshot nodes
+	public LabelDelegate(final ITreeModel<ISnapshotNode> source) {
+		labels = source instanceof ILabelProvider<?>?(ILabelProvider<ISnapshotNode>) source:null;
+		cachedLabels = source instanceof ICachedLabelProvider<?>?(ICachedLabelProvider<ISnapshotNode>) source:null;
+	}
+
+	@Override
+	// non-javadoc: see interface; null if the model provides no labels
+	public String getLabel(final ITreeModel<IRectangle<ISnapshotNode>> model, final IRectangle<ISnapshotNode> rectangle) {
+		return labels!=null?labels.getLabel(model, rectangle):null;
+	}
+
+	@Override
+	// non-javadoc: see interface; null if the model caches no labels
+	public String getCachedLabel(final IRectangle<ISnapshotNode> rectangle) {
+		return cachedLabels!=null?cachedLabels.getCachedLabel(rectangle):null;
+	}
+
+}
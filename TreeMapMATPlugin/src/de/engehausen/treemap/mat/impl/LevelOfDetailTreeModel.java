@@ -0,0 +1,181 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.osgi.util.NLS;
+
+import de.engehausen.treemap.IRectangle;
+import de.engehausen.treemap.ITreeModel;
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ICachedLabelProvider;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.ISnapshotProvider;
+import de.engehausen.treemap.mat.ISortedTreeModel;
+import de.engehausen.treemap.mat.Messages;
+import de.engehausen.treemap.mat.Metric;
+
+/**
+ * Wrapper of a weighted tree model leaving out the nodes too small to be
+ * seen. The children of a node lighter than a minimum weight are merged
+ * into one {@link OthersNodeImpl} per parent, whose weight is the sum of
+ * their weights; a single light child is kept. The minimum weight is
+ * derived from the area the tree map is laid out in, so that the number
+ * of rectangles depends on the size of the screen, not on the size of
+ * the heap. The merged nodes are leaves.
+ * <p>The wrapper holds no state other than the minimum weight and can be
+ * read by several threads at the same time if the wrapped model can.
+ */
+public class LevelOfDetailTreeModel implements IWeightedTreeModel<ISnapshotNode>, ICachedLabelProvider<ISnapshotNode>, ISnapshotProvider, ISortedTreeModel {
+
+	protected static Iterator<ISnapshotNode> EMPTY_ITERATOR = Collections.<ISnapshotNode>emptyList().iterator();
+
+	protected final IWeightedTreeModel<ISnapshotNode> source;
+	/** the labels of the source model */
+	protected final LabelDelegate sourceLabels;
+	/** the metric the source model weights the nodes by */
+	protected final Metric metric;
+	protected final long minWeight;
+
+	/**
+	 * Creates the wrapper for showing the subtree of the given node in an
+	 * area of the given size.
+	 * @param aSource the model to wrap, must not be <code>null</code>.
+	 * @param root the root of the subtree to show, must not be <code>null</code>.
+	 * @param width the width of the area, in pixels
+	 * @param height the height of the area, in pixels
+	 * @param minArea the number of pixels a node needs at least to be
+	 * shown on its own
+	 * @return the wrapper, never <code>null</code>.
+	 */
+	public static LevelOfDetailTreeModel create(final IWeightedTreeModel<ISnapshotNode> aSource, final ISnapshotNode root, final int width, final int height, final int minArea) {
+		final long area = (long) width*height;
+		final long min = area>0?(long) Math.ceil(aSource.getWeight(root)*(double) minArea/area):0;
+		return new LevelOfDetailTreeModel(aSource, min);
+	}
+
+	/**
+	 * Creates the wrapper.
+	 * @param aSource the model to wrap, must not be <code>null</code>.
+	 * @param aMinWeight the minimum weight of a node to be kept
+	 */
+	public LevelOfDetailTreeModel(final IWeightedTreeModel<ISnapshotNode> aSource, final long aMinWeight) {
+		source = aSource;
+		sourceLabels = new LabelDelegate(aSource);
+		metric = MetricTreeModel.metricOf(aSource);
+		minWeight = aMinWeight;
+	}
+
+	@Override
+	public Iterator<ISnapshotNode> getChildren(final ISnapshotNode node) {
+		if (node instanceof OthersNodeImpl) {
+			return EMPTY_ITERATOR;
+		}
+		final Iterator<ISnapshotNode> i = source.getChildren(node);
+		if (minWeight <= 0 || !i.hasNext()) {
+			return i;
+		}
+		final List<ISnapshotNode> result = new ArrayList<ISnapshotNode>();
+		long[] weights = new long[16];
+		ISnapshotNode light = null;
+		int count = 0;
+		long sum = 0;
+		while (i.hasNext()) {
+			final ISnapshotNode child = i.next();
+			final long w = source.getWeight(child);
+			if (w >= minWeight) {
+				if (result.size() == weights.length) {
+					weights = Arrays.copyOf(weights, 2*weights.length);
+				}
+				weights[result.size()] = w;
+				result.add(child);
+			} else {
+				light = child;
+				count++;
+				sum += w;
+			}
+		}
+		if (count > 0) {
+			// insert after all nodes at least as heavy, to keep the order by weight
+			int pos = result.size();
+			while (pos > 0 && weights[pos-1] < sum) {
+				pos--;
+			}
+			result.add(pos, count==1?light:new OthersNodeImpl(node, count, sum));
+		}
+		return result.iterator();
+	}
+
+	@Override
+	public ISnapshotNode getParent(final ISnapshotNode node) {
+		if (node instanceof OthersNodeImpl) {
+			return ((OthersNodeImpl) node).getParent();
+		}
+		return source.getParent(node);
+	}
+
+	@Override
+	public ISnapshotNode getRoot() {
+		return source.getRoot();
+	}
+
+	@Override
+	public boolean hasChildren(final ISnapshotNode node) {
+		return !(node instanceof OthersNodeImpl) && source.hasChildren(node);
+	}
+
+	@Override
+	public long getWeight(final ISnapshotNode node) {
+		if (node instanceof OthersNodeImpl) {
+			return ((OthersNodeImpl) node).getWeight();
+		}
+		return source.getWeight(node);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getLabel(final ITreeModel<IRectangle<ISnapshotNode>> model, final IRectangle<ISnapshotNode> rectangle) {
+		final ISnapshotNode node = rectangle.getNode();
+		if (node instanceof OthersNodeImpl) {
+			return getOthersLabel((OthersNodeImpl) node);
+		}
+		return sourceLabels.getLabel(model, rectangle);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getCachedLabel(final IRectangle<ISnapshotNode> rectangle) {
+		final ISnapshotNode node = rectangle.getNode();
+		if (node instanceof OthersNodeImpl) {
+			return getOthersLabel((OthersNodeImpl) node);
+		}
+		return sourceLabels.getCachedLabel(rectangle);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public ISnapshot getSnapshot() {
+		return source instanceof ISnapshotProvider?((ISnapshotProvider) source).getSnapshot():null;
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public boolean isSortedByWeight() {
+		// the merged node is inserted at its place
+		return source instanceof ISortedTreeModel && ((ISortedTreeModel) source).isSortedByWeight();
+	}
+
+	/**
+	 * Returns the label of a merged node.
+	 * @param node the merged node
+	 * @return the label, never <code>null</code>.
+	 */
+	protected String getOthersLabel(final OthersNodeImpl node) {
+		return NLS.bind(Messages.STR_OTHERS, Integer.valueOf(node.getCount()), metric.format(node.getWeight()));
+	}
+
+}
@@ -0,0 +1,63 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Base class of arrays held in a memory-mapped file region. As a single
+ * mapping cannot exceed 2 GB, the region is mapped in segments of equal
+ * size (a power of two elements each), the last one possibly being shorter.
+ * <p>The mapping stays valid after the file channel has been closed and
+ * is released when the array is garbage collected.
+ * <p>Elements are only accessed by index, never through the position
+ * of a buffer, so several threads can read the array at the same time.
+ */
+public abstract class MappedArray {
+
+	protected final int length;
+	protected final int shift;
+	protected final int mask;
+
+	/**
+	 * Creates the array.
+	 * @param aLength the number of elements, must be &gt;= 0.
+	 * @param aShift the number of elements per segment, as a power of two
+	 */
+	protected MappedArray(final int aLength, final int aShift) {
+		length = aLength;
+		shift = aShift;
+		mask = (1<<aShift) - 1;
+	}
+
+	/**
+	 * Maps the segments of the array.
+	 * @param channel the file channel, must not be <code>null</code>.
+	 * @param mode the mapping mode, must not be <code>null</code>.
+	 * @param position the position of the first element in the file
+	 * @param elementSize the number of bytes per element
+	 * @return the mapped segments, never <code>null</code>.
+	 * @throws IOException in case of error
+	 */
+	protected ByteBuffer[] map(final FileChannel channel, final MapMode mode, final long position, final int elementSize) throws IOException {
+		final int count = (int) ((length + (long) mask)>>shift);
+		final ByteBuffer[] result = new ByteBuffer[count];
+		long pos = position;
+		for (int i = 0; i < count; i++) {
+			final long size = (long) Math.min(1<<shift, length - (i<<shift)) * elementSize;
+			result[i] = channel.map(mode, pos, size);
+			pos += size;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of elements of the array.
+	 * @return the number of elements of the array.
+	 */
+	public int length() {
+		return length;
+	}
+
+}
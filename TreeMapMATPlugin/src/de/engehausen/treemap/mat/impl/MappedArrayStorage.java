@@ -0,0 +1,104 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Array storage holding the values outside of the Java heap, in temporary
+ * files which are memory-mapped read-write. The operating system pages the
+ * values in and out as needed, so the arrays may exceed the maximum heap
+ * size of the JVM.
+ * <p>Each array gets its own temporary file. The file is deleted right
+ * after mapping where the operating system allows it, otherwise when the
+ * JVM exits; the mapping itself is released when the array is garbage
+ * collected.
+ */
+public class MappedArrayStorage implements IArrayStorage {
+
+	private static final String PREFIX = "treemap"; //$NON-NLS-1$
+	private static final String SUFFIX = ".tmp"; //$NON-NLS-1$
+
+	protected final File directory;
+
+	/**
+	 * Creates the storage.
+	 * @param aDirectory the directory to create the temporary files in;
+	 * if <code>null</code>, the default temporary directory is used.
+	 */
+	public MappedArrayStorage(final File aDirectory) {
+		directory = aDirectory;
+	}
+
+	/**
+	 * Returns the directory the temporary files are created in.
+	 * @return the directory, <code>null</code> for the default temporary directory.
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public IIntArray createIntArray(final int length) throws IOException {
+		final File file = File.createTempFile(PREFIX, SUFFIX, directory);
+		try {
+			final RandomAccessFile raf = open(file, 4L*length);
+			try {
+				return new MappedIntArray(raf.getChannel(), MapMode.READ_WRITE, 0, length);
+			} finally {
+				raf.close();
+			}
+		} finally {
+			release(file);
+		}
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public ILongArray createLongArray(final int length) throws IOException {
+		final File file = File.createTempFile(PREFIX, SUFFIX, directory);
+		try {
+			final RandomAccessFile raf = open(file, 8L*length);
+			try {
+				return new MappedLongArray(raf.getChannel(), MapMode.READ_WRITE, 0, length);
+			} finally {
+				raf.close();
+			}
+		} finally {
+			release(file);
+		}
+	}
+
+	/**
+	 * Opens the given file for reading and writing, and sets its length.
+	 * The added bytes are zero.
+	 * @param file the file to open
+	 * @param size the length of the file in bytes
+	 * @return the opened file, never <code>null</code>.
+	 * @throws IOException in case of error
+	 */
+	private static RandomAccessFile open(final File file, final long size) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		try {
+			raf.setLength(size);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+		return raf;
+	}
+
+	/**
+	 * Deletes the given file, or marks it for deletion on exit if
+	 * this is not possible while it is mapped.
+	 * @param file the file to delete
+	 */
+	private static void release(final File file) {
+		if (!file.delete()) {
+			file.deleteOnExit();
+		}
+	}
+
+}
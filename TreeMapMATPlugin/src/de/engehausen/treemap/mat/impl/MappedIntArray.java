@@ -0,0 +1,49 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Array of <code>int</code>s held in a memory-mapped file region.
+ */
+public class MappedIntArray extends MappedArray implements IIntArray {
+
+	/** 2^27 elements (512 MB) per segment */
+	private static final int SHIFT = 27;
+
+	private final IntBuffer[] segments;
+
+	/**
+	 * Maps the array from the given file region.
+	 * @param channel the file channel, must not be <code>null</code>.
+	 * @param mode the mapping mode; for {@link MapMode#READ_ONLY}, setting
+	 * values fails with an exception.
+	 * @param position the position of the first element in the file
+	 * @param aLength the number of elements, must be &gt;= 0.
+	 * @throws IOException in case of error
+	 */
+	public MappedIntArray(final FileChannel channel, final MapMode mode, final long position, final int aLength) throws IOException {
+		super(aLength, SHIFT);
+		final ByteBuffer[] buffers = map(channel, mode, position, 4);
+		segments = new IntBuffer[buffers.length];
+		for (int i = 0; i < buffers.length; i++) {
+			segments[i] = buffers[i].asIntBuffer();
+		}
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public int get(final int index) {
+		return segments[index>>>SHIFT].get(index&mask);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public void set(final int index, final int value) {
+		segments[index>>>SHIFT].put(index&mask, value);
+	}
+
+}
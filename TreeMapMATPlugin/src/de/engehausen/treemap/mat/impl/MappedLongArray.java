@@ -0,0 +1,49 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Array of <code>long</code>s held in a memory-mapped file region.
+ */
+public class MappedLongArray extends MappedArray implements ILongArray {
+
+	/** 2^26 elements (512 MB) per segment */
+	private static final int SHIFT = 26;
+
+	private final LongBuffer[] segments;
+
+	/**
+	 * Maps the array from the given file region.
+	 * @param channel the file channel, must not be <code>null</code>.
+	 * @param mode the mapping mode; for {@link MapMode#READ_ONLY}, setting
+	 * values fails with an exception.
+	 * @param position the position of the first element in the file
+	 * @param aLength the number of elements, must be &gt;= 0.
+	 * @throws IOException in case of error
+	 */
+	public MappedLongArray(final FileChannel channel, final MapMode mode, final long position, final int aLength) throws IOException {
+		super(aLength, SHIFT);
+		final ByteBuffer[] buffers = map(channel, mode, position, 8);
+		segments = new LongBuffer[buffers.length];
+		for (int i = 0; i < buffers.length; i++) {
+			segments[i] = buffers[i].asLongBuffer();
+		}
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public long get(final int index) {
+		return segments[index>>>SHIFT].get(index&mask);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public void set(final int index, final long value) {
+		segments[index>>>SHIFT].put(index&mask, value);
+	}
+
+}
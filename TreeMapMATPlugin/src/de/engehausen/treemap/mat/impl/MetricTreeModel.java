@@ -0,0 +1,208 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.Iterator;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.ISnapshot;
+
+import de.engehausen.treemap.IRectangle;
+import de.engehausen.treemap.ITreeModel;
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ICachedLabelProvider;
+import de.engehausen.treemap.mat.IMetricTreeModel;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.ISnapshotProvider;
+import de.engehausen.treemap.mat.ISortedTreeModel;
+import de.engehausen.treemap.mat.Metric;
+
+/**
+ * Wrapper of a weighted tree model providing several metrics, weighting
+ * the nodes by one of them. The tree stays the same; the children of a
+ * node come in the order of the chosen metric as kept by the wrapped model
+ * (see {@link IMetricTreeModel#getChildren(ISnapshotNode, Metric)}), so
+ * they are not sorted again when read. Switching between metrics therefore
+ * does not need to build the tree again.
+ * <p>The labels of the objects and of the GC root groups show the totals
+ * of the chosen metric; as the labels of the wrapped model show the ones
+ * of its first metric, the wrapper builds and caches them itself.
+ * <p>The wrapper holds no state other than the metric and its labels and
+ * can be read by several threads at the same time if the wrapped model can.
+ */
+public class MetricTreeModel implements IWeightedTreeModel<ISnapshotNode>, ICachedLabelProvider<ISnapshotNode>, ISnapshotProvider, ISortedTreeModel, IMetricTreeModel {
+
+	protected final IWeightedTreeModel<ISnapshotNode> source;
+	/** the labels of the source model */
+	protected final LabelDelegate sourceLabels;
+	/** the GC root groups of the source model, or <code>null</code> */
+	protected final GCRootGroupingTreeModel groups;
+	protected final ISnapshot snapshot;
+	/** the labels of the objects, showing the totals of the metric; <code>null</code> without snapshot */
+	protected final LabelCache labels;
+	protected final IMetricTreeModel metrics;
+	protected final Metric metric;
+
+	/**
+	 * Returns the given model weighted by the given metric.
+	 * @param aSource the model, must not be <code>null</code>.
+	 * @param aMetric the metric, must not be <code>null</code>.
+	 * @return the given model if it is weighted by the metric already, the
+	 * wrapper otherwise.
+	 * @throws IllegalArgumentException if the model does not provide the metric
+	 */
+	public static IWeightedTreeModel<ISnapshotNode> create(final IWeightedTreeModel<ISnapshotNode> aSource, final Metric aMetric) {
+		if (metricOf(aSource) == aMetric) {
+			return aSource;
+		}
+		final Metric[] provided = aSource instanceof IMetricTreeModel?((IMetricTreeModel) aSource).getMetrics():new Metric[] { Metric.SIZE };
+		for (int i = 1; i < provided.length; i++) {
+			if (provided[i] == aMetric) {
+				return new MetricTreeModel(aSource, aMetric);
+			}
+		}
+		throw new IllegalArgumentException(aMetric.name());
+	}
+
+	/**
+	 * Returns the metric the given model weights its nodes by: the first
+	 * metric of a model providing several, the size otherwise.
+	 * @param model the model, must not be <code>null</code>.
+	 * @return the metric, never <code>null</code>.
+	 */
+	public static Metric metricOf(final IWeightedTreeModel<ISnapshotNode> model) {
+		return model instanceof IMetricTreeModel?((IMetricTreeModel) model).getMetrics()[0]:Metric.SIZE;
+	}
+
+	/**
+	 * Creates the wrapper.
+	 * @param aSource the model to wrap, providing the metric besides its
+	 * first one; must not be <code>null</code>.
+	 * @param aMetric the metric to weight the nodes by, must not be <code>null</code>.
+	 */
+	protected MetricTreeModel(final IWeightedTreeModel<ISnapshotNode> aSource, final Metric aMetric) {
+		source = aSource;
+		sourceLabels = new LabelDelegate(aSource);
+		groups = aSource instanceof GCRootGroupingTreeModel?(GCRootGroupingTreeModel) aSource:null;
+		snapshot = aSource instanceof ISnapshotProvider?((ISnapshotProvider) aSource).getSnapshot():null;
+		labels = snapshot!=null?new LabelCache(snapshot):null;
+		metrics = (IMetricTreeModel) aSource;
+		metric = aMetric;
+	}
+
+	/**
+	 * Returns the metric the nodes are weighted by.
+	 * @return the metric, never <code>null</code>.
+	 */
+	public Metric getMetric() {
+		return metric;
+	}
+
+	@Override
+	public Iterator<ISnapshotNode> getChildren(final ISnapshotNode node) {
+		return metrics.getChildren(node, metric);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public Iterator<ISnapshotNode> getChildren(final ISnapshotNode node, final Metric aMetric) {
+		return metrics.getChildren(node, aMetric);
+	}
+
+	@Override
+	public ISnapshotNode getParent(final ISnapshotNode node) {
+		return source.getParent(node);
+	}
+
+	@Override
+	public ISnapshotNode getRoot() {
+		return source.getRoot();
+	}
+
+	@Override
+	public boolean hasChildren(final ISnapshotNode node) {
+		return source.hasChildren(node);
+	}
+
+	@Override
+	public long getWeight(final ISnapshotNode node) {
+		return metrics.getWeight(node, metric);
+	}
+
+	@Override
+	// non-javadoc: see interface; the metric of the wrapper comes first
+	public Metric[] getMetrics() {
+		final Metric[] result = metrics.getMetrics();
+		for (int i = result.length - 1; i > 0; i--) {
+			if (result[i] == metric) {
+				result[i] = result[0];
+				result[0] = metric;
+			}
+		}
+		return result;
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public long getWeight(final ISnapshotNode node, final Metric aMetric) {
+		return metrics.getWeight(node, aMetric);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getLabel(final ITreeModel<IRectangle<ISnapshotNode>> model, final IRectangle<ISnapshotNode> rectangle) {
+		final ISnapshotNode node = rectangle.getNode();
+		if (groups != null) {
+			final String label = groups.getGroupLabel(node, metric);
+			if (label != null) {
+				return label;
+			}
+		}
+		if (isObject(node)) {
+			try {
+				final int id = node.getID();
+				final String label = labels.get(id);
+				return label!=null?label:labels.create(id, snapshot.getHeapSize(id), getWeight(node), metric);
+			} catch (SnapshotException e) {
+				return "???"; //$NON-NLS-1$
+			}
+		}
+		return sourceLabels.getLabel(model, rectangle);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getCachedLabel(final IRectangle<ISnapshotNode> rectangle) {
+		final ISnapshotNode node = rectangle.getNode();
+		if (groups != null) {
+			final String label = groups.getGroupLabel(node, metric);
+			if (label != null) {
+				return label;
+			}
+		}
+		return isObject(node)?labels.get(node.getID()):sourceLabels.getCachedLabel(rectangle);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public ISnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Indicates whether the wrapper labels the given node itself: whether
+	 * it stands for an object of the snapshot, and not for a synthetic node
+	 * such as the root of the GC roots.
+	 * @param node the node
+	 * @return <code>true</code> if the node is an object and the wrapper has a snapshot.
+	 */
+	protected boolean isObject(final ISnapshotNode node) {
+		final int id = node.getID();
+		return labels != null && id >= 0 && id != Integer.MAX_VALUE;
+	}
+
+	@Override
+	// non-javadoc: see interface; the wrapped model keeps the order of each metric
+	public boolean isSortedByWeight() {
+		return source instanceof ISortedTreeModel && ((ISortedTreeModel) source).isSortedByWeight();
+	}
+
+}
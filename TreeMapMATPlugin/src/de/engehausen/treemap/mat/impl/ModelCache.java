@@ -0,0 +1,273 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.SnapshotInfo;
+
+/**
+ * Persistent cache of the arrays making up a tree model, stored as
+ * an index file next to the index files of the snapshot. Each key gets
+ * a file of its own, named after a checksum of the key, so that models
+ * built with different parameters do not replace each other. Cached arrays
+ * are memory-mapped read-only when loaded, so a model can be opened
+ * without building it again.
+ * <p>The file starts with a header recording the format version, the
+ * size and modification time of the heap dump and of the snapshot's main
+ * index file, the number of objects and a key describing the parameters
+ * the model was built with. If any of these does not match when loading,
+ * the cache is considered stale and is not used.
+ */
+public class ModelCache {
+
+	/** "TMMC" */
+	private static final int MAGIC = 0x544d4d43;
+	/** version of the file format */
+	private static final int VERSION = 1;
+	/** start of the name of the cache file, appended to the snapshot's prefix */
+	private static final String PREFIX = "treemap."; //$NON-NLS-1$
+	/** end of the name of the cache file, appended to the checksum of the key */
+	private static final String SUFFIX = ".index"; //$NON-NLS-1$
+	/** name of the snapshot's main index file, appended to the snapshot's prefix */
+	private static final String SNAPSHOT_INDEX = "index"; //$NON-NLS-1$
+	/** name of temporary files */
+	private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+	/** size of the buffer used when writing arrays */
+	private static final int BUFFER_SIZE = 1<<20;
+
+	protected final File file;
+	protected final File dump;
+	protected final File snapshotIndex;
+	protected final int objects;
+	protected final String key;
+
+	private IIntArray[] ints;
+	private ILongArray[] longs;
+
+	/**
+	 * Creates the cache for the given snapshot and model parameters.
+	 * @param snapshot the snapshot, must not be <code>null</code>.
+	 * @param aKey the key describing the parameters the model is built with;
+	 * a cached model built with a different key is not used. Must not
+	 * be <code>null</code>.
+	 */
+	public ModelCache(final ISnapshot snapshot, final String aKey) {
+		final SnapshotInfo info = snapshot.getSnapshotInfo();
+		file = new File(info.getPrefix()+PREFIX+checksum(aKey)+SUFFIX);
+		dump = new File(info.getPath());
+		snapshotIndex = new File(info.getPrefix()+SNAPSHOT_INDEX);
+		objects = info.getNumberOfObjects();
+		key = aKey;
+	}
+
+	/**
+	 * Returns the checksum of a key as used in the name of the cache file.
+	 * Different keys may have the same checksum; as the key is recorded in
+	 * the file, such a file is then rebuilt rather than used.
+	 * @param aKey the key, must not be <code>null</code>.
+	 * @return the checksum in hexadecimal, never <code>null</code>.
+	 */
+	protected static String checksum(final String aKey) {
+		final CRC32 crc = new CRC32();
+		crc.update(aKey.getBytes(Charset.forName("UTF-8"))); //$NON-NLS-1$
+		return Long.toHexString(crc.getValue());
+	}
+
+	/**
+	 * Returns the cache file.
+	 * @return the cache file, never <code>null</code>.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Loads the cached arrays if the cache file exists and matches
+	 * the snapshot and key. The arrays are then available through
+	 * {@link #getInts()} and {@link #getLongs()}.
+	 * @return <code>true</code> if the arrays were loaded, <code>false</code>
+	 * if there is no valid cache file.
+	 */
+	public boolean load() {
+		if (!file.isFile()) {
+			return false;
+		}
+		try {
+			final RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+			try {
+				if (raf.readInt() != MAGIC || raf.readInt() != VERSION ||
+					raf.readLong() != dump.length() || raf.readLong() != dump.lastModified() ||
+					raf.readLong() != snapshotIndex.lastModified() ||
+					raf.readInt() != objects || !key.equals(raf.readUTF())) {
+					return false;
+				}
+				final int[] intLengths = new int[raf.readInt()];
+				for (int i = 0; i < intLengths.length; i++) {
+					intLengths[i] = raf.readInt();
+				}
+				final int[] longLengths = new int[raf.readInt()];
+				for (int i = 0; i < longLengths.length; i++) {
+					longLengths[i] = raf.readInt();
+				}
+				final FileChannel channel = raf.getChannel();
+				long pos = raf.getFilePointer();
+				final IIntArray[] loadedInts = new IIntArray[intLengths.length];
+				for (int i = 0; i < intLengths.length; i++) {
+					loadedInts[i] = new MappedIntArray(channel, MapMode.READ_ONLY, pos, intLengths[i]);
+					pos += 4L*intLengths[i];
+				}
+				final ILongArray[] loadedLongs = new ILongArray[longLengths.length];
+				for (int i = 0; i < longLengths.length; i++) {
+					loadedLongs[i] = new MappedLongArray(channel, MapMode.READ_ONLY, pos, longLengths[i]);
+					pos += 8L*longLengths[i];
+				}
+				if (pos != channel.size()) {
+					// truncated or otherwise broken
+					return false;
+				}
+				ints = loadedInts;
+				longs = loadedLongs;
+				return true;
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the loaded <code>int</code> arrays, in the order they were stored.
+	 * @return the loaded arrays, <code>null</code> if nothing was loaded.
+	 */
+	public IIntArray[] getInts() {
+		return ints;
+	}
+
+	/**
+	 * Returns the loaded <code>long</code> arrays, in the order they were stored.
+	 * @return the loaded arrays, <code>null</code> if nothing was loaded.
+	 */
+	public ILongArray[] getLongs() {
+		return longs;
+	}
+
+	/**
+	 * Stores the given arrays in the cache file, replacing any previous one.
+	 * The file is written under a temporary name first and renamed when
+	 * complete, so that a failed write never leaves a broken cache behind.
+	 * @param intArrays the <code>int</code> arrays to store, must not be <code>null</code>.
+	 * @param longArrays the <code>long</code> arrays to store, must not be <code>null</code>.
+	 * @throws IOException in case of error
+	 */
+	public void store(final IIntArray[] intArrays, final ILongArray[] longArrays) throws IOException {
+		final File temp = new File(file.getPath()+TEMP_SUFFIX);
+		boolean done = false;
+		try {
+			final RandomAccessFile raf = new RandomAccessFile(temp, "rw"); //$NON-NLS-1$
+			try {
+				raf.setLength(0);
+				final FileChannel channel = raf.getChannel();
+				write(channel, ByteBuffer.wrap(header(intArrays, longArrays)));
+				final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+				for (int i = 0; i < intArrays.length; i++) {
+					final IIntArray array = intArrays[i];
+					final int max = array.length();
+					for (int j = 0; j < max; j++) {
+						if (buffer.remaining() < 4) {
+							flush(channel, buffer);
+						}
+						buffer.putInt(array.get(j));
+					}
+				}
+				for (int i = 0; i < longArrays.length; i++) {
+					final ILongArray array = longArrays[i];
+					final int max = array.length();
+					for (int j = 0; j < max; j++) {
+						if (buffer.remaining() < 8) {
+							flush(channel, buffer);
+						}
+						buffer.putLong(array.get(j));
+					}
+				}
+				flush(channel, buffer);
+			} finally {
+				raf.close();
+			}
+			if (file.exists() && !file.delete()) {
+				throw new IOException(file.getPath());
+			}
+			if (!temp.renameTo(file)) {
+				throw new IOException(temp.getPath());
+			}
+			done = true;
+		} finally {
+			if (!done) {
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Creates the header of the cache file.
+	 * @param intArrays the <code>int</code> arrays to store
+	 * @param longArrays the <code>long</code> arrays to store
+	 * @return the header bytes, never <code>null</code>.
+	 * @throws IOException in case of error
+	 */
+	private byte[] header(final IIntArray[] intArrays, final ILongArray[] longArrays) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(dump.length());
+		out.writeLong(dump.lastModified());
+		out.writeLong(snapshotIndex.lastModified());
+		out.writeInt(objects);
+		out.writeUTF(key);
+		out.writeInt(intArrays.length);
+		for (int i = 0; i < intArrays.length; i++) {
+			out.writeInt(intArrays[i].length());
+		}
+		out.writeInt(longArrays.length);
+		for (int i = 0; i < longArrays.length; i++) {
+			out.writeInt(longArrays[i].length());
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes the contents of the buffer to the channel and clears the buffer.
+	 * @param channel the channel to write to
+	 * @param buffer the buffer, in write mode
+	 * @throws IOException in case of error
+	 */
+	private static void flush(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		write(channel, buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Writes all remaining bytes of the buffer to the channel.
+	 * @param channel the channel to write to
+	 * @param buffer the buffer, in read mode
+	 * @throws IOException in case of error
+	 */
+	private static void write(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+}
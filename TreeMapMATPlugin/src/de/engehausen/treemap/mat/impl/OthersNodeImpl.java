@@ -0,0 +1,80 @@
+package de.engehausen.treemap.mat.impl;
+
+import de.engehausen.treemap.mat.ISnapshotNode;
+
+/**
+ * Synthetic node standing for a number of children of a node which are
+ * too small to be shown on their own. Its weight is the sum of the weights
+ * of these children. The ID of the node is the bitwise complement of the
+ * ID of its parent, which is negative for all parents except synthetic ones;
+ * merged nodes below a synthetic parent have <code>Integer.MIN_VALUE</code>
+ * for ID, so they are told apart by their parents only.
+ */
+public class OthersNodeImpl implements ISnapshotNode {
+
+	private final ISnapshotNode parent;
+	private final int count;
+	private final long weight;
+
+	/**
+	 * Creates the node.
+	 * @param aParent the parent node, must not be <code>null</code>.
+	 * @param aCount the number of children the node stands for
+	 * @param aWeight the sum of the weights of these children
+	 */
+	public OthersNodeImpl(final ISnapshotNode aParent, final int aCount, final long aWeight) {
+		parent = aParent;
+		count = aCount;
+		weight = aWeight;
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public int getID() {
+		final int id = parent.getID();
+		return id>=0?~id:Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Returns the parent node.
+	 * @return the parent node, never <code>null</code>.
+	 */
+	public ISnapshotNode getParent() {
+		return parent;
+	}
+
+	/**
+	 * Returns the number of children the node stands for.
+	 * @return the number of children the node stands for.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the sum of the weights of the children the node stands for.
+	 * @return the weight of the node.
+	 */
+	public long getWeight() {
+		return weight;
+	}
+
+	@Override
+	// non-javadoc: see superclass
+	public boolean equals(final Object o) {
+		if (o == this) {
+			return true;
+		} else if (o instanceof OthersNodeImpl) {
+			return parent.equals(((OthersNodeImpl) o).parent);
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	// non-javadoc: see superclass
+	public int hashCode() {
+		return ~parent.hashCode();
+	}
+
+}
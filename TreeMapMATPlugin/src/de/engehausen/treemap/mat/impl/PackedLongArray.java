@@ -0,0 +1,142 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.IOException;
+
+/**
+ * Array of non-negative <code>long</code>s held in 32 bits each where they
+ * fit. For the weights of subtrees this is the case for all but a few
+ * values, as only the ancestors of subtrees larger than 4 GB exceed it.
+ * A value which does not fit is marked in the 32 bit array and held in
+ * full in a second array, together with its index; the indices are in
+ * ascending order, so such a value is found by binary search.
+ * <p>Each index is to be set once; the values not fitting into 32 bits
+ * must be set in ascending index order, and their number must be known
+ * when creating the array.
+ */
+public class PackedLongArray implements ILongArray {
+
+	/** the largest value held in 32 bits */
+	public static final long MAX_PACKED_VALUE = 0xfffffffeL;
+	/** the 32 bit value marking a value held in full */
+	private static final int OVERFLOW = 0xffffffff;
+
+	private final IIntArray data;
+	private final IIntArray overflowIndices;
+	private final ILongArray overflowValues;
+	private int overflowCount;
+
+	/**
+	 * Creates the array.
+	 * @param storage the storage to create the arrays in, must not be <code>null</code>.
+	 * @param aLength the number of values
+	 * @param anOverflowCount the number of values greater than {@link #MAX_PACKED_VALUE}
+	 * @throws IOException if the arrays cannot be created
+	 */
+	public PackedLongArray(final IArrayStorage storage, final int aLength, final int anOverflowCount) throws IOException {
+		data = storage.createIntArray(aLength);
+		overflowIndices = storage.createIntArray(anOverflowCount);
+		overflowValues = storage.createLongArray(anOverflowCount);
+	}
+
+	/**
+	 * Creates the array from existing arrays, as obtained by {@link #getData()},
+	 * {@link #getOverflowIndices()} and {@link #getOverflowValues()} after
+	 * all values were set.
+	 * @param someData the 32 bit values, must not be <code>null</code>.
+	 * @param someIndices the indices of the values held in full, must not be <code>null</code>.
+	 * @param someValues the values held in full, must not be <code>null</code>.
+	 */
+	public PackedLongArray(final IIntArray someData, final IIntArray someIndices, final ILongArray someValues) {
+		data = someData;
+		overflowIndices = someIndices;
+		overflowValues = someValues;
+		overflowCount = someIndices.length();
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public long get(final int index) {
+		final int value = data.get(index);
+		if (value != OVERFLOW) {
+			return value & 0xffffffffL;
+		}
+		int low = 0;
+		int high = overflowCount - 1;
+		while (low <= high) {
+			final int mid = (low + high)>>>1;
+			final int i = overflowIndices.get(mid);
+			if (i < index) {
+				low = mid + 1;
+			} else if (i > index) {
+				high = mid - 1;
+			} else {
+				return overflowValues.get(mid);
+			}
+		}
+		throw new IllegalStateException(Integer.toString(index));
+	}
+
+	/**
+	 * Sets the value at the given index.
+	 * @param index the index, must be &gt;= 0 and &lt; {@link #length()}.
+	 * @param value the value to set, must be &gt;= 0.
+	 * @throws IllegalArgumentException if the value is negative, or if it does
+	 * not fit into 32 bits and either more such values are set than given
+	 * when creating the array, or the index is not above the ones of the
+	 * values set before
+	 */
+	@Override
+	public void set(final int index, final long value) {
+		if (value < 0) {
+			throw new IllegalArgumentException(Long.toString(value));
+		} else if (value <= MAX_PACKED_VALUE) {
+			data.set(index, (int) value);
+		} else {
+			if (overflowCount == overflowIndices.length() || (overflowCount > 0 && overflowIndices.get(overflowCount-1) >= index)) {
+				throw new IllegalArgumentException(Long.toString(value));
+			}
+			data.set(index, OVERFLOW);
+			overflowIndices.set(overflowCount, index);
+			overflowValues.set(overflowCount++, value);
+		}
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public int length() {
+		return data.length();
+	}
+
+	/**
+	 * Returns the array holding the 32 bit values.
+	 * @return the array, never <code>null</code>.
+	 */
+	public IIntArray getData() {
+		return data;
+	}
+
+	/**
+	 * Returns the indices of the values held in full, in ascending order.
+	 * @return the indices, never <code>null</code>.
+	 */
+	public IIntArray getOverflowIndices() {
+		return overflowIndices;
+	}
+
+	/**
+	 * Returns the values held in full.
+	 * @return the values, never <code>null</code>.
+	 */
+	public ILongArray getOverflowValues() {
+		return overflowValues;
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by the array.
+	 * @return the approximate number of bytes used by the array.
+	 */
+	public long getMemoryFootprint() {
+		return 4L*data.length() + 12L*overflowIndices.length();
+	}
+
+}
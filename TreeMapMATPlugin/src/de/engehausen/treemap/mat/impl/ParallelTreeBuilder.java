@@ -0,0 +1,315 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.util.IProgressListener;
+
+import de.engehausen.treemap.mat.Messages;
+
+/**
+ * Builds the <code>parent</code> and <code>weight</code> arrays of a
+ * {@link WeightedSnapshotTreeModelImpl} using several worker threads.
+ * <p>All GC roots are claimed up front and handed out in chunks. Each
+ * worker traverses depth-first using its own stack; a node becomes the
+ * child of the first node that claims it in the shared visited set.
+ * Busy workers donate the oldest half of their stack (the biggest
+ * pending subtrees) to a shared pool whenever another worker is idle.
+ * <p>The traversal ends when the number of claimed but not yet expanded
+ * nodes drops to zero. Workers publish their share of that number only
+ * before donating and before going idle, which keeps the counter from
+ * becoming a point of contention.
+ * <p>The <code>weight</code> array must hold the heap size of each object
+ * when the build starts. The subtree weights are summed up afterwards in a single pass that
+ * completes a node as soon as all its children are completed; this needs
+ * a temporary <code>int</code> per object, taken from the same array
+ * storage as the model's arrays.
+ */
+public class ParallelTreeBuilder {
+
+	/** number of GC roots per initial chunk */
+	private static final int ROOT_CHUNK = 64;
+	/** minimum stack size for a worker to donate work */
+	private static final int MIN_DONATION = 32;
+	/** number of nodes to expand before checking for cancellation and donation */
+	private static final int CHECK_INTERVAL = 0x3ff;
+	/** number of expanded nodes per progress step */
+	private static final int PROGRESS_SHIFT = 12;
+	/** time the main thread waits before reporting progress, in milliseconds */
+	private static final long POLL_INTERVAL = 100;
+	/** time an idle worker waits before looking for work again, in nanoseconds */
+	private static final long IDLE_WAIT = 50000;
+
+	protected final ISnapshot snapshot;
+	protected final IIntArray parent;
+	protected final ILongArray weight;
+	protected final IArrayStorage storage;
+	protected final int threads;
+
+	private final AtomicIntegerArray visited;
+	private final Queue<int[]> pool;
+	private final AtomicLong pending;
+	private final AtomicLong expanded;
+	private final AtomicInteger idle;
+	private final AtomicReference<Throwable> failure;
+	private volatile boolean abort;
+
+	/**
+	 * Creates the builder.
+	 * @param aSnapshot the snapshot to traverse, must not be <code>null</code>.
+	 * @param parents the array receiving the parent ID of each node, must not be <code>null</code>.
+	 * @param weights the array receiving the subtree weight of each node, must not be <code>null</code>.
+	 * @param aStorage the storage to create temporary arrays in, must not be <code>null</code>.
+	 * @param threadCount the number of worker threads to use, must be &gt; 0.
+	 */
+	public ParallelTreeBuilder(final ISnapshot aSnapshot, final IIntArray parents, final ILongArray weights, final IArrayStorage aStorage, final int threadCount) {
+		snapshot = aSnapshot;
+		parent = parents;
+		weight = weights;
+		storage = aStorage;
+		threads = threadCount;
+		visited = new AtomicIntegerArray((parents.length()>>5)+1);
+		pool = new ConcurrentLinkedQueue<int[]>();
+		pending = new AtomicLong();
+		expanded = new AtomicLong();
+		idle = new AtomicInteger();
+		failure = new AtomicReference<Throwable>();
+	}
+
+	/**
+	 * Traverses the graph and computes the subtree weights. This method
+	 * blocks until all workers have finished and must only be called once.
+	 * @param progress the progress listener; it is only called from the
+	 * calling thread.
+	 * @throws SnapshotException in case of error or cancellation
+	 */
+	public void build(final IProgressListener progress) throws SnapshotException {
+		final int[] gcroots = snapshot.getGCRoots();
+		progress.beginTask(Messages.STR_CONVERT_GRAPH_TREE, (parent.length()>>PROGRESS_SHIFT)+1);
+		for (int i = 0; i < gcroots.length; i++) {
+			claim(gcroots[i]);
+			parent.set(gcroots[i], Integer.MAX_VALUE); // roots have no parent
+		}
+		for (int i = 0; i < gcroots.length; i += ROOT_CHUNK) {
+			final int[] chunk = new int[Math.min(ROOT_CHUNK, gcroots.length - i)];
+			System.arraycopy(gcroots, i, chunk, 0, chunk.length);
+			pool.offer(chunk);
+		}
+		pending.set(gcroots.length);
+		final CountDownLatch latch = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			final Thread thread = new Thread(new Worker(latch), ParallelTreeBuilder.class.getSimpleName()+'-'+i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		long reported = 0;
+		try {
+			while (!latch.await(POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+				reported = report(progress, reported);
+				if (progress.isCanceled()) {
+					abort = true;
+				}
+			}
+		} catch (InterruptedException e) {
+			abort = true;
+			Thread.currentThread().interrupt();
+			throw new SnapshotException(e);
+		}
+		report(progress, reported);
+		if (progress.isCanceled()) {
+			abort = true;
+		}
+		final Throwable t = failure.get();
+		if (t instanceof SnapshotException) {
+			throw (SnapshotException) t;
+		} else if (t != null) {
+			throw new SnapshotException(t);
+		} else if (abort) {
+			throw new SnapshotException(Messages.STR_COMP_CANCELLED);
+		}
+		try {
+			accumulate();
+		} catch (IOException e) {
+			throw new SnapshotException(e);
+		}
+	}
+
+	/**
+	 * Reports the progress made since the last report.
+	 * @param progress the progress listener
+	 * @param reported the number of steps reported so far
+	 * @return the number of steps reported now
+	 */
+	private long report(final IProgressListener progress, final long reported) {
+		final long steps = expanded.get()>>PROGRESS_SHIFT;
+		if (steps > reported) {
+			progress.worked((int) (steps - reported));
+		}
+		return Math.max(steps, reported);
+	}
+
+	/**
+	 * Marks the given node as visited.
+	 * @param node the node to claim
+	 * @return <code>true</code> if the node was not visited before and
+	 * now belongs to the caller, <code>false</code> otherwise.
+	 */
+	protected boolean claim(final int node) {
+		final int idx = node>>>5;
+		final int bit = 1<<(node&0x1f);
+		int current;
+		do {
+			current = visited.get(idx);
+			if ((current & bit) != 0) {
+				return false;
+			}
+		} while (!visited.compareAndSet(idx, current, current|bit));
+		return true;
+	}
+
+	/**
+	 * Sums up the weights of all visited nodes bottom-up. Each node counts
+	 * its children; a node whose children have all been added to it is
+	 * complete and adds its own weight to its parent.
+	 * @throws IOException if the temporary array cannot be created
+	 */
+	private void accumulate() throws IOException {
+		final int max = parent.length();
+		final IIntArray open = storage.createIntArray(max);
+		for (int i = 0; i < max; i++) {
+			if (isVisited(i)) {
+				final int p = parent.get(i);
+				if (p != Integer.MAX_VALUE) {
+					open.set(p, open.get(p)+1);
+				}
+			}
+		}
+		for (int i = 0; i < max; i++) {
+			if (open.get(i) == 0 && isVisited(i)) {
+				// a leaf; complete the chain of parents as far as possible
+				int node = i;
+				int p = parent.get(node);
+				while (p != Integer.MAX_VALUE) {
+					weight.set(p, weight.get(p)+weight.get(node));
+					open.set(node, -1); // done, must not be taken for a leaf later
+					final int remaining = open.get(p) - 1;
+					open.set(p, remaining);
+					if (remaining > 0) {
+						break;
+					}
+					node = p;
+					p = parent.get(node);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Indicates whether the given node has been visited.
+	 * @param node the node
+	 * @return <code>true</code> if the node has been visited.
+	 */
+	private boolean isVisited(final int node) {
+		return (visited.get(node>>>5) & (1<<(node&0x1f))) != 0;
+	}
+
+	/**
+	 * Worker taking chunks of nodes from the pool and traversing
+	 * their subtrees.
+	 */
+	private class Worker implements Runnable {
+
+		private final CountDownLatch latch;
+		private final IntStack stack;
+		// claimed minus expanded nodes not yet published to 'pending'
+		private long delta;
+
+		protected Worker(final CountDownLatch aLatch) {
+			latch = aLatch;
+			stack = new IntStack(400);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!abort) {
+					final int[] chunk = pool.poll();
+					if (chunk != null) {
+						traverse(chunk);
+					} else if (pending.get() == 0) {
+						break;
+					} else {
+						idle.incrementAndGet();
+						LockSupport.parkNanos(IDLE_WAIT);
+						idle.decrementAndGet();
+					}
+				}
+			} catch (Throwable t) {
+				failure.compareAndSet(null, t);
+				abort = true;
+			} finally {
+				latch.countDown();
+			}
+		}
+
+		/**
+		 * Traverses the subtrees of the given nodes.
+		 * @param chunk the nodes, all claimed already
+		 * @throws SnapshotException in case of error
+		 */
+		private void traverse(final int[] chunk) throws SnapshotException {
+			for (int i = chunk.length - 1; i >= 0; i--) {
+				stack.push(chunk[i]);
+			}
+			int count = 0;
+			while (!stack.isEmpty()) {
+				final int node = stack.pop();
+				delta--;
+				final int[] children = snapshot.getOutboundReferentIds(node);
+				for (int i = children.length - 1; i >= 0; i--) {
+					final int c = children[i];
+					if (claim(c)) {
+						parent.set(c, node);
+						stack.push(c);
+						delta++;
+					}
+				}
+				if ((++count & CHECK_INTERVAL) == 0) {
+					expanded.addAndGet(CHECK_INTERVAL+1);
+					if (abort) {
+						return;
+					}
+					if (idle.get() > 0 && stack.size() >= MIN_DONATION) {
+						// publish first, the receiver may expand the nodes right away
+						publish();
+						pool.offer(stack.removeBottom(stack.size()/2));
+					}
+				}
+			}
+			expanded.addAndGet(count & CHECK_INTERVAL);
+			publish();
+		}
+
+		/**
+		 * Publishes the locally counted change of pending nodes.
+		 */
+		private void publish() {
+			if (delta != 0) {
+				pending.addAndGet(delta);
+				delta = 0;
+			}
+		}
+
+	}
+
+}
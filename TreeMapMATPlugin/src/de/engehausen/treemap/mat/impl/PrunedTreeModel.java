@@ -0,0 +1,218 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.eclipse.mat.snapshot.ISnapshot;
+
+import de.engehausen.treemap.IRectangle;
+import de.engehausen.treemap.ITreeModel;
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ICachedLabelProvider;
+import de.engehausen.treemap.mat.IMetricTreeModel;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.ISnapshotProvider;
+import de.engehausen.treemap.mat.ISortedTreeModel;
+import de.engehausen.treemap.mat.Metric;
+
+/**
+ * Wrapper of a weighted tree model leaving out the nodes deeper than a
+ * maximum depth and the nodes lighter than a minimum weight, as
+ * {@link FocusedTreeModelImpl} does when starting at the GC roots; but
+ * instead of traversing the graph again into arrays of its own, it shows
+ * a part of a model built before, which is held in the storage chosen for
+ * it and kept in the {@link ModelCache}.
+ * <p>A node left out is collapsed into its parent: the weights are the ones
+ * of the wrapped model, so the weight of a node still includes the nodes
+ * left out below it, also those further down than the maximum depth.
+ * <p>The wrapper holds no state other than the limits and can be read by
+ * several threads at the same time if the wrapped model can.
+ */
+public class PrunedTreeModel implements IWeightedTreeModel<ISnapshotNode>, ICachedLabelProvider<ISnapshotNode>, ISnapshotProvider, ISortedTreeModel, IMetricTreeModel {
+
+	protected static Iterator<ISnapshotNode> EMPTY_ITERATOR = Collections.<ISnapshotNode>emptyList().iterator();
+
+	protected final IWeightedTreeModel<ISnapshotNode> source;
+	/** the labels of the source model */
+	protected final LabelDelegate sourceLabels;
+	/** whether the children of the source model come by descending weight */
+	protected final boolean sorted;
+	protected final int depth;
+	protected final long minWeight;
+
+	/**
+	 * Creates the wrapper.
+	 * @param aSource the model to wrap, must not be <code>null</code>.
+	 * @param aDepth the number of levels of objects to keep, the children
+	 * of the root node being the first level; <code>0</code> for no limit.
+	 * @param aMinWeight the weight a node needs at least to be kept
+	 */
+	public PrunedTreeModel(final IWeightedTreeModel<ISnapshotNode> aSource, final int aDepth, final long aMinWeight) {
+		source = aSource;
+		sourceLabels = new LabelDelegate(aSource);
+		sorted = aSource instanceof ISortedTreeModel && ((ISortedTreeModel) aSource).isSortedByWeight();
+		depth = aDepth;
+		minWeight = aMinWeight;
+	}
+
+	@Override
+	public Iterator<ISnapshotNode> getChildren(final ISnapshotNode node) {
+		if (depth > 0 && getLevel(node) >= depth) {
+			return EMPTY_ITERATOR;
+		}
+		final Iterator<ISnapshotNode> i = source.getChildren(node);
+		return minWeight>0?new HeavyNodeIterator(i, this, sorted):i;
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public Iterator<ISnapshotNode> getChildren(final ISnapshotNode node, final Metric metric) {
+		if (!(source instanceof IMetricTreeModel)) {
+			if (metric != Metric.SIZE) {
+				throw new IllegalArgumentException(metric.name());
+			}
+			return getChildren(node);
+		}
+		if (depth > 0 && getLevel(node) >= depth) {
+			return EMPTY_ITERATOR;
+		}
+		final IMetricTreeModel metrics = (IMetricTreeModel) source;
+		final Iterator<ISnapshotNode> i = metrics.getChildren(node, metric);
+		// the minimum weight is one of the first metric: stop early only in its order
+		return minWeight>0?new HeavyNodeIterator(i, this, sorted && metric == metrics.getMetrics()[0]):i;
+	}
+
+	@Override
+	public ISnapshotNode getParent(final ISnapshotNode node) {
+		return source.getParent(node);
+	}
+
+	@Override
+	public ISnapshotNode getRoot() {
+		return source.getRoot();
+	}
+
+	@Override
+	public boolean hasChildren(final ISnapshotNode node) {
+		return source.hasChildren(node) && getChildren(node).hasNext();
+	}
+
+	@Override
+	public long getWeight(final ISnapshotNode node) {
+		return source.getWeight(node);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public Metric[] getMetrics() {
+		return source instanceof IMetricTreeModel?((IMetricTreeModel) source).getMetrics():new Metric[] { Metric.SIZE };
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public long getWeight(final ISnapshotNode node, final Metric metric) {
+		if (source instanceof IMetricTreeModel) {
+			return ((IMetricTreeModel) source).getWeight(node, metric);
+		} else if (metric == Metric.SIZE) {
+			return source.getWeight(node);
+		}
+		throw new IllegalArgumentException(metric.name());
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getLabel(final ITreeModel<IRectangle<ISnapshotNode>> model, final IRectangle<ISnapshotNode> rectangle) {
+		return sourceLabels.getLabel(model, rectangle);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getCachedLabel(final IRectangle<ISnapshotNode> rectangle) {
+		return sourceLabels.getCachedLabel(rectangle);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public ISnapshot getSnapshot() {
+		return source instanceof ISnapshotProvider?((ISnapshotProvider) source).getSnapshot():null;
+	}
+
+	@Override
+	// non-javadoc: see interface; nodes are only left out, never reordered
+	public boolean isSortedByWeight() {
+		return sorted;
+	}
+
+	/**
+	 * Returns the level of a node: the number of its ancestors up to
+	 * the root node, which is at level <code>0</code>.
+	 * @param node the node
+	 * @return the level of the node
+	 */
+	protected int getLevel(final ISnapshotNode node) {
+		int level = 0;
+		for (ISnapshotNode parent = source.getParent(node); parent != null && level < depth; parent = source.getParent(parent)) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Iterator over the children of a node at least as heavy as the
+	 * minimum weight. If the children come by descending weight of the
+	 * minimum, it stops at the first light one.
+	 */
+	private static class HeavyNodeIterator implements Iterator<ISnapshotNode> {
+
+		private final Iterator<ISnapshotNode> children;
+		private final PrunedTreeModel model;
+		private final boolean sorted;
+		private ISnapshotNode next;
+
+		protected HeavyNodeIterator(final Iterator<ISnapshotNode> someChildren, final PrunedTreeModel aModel, final boolean isSorted) {
+			children = someChildren;
+			model = aModel;
+			sorted = isSorted;
+			next = findNext();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public ISnapshotNode next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			final ISnapshotNode result = next;
+			next = findNext();
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Returns the next child at least as heavy as the minimum weight.
+		 * @return the child, or <code>null</code> if there is none.
+		 */
+		private ISnapshotNode findNext() {
+			while (children.hasNext()) {
+				final ISnapshotNode child = children.next();
+				if (model.source.getWeight(child) >= model.minWeight) {
+					return child;
+				} else if (sorted) {
+					break;
+				}
+			}
+			return null;
+		}
+
+	}
+
+}
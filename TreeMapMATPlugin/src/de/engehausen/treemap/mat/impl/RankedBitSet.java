@@ -0,0 +1,127 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.IOException;
+
+/**
+ * Fixed-size bit set which can tell the number of set bits before any
+ * index (its rank) in constant time. Once all bits are set, the rank
+ * directory must be built by calling {@link #buildRanks()}; the set is
+ * not to be changed afterwards.
+ * <p>The directory holds the rank of every block of 512 bits, which adds
+ * one <code>int</code> per 512 bits; the rank of an index is computed
+ * from its block's rank and at most eight word population counts.
+ */
+public class RankedBitSet {
+
+	/** 2^6 bits per word */
+	private static final int WORD_SHIFT = 6;
+	/** 2^9 bits per block of the rank directory */
+	private static final int BLOCK_SHIFT = 9;
+
+	protected final ILongArray words;
+	protected final IIntArray ranks;
+
+	/**
+	 * Creates an empty bit set.
+	 * @param storage the storage to create the arrays of the set in, must not be <code>null</code>.
+	 * @param aLength the number of bits, must be &gt;= 0.
+	 * @throws IOException if the arrays cannot be created
+	 */
+	public RankedBitSet(final IArrayStorage storage, final int aLength) throws IOException {
+		words = storage.createLongArray((int) ((aLength + 63L)>>WORD_SHIFT));
+		ranks = storage.createIntArray((int) ((aLength + 511L)>>BLOCK_SHIFT) + 1);
+	}
+
+	/**
+	 * Creates the bit set from existing arrays, as obtained by
+	 * {@link #getWords()} and {@link #getRanks()} after the rank
+	 * directory was built.
+	 * @param someWords the words holding the bits, must not be <code>null</code>.
+	 * @param someRanks the rank directory, must not be <code>null</code>.
+	 */
+	public RankedBitSet(final ILongArray someWords, final IIntArray someRanks) {
+		words = someWords;
+		ranks = someRanks;
+	}
+
+	/**
+	 * Sets the bit at the given index.
+	 * @param index the index, must be &gt;= 0 and less than the number of bits.
+	 */
+	public void set(final int index) {
+		final int w = index>>>WORD_SHIFT;
+		words.set(w, words.get(w) | (1L<<index));
+	}
+
+	/**
+	 * Returns the bit at the given index.
+	 * @param index the index, must be &gt;= 0 and less than the number of bits.
+	 * @return <code>true</code> if the bit is set.
+	 */
+	public boolean get(final int index) {
+		return (words.get(index>>>WORD_SHIFT) & (1L<<index)) != 0;
+	}
+
+	/**
+	 * Builds the rank directory; must be called after all bits are set.
+	 */
+	public void buildRanks() {
+		final int max = words.length();
+		int count = 0;
+		for (int i = 0; i < max; i++) {
+			if ((i & ((1<<(BLOCK_SHIFT-WORD_SHIFT))-1)) == 0) {
+				ranks.set(i>>>(BLOCK_SHIFT-WORD_SHIFT), count);
+			}
+			count += Long.bitCount(words.get(i));
+		}
+		ranks.set(ranks.length()-1, count);
+	}
+
+	/**
+	 * Returns the number of set bits before the given index.
+	 * @param index the index, must be &gt;= 0 and less than the number of bits.
+	 * @return the number of set bits before the index.
+	 */
+	public int rank(final int index) {
+		final int w = index>>>WORD_SHIFT;
+		int result = ranks.get(index>>>BLOCK_SHIFT);
+		for (int i = (index>>>BLOCK_SHIFT)<<(BLOCK_SHIFT-WORD_SHIFT); i < w; i++) {
+			result += Long.bitCount(words.get(i));
+		}
+		return result + Long.bitCount(words.get(w) & ((1L<<index)-1));
+	}
+
+	/**
+	 * Returns the number of set bits; only valid after the rank
+	 * directory has been built.
+	 * @return the number of set bits.
+	 */
+	public int cardinality() {
+		return ranks.get(ranks.length()-1);
+	}
+
+	/**
+	 * Returns the array of words holding the bits.
+	 * @return the words, never <code>null</code>.
+	 */
+	public ILongArray getWords() {
+		return words;
+	}
+
+	/**
+	 * Returns the rank directory.
+	 * @return the rank directory, never <code>null</code>.
+	 */
+	public IIntArray getRanks() {
+		return ranks;
+	}
+
+	/**
+	 * Returns the approximate number of bytes used by the bit set.
+	 * @return the approximate number of bytes used by the bit set.
+	 */
+	public long getMemoryFootprint() {
+		return 8L*words.length() + 4L*ranks.length();
+	}
+
+}
@@ -0,0 +1,25 @@
+package de.engehausen.treemap.mat.impl;
+
+/**
+ * The ways of grouping the children of the virtual root node, the GC
+ * roots, in a {@link GCRootGroupingTreeModel}.
+ */
+public enum RootGrouping {
+
+	/**
+	 * The GC roots are the children of the root node, as built.
+	 */
+	NONE,
+
+	/**
+	 * The GC roots are grouped by their types.
+	 */
+	TYPE,
+
+	/**
+	 * The GC roots are grouped by their types, and those belonging to
+	 * a thread, such as local variables, also by their thread.
+	 */
+	THREAD
+
+}
@@ -0,0 +1,59 @@
+package de.engehausen.treemap.mat.impl;
+
+import de.engehausen.treemap.mat.ISnapshotNode;
+
+/**
+ * Bounded cache of snapshot nodes, so that laying out and painting the
+ * same nodes again and again does not create new node objects each time.
+ * <p>The cache is direct-mapped: a node can only be held in the slot given
+ * by the lower bits of its ID, replacing any node held there before. This
+ * needs no bookkeeping, and as nodes are immutable, the cache can be used
+ * by several threads without locking; at worst, two threads create a node
+ * for the same ID, which are equal.
+ */
+public class SnapshotNodeCache {
+
+	/** default number of slots, 2^16 */
+	public static final int DEFAULT_SIZE_SHIFT = 16;
+
+	private final ISnapshotNode[] slots;
+	private final int mask;
+	private final ISnapshotNode root;
+
+	/**
+	 * Creates the cache with the default number of slots.
+	 */
+	public SnapshotNodeCache() {
+		this(DEFAULT_SIZE_SHIFT);
+	}
+
+	/**
+	 * Creates the cache.
+	 * @param sizeShift the number of slots, as a power of two
+	 */
+	public SnapshotNodeCache(final int sizeShift) {
+		slots = new ISnapshotNode[1<<sizeShift];
+		mask = slots.length - 1;
+		root = new SnapshotNodeImpl(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the node with the given ID, creating it if it is not
+	 * held in the cache.
+	 * @param id the node ID
+	 * @return the node, never <code>null</code>.
+	 */
+	public ISnapshotNode get(final int id) {
+		if (id == Integer.MAX_VALUE) {
+			return root;
+		}
+		final int slot = id & mask;
+		ISnapshotNode result = slots[slot];
+		if (result == null || result.getID() != id) {
+			result = new SnapshotNodeImpl(id);
+			slots[slot] = result;
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,269 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.collect.ArrayInt;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.util.IProgressListener;
+
+import de.engehausen.treemap.IRectangle;
+import de.engehausen.treemap.ITreeModel;
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ICachedLabelProvider;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.ISnapshotProvider;
+import de.engehausen.treemap.mat.ISortedTreeModel;
+import de.engehausen.treemap.mat.Messages;
+
+/**
+ * In-memory copy of the top levels of a subtree of another weighted tree
+ * model. Reading the nodes, children and weights of the snapshot models
+ * may need to read the snapshot's indices or memory-mapped files; the copy
+ * is made in the background, so that laying out and painting the subtree
+ * on the UI thread only reads the arrays of the copy.
+ * <p>The given node is the root of the copy; nodes at the given depth
+ * below it have no children in the copy. The nodes are held in
+ * breadth-first order, so the children of each node are contiguous.
+ * The children are held by descending weight; they are only sorted
+ * while copying if the source model does not return them in this order
+ * (see {@link ISortedTreeModel}).
+ * <p>Labels are taken from the source model.
+ * <p>The copy is never changed once created and can be read by several
+ * threads at the same time.
+ */
+public class SubtreeModelImpl implements IWeightedTreeModel<ISnapshotNode>, ICachedLabelProvider<ISnapshotNode>, ISnapshotProvider, ISortedTreeModel {
+
+	protected static Iterator<ISnapshotNode> EMPTY_ITERATOR = Collections.<ISnapshotNode>emptyList().iterator();
+	/** number of nodes copied between checks for cancellation */
+	private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+	protected final IWeightedTreeModel<ISnapshotNode> source;
+	/** the labels of the source model */
+	protected final LabelDelegate sourceLabels;
+	/** the nodes, in breadth-first order */
+	protected final ISnapshotNode[] nodes;
+	/** the weight of each node */
+	protected final long[] weights;
+	/** the position of the parent of each node, <code>-1</code> for the root */
+	protected final int[] parents;
+	/** the position of the first child of each node, plus the end of the last node's children */
+	protected final int[] firstChild;
+	/** the position of the first node whose children were not copied */
+	protected final int truncated;
+	/** the position of each node */
+	protected final Map<ISnapshotNode, Integer> positions;
+
+	/**
+	 * Copies the top levels of a subtree of the given model.
+	 * @param aSource the model to copy from, must not be <code>null</code>.
+	 * @param aRoot the root of the subtree, must not be <code>null</code>.
+	 * @param depth the number of levels below the root to copy
+	 * @param aListener the progress listener, checked for cancellation
+	 * @return the copy, never <code>null</code>.
+	 * @throws SnapshotException if cancelled
+	 */
+	public static SubtreeModelImpl createModel(final IWeightedTreeModel<ISnapshotNode> aSource, final ISnapshotNode aRoot, final int depth, final IProgressListener aListener) throws SnapshotException {
+		final List<ISnapshotNode> nodes = new ArrayList<ISnapshotNode>();
+		final ArrayInt parents = new ArrayInt();
+		final ArrayInt firstChild = new ArrayInt();
+		final boolean sorted = aSource instanceof ISortedTreeModel && ((ISortedTreeModel) aSource).isSortedByWeight();
+		final Comparator<ISnapshotNode> byWeight = new Comparator<ISnapshotNode>() {
+			public int compare(final ISnapshotNode a, final ISnapshotNode b) {
+				final long wa = aSource.getWeight(a);
+				final long wb = aSource.getWeight(b);
+				return wa > wb ? -1 : (wa < wb ? 1 : 0);
+			}
+		};
+		nodes.add(aRoot);
+		parents.add(-1);
+		int level = 0;
+		int levelEnd = 1;
+		int truncated = Integer.MAX_VALUE;
+		for (int i = 0; i < nodes.size(); i++) {
+			if (i == levelEnd) {
+				level++;
+				levelEnd = nodes.size();
+			}
+			if (level == depth && truncated > i) {
+				truncated = i;
+			}
+			firstChild.add(nodes.size());
+			if (level < depth) {
+				final int start = nodes.size();
+				for (Iterator<ISnapshotNode> children = aSource.getChildren(nodes.get(i)); children.hasNext(); ) {
+					nodes.add(children.next());
+					parents.add(i);
+				}
+				if (!sorted) {
+					// stable, so children of equal weight keep their order
+					Collections.sort(nodes.subList(start, nodes.size()), byWeight);
+				}
+			}
+			if (i % CANCEL_CHECK_INTERVAL == 0 && aListener.isCanceled()) {
+				throw new SnapshotException(Messages.STR_COMP_CANCELLED);
+			}
+		}
+		firstChild.add(nodes.size());
+		final long[] weights = new long[nodes.size()];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = aSource.getWeight(nodes.get(i));
+			if (i % CANCEL_CHECK_INTERVAL == 0 && aListener.isCanceled()) {
+				throw new SnapshotException(Messages.STR_COMP_CANCELLED);
+			}
+		}
+		return new SubtreeModelImpl(aSource, nodes.toArray(new ISnapshotNode[nodes.size()]), weights, parents.toArray(), firstChild.toArray(), Math.min(truncated, nodes.size()));
+	}
+
+	/**
+	 * Creates the copy from its arrays.
+	 * @param aSource the model copied from, must not be <code>null</code>.
+	 * @param someNodes the nodes in breadth-first order, must not be <code>null</code>.
+	 * @param someWeights the weight of each node, must not be <code>null</code>.
+	 * @param someParents the position of the parent of each node, must not be <code>null</code>.
+	 * @param someFirstChildren the position of the first child of each node, must not be <code>null</code>.
+	 * @param firstTruncated the position of the first node whose children were not copied
+	 */
+	protected SubtreeModelImpl(final IWeightedTreeModel<ISnapshotNode> aSource, final ISnapshotNode[] someNodes, final long[] someWeights, final int[] someParents, final int[] someFirstChildren, final int firstTruncated) {
+		source = aSource;
+		sourceLabels = new LabelDelegate(aSource);
+		nodes = someNodes;
+		weights = someWeights;
+		parents = someParents;
+		firstChild = someFirstChildren;
+		truncated = firstTruncated;
+		positions = new HashMap<ISnapshotNode, Integer>(2*someNodes.length);
+		for (int i = 0; i < someNodes.length; i++) {
+			positions.put(someNodes[i], Integer.valueOf(i));
+		}
+	}
+
+	/**
+	 * Returns the model this is a copy of.
+	 * @return the source model, never <code>null</code>.
+	 */
+	public IWeightedTreeModel<ISnapshotNode> getSource() {
+		return source;
+	}
+
+	/**
+	 * Indicates whether the children of the given node were left out
+	 * of the copy, as the node is at the copied depth below the root.
+	 * @param node the node
+	 * @return <code>true</code> if the node may have children in
+	 * the source model which are not part of the copy.
+	 */
+	public boolean isTruncated(final ISnapshotNode node) {
+		return position(node) >= truncated;
+	}
+
+	@Override
+	public Iterator<ISnapshotNode> getChildren(final ISnapshotNode node) {
+		final int pos = position(node);
+		if (pos >= 0 && firstChild[pos] < firstChild[pos+1]) {
+			return new NodeIterator(firstChild[pos], firstChild[pos+1], nodes);
+		} else {
+			return EMPTY_ITERATOR;
+		}
+	}
+
+	@Override
+	public ISnapshotNode getParent(final ISnapshotNode node) {
+		final int pos = position(node);
+		return pos>0?nodes[parents[pos]]:null;
+	}
+
+	@Override
+	public ISnapshotNode getRoot() {
+		return nodes[0];
+	}
+
+	@Override
+	public boolean hasChildren(final ISnapshotNode node) {
+		final int pos = position(node);
+		return pos >= 0 && firstChild[pos] < firstChild[pos+1];
+	}
+
+	@Override
+	public long getWeight(final ISnapshotNode node) {
+		final int pos = position(node);
+		return pos>=0?weights[pos]:0;
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getLabel(final ITreeModel<IRectangle<ISnapshotNode>> model, final IRectangle<ISnapshotNode> rectangle) {
+		return sourceLabels.getLabel(model, rectangle);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getCachedLabel(final IRectangle<ISnapshotNode> rectangle) {
+		return sourceLabels.getCachedLabel(rectangle);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public ISnapshot getSnapshot() {
+		return source instanceof ISnapshotProvider?((ISnapshotProvider) source).getSnapshot():null;
+	}
+
+	@Override
+	// non-javadoc: see interface; the children are sorted when copied
+	public boolean isSortedByWeight() {
+		return true;
+	}
+
+	/**
+	 * Returns the position of a node of the copy.
+	 * @param node the node
+	 * @return the position, or <code>-1</code> if the node is not part of the copy.
+	 */
+	private int position(final ISnapshotNode node) {
+		final Integer pos = positions.get(node);
+		return pos!=null?pos.intValue():-1;
+	}
+
+	/**
+	 * Node iterator over a range of the nodes of the copy.
+	 */
+	private static class NodeIterator implements Iterator<ISnapshotNode> {
+
+		private final ISnapshotNode[] nodes;
+		private final int end;
+		private int pos;
+
+		protected NodeIterator(final int start, final int anEnd, final ISnapshotNode[] someNodes) {
+			nodes = someNodes;
+			end = anEnd;
+			pos = start;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return pos < end;
+		}
+
+		@Override
+		public ISnapshotNode next() {
+			if (pos == end) {
+				throw new NoSuchElementException();
+			}
+			return nodes[pos++];
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
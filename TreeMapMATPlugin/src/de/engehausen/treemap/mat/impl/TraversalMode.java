@@ -0,0 +1,31 @@
+package de.engehausen.treemap.mat.impl;
+
+/**
+ * The ways of traversing the object graph of a snapshot when
+ * turning it into a weighted tree.
+ */
+public enum TraversalMode {
+
+	/**
+	 * Single-threaded depth-first traversal, one GC root after the other.
+	 * The resulting tree is always the same for a given snapshot.
+	 */
+	SEQUENTIAL,
+
+	/**
+	 * Multi-threaded traversal; worker threads claim nodes through a shared
+	 * visited set and steal subtrees from each other. The resulting tree is
+	 * a valid spanning tree, but which of several referrers becomes the parent
+	 * of a node depends on thread timing.
+	 */
+	PARALLEL,
+
+	/**
+	 * Single-threaded traversal expanding the objects in batches of nearby
+	 * IDs, so that the snapshot's outbound index is read mostly sequentially
+	 * (see {@link ClusteredTreeBuilder}). The resulting tree is always the
+	 * same for a given snapshot, but differs from the sequential one.
+	 */
+	CLUSTERED
+
+}
@@ -1,22 +1,33 @@
 package de.engehausen.treemap.mat.impl;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 import org.eclipse.mat.SnapshotException;
 import org.eclipse.mat.collect.BitField;
 import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.SnapshotInfo;
 import org.eclipse.mat.util.IProgressListener;
+import org.eclipse.mat.util.IProgressListener.Severity;
 import org.eclipse.mat.util.Units;
+import org.eclipse.mat.util.VoidProgressListener;
+import org.eclipse.osgi.util.NLS;
 
-import de.engehausen.treemap.ILabelProvider;
 import de.engehausen.treemap.IRectangle;
 import de.engehausen.treemap.ITreeModel;
 import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ICachedLabelProvider;
+import de.engehausen.treemap.mat.IMetricTreeModel;
 import de.engehausen.treemap.mat.ISnapshotNode;
 import de.engehausen.treemap.mat.ISnapshotProvider;
+import de.engehausen.treemap.mat.ISortedTreeModel;
 import de.engehausen.treemap.mat.Messages;
+import de.engehausen.treemap.mat.Metric;
 
 /**
  * Result tree model (a weighted tree model implementation). To become
@@ -32,18 +43,56 @@ import de.engehausen.treemap.mat.Messages;
  * object distribution and size. "Normal" analysis of the heap will be required
  * to fully understand the object reference situation in the heap and how to
  * possibly reduce the heap size.
- * <p>This tree model is <b>not thread-safe</b>.
+ * <p>The graph can be traversed by a single thread or by several threads
+ * (see {@link TraversalMode}); only the single-threaded traversals always
+ * build the same tree.
+ * <p>The arrays of the model are held on the Java heap, or in memory-mapped
+ * temporary files if they would take up too much of the heap MAT needs for
+ * itself (see {@link #createStorage(ISnapshot, IProgressListener)}).
+ * <p>Once built, the model is stored in a {@link ModelCache} next to the
+ * index files of the snapshot; opening the same snapshot again with the
+ * same traversal mode maps the cached model instead of building it again.
+ * <p>Besides the summed up shallow size, the model can compute further
+ * {@link Metric}s for each node when it is built, at the cost of another
+ * array of weights each (see {@link #computeMetrics(ChildIndex, IProgressListener)}).
+ * The tree and the order of the children are those of the size; the
+ * children ordered by another metric are sorted into a copy of the child
+ * index the first time they are asked for (see {@link #getChildren(ISnapshotNode, Metric)}).
+ * <p>Once {@link #initialize(IProgressListener)} has returned, the model
+ * is never changed again and can be read by several threads at the same
+ * time, e.g. for laying out in the background or for showing it in more
+ * than one pane. The child index is published through a volatile field
+ * which is written last, so a thread that sees the index also sees the
+ * complete weights and parents. Initialization itself must not run
+ * concurrently with readers.
  */
-public class WeightedSnapshotTreeModelImpl implements IWeightedTreeModel<ISnapshotNode>, ILabelProvider<ISnapshotNode>, ISnapshotProvider {
+public class WeightedSnapshotTreeModelImpl implements IWeightedTreeModel<ISnapshotNode>, ICachedLabelProvider<ISnapshotNode>, ISnapshotProvider, ISortedTreeModel, IMetricTreeModel {
 	
 	protected static Iterator<ISnapshotNode> EMPTY_ITERATOR = Collections.<ISnapshotNode>emptyList().iterator();
-	protected final long weight[];
-	protected final int parent[];
+	/**
+	 * bytes needed per object: weight, parent, child index and the
+	 * temporary stack and order of the traversal; the bit field of the
+	 * visited objects, one bit per object, is held on the heap in any case
+	 */
+	protected static final long BYTES_PER_OBJECT = 8+4+4+4+4+4;
+	/** bytes needed per object for each metric besides the size */
+	protected static final long BYTES_PER_METRIC = 8;
+	/** the metrics of a model computing the size only */
+	protected static final Metric[] SIZE_ONLY = { Metric.SIZE };
+	protected final ILongArray weight;
+	/** the metrics of the model, the size first */
+	protected final Metric[] metrics;
+	/** the weights of each metric; the first one is <code>weight</code> */
+	protected final ILongArray[] metricWeights;
+	protected final IIntArray parent;
 	protected final ISnapshot snapshot;
-	
-	// temporary objects to better the performance of hasChildren/getChildren
-	private Iterator<ISnapshotNode> preparedIterator;
-	private int idForIterator;
+	protected final SnapshotNodeCache nodes = new SnapshotNodeCache();
+	protected final LabelCache labels;
+	protected final TraversalMode traversal;
+	protected final IArrayStorage storage;
+	protected volatile ChildIndex children;
+	/** the child index sorted by each metric, created when first needed; the first one is <code>children</code> */
+	private final ChildIndex[] metricChildren;
 
 	/**
 	 * Creates the weighted tree model from the snapshot.
@@ -53,85 +102,475 @@ public class WeightedSnapshotTreeModelImpl implements IWeightedTreeModel<ISnapsh
 	 * @throws SnapshotException in case of error
 	 */
 	public static IWeightedTreeModel<ISnapshotNode> createModel(final ISnapshot aSnapshot, final IProgressListener aListener) throws SnapshotException {
-		WeightedSnapshotTreeModelImpl model = new WeightedSnapshotTreeModelImpl(aSnapshot);
+		return createModel(aSnapshot, TraversalMode.SEQUENTIAL, aListener);
+	}
+
+	/**
+	 * Creates the weighted tree model from the snapshot, traversing
+	 * the object graph in the given way. If a valid cached model built
+	 * with the same traversal mode exists, it is used instead; otherwise
+	 * the newly built model is written to the cache.
+	 * @param aSnapshot the snapshot, must not be <code>null</code>.
+	 * @param aMode the traversal mode, must not be <code>null</code>.
+	 * @param aListener the progress listener
+	 * @return the weighted tree model
+	 * @throws SnapshotException in case of error
+	 */
+	public static IWeightedTreeModel<ISnapshotNode> createModel(final ISnapshot aSnapshot, final TraversalMode aMode, final IProgressListener aListener) throws SnapshotException {
+		return createModel(aSnapshot, aMode, SIZE_ONLY, aListener);
+	}
+
+	/**
+	 * Creates the weighted tree model from the snapshot, traversing
+	 * the object graph in the given way and computing the given metrics
+	 * besides the size. If a valid cached model built with the same traversal
+	 * mode and metrics exists, it is used instead; otherwise the newly built
+	 * model is written to the cache.
+	 * @param aSnapshot the snapshot, must not be <code>null</code>.
+	 * @param aMode the traversal mode, must not be <code>null</code>.
+	 * @param someMetrics the metrics to compute; the size is always computed.
+	 * Must not be <code>null</code>.
+	 * @param aListener the progress listener
+	 * @return the weighted tree model
+	 * @throws SnapshotException in case of error
+	 */
+	public static IWeightedTreeModel<ISnapshotNode> createModel(final ISnapshot aSnapshot, final TraversalMode aMode, final Metric[] someMetrics, final IProgressListener aListener) throws SnapshotException {
+		final Metric[] metrics = normalize(someMetrics);
+		final StringBuilder key = new StringBuilder(aMode.name());
+		for (int i = 1; i < metrics.length; i++) {
+			key.append('-').append(metrics[i].name());
+		}
+		final ModelCache cache = new ModelCache(aSnapshot, key.toString());
+		if (cache.load()) {
+			final IIntArray[] ints = cache.getInts();
+			final ILongArray[] longs = cache.getLongs();
+			if (ints.length == 3 && longs.length == metrics.length) {
+				aListener.sendUserMessage(Severity.INFO, NLS.bind(Messages.STR_CACHE_LOADED, cache.getFile().getPath()), null);
+				return new WeightedSnapshotTreeModelImpl(aSnapshot, aMode, ints[0], metrics, longs, new ChildIndex(ints[1], ints[2]));
+			}
+		}
+		final WeightedSnapshotTreeModelImpl model = new WeightedSnapshotTreeModelImpl(aSnapshot, aMode, createStorage(aSnapshot, 0, metrics.length, aListener), metrics);
 		model.initialize(aListener);
+		try {
+			cache.store(new IIntArray[] { model.parent, model.children.getOffsets(), model.children.getChildren() }, model.metricWeights);
+		} catch (IOException e) {
+			aListener.sendUserMessage(Severity.WARNING, NLS.bind(Messages.STR_CACHE_WRITE_FAILED, cache.getFile().getPath()), e);
+		}
 		return model;
 	}
 
 	/**
-	 * Creates an uninitialized tree model.
+	 * Returns the given metrics in the order of their declaration, without
+	 * duplicates and with the size first.
+	 * @param someMetrics the metrics, must not be <code>null</code>.
+	 * @return the metrics, never <code>null</code>.
+	 */
+	protected static Metric[] normalize(final Metric[] someMetrics) {
+		final EnumSet<Metric> set = EnumSet.of(Metric.SIZE);
+		set.addAll(Arrays.asList(someMetrics));
+		return set.toArray(new Metric[set.size()]);
+	}
+
+	/**
+	 * Chooses where to hold the arrays of a model of the given snapshot,
+	 * without a memory budget.
+	 * @param aSnapshot the snapshot, must not be <code>null</code>.
+	 * @param aListener the progress listener
+	 * @return the storage to use, never <code>null</code>.
+	 * @see #createStorage(ISnapshot, long, IProgressListener)
+	 */
+	protected static IArrayStorage createStorage(final ISnapshot aSnapshot, final IProgressListener aListener) {
+		return createStorage(aSnapshot, 0, aListener);
+	}
+
+	/**
+	 * Chooses where to hold the arrays of a model of the given snapshot.
+	 * The arrays are held on the Java heap if they need at most half of the
+	 * heap still available to the JVM, and fit into the memory budget if one
+	 * is given. Otherwise they are held in memory-mapped
+	 * temporary files in the directory of the snapshot's index files, leaving
+	 * the heap to MAT; the choice is reported to the progress listener.
+	 * @param aSnapshot the snapshot, must not be <code>null</code>.
+	 * @param aBudget the maximum number of bytes to use on the heap,
+	 * <code>0</code> for no limit.
+	 * @param aListener the progress listener
+	 * @return the storage to use, never <code>null</code>.
+	 */
+	protected static IArrayStorage createStorage(final ISnapshot aSnapshot, final long aBudget, final IProgressListener aListener) {
+		return createStorage(aSnapshot, aBudget, 1, aListener);
+	}
+
+	/**
+	 * Chooses where to hold the arrays of a model of the given snapshot
+	 * computing the given number of metrics, as described for
+	 * {@link #createStorage(ISnapshot, long, IProgressListener)}.
+	 * @param aSnapshot the snapshot, must not be <code>null</code>.
+	 * @param aBudget the maximum number of bytes to use on the heap,
+	 * <code>0</code> for no limit.
+	 * @param metricCount the number of metrics, including the size
+	 * @param aListener the progress listener
+	 * @return the storage to use, never <code>null</code>.
+	 */
+	protected static IArrayStorage createStorage(final ISnapshot aSnapshot, final long aBudget, final int metricCount, final IProgressListener aListener) {
+		final long needed = (BYTES_PER_OBJECT + BYTES_PER_METRIC*(metricCount-1)) * aSnapshot.getSnapshotInfo().getNumberOfObjects();
+		return chooseStorage(aSnapshot, aBudget, needed, aListener);
+	}
+
+	/**
+	 * Chooses where to hold arrays of the given total size, as described
+	 * for {@link #createStorage(ISnapshot, long, IProgressListener)}.
+	 * @param aSnapshot the snapshot, must not be <code>null</code>.
+	 * @param aBudget the maximum number of bytes to use on the heap,
+	 * <code>0</code> for no limit.
+	 * @param needed the number of bytes the arrays need at their peak
+	 * @param aListener the progress listener
+	 * @return the storage to use, never <code>null</code>.
+	 */
+	protected static IArrayStorage chooseStorage(final ISnapshot aSnapshot, final long aBudget, final long needed, final IProgressListener aListener) {
+		final SnapshotInfo info = aSnapshot.getSnapshotInfo();
+		final Runtime runtime = Runtime.getRuntime();
+		final long available = runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory();
+		if (needed <= available/2 && (aBudget <= 0 || needed <= aBudget)) {
+			return HeapArrayStorage.INSTANCE;
+		}
+		final File directory = new File(info.getPrefix()).getAbsoluteFile().getParentFile();
+		aListener.sendUserMessage(Severity.INFO, NLS.bind(Messages.STR_MAPPED_STORAGE, Units.Storage.of(needed).format(needed), directory), null);
+		return new MappedArrayStorage(directory);
+	}
+
+	/**
+	 * Creates an uninitialized tree model using sequential traversal.
 	 * @param aSnapshot the snapshot to use for building the tree model, must not be <code>null</code>.
 	 * @throws SnapshotException in case of error
 	 */
 	protected WeightedSnapshotTreeModelImpl(final ISnapshot aSnapshot) throws SnapshotException {
+		this(aSnapshot, TraversalMode.SEQUENTIAL);
+	}
+
+	/**
+	 * Creates an uninitialized tree model holding its arrays on the Java heap.
+	 * @param aSnapshot the snapshot to use for building the tree model, must not be <code>null</code>.
+	 * @param aMode the traversal mode, must not be <code>null</code>.
+	 * @throws SnapshotException in case of error
+	 */
+	protected WeightedSnapshotTreeModelImpl(final ISnapshot aSnapshot, final TraversalMode aMode) throws SnapshotException {
+		this(aSnapshot, aMode, HeapArrayStorage.INSTANCE);
+	}
+
+	/**
+	 * Creates an uninitialized tree model computing the size only.
+	 * @param aSnapshot the snapshot to use for building the tree model, must not be <code>null</code>.
+	 * @param aMode the traversal mode, must not be <code>null</code>.
+	 * @param aStorage the storage to create the arrays of the model in, must not be <code>null</code>.
+	 * @throws SnapshotException in case of error
+	 */
+	protected WeightedSnapshotTreeModelImpl(final ISnapshot aSnapshot, final TraversalMode aMode, final IArrayStorage aStorage) throws SnapshotException {
+		this(aSnapshot, aMode, aStorage, SIZE_ONLY);
+	}
+
+	/**
+	 * Creates an uninitialized tree model.
+	 * @param aSnapshot the snapshot to use for building the tree model, must not be <code>null</code>.
+	 * @param aMode the traversal mode, must not be <code>null</code>.
+	 * @param aStorage the storage to create the arrays of the model in, must not be <code>null</code>.
+	 * @param someMetrics the metrics to compute, the size first, as returned
+	 * by {@link #normalize(Metric[])}; must not be <code>null</code>.
+	 * @throws SnapshotException in case of error
+	 */
+	protected WeightedSnapshotTreeModelImpl(final ISnapshot aSnapshot, final TraversalMode aMode, final IArrayStorage aStorage, final Metric[] someMetrics) throws SnapshotException {
 		snapshot = aSnapshot;
+		labels = new LabelCache(aSnapshot);
+		traversal = aMode;
+		storage = aStorage;
+		metrics = someMetrics;
+		metricWeights = new ILongArray[someMetrics.length];
 		final int size = aSnapshot.getSnapshotInfo().getNumberOfObjects();
-		weight = new long[size];
-		parent = new int[size];
-		resetPreparedIterator();
+		try {
+			for (int i = 0; i < metricWeights.length; i++) {
+				metricWeights[i] = aStorage.createLongArray(size);
+			}
+			weight = metricWeights[0];
+			parent = aStorage.createIntArray(size);
+			metricChildren = new ChildIndex[someMetrics.length];
+		} catch (IOException e) {
+			throw new SnapshotException(e);
+		}
+	}
+
+	/**
+	 * Creates a fully initialized tree model from previously computed arrays,
+	 * e.g. as loaded from a {@link ModelCache}.
+	 * @param aSnapshot the snapshot the arrays were computed from, must not be <code>null</code>.
+	 * @param aMode the traversal mode the arrays were computed with, must not be <code>null</code>.
+	 * @param someParents the parent ID of each node, must not be <code>null</code>.
+	 * @param someMetrics the metrics the weights were computed for, the size
+	 * first; must not be <code>null</code>.
+	 * @param someWeights the weights of each node, one array per metric,
+	 * must not be <code>null</code>.
+	 * @param aChildIndex the index of the children of each node, must not be <code>null</code>.
+	 */
+	protected WeightedSnapshotTreeModelImpl(final ISnapshot aSnapshot, final TraversalMode aMode, final IIntArray someParents, final Metric[] someMetrics, final ILongArray[] someWeights, final ChildIndex aChildIndex) {
+		snapshot = aSnapshot;
+		labels = new LabelCache(aSnapshot);
+		traversal = aMode;
+		storage = null;
+		parent = someParents;
+		metrics = someMetrics;
+		metricWeights = someWeights;
+		weight = someWeights[0];
+		children = aChildIndex;
+		metricChildren = new ChildIndex[someMetrics.length];
 	}
 
 	/**
 	 * Computes the weighted tree model information from the snapshot.
 	 * The root node is a "virtual" node with Integer.MAX_VALUE for ID
 	 * (assumed not to exist in the snapshot), and its children are the
-	 * GC roots.
-	 * <p>This method must only be called once.
+	 * GC roots. Objects not reachable from the GC roots get <code>-1</code>
+	 * for parent, and their own heap size for weight.
+	 * <p>Once the tree is built, the children of all nodes are put into
+	 * a {@link ChildIndex}, so that the tree can be navigated without
+	 * accessing the snapshot. The children are sorted by descending weight
+	 * there, the order needed by the tree map layout. The time taken by the
+	 * traversal and the memory used by the index are reported to the
+	 * progress listener.
+	 * <p>This method must only be called once; it must not be called on
+	 * a model created from previously computed arrays.
 	 * @param progress the progress listener
 	 * @throws SnapshotException in case of error
 	 */
 	protected void initialize(final IProgressListener progress) throws SnapshotException {
-		if (weight[0] > 0) {
+		if (weight.get(0) > 0) {
 			throw new SnapshotException(Messages.STR_ALREADY_INITIALIZED);
 		}
+		final int size = parent.length();
+		for (int i = 0; i < size; i++) {
+			parent.set(i, -1);
+		}
+		readHeapSizes(progress);
+		final long start = System.nanoTime();
+		if (traversal == TraversalMode.PARALLEL) {
+			new ParallelTreeBuilder(snapshot, parent, weight, storage, Runtime.getRuntime().availableProcessors()).build(progress);
+		} else if (traversal == TraversalMode.CLUSTERED) {
+			final ClusteredTreeBuilder builder = new ClusteredTreeBuilder(snapshot, parent, weight, storage);
+			builder.build(progress);
+			reportPageStatistics(builder.getPageStatistics(), progress);
+		} else {
+			traverseSequential(progress);
+		}
+		// the measured time, to compare the traversal modes by
+		progress.sendUserMessage(Severity.INFO, NLS.bind(Messages.STR_TRAVERSAL_TIME, traversal, Long.valueOf((System.nanoTime() - start)/1000000)), null);
+		final ChildIndex index;
+		try {
+			index = new ChildIndex(parent, storage);
+		} catch (IOException e) {
+			throw new SnapshotException(e);
+		}
+		index.sortByWeight(weight);
+		computeMetrics(index, progress);
+		// publish the completed index last, see class comment
+		children = index;
+		final long bytes = index.getMemoryFootprint();
+		progress.sendUserMessage(Severity.INFO, NLS.bind(Messages.STR_CHILD_INDEX_SIZE, Integer.valueOf(index.size()), Units.Storage.of(bytes).format(bytes)), null);
+	}
+
+	/**
+	 * Sets the weight of each node to the heap size of its object, reading
+	 * the sizes in ID order. The traversal visits the objects in graph order,
+	 * which would look up the sizes at random positions of the snapshot's
+	 * indices; reading them in one sequential pass beforehand is much faster
+	 * when the indices are not cached yet. The weight array is in ID order
+	 * as well, so this needs no additional memory.
+	 * @param progress the progress listener
+	 * @throws SnapshotException in case of error
+	 */
+	protected void readHeapSizes(final IProgressListener progress) throws SnapshotException {
+		final int size = weight.length();
+		progress.beginTask(Messages.STR_READ_HEAP_SIZES, (size>>16)+1);
+		for (int i = 0; i < size; i++) {
+			weight.set(i, snapshot.getHeapSize(i));
+			if ((i&0xffff) == 0xffff) {
+				progress.worked(1);
+				if (progress.isCanceled()) {
+					throw new SnapshotException(Messages.STR_COMP_CANCELLED);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the weights of the metrics besides the size, once the tree
+	 * is built. The initial value of each object is read in ID order first;
+	 * then the tree is walked bottom-up, in reverse breadth-first order, and
+	 * the weights of the children are added to the weight of their parent.
+	 * This needs a temporary array holding the breadth-first order.
+	 * @param index the index of the children of each node, must not be <code>null</code>.
+	 * @param progress the progress listener
+	 * @throws SnapshotException in case of error
+	 */
+	protected void computeMetrics(final ChildIndex index, final IProgressListener progress) throws SnapshotException {
+		if (metrics.length == 1) {
+			return;
+		}
+		final int size = weight.length();
+		progress.beginTask(Messages.STR_COMPUTE_METRICS, 2*((size>>16)+1));
+		for (int i = 0; i < size; i++) {
+			for (int m = 1; m < metrics.length; m++) {
+				metricWeights[m].set(i, metrics[m] == Metric.RETAINED ? snapshot.getRetainedHeapSize(i) : 1);
+			}
+			if ((i&0xffff) == 0xffff) {
+				progress.worked(1);
+				if (progress.isCanceled()) {
+					throw new SnapshotException(Messages.STR_COMP_CANCELLED);
+				}
+			}
+		}
+		final IIntArray order;
+		try {
+			order = storage.createIntArray(index.size());
+		} catch (IOException e) {
+			throw new SnapshotException(e);
+		}
+		int tail = 0;
+		for (int i = index.getStart(Integer.MAX_VALUE); i < index.getEnd(Integer.MAX_VALUE); i++) {
+			order.set(tail++, index.getChild(i));
+		}
+		for (int head = 0; head < tail; head++) {
+			final int node = order.get(head);
+			final int end = index.getEnd(node);
+			for (int i = index.getStart(node); i < end; i++) {
+				order.set(tail++, index.getChild(i));
+			}
+		}
+		for (int pos = tail - 1; pos >= 0; pos--) {
+			final int node = order.get(pos);
+			final int start = index.getStart(node);
+			final int end = index.getEnd(node);
+			if (start == end) {
+				// leaves keep their initial values
+				continue;
+			}
+			long childSizes = 0;
+			for (int i = start; i < end; i++) {
+				childSizes += weight.get(index.getChild(i));
+			}
+			for (int m = 1; m < metrics.length; m++) {
+				final ILongArray w = metricWeights[m];
+				long sum = 0;
+				for (int i = start; i < end; i++) {
+					sum += w.get(index.getChild(i));
+				}
+				if (metrics[m] == Metric.RETAINED) {
+					// the shallow size of the node plus the estimates of its children
+					w.set(node, Math.max(w.get(node), weight.get(node) - childSizes + sum));
+				} else {
+					w.set(node, w.get(node) + sum);
+				}
+			}
+			if ((pos&0xffff) == 0) {
+				progress.worked(1);
+				if (progress.isCanceled()) {
+					throw new SnapshotException(Messages.STR_COMP_CANCELLED);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Builds the tree by traversing the graph from one GC root after the
+	 * other in a single thread. The stack of the traversal and the order
+	 * the nodes are visited in are taken from the same array storage as the
+	 * model's arrays: the order takes an <code>int</code> per object, the
+	 * stack starts with one per object and grows when more references are
+	 * pending than there are objects. Once
+	 * all GC roots are traversed, the subtree weights are summed up by
+	 * replaying the visiting order backwards: as a node is always visited
+	 * after its parent, all children are added to their parent before
+	 * the parent is added to its own parent. This is O(n+e).
+	 * @param progress the progress listener
+	 * @throws SnapshotException in case of error
+	 */
+	protected void traverseSequential(final IProgressListener progress) throws SnapshotException {
 		final int[] gcroots = snapshot.getGCRoots();
 		// begin task, use #gcroots/16 steps for the progress listener
 		progress.beginTask(Messages.STR_CONVERT_GRAPH_TREE, gcroots.length>>4);
-		final BitField visited = new BitField(weight.length);
-		final IntStack stack = new IntStack(400);
+		final int size = weight.length();
+		final ArrayIntStack stack;
+		final IIntArray order;
+		try {
+			stack = new ArrayIntStack(storage, size);
+			order = storage.createIntArray(size);
+		} catch (IOException e) {
+			throw new SnapshotException(e);
+		}
+		final BitField visited = new BitField(size);
+		int count = 0;
 		for (int i = gcroots.length - 1; i >= 0; i--) {
 			if ( (i&0xf) == 0) { // update every 16 gc roots
 				progress.worked(1);
 			}
-			traverseGCRoot(gcroots[i], visited, stack);
+			count = traverseGCRoot(gcroots[i], visited, stack, order, count);
 			if (progress.isCanceled()) {
 				throw new SnapshotException(Messages.STR_COMP_CANCELLED);
 			}
 		}
+		// the parent of a visited node does not change anymore; accumulate
+		// the weights bottom-up by replaying the visiting order backwards
+		for (int i = count - 1; i >= 0; i--) {
+			final int node = order.get(i);
+			final int p = parent.get(node);
+			if (p != Integer.MAX_VALUE) {
+				weight.set(p, weight.get(p)+weight.get(node));
+			}
+		}
 	}
 
 	/**
-	 * Build a tree from the object graph starting at each GC root and
-	 * compute the summed up weights for each subtree. This is O(n*log(n)),
-	 * unfortunately, I think.
+	 * Reports the page cache hit rate of the outbound index lookups of the
+	 * clustered traversal, as estimated by the simulated cache, to the progress listener.
+	 * The estimate only tells how local the lookups are; the traversal modes
+	 * are compared by the measured time reported afterwards.
+	 * @param pages the statistics of the lookups
+	 * @param progress the progress listener
+	 */
+	protected void reportPageStatistics(final IndexPageStatistics pages, final IProgressListener progress) {
+		progress.sendUserMessage(Severity.INFO, NLS.bind(Messages.STR_INDEX_PAGE_HITS, new Object[] {
+			traversal, String.format("%.1f", Double.valueOf(pages.getHitRate())), Long.valueOf(pages.getHits()), Long.valueOf(pages.getLookups()) //$NON-NLS-1$
+		}), null);
+	}
+
+	/**
+	 * Builds the tree of the objects reachable from a GC root depth-first.
+	 * An object is marked as visited when it is popped; until then, every
+	 * object referencing it pushes it again and becomes its parent, so the
+	 * parent is the last object to reach it before it is visited. The
+	 * objects are appended to the visiting order when they are visited,
+	 * i.e. always after their parent. Other GC roots are not followed,
+	 * they are the roots of their own trees.
 	 * 
 	 * @param root the root node
 	 * @param visited bit field of already visited nodes
-	 * @param stack integer stack
-	 * @return the summed up weight of the root node
+	 * @param stack the empty stack of the traversal
+	 * @param order array receiving the nodes in visiting order
+	 * @param count the number of nodes in the visiting order so far
+	 * @return the number of nodes in the visiting order afterwards
 	 * @throws SnapshotException in case of error
 	 */
-	protected long traverseGCRoot(final int root, final BitField visited, final IntStack stack) throws SnapshotException {
-		if (!stack.isEmpty()) {
-			throw new IllegalStateException(Messages.STR_STACK_NOT_EMPTY);
-		}
-		stack.push(root);
-		parent[root] = Integer.MAX_VALUE; // root has no parent
-		while (!stack.isEmpty()) {
-			final int node = stack.pop();
-			if (!visited.get(node)) {
-				visited.set(node);
-				final long w = snapshot.getHeapSize(node);
-				// assign node weight
-				weight[node] = w;
-				int runner = parent[node];
-				// update all parent weights
-				while (runner != Integer.MAX_VALUE) {
-					weight[runner] += w;
-					runner = parent[runner];
-				}
-				final int[] children = snapshot.getOutboundReferentIds(node);
-				if (children.length > 0) {
+	protected int traverseGCRoot(final int root, final BitField visited, final ArrayIntStack stack, final IIntArray order, final int count) throws SnapshotException {
+		if (visited.get(root)) {
+			return count;
+		}
+		int visitedCount = count;
+		parent.set(root, Integer.MAX_VALUE); // root has no parent
+		try {
+			stack.push(root);
+			while (!stack.isEmpty()) {
+				final int node = stack.pop();
+				if (!visited.get(node)) {
+					visited.set(node);
+					// the node weight is its heap size already, see readHeapSizes()
+					order.set(visitedCount++, node);
+					final int[] children = snapshot.getOutboundReferentIds(node);
 					for (int i = children.length - 1; i >= 0; i--) {
 						final int c = children[i];
 						// about the "not a gc root" check:
@@ -141,14 +580,16 @@ public class WeightedSnapshotTreeModelImpl implements IWeightedTreeModel<ISnapsh
 						// a root is originally a GC root and then later
 						// referenced by other objects.
 						if (!visited.get(c) && !snapshot.isGCRoot(c)) {
-							parent[c] = node;
+							parent.set(c, node);
 							stack.push(c);
 						}
 					}
 				}
 			}
+		} catch (IOException e) {
+			throw new SnapshotException(e);
 		}
-		return weight[root];		
+		return visitedCount;
 	}
 
 	@Override
@@ -156,40 +597,74 @@ public class WeightedSnapshotTreeModelImpl implements IWeightedTreeModel<ISnapsh
 	public String getLabel(final ITreeModel<IRectangle<ISnapshotNode>> model, final IRectangle<ISnapshotNode> node) {
 		try {
 			final int id = node.getNode().getID();
-			final long size = snapshot.getHeapSize(id);
-			final StringBuilder sb = new StringBuilder(80);
-			sb.append(snapshot.getObject(id).getTechnicalName())
-			  .append(" (").append(Units.Storage.of(size).format(size)) //$NON-NLS-1$
-			  .append("/").append(Units.Storage.of(weight[id]).format(weight[id])) //$NON-NLS-1$
-			  .append(")"); //$NON-NLS-1$
-			return sb.toString();
+			final String label = labels.get(id);
+			return label!=null?label:labels.create(id, snapshot.getHeapSize(id), weight.get(id));
 		} catch (SnapshotException e) {
 			return "???"; //$NON-NLS-1$
 		}
 	}
 
+	@Override
+	// non-javadoc: see interface
+	public String getCachedLabel(final IRectangle<ISnapshotNode> node) {
+		return labels.get(node.getNode().getID());
+	}
+
 	@Override
 	public Iterator<ISnapshotNode> getChildren(final ISnapshotNode node) {
-		final int id = node.getID();
-		if (id == idForIterator) {
-			try {
-				return preparedIterator;
-			} finally {
-				resetPreparedIterator();
-			}
+		return getChildren(children, node.getID());
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public Iterator<ISnapshotNode> getChildren(final ISnapshotNode node, final Metric metric) {
+		final int m = indexOf(metric);
+		return getChildren(m==0?children:getChildIndex(m), node.getID());
+	}
+
+	/**
+	 * Returns the children of a node as held by the given child index.
+	 * @param index the child index, must not be <code>null</code>.
+	 * @param id the ID of the node
+	 * @return the children of the node, never <code>null</code>.
+	 */
+	protected Iterator<ISnapshotNode> getChildren(final ChildIndex index, final int id) {
+		final int start = index.getStart(id);
+		final int end = index.getEnd(id);
+		if (start < end) {
+			return index==children?new NodeIterator(start, end, this):new SortedNodeIterator(start, end, index, this);
 		} else {
+			return EMPTY_ITERATOR;
+		}
+	}
+
+	/**
+	 * Returns the child index sorted by the metric at the given position,
+	 * sorting a copy of the child index the first time it is asked for.
+	 * The copy is held in the storage of the model, or in one chosen for
+	 * it if the model was loaded from the cache.
+	 * @param m the position of the metric, greater than <code>0</code>
+	 * @return the child index sorted by the metric, never <code>null</code>.
+	 */
+	protected synchronized ChildIndex getChildIndex(final int m) {
+		ChildIndex result = metricChildren[m];
+		if (result == null) {
+			final ChildIndex index = children;
+			final IArrayStorage target = storage!=null?storage:chooseStorage(snapshot, 0, 4L*index.getChildren().length(), new VoidProgressListener());
 			try {
-				return createNodeIterator(id, snapshot, this);
-			} catch (SnapshotException e) {
+				result = index.sortedCopy(metricWeights[m], target);
+			} catch (IOException e) {
 				throw new IllegalStateException(e);
-			}			
+			}
+			metricChildren[m] = result;
 		}
+		return result;
 	}
 
 	@Override
 	public ISnapshotNode getParent(final ISnapshotNode node) {
 		final int id = node.getID();
-		return id!=Integer.MAX_VALUE?createNode(parent[id]):null;
+		return id!=Integer.MAX_VALUE?createNode(parent.get(id)):null;
 	}
 
 	@Override
@@ -199,18 +674,58 @@ public class WeightedSnapshotTreeModelImpl implements IWeightedTreeModel<ISnapsh
 
 	@Override
 	public boolean hasChildren(final ISnapshotNode node) {
-		idForIterator = node.getID();
-		try {
-			preparedIterator = createNodeIterator(idForIterator, snapshot, this);
-		} catch (SnapshotException e) {
-			throw new IllegalStateException(e);
-		}
-		return preparedIterator.hasNext();
+		return children.hasChildren(node.getID());
 	}
 
 	@Override
 	public long getWeight(ISnapshotNode node) {
-		return weight[node.getID()];
+		final int id = node.getID();
+		return id!=Integer.MAX_VALUE?weight.get(id):getRootWeight(weight);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public Metric[] getMetrics() {
+		return metrics.clone();
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public long getWeight(final ISnapshotNode node, final Metric metric) {
+		final int i = indexOf(metric);
+		final int id = node.getID();
+		return id!=Integer.MAX_VALUE?metricWeights[i].get(id):getRootWeight(metricWeights[i]);
+	}
+
+	/**
+	 * Returns the position of a metric of the model.
+	 * @param metric the metric
+	 * @return the position of the metric in {@link #metrics}.
+	 * @throws IllegalArgumentException if the model does not compute the metric
+	 */
+	protected int indexOf(final Metric metric) {
+		for (int i = 0; i < metrics.length; i++) {
+			if (metrics[i] == metric) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException(metric.name());
+	}
+
+	/**
+	 * Returns the weight of the virtual root node, which is the sum
+	 * of the weights of its children.
+	 * @param weights the weights of a metric
+	 * @return the weight of the virtual root node.
+	 */
+	protected long getRootWeight(final ILongArray weights) {
+		final ChildIndex index = children;
+		final int start = index.getStart(Integer.MAX_VALUE);
+		long sum = 0;
+		for (int i = index.getEnd(Integer.MAX_VALUE) - 1; i >= start; i--) {
+			sum += weights.get(index.getChild(i));
+		}
+		return sum;
 	}
 
 	@Override
@@ -218,78 +733,78 @@ public class WeightedSnapshotTreeModelImpl implements IWeightedTreeModel<ISnapsh
 		return snapshot;
 	}
 
+	@Override
+	// non-javadoc: see interface; the child index is sorted by weight
+	public boolean isSortedByWeight() {
+		return true;
+	}
+
 	/**
-	 * Creates a new snapshot node with the given ID.
-	 * Nodes are not referenced here to actually save memory, even
-	 * though this might cause more garbage than sensible in other
-	 * scenarios.
-	 * @param id the ID to use for the node
-	 * @return the created node, never <code>null</code>.
+	 * Returns the approximate number of bytes used by the arrays of the model.
+	 * @return the approximate number of bytes used by the model.
 	 */
-	protected ISnapshotNode createNode(final int id) {
-		return new SnapshotNodeImpl(id);
+	public long getMemoryFootprint() {
+		return 8L*metricWeights.length*weight.length() + 4L*parent.length() + children.getMemoryFootprint();
 	}
 
 	/**
-	 * Resets the "prepared" iterator.
+	 * Returns the approximate number of bytes used by the index
+	 * of the children of all nodes.
+	 * @return the approximate number of bytes used by the child index.
 	 */
-	private void resetPreparedIterator() {
-		preparedIterator = null;
-		idForIterator = -1;		
+	public long getChildIndexFootprint() {
+		return children.getMemoryFootprint();
 	}
-	
+
 	/**
-	 * Creates an iterator for the children of a node.
-	 * @param parentID the parent ID
-	 * @param snapshot the snapshot to use for backing the nodes.
-	 * @param aModel the model supplying the nodes in the iterator
-	 * @return the iterator, never <code>null</code>.
-	 * @throws SnapshotException in case of error.
+	 * Returns the snapshot node with the given ID. Only a bounded number
+	 * of recently used nodes is held by the model (see {@link SnapshotNodeCache}),
+	 * so that the nodes being laid out and painted are not created again
+	 * and again, while the model does not hold a node for every object.
+	 * @param id the ID to use for the node
+	 * @return the node, never <code>null</code>.
 	 */
-	private Iterator<ISnapshotNode> createNodeIterator(final int parentID, final ISnapshot snapshot, final WeightedSnapshotTreeModelImpl aModel) throws SnapshotException {
-		final int[] outbound = parentID!=Integer.MAX_VALUE?snapshot.getOutboundReferentIds(parentID):snapshot.getGCRoots();
-		if (outbound.length > 0) {
-			return new NodeIterator(parentID, outbound, this);
-		} else {
-			return EMPTY_ITERATOR;
-		}
+	protected ISnapshotNode createNode(final int id) {
+		return nodes.get(id);
 	}
 
 	/**
 	 * Node iterator implementation. Calls back to {@link WeightedSnapshotTreeModelImpl#createNode(int)}
-	 * to create its elements. The information on children is backed by the
-	 * snapshot; the given parents' <i>outgoing</i> references only are used.
+	 * to create its elements. The children are taken from a range of the
+	 * model's {@link ChildIndex}.
 	 */
 	private static class NodeIterator implements Iterator<ISnapshotNode> {
 		
 		private final WeightedSnapshotTreeModelImpl model;
-		private final int[] outbound;
+		private final int end;
 		private int pos;
-		private final int parent;
 		
-		protected NodeIterator(final int aParent, final int[] outboundReferents, final WeightedSnapshotTreeModelImpl aModel) throws SnapshotException {
+		protected NodeIterator(final int start, final int anEnd, final WeightedSnapshotTreeModelImpl aModel) {
 			model = aModel;
-			outbound = outboundReferents;
-			parent = aParent;
-			pos = 0;
+			end = anEnd;
+			pos = start;
 		}
 
 		@Override
 		public boolean hasNext() {
-			while (pos < outbound.length && model.parent[outbound[pos]] != parent) {
-				// look for next outbound that we consider to be a child
-				// of the node 'id'
-				pos++;
-			}
-			return pos < outbound.length;
+			return pos < end;
 		}
 
 		@Override
 		public ISnapshotNode next() {
-			if (pos == outbound.length) {
+			if (pos == end) {
 				throw new NoSuchElementException();
 			}
-			return model.createNode(outbound[pos++]);
+			return model.createNode(getChild(pos++));
+		}
+
+		/**
+		 * Returns the child at a position of the child index.
+		 * @param position the position
+		 * @return the ID of the child
+		 */
+		protected int getChild(final int position) {
+			return model.children.getChild(position);
 		}
 
 		@Override
@@ -299,4 +814,25 @@ public class WeightedSnapshotTreeModelImpl implements IWeightedTreeModel<ISnapsh
 		
 	}
 
+	/**
+	 * Node iterator over a range of the child index sorted by another
+	 * metric than the size. Kept apart from {@link NodeIterator}, so that
+	 * walking the tree by size does not allocate the reference to the index.
+	 */
+	private static class SortedNodeIterator extends NodeIterator {
+
+		private final ChildIndex index;
+
+		protected SortedNodeIterator(final int start, final int anEnd, final ChildIndex anIndex, final WeightedSnapshotTreeModelImpl aModel) {
+			super(start, anEnd, aModel);
+			index = anIndex;
+		}
+
+		@Override
+		protected int getChild(final int position) {
+			return index.getChild(position);
+		}
+
+	}
+
 }
@@ -20,6 +20,12 @@ public interface PreferenceConstants {
 		"FF8A8A\tjava\\.lang\\..*\ttrue\t" + //$NON-NLS-1$
 		"36F200\tjava\\.util\\..*\ttrue"; //$NON-NLS-1$
 
+	/** key used to store the number of pixels a node needs at least to be shown on its own */
+	String TREEMAP_MIN_AREA_KEY = "de.engehausen.treemap.mat.minarea"; //$NON-NLS-1$
+
+	/** default number of pixels a node needs at least to be shown on its own */
+	int DEFAULT_MIN_AREA = 4;
+
 	/** default color */
 	RGB DEFAULT_COLOR = new RGB(176, 176, 176); // this must match the color specified above
 
@@ -18,6 +18,7 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer impleme
 		if (prefs == null || prefs.length()==0) {
 			store.putValue(TREEMAP_PREF_KEY, DEFAULT_COLOR_RULES);
 		}
+		store.setDefault(TREEMAP_MIN_AREA_KEY, DEFAULT_MIN_AREA);
 	}
 
 }
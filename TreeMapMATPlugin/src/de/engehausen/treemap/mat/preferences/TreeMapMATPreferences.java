@@ -6,6 +6,7 @@ import java.util.regex.PatternSyntaxException;
 
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.preference.PreferencePage;
+import org.eclipse.osgi.util.NLS;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.TableEditor;
 import org.eclipse.swt.events.ModifyEvent;
@@ -80,7 +81,7 @@ public class TreeMapMATPreferences extends PreferencePage implements IWorkbenchP
 			matcher = ColorMatcher.from("a0a0a0\te20802\tjava.lang.String\tfalse"); //$NON-NLS-1$
 		}
 		if (matcher.getDefaultColor() == null) {
-			matcher.setDefaultColor(DEFAULT_COLOR);			
+			matcher = matcher.withDefaultColor(DEFAULT_COLOR);
 		}
 	}
 
@@ -125,7 +126,7 @@ public class TreeMapMATPreferences extends PreferencePage implements IWorkbenchP
 			dialog.setRGB(matcher.getDefaultColor());
 			final RGB rgb = dialog.open();
 			if (rgb != null) {
-				matcher.setDefaultColor(rgb);
+				matcher = matcher.withDefaultColor(rgb);
 				colorBox.setColor(rgb);
 			}
 		} else if (source == buttonDelete) {
@@ -338,12 +339,16 @@ public class TreeMapMATPreferences extends PreferencePage implements IWorkbenchP
 	}
 
 	/**
-	 * Fill the color matching rules table with data.
+	 * Fill the color matching rules table with data. Rules with an invalid
+	 * regular expression are flagged with a red background, and the first
+	 * of them is reported as error message of the page; these rules never
+	 * match until they are corrected.
 	 * @param d the device to use for creating colors in the table, must not be <code>null</code>.
 	 */
 	protected void fillTable(final Device d) {
 		final List<ColorElement> elements = matcher.getElements();
 		final int max = elements.size();
+		String error = null;
 		for (int i = 0; i < max; i++) {
 			final ColorElement element = elements.get(i);
 			final TableItem item = new TableItem(table, SWT.NONE);
@@ -353,7 +358,14 @@ public class TreeMapMATPreferences extends PreferencePage implements IWorkbenchP
 			col.dispose();
 			item.setText(1, element.getPattern());
 			item.setText(2, Boolean.toString(element.isRegExp()));
+			if (!element.isValid()) {
+				item.setBackground(1, d.getSystemColor(SWT.COLOR_RED));
+				if (error == null) {
+					error = NLS.bind(Messages.STR_INVALID_REGEXP, element.getPattern(), element.getError());
+				}
+			}
 		}
+		setErrorMessage(error);
 		colorBox.setColor(matcher.getDefaultColor());
 	}
 
@@ -378,8 +390,8 @@ public class TreeMapMATPreferences extends PreferencePage implements IWorkbenchP
 	/**
 	 * Verify that all expression set in the table are valid.
 	 * In particular, the regular expression must compile; if one doesn't
-	 * it is flagged with a red background and the changes cannot be
-	 * stored.
+	 * it is flagged with a red background, the syntax error is shown as
+	 * error message of the page and the changes cannot be stored.
 	 * @return <code>true</code> if all expressions are valid, <code>false</code> otherwise.
 	 */
 	protected boolean checkExpressions() {
@@ -392,20 +404,21 @@ public class TreeMapMATPreferences extends PreferencePage implements IWorkbenchP
 					Pattern.compile(regexp);
 				} catch (PatternSyntaxException e) {
 					item.setBackground(1, item.getDisplay().getSystemColor(SWT.COLOR_RED));
+					setErrorMessage(NLS.bind(Messages.STR_INVALID_REGEXP, regexp, e.getDescription()));
 					clearEditor();
 					return false;
 				}
 				item.setBackground(1, item.getDisplay().getSystemColor(SWT.COLOR_WHITE));
 			}
 		}
+		setErrorMessage(null);
 		return true;
 	}
 	
 	@Override
 	// non-javadoc: see superclass
 	protected void performDefaults() {
-		matcher = ColorMatcher.from(DEFAULT_COLOR_RULES);
-		matcher.setDefaultColor(DEFAULT_COLOR);
+		matcher = ColorMatcher.from(DEFAULT_COLOR_RULES).withDefaultColor(DEFAULT_COLOR);
 		table.removeAll();
 		fillTable(getControl().getDisplay());
 		super.performDefaults();
@@ -5,9 +5,22 @@ import org.eclipse.mat.query.IResult;
 import org.eclipse.mat.query.annotations.Argument;
 import org.eclipse.mat.query.annotations.CommandName;
 import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.query.IHeapObjectArgument;
 import org.eclipse.mat.util.IProgressListener;
 
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.Metric;
+import de.engehausen.treemap.mat.impl.ClassGrouping;
+import de.engehausen.treemap.mat.impl.ClassHierarchyTreeModelImpl;
+import de.engehausen.treemap.mat.impl.CompactSnapshotTreeModelImpl;
+import de.engehausen.treemap.mat.impl.DominatorTreeModelImpl;
+import de.engehausen.treemap.mat.impl.FocusedTreeModelImpl;
+import de.engehausen.treemap.mat.impl.GCRootGroupingTreeModel;
+import de.engehausen.treemap.mat.impl.PrunedTreeModel;
 import de.engehausen.treemap.mat.impl.ResultTreeModelImpl;
+import de.engehausen.treemap.mat.impl.RootGrouping;
+import de.engehausen.treemap.mat.impl.TraversalMode;
 import de.engehausen.treemap.mat.impl.WeightedSnapshotTreeModelImpl;
 
 /**
@@ -19,9 +32,65 @@ public class HeapTreeMapQuery implements IQuery {
 	@Argument
 	public ISnapshot snapshot;
 
+	@Argument(isMandatory = false)
+	public TreeType type = TreeType.GRAPH;
+
+	@Argument(isMandatory = false)
+	public TraversalMode traversal = TraversalMode.SEQUENTIAL;
+
+	@Argument(isMandatory = false)
+	public boolean compact = false;
+
+	@Argument(isMandatory = false)
+	public int budget = 0;
+
+	@Argument(isMandatory = false)
+	public RootGrouping roots = RootGrouping.TYPE;
+
+	@Argument(isMandatory = false)
+	public Metric[] metrics = new Metric[0];
+
+	@Argument(isMandatory = false)
+	public IHeapObjectArgument objects;
+
+	@Argument(isMandatory = false)
+	public int depth = 0;
+
+	@Argument(isMandatory = false)
+	public long minweight = 0;
+
 	@Override
 	public IResult execute(final IProgressListener progress) throws Exception {
-		return new ResultTreeModelImpl(WeightedSnapshotTreeModelImpl.createModel(snapshot, progress), null);
+		final IWeightedTreeModel<ISnapshotNode> model;
+		switch (type) {
+			case DOMINATOR:
+				model = DominatorTreeModelImpl.createModel(snapshot, progress);
+				break;
+			case CLASSES:
+				model = ClassHierarchyTreeModelImpl.createModel(snapshot, ClassGrouping.PACKAGE, progress);
+				break;
+			case CLASSLOADERS:
+				model = ClassHierarchyTreeModelImpl.createModel(snapshot, ClassGrouping.CLASSLOADER, progress);
+				break;
+			default:
+				final IWeightedTreeModel<ISnapshotNode> graph;
+				if (objects != null) {
+					graph = FocusedTreeModelImpl.createModel(snapshot, objects.getIds(progress), depth, minweight, metrics, progress);
+				} else {
+					final IWeightedTreeModel<ISnapshotNode> full;
+					if (compact || budget > 0) {
+						full = CompactSnapshotTreeModelImpl.createModel(snapshot, traversal, budget*1024L*1024L, progress);
+					} else {
+						full = WeightedSnapshotTreeModelImpl.createModel(snapshot, traversal, metrics, progress);
+					}
+					// the whole heap is held by the cached model anyway, so only show a part of it
+					graph = depth > 0 || minweight > 0?new PrunedTreeModel(full, depth, minweight):full;
+				}
+				// the given objects are not necessarily GC roots
+				model = objects!=null?graph:GCRootGroupingTreeModel.createModel(graph, roots, progress);
+				break;
+		}
+		return new ResultTreeModelImpl(model, null);
 	}
 
 }
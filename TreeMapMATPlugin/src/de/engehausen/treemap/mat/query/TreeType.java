@@ -0,0 +1,35 @@
+package de.engehausen.treemap.mat.query;
+
+/**
+ * The kinds of trees the {@link HeapTreeMapQuery} can show.
+ */
+public enum TreeType {
+
+	/**
+	 * A spanning tree of the object graph, built by following the outgoing
+	 * references from the GC roots. A node's weight is the summed up shallow
+	 * size of its subtree.
+	 */
+	GRAPH,
+
+	/**
+	 * The dominator tree of the snapshot, as computed by MAT when parsing
+	 * the heap dump. A node's weight is the retained size of its object.
+	 */
+	DOMINATOR,
+
+	/**
+	 * The objects grouped by package and class, built from the class
+	 * histogram of the snapshot. A node's weight is the summed up shallow
+	 * size of the objects it groups.
+	 */
+	CLASSES,
+
+	/**
+	 * The objects grouped by the class loader of their class and by class,
+	 * built from the class histogram of the snapshot. A node's weight is the
+	 * summed up shallow size of the objects it groups.
+	 */
+	CLASSLOADERS
+
+}
@@ -1,7 +1,10 @@
 package de.engehausen.treemap.mat.ui;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.mat.SnapshotException;
 import org.eclipse.mat.snapshot.ISnapshot;
@@ -12,20 +15,42 @@ import org.eclipse.swt.graphics.RGB;
 import de.engehausen.treemap.IColorProvider;
 import de.engehausen.treemap.IRectangle;
 import de.engehausen.treemap.ITreeModel;
+import de.engehausen.treemap.mat.IClassProvider;
 import de.engehausen.treemap.mat.ISnapshotNode;
 import de.engehausen.treemap.mat.Messages;
+import de.engehausen.treemap.mat.impl.ClassColorTable;
 import de.engehausen.treemap.mat.impl.ColorMatcher;
 
 /**
  * Color provider coloring rectangles in the tree map according to
  * rules defined by a {@link ColorMatcher}.
+ * <p>The rules are applied to the names of all classes of the snapshot
+ * once per matcher, resulting in a {@link ClassColorTable}; a rectangle
+ * is then colored by looking up the class of its object in the table,
+ * which needs neither the object itself nor any string matching. A
+ * synthetic node is colored like the objects of the class it stands for,
+ * if the model tells it (see {@link #setClassProvider(IClassProvider)}).
+ * <p>The provider also records which classes it colored rectangles of.
+ * When the rules change, the table is updated incrementally, and the tree
+ * map only needs to be painted again if the color of one of these classes
+ * changed; colors no longer used are disposed. The classes are never
+ * forgotten, so after zooming a change may cause painting again although
+ * no class of the shown rectangles changed its color.
+ * <p>The provider is used by the jobs painting the tree map in the background
+ * as well as by the UI thread; its methods synchronize on the provider.
  */
 public class ColorProvider implements IColorProvider<ISnapshotNode, Color> {
 
 	private final Device device;
 	private final Map<RGB, Color> rgb2color;
 	protected ISnapshot snapshot;
+	/** the classes of the synthetic nodes, or <code>null</code> */
+	protected IClassProvider classes;
 	protected ColorMatcher matcher;
+	protected ClassColorTable table;
+	protected Color[] tableColors;
+	/** whether rectangles of each class of the table were colored, plus those of no class */
+	protected boolean[] painted;
 
 	/**
 	 * Creates the color provider for the given device. The provider can only
@@ -41,10 +66,35 @@ public class ColorProvider implements IColorProvider<ISnapshotNode, Color> {
 	
 	/**
 	 * Updates the reference to the color matcher to use by the provider.
+	 * Only the classes which may match differently under the new matcher are
+	 * matched again, and the colors no longer used are disposed.
 	 * @param aMatcher the matcher to use, must not be <code>null</code>.
+	 * @return <code>true</code> if the color of a class of painted rectangles
+	 * changed, <code>false</code> otherwise.
 	 */
-	public void updateColorMatcher(final ColorMatcher aMatcher) {
+	public synchronized boolean updateColorMatcher(final ColorMatcher aMatcher) {
+		final ClassColorTable previous = table;
 		matcher = aMatcher;
+		if (previous == null) {
+			// nothing painted yet
+			return false;
+		}
+		table = previous.update(aMatcher);
+		tableColors = new Color[table.getPaletteSize()];
+		boolean changed = false;
+		for (int i = table.size(); i >= 0 && !changed; i--) {
+			changed = painted[i] && !previous.getRGB(colorIndex(previous, i)).equals(table.getRGB(colorIndex(table, i)));
+		}
+		releaseColors();
+		return changed;
+	}
+
+	/**
+	 * Returns the color matcher used by the provider.
+	 * @return the color matcher, <code>null</code> if none was set yet.
+	 */
+	public synchronized ColorMatcher getColorMatcher() {
+		return matcher;
 	}
 
 	/**
@@ -53,34 +103,104 @@ public class ColorProvider implements IColorProvider<ISnapshotNode, Color> {
 	 * @param st the snapshot to use
 	 * @throws IllegalStateException if a snapshot has already been set
 	 */
-	public void setSnapshot(final ISnapshot st) {
+	public synchronized void setSnapshot(final ISnapshot st) {
 		if (snapshot != null) {
 			throw new IllegalStateException(Messages.STR_ALREADY_INITIALIZED);
 		}
 		snapshot = st;
 	}
 
+	/**
+	 * Sets the model telling the classes the synthetic nodes stand for.
+	 * @param aProvider the model, or <code>null</code> to give all synthetic
+	 * nodes the default color.
+	 */
+	public synchronized void setClassProvider(final IClassProvider aProvider) {
+		classes = aProvider;
+	}
+
 	/**
 	 * Disposes resources the provider created.
 	 */
-	public void dispose() {
+	public synchronized void dispose() {
 		for (Color c : rgb2color.values()) {
 			c.dispose();
 		}
+		rgb2color.clear();
 	}
 
 	@Override
 	// non-javadoc: see interface
-	public Color getColor(final ITreeModel<IRectangle<ISnapshotNode>> model, final IRectangle<ISnapshotNode> node) {
-		final int id = node.getNode().getID();
-		RGB rgb;
-		try {
-			final String name = snapshot.getObject(id).getClazz().getName();
-			rgb = matcher.match(name);
-		} catch (SnapshotException e) {
-			rgb = matcher.getDefaultColor();
+	public synchronized Color getColor(final ITreeModel<IRectangle<ISnapshotNode>> model, final IRectangle<ISnapshotNode> node) {
+		if (table == null) {
+			try {
+				table = new ClassColorTable(snapshot, matcher);
+			} catch (SnapshotException e) {
+				return getColor(matcher.getDefaultColor());
+			}
+			tableColors = new Color[table.getPaletteSize()];
+			painted = new boolean[table.size()+1];
 		}
-		return getColor(rgb);			
+		final ISnapshotNode snapshotNode = node.getNode();
+		final int id = snapshotNode.getID();
+		int pos = table.size(); // the slot for rectangles without class
+		if (id != Integer.MAX_VALUE) { // the virtual root node has no class
+			try {
+				// synthetic nodes have no object, but may stand for a class
+				final int classId = id>=0?snapshot.getClassOf(id).getObjectId():classes!=null?classes.getClassId(snapshotNode):-1;
+				final int classPos = classId>=0?table.getPosition(classId):-1;
+				if (classPos >= 0) {
+					pos = classPos;
+				}
+			} catch (SnapshotException e) {
+				// use the default color
+			}
+		}
+		painted[pos] = true;
+		return getColor(colorIndex(table, pos));
+	}
+
+	/**
+	 * Returns the color index of a class of the table.
+	 * @param aTable the table
+	 * @param pos the position of the class in the table, or the size
+	 * of the table for rectangles without class
+	 * @return the color index.
+	 */
+	private static int colorIndex(final ClassColorTable aTable, final int pos) {
+		return pos<aTable.size()?aTable.getColorIndexAt(pos):ClassColorTable.DEFAULT_INDEX;
+	}
+
+	/**
+	 * Disposes the colors not used by the current table.
+	 */
+	private void releaseColors() {
+		final Set<RGB> used = new HashSet<RGB>();
+		for (int i = table.getPaletteSize() - 1; i >= 0; i--) {
+			used.add(table.getRGB(i));
+		}
+		used.add(matcher.getDefaultColor());
+		for (Iterator<Map.Entry<RGB, Color>> i = rgb2color.entrySet().iterator(); i.hasNext(); ) {
+			final Map.Entry<RGB, Color> entry = i.next();
+			if (!used.contains(entry.getKey())) {
+				entry.getValue().dispose();
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the SWT color for the given index of the class color table.
+	 * @param index the color index
+	 * @return the color, never <code>null</code>.
+	 */
+	protected Color getColor(final int index) {
+		Color result = tableColors[index];
+		if (result == null) {
+			result = getColor(table.getRGB(index));
+			tableColors[index] = result;
+		}
+		return result;
 	}
 
 	/**
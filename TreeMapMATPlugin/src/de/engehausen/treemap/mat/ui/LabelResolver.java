@@ -0,0 +1,93 @@
+package de.engehausen.treemap.mat.ui;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.swt.widgets.Control;
+
+import de.engehausen.treemap.ILabelProvider;
+import de.engehausen.treemap.IRectangle;
+import de.engehausen.treemap.ITreeModel;
+import de.engehausen.treemap.mat.ICachedLabelProvider;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.Messages;
+
+/**
+ * Label provider of the tree map which never blocks the UI thread. Cached
+ * labels are returned right away; for all others, a placeholder is returned
+ * and the label is computed by a background job. When done, the label is
+ * set as tool tip text of the tree map, unless another label has been
+ * asked for in the meantime. Only the label asked for last is computed,
+ * so moving the mouse quickly over the tree map does not queue up work.
+ */
+public class LabelResolver extends Job implements ILabelProvider<ISnapshotNode> {
+
+	protected final ICachedLabelProvider<ISnapshotNode> provider;
+	protected final Control treeMap;
+
+	/** the rectangle whose label is to be computed, <code>null</code> if none */
+	private IRectangle<ISnapshotNode> pending;
+	/** the model of the pending rectangle */
+	private ITreeModel<IRectangle<ISnapshotNode>> pendingModel;
+
+	/**
+	 * Creates the resolver.
+	 * @param aProvider the label provider computing the labels, must not be <code>null</code>.
+	 * @param aTreeMap the control showing the tree map, in which the labels are shown; must not be <code>null</code>.
+	 */
+	public LabelResolver(final ICachedLabelProvider<ISnapshotNode> aProvider, final Control aTreeMap) {
+		super(Messages.STR_RESOLVE_LABEL);
+		provider = aProvider;
+		treeMap = aTreeMap;
+		setSystem(true);
+		setPriority(INTERACTIVE);
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public String getLabel(final ITreeModel<IRectangle<ISnapshotNode>> model, final IRectangle<ISnapshotNode> rectangle) {
+		final String label = provider.getCachedLabel(rectangle);
+		synchronized (this) {
+			pending = label==null?rectangle:null;
+			pendingModel = model;
+		}
+		if (label != null) {
+			return label;
+		}
+		schedule();
+		return Messages.STR_LABEL_PENDING;
+	}
+
+	@Override
+	// non-javadoc: see superclass
+	protected IStatus run(final IProgressMonitor monitor) {
+		final IRectangle<ISnapshotNode> rectangle;
+		final ITreeModel<IRectangle<ISnapshotNode>> model;
+		synchronized (this) {
+			rectangle = pending;
+			model = pendingModel;
+		}
+		if (rectangle != null && !treeMap.isDisposed()) {
+			final String label = provider.getLabel(model, rectangle);
+			treeMap.getDisplay().asyncExec(new Runnable() {
+				public void run() {
+					if (!treeMap.isDisposed() && isPending(rectangle)) {
+						treeMap.setToolTipText(label);
+					}
+				}
+			});
+		}
+		return Status.OK_STATUS;
+	}
+
+	/**
+	 * Indicates whether the given rectangle is the one whose label was asked for last.
+	 * @param rectangle the rectangle
+	 * @return <code>true</code> if no other label was asked for since.
+	 */
+	protected synchronized boolean isPending(final IRectangle<ISnapshotNode> rectangle) {
+		return pending == rectangle;
+	}
+
+}
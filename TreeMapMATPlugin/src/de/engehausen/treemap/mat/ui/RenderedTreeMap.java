@@ -0,0 +1,154 @@
+package de.engehausen.treemap.mat.ui;
+
+import java.util.Iterator;
+
+import org.eclipse.swt.graphics.Image;
+
+import de.engehausen.treemap.IRectangle;
+import de.engehausen.treemap.ITreeModel;
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.impl.ColorMatcher;
+import de.engehausen.treemap.mat.impl.SubtreeModelImpl;
+
+/**
+ * A subtree laid out and painted for a size of the tree map: the copied
+ * subtree, the rectangles of its nodes and the image showing them. The
+ * image is created by a {@link SubtreeLoader} in the background; the
+ * tree map pane only copies it to the screen.
+ * <p>Whoever holds the instance last has to {@link #dispose()} it.
+ */
+public class RenderedTreeMap {
+
+	protected final IWeightedTreeModel<ISnapshotNode> source;
+	protected final ColorMatcher matcher;
+	protected final SubtreeModelImpl model;
+	protected final ITreeModel<IRectangle<ISnapshotNode>> rectangles;
+	protected final Image image;
+	protected final int width;
+	protected final int height;
+
+	/**
+	 * Creates the rendered tree map.
+	 * @param aSource the model the subtree was copied from, must not be <code>null</code>.
+	 * @param aMatcher the color rules the rectangles were painted with, must not be <code>null</code>.
+	 * @param aModel the copied subtree, must not be <code>null</code>.
+	 * @param someRectangles the rectangles of the nodes of the subtree, must not be <code>null</code>.
+	 * @param anImage the image showing the rectangles, must not be <code>null</code>.
+	 * @param aWidth the width the subtree was laid out for
+	 * @param aHeight the height the subtree was laid out for
+	 */
+	public RenderedTreeMap(final IWeightedTreeModel<ISnapshotNode> aSource, final ColorMatcher aMatcher, final SubtreeModelImpl aModel, final ITreeModel<IRectangle<ISnapshotNode>> someRectangles, final Image anImage, final int aWidth, final int aHeight) {
+		source = aSource;
+		matcher = aMatcher;
+		model = aModel;
+		rectangles = someRectangles;
+		image = anImage;
+		width = aWidth;
+		height = aHeight;
+	}
+
+	/**
+	 * Returns the model the subtree was copied from.
+	 * @return the model, never <code>null</code>.
+	 */
+	public IWeightedTreeModel<ISnapshotNode> getSource() {
+		return source;
+	}
+
+	/**
+	 * Returns the color rules the rectangles were painted with.
+	 * @return the color rules, never <code>null</code>.
+	 */
+	public ColorMatcher getColorMatcher() {
+		return matcher;
+	}
+
+	/**
+	 * Returns the copied subtree.
+	 * @return the copied subtree, never <code>null</code>.
+	 */
+	public SubtreeModelImpl getModel() {
+		return model;
+	}
+
+	/**
+	 * Returns the rectangles of the nodes of the subtree.
+	 * @return the rectangles, never <code>null</code>.
+	 */
+	public ITreeModel<IRectangle<ISnapshotNode>> getRectangles() {
+		return rectangles;
+	}
+
+	/**
+	 * Returns the image showing the rectangles.
+	 * @return the image, never <code>null</code>.
+	 */
+	public Image getImage() {
+		return image;
+	}
+
+	/**
+	 * Returns the width the subtree was laid out for.
+	 * @return the width in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height the subtree was laid out for.
+	 * @return the height in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the innermost rectangle containing the given point.
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 * @return the rectangle, or <code>null</code> if the point lies
+	 * outside of the tree map.
+	 */
+	public IRectangle<ISnapshotNode> findRectangle(final int x, final int y) {
+		IRectangle<ISnapshotNode> result = rectangles.getRoot();
+		if (result == null || !contains(result, x, y)) {
+			return null;
+		}
+		IRectangle<ISnapshotNode> inner = result;
+		while (inner != null) {
+			result = inner;
+			inner = null;
+			for (Iterator<IRectangle<ISnapshotNode>> i = rectangles.getChildren(result); i.hasNext(); ) {
+				final IRectangle<ISnapshotNode> child = i.next();
+				if (contains(child, x, y)) {
+					inner = child;
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Disposes the image.
+	 */
+	public void dispose() {
+		image.dispose();
+	}
+
+	/**
+	 * Indicates whether the given rectangle contains the given point.
+	 * @param rect the rectangle
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 * @return <code>true</code> if the point lies within the rectangle.
+	 */
+	private static boolean contains(final IRectangle<ISnapshotNode> rect, final int x, final int y) {
+		final int dx = x - rect.getX();
+		final int dy = y - rect.getY();
+		return dx >= 0 && dy >= 0 && dx < rect.getWidth() && dy < rect.getHeight();
+	}
+
+}
@@ -0,0 +1,211 @@
+package de.engehausen.treemap.mat.ui;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.ui.util.ProgressMonitorWrapper;
+import org.eclipse.swt.events.PaintEvent;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Canvas;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
+
+import de.engehausen.treemap.IRectangle;
+import de.engehausen.treemap.IRectangleRenderer;
+import de.engehausen.treemap.ITreeMapLayout;
+import de.engehausen.treemap.ITreeModel;
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.Messages;
+import de.engehausen.treemap.mat.impl.Activator;
+import de.engehausen.treemap.mat.impl.ColorMatcher;
+import de.engehausen.treemap.mat.impl.LevelOfDetailTreeModel;
+import de.engehausen.treemap.mat.impl.SubtreeModelImpl;
+
+/**
+ * Background job preparing everything the tree map pane shows, so that
+ * the UI thread only copies an image to the screen:
+ * <ol>
+ * <li>applies the current color rules (see {@link ColorProvider#updateColorMatcher(ColorMatcher)}),
+ * <li>copies the part of the tree model to be shown (see {@link SubtreeModelImpl}),
+ * merging the nodes too small to be seen in the area of the tree
+ * map (see {@link LevelOfDetailTreeModel}),
+ * <li>lays out the copy and
+ * <li>paints its rectangles into an image.
+ * </ol>
+ * Steps already done are skipped: a subtree laid out before is only
+ * painted again if the color of a class painted before changed. When done, the result is handed
+ * to the pane on the UI thread. A job which is cancelled, e.g. because the
+ * user zoomed again before it was done, hands over nothing; a job with
+ * nothing to paint again or failing to read the subtree tells the pane
+ * that it is done without a result.
+ * <p>The jobs of a pane share the pane's scheduling rule, so they never run
+ * at the same time and never paint with colors being replaced.
+ */
+public class SubtreeLoader extends Job {
+
+	protected final TreeMapPane pane;
+	protected final Canvas canvas;
+	protected final Display display;
+	protected final IWeightedTreeModel<ISnapshotNode> source;
+	protected final ITreeMapLayout<ISnapshotNode> layout;
+	protected final IRectangleRenderer<ISnapshotNode, PaintEvent, Color> renderer;
+	protected final ColorProvider colors;
+	protected final ISnapshotNode root;
+	/** the subtree copied before, or <code>null</code> */
+	protected final SubtreeModelImpl copy;
+	/** the rectangles of the subtree laid out before, or <code>null</code> */
+	protected final ITreeModel<IRectangle<ISnapshotNode>> laidOut;
+	protected final int depth;
+	protected final int width;
+	protected final int height;
+	protected final int minArea;
+
+	/**
+	 * Creates the job. Must be called on the UI thread.
+	 * @param aPane the pane to hand the result to; it provides the model,
+	 * layout, renderer, colors and scheduling rule. Must not be <code>null</code>.
+	 * @param aRoot the root of the subtree to show, must not be <code>null</code>.
+	 * @param aCopy the subtree copied before for the given size, or <code>null</code>
+	 * to copy it from the pane's model
+	 * @param someRectangles the rectangles of the given copy laid out before, or <code>null</code>
+	 * @param aWidth the width of the tree map, in pixels
+	 * @param aHeight the height of the tree map, in pixels
+	 * @param aMinArea the number of pixels a node needs at least to be shown on its own
+	 */
+	public SubtreeLoader(final TreeMapPane aPane, final ISnapshotNode aRoot, final SubtreeModelImpl aCopy, final ITreeModel<IRectangle<ISnapshotNode>> someRectangles, final int aWidth, final int aHeight, final int aMinArea) {
+		super(Messages.STR_LOAD_SUBTREE);
+		pane = aPane;
+		canvas = aPane.canvas;
+		display = canvas.getDisplay();
+		source = aPane.source;
+		layout = aPane.layout;
+		renderer = aPane.renderer;
+		colors = aPane.colors;
+		root = aRoot;
+		copy = aCopy;
+		laidOut = aCopy != null ? someRectangles : null;
+		depth = TreeMapPane.LAYOUT_DEPTH;
+		width = aWidth;
+		height = aHeight;
+		minArea = aMinArea;
+		setSystem(true);
+		setPriority(INTERACTIVE);
+		setRule(aPane.jobRule);
+	}
+
+	@Override
+	// non-javadoc: see superclass
+	protected IStatus run(final IProgressMonitor monitor) {
+		// the rules set last, even if set after the job was created
+		final ColorMatcher matcher = pane.matcher;
+		if (colors.getColorMatcher() != matcher && !colors.updateColorMatcher(matcher) && laidOut != null) {
+			// no painted class changed its color
+			skip();
+			return Status.OK_STATUS;
+		}
+		SubtreeModelImpl model = copy;
+		ITreeModel<IRectangle<ISnapshotNode>> rectangles = laidOut;
+		try {
+			if (model == null) {
+				final LevelOfDetailTreeModel visible = LevelOfDetailTreeModel.create(source, root, width, height, minArea);
+				model = SubtreeModelImpl.createModel(visible, root, depth, new ProgressMonitorWrapper(monitor));
+			}
+		} catch (SnapshotException e) {
+			if (monitor.isCanceled()) {
+				return Status.CANCEL_STATUS;
+			}
+			skip();
+			return new Status(IStatus.ERROR, Activator.PLUGIN_ID, Messages.STR_LOAD_SUBTREE_FAILED, e);
+		}
+		if (monitor.isCanceled()) {
+			return Status.CANCEL_STATUS;
+		}
+		if (rectangles == null) {
+			rectangles = layout.layout(model, model.getRoot(), width, height);
+		}
+		final Image image = render(model, rectangles, monitor);
+		if (image == null) {
+			return Status.CANCEL_STATUS;
+		}
+		final RenderedTreeMap result = new RenderedTreeMap(source, matcher, model, rectangles, image, width, height);
+		if (display.isDisposed()) {
+			result.dispose();
+			return Status.CANCEL_STATUS;
+		}
+		display.asyncExec(new Runnable() {
+			public void run() {
+				pane.subtreeLoaded(SubtreeLoader.this, result);
+			}
+		});
+		return Status.OK_STATUS;
+	}
+
+	/**
+	 * Tells the pane on the UI thread that the job is done without
+	 * a subtree to hand over.
+	 */
+	protected void skip() {
+		if (!display.isDisposed()) {
+			display.asyncExec(new Runnable() {
+				public void run() {
+					pane.subtreeSkipped(SubtreeLoader.this);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Paints the rectangles into a new image, parents before their children.
+	 * Each rectangle is painted while holding the lock of the color
+	 * provider, so the pane can stop the painting before disposing the colors.
+	 * @param model the laid out subtree, used to label the rectangles
+	 * @param rectangles the rectangles to paint
+	 * @param monitor the monitor telling whether the job is cancelled
+	 * @return the image, or <code>null</code> if the job was cancelled.
+	 */
+	protected Image render(final SubtreeModelImpl model, final ITreeModel<IRectangle<ISnapshotNode>> rectangles, final IProgressMonitor monitor) {
+		final Image image = new Image(display, width, height);
+		final GC gc = new GC(image);
+		boolean done = false;
+		try {
+			final Event event = new Event();
+			event.widget = canvas;
+			event.display = display;
+			event.gc = gc;
+			event.width = width;
+			event.height = height;
+			final PaintEvent paintEvent = new PaintEvent(event);
+			final List<IRectangle<ISnapshotNode>> stack = new ArrayList<IRectangle<ISnapshotNode>>();
+			stack.add(rectangles.getRoot());
+			while (!stack.isEmpty()) {
+				final IRectangle<ISnapshotNode> rect = stack.remove(stack.size()-1);
+				synchronized (colors) {
+					if (monitor.isCanceled()) {
+						return null;
+					}
+					renderer.render(paintEvent, rectangles, rect, colors, model);
+				}
+				for (Iterator<IRectangle<ISnapshotNode>> i = rectangles.getChildren(rect); i.hasNext(); ) {
+					stack.add(i.next());
+				}
+			}
+			done = true;
+		} finally {
+			gc.dispose();
+			if (!done) {
+				image.dispose();
+			}
+		}
+		return image;
+	}
+
+}
@@ -1,5 +1,9 @@
 package de.engehausen.treemap.mat.ui;
 
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IAction;
+import org.eclipse.jface.action.IToolBarManager;
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.jface.util.PropertyChangeEvent;
@@ -10,26 +14,41 @@ import org.eclipse.mat.ui.QueryExecution;
 import org.eclipse.mat.ui.editor.AbstractEditorPane;
 import org.eclipse.mat.ui.editor.MultiPaneEditor;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.ControlEvent;
+import org.eclipse.swt.events.ControlListener;
 import org.eclipse.swt.events.MouseEvent;
+import org.eclipse.swt.events.MouseListener;
+import org.eclipse.swt.events.MouseMoveListener;
+import org.eclipse.swt.events.PaintEvent;
+import org.eclipse.swt.events.PaintListener;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.widgets.Canvas;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.IWorkbenchPage;
 import org.eclipse.ui.PlatformUI;
 
-import de.engehausen.treemap.ILabelProvider;
 import de.engehausen.treemap.IRectangle;
+import de.engehausen.treemap.IRectangleRenderer;
 import de.engehausen.treemap.ISelectionChangeListener;
+import de.engehausen.treemap.ITreeMapLayout;
 import de.engehausen.treemap.ITreeModel;
 import de.engehausen.treemap.IWeightedTreeModel;
 import de.engehausen.treemap.impl.SquarifiedLayout;
+import de.engehausen.treemap.mat.IClassProvider;
+import de.engehausen.treemap.mat.IMetricTreeModel;
 import de.engehausen.treemap.mat.ISnapshotNode;
 import de.engehausen.treemap.mat.ISnapshotProvider;
 import de.engehausen.treemap.mat.Messages;
+import de.engehausen.treemap.mat.Metric;
 import de.engehausen.treemap.mat.impl.Activator;
 import de.engehausen.treemap.mat.impl.ColorMatcher;
+import de.engehausen.treemap.mat.impl.MetricTreeModel;
+import de.engehausen.treemap.mat.impl.OthersNodeImpl;
+import de.engehausen.treemap.mat.impl.SubtreeModelImpl;
 import de.engehausen.treemap.mat.preferences.PreferenceConstants;
 import de.engehausen.treemap.mat.query.IResultTreeModel;
-import de.engehausen.treemap.swt.TreeMap;
 import de.engehausen.treemap.swt.impl.CushionRectangleRendererEx;
 
 /**
@@ -37,35 +56,268 @@ import de.engehausen.treemap.swt.impl.CushionRectangleRendererEx;
  * be inspected by zooming in on a sub tree (left mouse click), zooming out
  * (right mouse click). Single elements can be inspected in the "list objects"
  * view of MAT by pressing shift while left-clicking a node.
+ * <p>If the model of the query provides several metrics, the tool bar
+ * offers to weight the tree map by each of them; switching lays out the
+ * same tree again.
+ * <p>Copying, laying out and painting a subtree is done in the background
+ * (see {@link SubtreeLoader}); the pane only copies the resulting image to
+ * the screen and highlights the rectangle under the mouse, so the UI thread
+ * never waits for the snapshot, the layout or the cushion shading. The
+ * previous image stays on the screen until the next one is ready.
  */
 public class TreeMapPane extends AbstractEditorPane implements ISelectionChangeListener<ISnapshotNode>, IPropertyChangeListener, PreferenceConstants {
+
+	/** number of levels below its root a subtree is laid out to */
+	protected static final int LAYOUT_DEPTH = 8;
 	
-	protected TreeMap<ISnapshotNode> treeMap;
+	protected Canvas canvas;
+	protected ITreeMapLayout<ISnapshotNode> layout;
+	protected IRectangleRenderer<ISnapshotNode, PaintEvent, Color> renderer;
 	protected ColorProvider colors;
+	/** the color rules set last, applied by the next job */
+	protected volatile ColorMatcher matcher;
+	protected LabelResolver labels;
+	protected SubtreeLoader loader;
+	/** the model of the query */
+	protected IWeightedTreeModel<ISnapshotNode> result;
+	/** the model of the query, weighted by the chosen metric */
+	protected IWeightedTreeModel<ISnapshotNode> source;
+	protected Metric metric;
+	/** the copy of the subtree shown by the tree map */
+	protected SubtreeModelImpl shown;
+	/** the laid out and painted subtree shown by the tree map */
+	protected RenderedTreeMap displayed;
+	/** the rectangle under the mouse */
+	protected IRectangle<ISnapshotNode> highlighted;
+	/** the subtrees shown recently, laid out and painted; holds the displayed one */
+	protected final ZoomHistory history = new ZoomHistory();
+	protected ISnapshotNode currentNode;
 	protected IPreferenceStore preferences;
 	protected int currentObjectID;
+	/** rule making the jobs of the pane run one after the other */
+	protected final ISchedulingRule jobRule = new ISchedulingRule() {
+		public boolean contains(final ISchedulingRule rule) {
+			return rule == this;
+		}
+		public boolean isConflicting(final ISchedulingRule rule) {
+			return rule == this;
+		}
+	};
 
     @Override
     // non-javadoc: see superclass
     public void initWithArgument(final Object argument) {
-        if (treeMap != null && argument instanceof QueryResult) {
+        if (canvas != null && argument instanceof QueryResult) {
         	final Object subject = ((QueryResult) argument).getSubject();
         	if (subject instanceof IResultTreeModel) {
         		final IWeightedTreeModel<ISnapshotNode> model = ((IResultTreeModel) subject).getTreeModel();
             	if (model instanceof ISnapshotProvider) {
             		colors.setSnapshot(((ISnapshotProvider) model).getSnapshot());
             	}
-        		treeMap.setTreeModel(model);
-        		if (model instanceof ILabelProvider<?>) {
-            		treeMap.setLabelProvider((ILabelProvider<ISnapshotNode>) model);
-        		} else {
-        			treeMap.setLabelProvider(null);
-        		}
-        		treeMap.redraw();
+            	colors.setClassProvider(model instanceof IClassProvider ? (IClassProvider) model : null);
+            	result = model;
+            	source = model;
+            	metric = getMetrics(model)[0];
+            	// the subtrees of the previous model are of no use any more
+            	displayed = null;
+            	history.clear();
+            	canvas.redraw();
+        		showSubtree(model.getRoot());
         	}
         }
     }
 
+    /**
+     * Returns the metrics provided by the given model.
+     * @param model the model
+     * @return the metrics, the one the model is weighted by first.
+     */
+    protected static Metric[] getMetrics(final IWeightedTreeModel<ISnapshotNode> model) {
+    	return model instanceof IMetricTreeModel ? ((IMetricTreeModel) model).getMetrics() : new Metric[] { Metric.SIZE };
+    }
+
+    /**
+     * Returns the name of a metric.
+     * @param aMetric the metric
+     * @return the name, never <code>null</code>.
+     */
+    protected static String getName(final Metric aMetric) {
+    	switch (aMetric) {
+    		case COUNT:
+    			return Messages.STR_METRIC_COUNT;
+    		case RETAINED:
+    			return Messages.STR_METRIC_RETAINED;
+    		default:
+    			return Messages.STR_METRIC_SIZE;
+    	}
+    }
+
+    /**
+     * Weights the tree map by the given metric and lays out the shown
+     * subtree again. The tree itself stays the same.
+     * @param aMetric one of the metrics of the model of the query, must not be <code>null</code>.
+     */
+    protected void setMetric(final Metric aMetric) {
+    	if (result != null && aMetric != metric) {
+    		metric = aMetric;
+    		// the history only returns subtrees copied from the same model
+    		source = MetricTreeModel.create(result, aMetric);
+    		showSubtree(shown != null ? shown.getRoot() : source.getRoot());
+    	}
+    }
+
+    /**
+     * Shows the subtree of the given node. The part of the subtree laid
+     * out by the tree map is copied, laid out and painted in the background,
+     * so that the UI thread never waits for it; a job still in progress is
+     * cancelled.
+     * @param node the root of the subtree to show, must not be <code>null</code>.
+     */
+    protected void showSubtree(final ISnapshotNode node) {
+    	if (loader != null) {
+    		loader.cancel();
+    		loader = null;
+    	}
+    	final Point size = canvas.getSize();
+    	if (size.x <= 0 || size.y <= 0) {
+    		// nothing to show; done again once resized
+    		return;
+    	}
+    	final RenderedTreeMap rendered = history.get(node.getID(), size.x, size.y, source, matcher);
+    	if (rendered != null) {
+    		// shown recently, no need to read, lay out or paint it again
+    		show(rendered);
+    	} else {
+    		loader = new SubtreeLoader(this, node, null, null, size.x, size.y, preferences.getInt(TREEMAP_MIN_AREA_KEY));
+    		loader.schedule();
+    	}
+    }
+
+    /**
+     * Paints the shown subtree again once the color rules changed. Only
+     * if the color of a painted class changed, the rectangles are painted
+     * again in the background; their layout is kept. A subtree about to be
+     * shown is painted again from the start, as it may already have been
+     * painted with the previous colors.
+     */
+    protected void repaint() {
+    	if (loader != null) {
+    		showSubtree(loader.root);
+    	} else if (displayed != null) {
+    		loader = new SubtreeLoader(this, displayed.getModel().getRoot(), displayed.getModel(), displayed.getRectangles(), displayed.getWidth(), displayed.getHeight(), preferences.getInt(TREEMAP_MIN_AREA_KEY));
+    		loader.schedule();
+    	}
+    }
+
+    /**
+     * Shows a painted subtree and adds it to the history, unless it was
+     * superseded by another one in the meantime; the subtree is disposed
+     * otherwise. Must be called on the UI thread.
+     * @param aLoader the job that painted the subtree
+     * @param rendered the painted subtree
+     */
+    protected void subtreeLoaded(final SubtreeLoader aLoader, final RenderedTreeMap rendered) {
+    	if (canvas != null && aLoader == loader) {
+    		loader = null;
+    		history.put(rendered);
+    		show(rendered);
+    	} else {
+    		rendered.dispose();
+    	}
+    }
+
+    /**
+     * Forgets a job which hands over no subtree, because no painted
+     * class changed its color or the subtree could not be read,
+     * unless it was superseded by another one in the meantime. Must be
+     * called on the UI thread.
+     * @param aLoader the job that is done
+     */
+    protected void subtreeSkipped(final SubtreeLoader aLoader) {
+    	if (aLoader == loader) {
+    		loader = null;
+    	}
+    }
+
+    /**
+     * Shows a painted subtree held by the history, which disposes it.
+     * @param rendered the painted subtree
+     */
+    private void show(final RenderedTreeMap rendered) {
+    	displayed = rendered;
+    	highlighted = null;
+    	final SubtreeModelImpl model = rendered.getModel();
+    	if (model != shown) {
+    		shown = model;
+    		currentNode = null;
+    		if (labels != null) {
+    			labels.cancel();
+    		}
+    		// compute labels in the background
+    		labels = new LabelResolver(model, canvas);
+    	}
+    	canvas.redraw();
+    }
+
+    /**
+     * Highlights the rectangle at the given position and shows its label.
+     * @param x the x coordinate
+     * @param y the y coordinate
+     */
+    protected void highlight(final int x, final int y) {
+    	final IRectangle<ISnapshotNode> rect = displayed != null ? displayed.findRectangle(x, y) : null;
+    	if (rect != null && rect != highlighted) {
+    		if (highlighted != null) {
+    			canvas.redraw(highlighted.getX(), highlighted.getY(), highlighted.getWidth(), highlighted.getHeight(), false);
+    		}
+    		highlighted = rect;
+    		canvas.redraw(rect.getX(), rect.getY(), rect.getWidth(), rect.getHeight(), false);
+    		selectionChanged(displayed.getRectangles(), rect, labels.getLabel(displayed.getRectangles(), rect));
+    	}
+    }
+
+    /**
+     * Copies the image of the shown subtree to the screen and highlights
+     * the rectangle under the mouse.
+     * @param event the paint event of the canvas
+     */
+    protected void paint(final PaintEvent event) {
+    	if (displayed != null) {
+    		event.gc.drawImage(displayed.getImage(), 0, 0);
+    		if (highlighted != null) {
+    			synchronized (colors) {
+    				renderer.highlight(event, displayed.getRectangles(), highlighted, colors, labels);
+    			}
+    		}
+    	}
+    }
+
+    /**
+     * Zooms in on the selected node, or on the parent of the selected
+     * node if it is a leaf or a merged node.
+     */
+    protected void zoomIn() {
+    	if (shown != null && currentNode != null) {
+    		final boolean inner = !(currentNode instanceof OthersNodeImpl) && (shown.hasChildren(currentNode) || shown.isTruncated(currentNode));
+    		final ISnapshotNode node = inner ? currentNode : shown.getParent(currentNode);
+    		if (node != null && !node.equals(shown.getRoot())) {
+    			showSubtree(node);
+    		}
+    	}
+    }
+
+    /**
+     * Zooms out to the parent of the shown subtree.
+     */
+    protected void zoomOut() {
+    	if (shown != null) {
+    		final ISnapshotNode node = source.getParent(shown.getRoot());
+    		if (node != null) {
+    			showSubtree(node);
+    		}
+    	}
+    }
+
     /**
      * List the object with the given ID in a separate view.
      * @param id the node to show
@@ -73,8 +325,8 @@ public class TreeMapPane extends AbstractEditorPane implements ISelectionChangeL
     protected void listObject(final int id) {
         final IWorkbenchPage page = PlatformUI.getWorkbench().getActiveWorkbenchWindow().getActivePage();
         final IEditorPart part = page == null ? null : page.getActiveEditor();
-        if (part instanceof MultiPaneEditor) {
-        	final Object o = treeMap.getTreeModel();
+        if (part instanceof MultiPaneEditor && id >= 0) { // synthetic nodes have no object
+        	final Object o = shown;
         	if (o instanceof ISnapshotProvider) {
         		final ISnapshot snapshot = ((ISnapshotProvider) o).getSnapshot();
         		try {
@@ -90,32 +342,61 @@ public class TreeMapPane extends AbstractEditorPane implements ISelectionChangeL
 	@Override
     // non-javadoc: see superclass
 	public void createPartControl(final Composite parent) {
-		treeMap = new TreeMap<ISnapshotNode>(parent, true) {
+		canvas = new Canvas(parent, SWT.DOUBLE_BUFFERED);
+		canvas.addPaintListener(new PaintListener() {
+			public void paintControl(final PaintEvent event) {
+				paint(event);
+			}
+		});
+		canvas.addMouseListener(new MouseListener() {
+			public void mouseDoubleClick(final MouseEvent mouseevent) {
+				// nothing to do
+			}
+			public void mouseDown(final MouseEvent mouseevent) {
+				// nothing to do
+			}
 			public void mouseUp(final MouseEvent mouseevent) {
 				if (mouseevent.button == 1 && (mouseevent.stateMask & SWT.SHIFT) != 0) {
 					listObject(currentObjectID);
-				} else {
-					super.mouseUp(mouseevent);
+				} else if (mouseevent.button == 1) {
+					zoomIn();
+				} else if (mouseevent.button == 3) {
+					zoomOut();
 				}
 			}
-		};
-		treeMap.setTreeMapLayout(new SquarifiedLayout<ISnapshotNode>(8));		
-		treeMap.setRectangleRenderer(new CushionRectangleRendererEx<ISnapshotNode>(160));
-		treeMap.addSelectionChangeListener(this);
+		});
+		canvas.addMouseMoveListener(new MouseMoveListener() {
+			public void mouseMove(final MouseEvent mouseevent) {
+				highlight(mouseevent.x, mouseevent.y);
+			}
+		});
+		canvas.addControlListener(new ControlListener() {
+			public void controlMoved(final ControlEvent event) {
+				// nothing to do
+			}
+			public void controlResized(final ControlEvent event) {
+				// the nodes too small to be seen depend on the size
+				if (shown != null) {
+					showSubtree(shown.getRoot());
+				}
+			}
+		});
+		layout = new SquarifiedLayout<ISnapshotNode>(LAYOUT_DEPTH);
+		renderer = new CushionRectangleRendererEx<ISnapshotNode>(160);
 		preferences = Activator.getDefault().getPreferenceStore();
 		preferences.addPropertyChangeListener(this);
 		colors = new ColorProvider(parent.getDisplay());
-		colors.updateColorMatcher(ColorMatcher.from(preferences.getString(TREEMAP_PREF_KEY)));
-		treeMap.setColorProvider(colors);
+		matcher = ColorMatcher.from(preferences.getString(TREEMAP_PREF_KEY));
+		colors.updateColorMatcher(matcher);
 	}
 
 	@Override
     // non-javadoc: see interface
 	public void propertyChange(final PropertyChangeEvent event) {		
-		if (TREEMAP_PREF_KEY.equals(event.getProperty())) {
-			// the color matching preferences changed; reload and redraw.
-			colors.updateColorMatcher(ColorMatcher.from(event.getNewValue().toString()));
-			treeMap.redraw();
+		if (TREEMAP_PREF_KEY.equals(event.getProperty()) && canvas != null) {
+			// the color matching preferences changed; the next job applies them
+			matcher = ColorMatcher.from(event.getNewValue().toString());
+			repaint();
 		}
 	}
 
@@ -123,14 +404,22 @@ public class TreeMapPane extends AbstractEditorPane implements ISelectionChangeL
     // non-javadoc: see superclass
 	public void dispose() {
 		try {
-			if (treeMap != null) {
-				treeMap.removeSelectionChangeListener(this);
-				treeMap = null;
+			canvas = null;
+			if (loader != null) {
+				// cancel before disposing the colors, see SubtreeLoader.render
+				loader.cancel();
+				loader = null;
 			}
 			if (colors != null) {
 				colors.dispose();
 				colors = null;
 			}
+			if (labels != null) {
+				labels.cancel();
+				labels = null;
+			}
+			displayed = null;
+			history.clear();
 			preferences.removePropertyChangeListener(this);			
 		} finally {
 			super.dispose();			
@@ -138,6 +427,19 @@ public class TreeMapPane extends AbstractEditorPane implements ISelectionChangeL
 	}
 
 
+	@Override
+	// non-javadoc: see superclass
+	public void contributeToToolBar(final IToolBarManager manager) {
+		if (result != null) {
+			final Metric[] metrics = getMetrics(result);
+			if (metrics.length > 1) {
+				for (int i = 0; i < metrics.length; i++) {
+					manager.add(new MetricAction(metrics[i]));
+				}
+			}
+		}
+	}
+
 	@Override
 	// non-javadoc: see interface
 	public String getTitle() {
@@ -148,9 +450,33 @@ public class TreeMapPane extends AbstractEditorPane implements ISelectionChangeL
 	// non-javadoc: see interface
 	public void selectionChanged(final ITreeModel<IRectangle<ISnapshotNode>> model, final IRectangle<ISnapshotNode> rect, final String text) {
 		if (text != null) {
-			treeMap.setToolTipText(text);
+			canvas.setToolTipText(text);
 		}
-		currentObjectID = rect.getNode().getID();
+		currentNode = rect.getNode();
+		currentObjectID = currentNode.getID();
+	}
+
+	/**
+	 * Tool bar action weighting the tree map by a metric.
+	 */
+	private class MetricAction extends Action {
+
+		private final Metric actionMetric;
+
+		protected MetricAction(final Metric aMetric) {
+			super(getName(aMetric), IAction.AS_RADIO_BUTTON);
+			actionMetric = aMetric;
+			setChecked(aMetric == metric);
+		}
+
+		@Override
+		// non-javadoc: see superclass
+		public void run() {
+			if (isChecked()) {
+				setMetric(actionMetric);
+			}
+		}
+
 	}
 
 }
@@ -0,0 +1,201 @@
+package de.engehausen.treemap.mat.ui;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.swt.graphics.Image;
+
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.impl.ColorMatcher;
+
+/**
+ * Cache of the subtrees recently shown by the tree map pane, laid out and
+ * painted (see {@link RenderedTreeMap}), so that zooming back to one of them
+ * neither reads it from the snapshot nor lays it out or paints it again.
+ * The subtrees are keyed by the ID of their root node and the size of the
+ * tree map they were laid out for; a subtree is only returned if it was
+ * also copied from the same model and painted with the same color rules,
+ * so switching the metric or the colors needs no clearing.
+ * <p>The images are held until the subtree is dropped, as they must be
+ * disposed explicitly. When more subtrees are held than the capacity
+ * allows, or their images have more pixels than the pixel budget allows,
+ * the least recently shown subtrees are dropped and disposed; the subtree
+ * added or returned last is never dropped, as it is the one on the screen.
+ * <p>The copied subtrees and their rectangles are not counted against the
+ * budget, although for subtrees of many small nodes they take more memory
+ * than the images: they are held by soft references only, so the garbage
+ * collector clears them before memory runs out. A subtree cleared this way
+ * is dropped and its image disposed the next time the history is used.
+ * <p>The history is meant to be used by the UI thread only.
+ */
+public class ZoomHistory {
+
+	/** default number of subtrees held */
+	public static final int DEFAULT_CAPACITY = 16;
+	/** default number of image pixels held, about 32 MB in 32 bit color */
+	public static final long DEFAULT_PIXEL_BUDGET = 8L*1024*1024;
+
+	private final Map<Key, Entry> entries;
+	private final int capacity;
+	private final long pixelBudget;
+	private long pixels;
+	/** the subtree added or returned last, held strongly */
+	private RenderedTreeMap current;
+
+	/**
+	 * Creates the history with the default capacity and pixel budget.
+	 */
+	public ZoomHistory() {
+		this(DEFAULT_CAPACITY, DEFAULT_PIXEL_BUDGET);
+	}
+
+	/**
+	 * Creates the history.
+	 * @param aCapacity the maximum number of subtrees held
+	 * @param aPixelBudget the maximum number of image pixels held
+	 */
+	public ZoomHistory(final int aCapacity, final long aPixelBudget) {
+		entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+		capacity = aCapacity;
+		pixelBudget = aPixelBudget;
+	}
+
+	/**
+	 * Returns the subtree with the given root, copied from the given
+	 * model and laid out for the given size, if held.
+	 * @param rootID the ID of the root node
+	 * @param width the width of the tree map
+	 * @param height the height of the tree map
+	 * @param source the model the subtree is copied from
+	 * @param matcher the color rules the subtree is to be painted with
+	 * @return the subtree, or <code>null</code> if it is not held.
+	 */
+	public RenderedTreeMap get(final int rootID, final int width, final int height, final IWeightedTreeModel<ISnapshotNode> source, final ColorMatcher matcher) {
+		final Key key = new Key(rootID, width, height, source, matcher);
+		final Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		final RenderedTreeMap rendered = entry.rendered.get();
+		if (rendered == null) {
+			entries.remove(key);
+			drop(entry);
+			return null;
+		}
+		current = rendered;
+		return rendered;
+	}
+
+	/**
+	 * Adds a subtree to the history; the history disposes it when it
+	 * is dropped. A subtree held for the same key before is disposed.
+	 * @param rendered the subtree, must not be <code>null</code>.
+	 */
+	public void put(final RenderedTreeMap rendered) {
+		final Key key = new Key(rendered.getModel().getRoot().getID(), rendered.getWidth(), rendered.getHeight(), rendered.getSource(), rendered.getColorMatcher());
+		final Entry previous = entries.get(key);
+		if (previous == null || previous.rendered.get() != rendered) {
+			final Entry entry = new Entry(rendered);
+			entries.put(key, entry);
+			pixels += entry.pixels;
+			if (previous != null) {
+				drop(previous);
+			}
+		}
+		current = rendered;
+		for (Iterator<Entry> i = entries.values().iterator(); i.hasNext(); ) {
+			final Entry entry = i.next();
+			if (entry.rendered.get() == null) {
+				i.remove();
+				drop(entry);
+			}
+		}
+		final Iterator<Entry> i = entries.values().iterator();
+		while ((entries.size() > capacity || pixels > pixelBudget) && entries.size() > 1) {
+			final Entry eldest = i.next();
+			i.remove();
+			drop(eldest);
+		}
+	}
+
+	/**
+	 * Removes and disposes all subtrees.
+	 */
+	public void clear() {
+		for (Entry entry : entries.values()) {
+			entry.image.dispose();
+		}
+		entries.clear();
+		pixels = 0;
+		current = null;
+	}
+
+	/**
+	 * Disposes the image of a subtree removed from the history.
+	 * @param entry the removed entry
+	 */
+	private void drop(final Entry entry) {
+		pixels -= entry.pixels;
+		entry.image.dispose();
+	}
+
+	/**
+	 * A subtree held by the history: the image, which must be disposed
+	 * explicitly, is held strongly, the subtree and its rectangles softly.
+	 */
+	private static class Entry {
+
+		private final SoftReference<RenderedTreeMap> rendered;
+		private final Image image;
+		private final long pixels;
+
+		protected Entry(final RenderedTreeMap aRendered) {
+			rendered = new SoftReference<RenderedTreeMap>(aRendered);
+			image = aRendered.getImage();
+			pixels = (long) aRendered.getWidth() * aRendered.getHeight();
+		}
+
+	}
+
+	/**
+	 * The key of a subtree: the ID of its root, the size of the tree map,
+	 * and the identities of the model and the color rules.
+	 */
+	private static class Key {
+
+		private final int rootID;
+		private final int width;
+		private final int height;
+		private final Object source;
+		private final Object matcher;
+
+		protected Key(final int aRootID, final int aWidth, final int aHeight, final Object aSource, final Object aMatcher) {
+			rootID = aRootID;
+			width = aWidth;
+			height = aHeight;
+			source = aSource;
+			matcher = aMatcher;
+		}
+
+		@Override
+		// non-javadoc: see superclass
+		public boolean equals(final Object o) {
+			if (o instanceof Key) {
+				final Key other = (Key) o;
+				return rootID == other.rootID && width == other.width && height == other.height && source == other.source && matcher == other.matcher;
+			}
+			return false;
+		}
+
+		@Override
+		// non-javadoc: see superclass
+		public int hashCode() {
+			return ((rootID*31 + width)*31 + height)*31 + System.identityHashCode(source);
+		}
+
+	}
+
+}
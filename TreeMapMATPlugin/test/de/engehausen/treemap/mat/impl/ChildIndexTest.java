@@ -0,0 +1,190 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ChildIndex}: built from the parent IDs of a tree, it
+ * holds each node of the tree once, in the range of its parent, with the
+ * children of the virtual root node in the slot after the last object;
+ * sorted, each range comes by descending weight and ascending ID, also
+ * in a sorted copy, which leaves the original order as it is.
+ */
+public class ChildIndexTest {
+
+	/** number of nodes of the random trees */
+	private static final int NODES = 10000;
+
+	@Test
+	public void testSmallTree() throws Exception {
+		final int root = Integer.MAX_VALUE;
+		final ChildIndex index = new ChildIndex(array(new int[] { root, 0, 0, 1, -1, root, 3 }), HeapArrayStorage.INSTANCE);
+		Assert.assertArrayEquals(new int[] { 0, 5 }, children(index, root));
+		Assert.assertArrayEquals(new int[] { 1, 2 }, children(index, 0));
+		Assert.assertArrayEquals(new int[] { 3 }, children(index, 1));
+		Assert.assertArrayEquals(new int[] { 6 }, children(index, 3));
+		for (int id : new int[] { 2, 4, 5, 6 }) {
+			Assert.assertFalse("leaf "+id, index.hasChildren(id)); //$NON-NLS-1$
+			Assert.assertEquals("leaf "+id, 0, children(index, id).length); //$NON-NLS-1$
+		}
+		Assert.assertTrue(index.hasChildren(root));
+		// the unreachable node is not indexed
+		Assert.assertEquals(6, index.size());
+		Assert.assertEquals(4L*(7+2) + 4L*6, index.getMemoryFootprint());
+	}
+
+	@Test
+	public void testRandomTree() throws Exception {
+		final int[] parents = createTree(new Random(3));
+		final ChildIndex index = new ChildIndex(array(parents), HeapArrayStorage.INSTANCE);
+		final int[] seen = new int[NODES];
+		for (int id = -1; id < NODES; id++) {
+			final int p = id<0?Integer.MAX_VALUE:id;
+			int previous = -1;
+			for (int c : children(index, p)) {
+				Assert.assertEquals("parent "+c, p, parents[c]); //$NON-NLS-1$
+				Assert.assertTrue("order "+c, c > previous); //$NON-NLS-1$
+				previous = c;
+				seen[c]++;
+			}
+		}
+		int indexed = 0;
+		for (int i = 0; i < NODES; i++) {
+			Assert.assertEquals("node "+i, parents[i]<0?0:1, seen[i]); //$NON-NLS-1$
+			indexed += seen[i];
+		}
+		Assert.assertEquals(indexed, index.size());
+		// the same index is created from its arrays
+		final ChildIndex copy = new ChildIndex(index.getOffsets(), index.getChildren());
+		for (int id = 0; id < NODES; id++) {
+			Assert.assertArrayEquals("node "+id, children(index, id), children(copy, id)); //$NON-NLS-1$
+		}
+	}
+
+	@Test
+	public void testSortByWeight() throws Exception {
+		final Random random = new Random(4);
+		final int[] parents = createTree(random);
+		final ChildIndex index = new ChildIndex(array(parents), HeapArrayStorage.INSTANCE);
+		final int[][] unsorted = new int[NODES+1][];
+		for (int id = 0; id <= NODES; id++) {
+			unsorted[id] = children(index, id<NODES?id:Integer.MAX_VALUE);
+		}
+		// few distinct weights, so that many children are equally heavy
+		final ILongArray weight = HeapArrayStorage.INSTANCE.createLongArray(NODES);
+		for (int i = 0; i < NODES; i++) {
+			weight.set(i, random.nextInt(8));
+		}
+		index.sortByWeight(weight);
+		checkSorted(index, weight, unsorted);
+	}
+
+	@Test
+	public void testSortedCopy() throws Exception {
+		final Random random = new Random(5);
+		final ChildIndex index = new ChildIndex(array(createTree(random)), HeapArrayStorage.INSTANCE);
+		final ILongArray size = HeapArrayStorage.INSTANCE.createLongArray(NODES);
+		final ILongArray count = HeapArrayStorage.INSTANCE.createLongArray(NODES);
+		for (int i = 0; i < NODES; i++) {
+			size.set(i, random.nextInt(1000));
+			count.set(i, random.nextInt(8));
+		}
+		index.sortByWeight(size);
+		final int[][] bySize = new int[NODES+1][];
+		final int[][] unsorted = new int[NODES+1][];
+		for (int id = 0; id <= NODES; id++) {
+			bySize[id] = children(index, id<NODES?id:Integer.MAX_VALUE);
+			unsorted[id] = bySize[id].clone();
+			Arrays.sort(unsorted[id]);
+		}
+		final ChildIndex byCount = index.sortedCopy(count, HeapArrayStorage.INSTANCE);
+		Assert.assertSame(index.getOffsets(), byCount.getOffsets());
+		checkSorted(byCount, count, unsorted);
+		for (int id = 0; id <= NODES; id++) {
+			Assert.assertArrayEquals("original "+id, bySize[id], children(index, id<NODES?id:Integer.MAX_VALUE)); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Checks that the children of each node come by descending weight and
+	 * ascending ID, and are the same as before sorting.
+	 * @param index the sorted index
+	 * @param weight the weight of each node
+	 * @param unsorted the children of each node before sorting, the ones
+	 * of the virtual root node last
+	 */
+	protected static void checkSorted(final ChildIndex index, final ILongArray weight, final int[][] unsorted) {
+		boolean large = false;
+		for (int id = 0; id <= NODES; id++) {
+			final int[] sorted = children(index, id<NODES?id:Integer.MAX_VALUE);
+			for (int i = 1; i < sorted.length; i++) {
+				final long before = weight.get(sorted[i-1]);
+				final long after = weight.get(sorted[i]);
+				Assert.assertTrue("order "+sorted[i], before > after || (before == after && sorted[i-1] < sorted[i])); //$NON-NLS-1$
+			}
+			final int[] same = sorted.clone();
+			Arrays.sort(same);
+			Assert.assertArrayEquals("children "+id, unsorted[id], same); //$NON-NLS-1$
+			large |= sorted.length > 100;
+		}
+		// ranges beyond the insertion sort were sorted
+		Assert.assertTrue(large);
+	}
+
+	/**
+	 * Creates the parent IDs of a random tree: a node is not part of the
+	 * tree, a child of the virtual root node or of a node before it; a few
+	 * nodes get many children.
+	 * @param random the random numbers
+	 * @return the parent ID of each node
+	 */
+	protected static int[] createTree(final Random random) {
+		final int[] parents = new int[NODES];
+		for (int i = 0; i < NODES; i++) {
+			final int r = random.nextInt(100);
+			if (r < 5) {
+				parents[i] = -1;
+			} else if (r < 10 || i == 0) {
+				parents[i] = Integer.MAX_VALUE;
+			} else if (r < 40) {
+				// one of the first nodes, which get many children
+				parents[i] = random.nextInt(Math.min(i, 10));
+			} else {
+				parents[i] = random.nextInt(i);
+			}
+		}
+		return parents;
+	}
+
+	/**
+	 * Returns the children of a node in the order of the index.
+	 * @param index the index
+	 * @param id the node ID
+	 * @return the child IDs, never <code>null</code>.
+	 */
+	protected static int[] children(final ChildIndex index, final int id) {
+		final int start = index.getStart(id);
+		final int[] result = new int[index.getEnd(id) - start];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = index.getChild(start + i);
+		}
+		return result;
+	}
+
+	/**
+	 * Copies values into an array of the heap storage.
+	 * @param values the values
+	 * @return the array, never <code>null</code>.
+	 */
+	protected static IIntArray array(final int[] values) {
+		final IIntArray result = HeapArrayStorage.INSTANCE.createIntArray(values.length);
+		for (int i = 0; i < values.length; i++) {
+			result.set(i, values[i]);
+		}
+		return result;
+	}
+
+}
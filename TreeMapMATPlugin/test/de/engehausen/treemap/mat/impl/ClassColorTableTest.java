@@ -0,0 +1,105 @@
+package de.engehausen.treemap.mat.impl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that a {@link ClassColorTable} derived with {@link ClassColorTable#update(ColorMatcher)}
+ * gives each class the same color as a table created from scratch for
+ * the new rules, whether a rule changed its color, pattern or type, or
+ * rules were added or removed before, between or after the others.
+ */
+public class ClassColorTableTest {
+
+	/** number of objects of the test graph, enough for all its classes */
+	private static final int OBJECTS = 1000;
+
+	/** the rules every other set of rules is derived from */
+	private static final String RULES = "808080\tff0000\tjava.util\tfalse\t00ff00\tC1\tfalse\t0000ff\t\\[\\]$\ttrue\tffff00\tcom\\..*\ttrue"; //$NON-NLS-1$
+	/** the rules after editing {@link #RULES} */
+	private static final String[] EDITED = {
+		// color of a rule and default color
+		"404040\tff0000\tjava.util\tfalse\t00ffff\tC1\tfalse\t0000ff\t\\[\\]$\ttrue\tffff00\tcom\\..*\ttrue", //$NON-NLS-1$
+		// pattern of the first rule
+		"808080\tff0000\tjava.lang\tfalse\t00ff00\tC1\tfalse\t0000ff\t\\[\\]$\ttrue\tffff00\tcom\\..*\ttrue", //$NON-NLS-1$
+		// pattern of a rule in the middle
+		"808080\tff0000\tjava.util\tfalse\t00ff00\tC2\tfalse\t0000ff\t\\[\\]$\ttrue\tffff00\tcom\\..*\ttrue", //$NON-NLS-1$
+		// type of a rule
+		"808080\tff0000\tjava.util\tfalse\t00ff00\tC1\ttrue\t0000ff\t\\[\\]$\tfalse\tffff00\tcom\\..*\ttrue", //$NON-NLS-1$
+		// rule added first
+		"808080\t112233\tC3\tfalse\tff0000\tjava.util\tfalse\t00ff00\tC1\tfalse\t0000ff\t\\[\\]$\ttrue\tffff00\tcom\\..*\ttrue", //$NON-NLS-1$
+		// rule added last
+		"808080\tff0000\tjava.util\tfalse\t00ff00\tC1\tfalse\t0000ff\t\\[\\]$\ttrue\tffff00\tcom\\..*\ttrue\t112233\t.\tfalse", //$NON-NLS-1$
+		// rule removed in the middle
+		"808080\tff0000\tjava.util\tfalse\t0000ff\t\\[\\]$\ttrue\tffff00\tcom\\..*\ttrue", //$NON-NLS-1$
+		// last rule removed
+		"808080\tff0000\tjava.util\tfalse\t00ff00\tC1\tfalse\t0000ff\t\\[\\]$\ttrue", //$NON-NLS-1$
+		// no rules
+		"808080" //$NON-NLS-1$
+	};
+
+	private TestSnapshot graph;
+
+	@Before
+	public void setUp() throws Exception {
+		graph = new TestSnapshot(OBJECTS, 14);
+	}
+
+	@After
+	public void tearDown() {
+		graph.dispose();
+	}
+
+	@Test
+	public void testCreate() throws Exception {
+		final ClassColorTable table = new ClassColorTable(graph.getSnapshot(), ColorMatcher.from(RULES));
+		Assert.assertEquals(TestSnapshot.CLASSES, table.size());
+		Assert.assertEquals(5, table.getPaletteSize());
+		for (int i = 0; i < TestSnapshot.CLASSES; i++) {
+			final String name = graph.getClassObject(i).getName();
+			Assert.assertEquals(name, ColorMatcher.from(RULES).match(name), table.getRGB(table.getColorIndex(i)));
+		}
+		Assert.assertEquals(-1, table.getPosition(OBJECTS));
+		Assert.assertEquals(ClassColorTable.DEFAULT_INDEX, table.getColorIndex(OBJECTS));
+	}
+
+	@Test
+	public void testUpdate() throws Exception {
+		final ClassColorTable table = new ClassColorTable(graph.getSnapshot(), ColorMatcher.from(RULES));
+		for (String rules : EDITED) {
+			final ColorMatcher matcher = ColorMatcher.from(rules);
+			check(rules, new ClassColorTable(graph.getSnapshot(), matcher), table.update(matcher));
+		}
+	}
+
+	@Test
+	public void testUpdateChain() throws Exception {
+		ClassColorTable table = new ClassColorTable(graph.getSnapshot(), ColorMatcher.from(RULES));
+		for (String rules : EDITED) {
+			final ColorMatcher matcher = ColorMatcher.from(rules);
+			table = table.update(matcher);
+			check(rules, new ClassColorTable(graph.getSnapshot(), matcher), table);
+		}
+	}
+
+	/**
+	 * Checks that a derived table holds the classes at the same positions
+	 * and gives them the same colors as a table created from scratch.
+	 * @param rules the rules of the tables, for the failure messages
+	 * @param expected the table created from scratch
+	 * @param actual the derived table
+	 */
+	private void check(final String rules, final ClassColorTable expected, final ClassColorTable actual) {
+		Assert.assertEquals(rules, expected.size(), actual.size());
+		Assert.assertEquals(rules, expected.getPaletteSize(), actual.getPaletteSize());
+		for (int i = 0; i < TestSnapshot.CLASSES; i++) {
+			final String name = rules+": "+graph.getClassObject(i).getName(); //$NON-NLS-1$
+			Assert.assertEquals(name, expected.getPosition(i), actual.getPosition(i));
+			Assert.assertEquals(name, expected.getColorIndex(i), actual.getColorIndex(i));
+			Assert.assertEquals(name, expected.getRGB(expected.getColorIndex(i)), actual.getRGB(actual.getColorIndex(i)));
+		}
+	}
+
+}
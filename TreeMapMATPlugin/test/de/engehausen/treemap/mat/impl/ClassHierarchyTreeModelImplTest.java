@@ -0,0 +1,184 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.engehausen.treemap.mat.ISnapshotNode;
+
+/**
+ * Tests the tree of {@link ClassHierarchyTreeModelImpl}: the weights,
+ * parents and order of the packages or class loaders, classes, buckets and
+ * instances, that listing the buckets of a class reads no instance
+ * from the snapshot, and the classes the synthetic nodes are colored by.
+ */
+public class ClassHierarchyTreeModelImplTest {
+
+	/** number of objects of the test graph, enough for several buckets per class */
+	private static final int OBJECTS = 200000;
+	/** number of class loaders the classes are spread over */
+	private static final int LOADERS = 3;
+
+	private TestSnapshot graph;
+	private ClassHierarchyTreeModelImpl model;
+
+	@Before
+	public void setUp() throws Exception {
+		graph = new TestSnapshot(OBJECTS, 21);
+		model = createModel(graph, ClassGrouping.PACKAGE);
+	}
+
+	@After
+	public void tearDown() {
+		graph.dispose();
+	}
+
+	@Test
+	public void testInvariants() {
+		checkInvariants(model);
+	}
+
+	@Test
+	public void testClassLoaderGrouping() {
+		final ClassHierarchyTreeModelImpl byLoader = createModel(graph, ClassGrouping.CLASSLOADER);
+		int loaders = 0;
+		for (Iterator<ISnapshotNode> i = byLoader.getChildren(byLoader.getRoot()); i.hasNext(); ) {
+			final ISnapshotNode loader = i.next();
+			Assert.assertTrue("loader "+loader.getID(), ~loader.getID() >= OBJECTS-LOADERS && ~loader.getID() < OBJECTS); //$NON-NLS-1$
+			loaders++;
+		}
+		Assert.assertEquals(LOADERS, loaders);
+		checkInvariants(byLoader);
+	}
+
+	/**
+	 * Checks that the children of each node are sorted by weight and have
+	 * the node as parent, that the weight of each node other than a bucket
+	 * is the sum of the weights of its children, and that each object is
+	 * an instance of exactly one class, whose weight is the sum of the
+	 * sizes of its instances.
+	 * @param model the model to check
+	 */
+	private void checkInvariants(final ClassHierarchyTreeModelImpl model) {
+		final long[] instanceSums = new long[TestSnapshot.CLASSES];
+		final boolean[] seen = new boolean[OBJECTS];
+		TreeWalk.walk(model, new TreeWalk.NodeCheck() {
+			@Override
+			public void check(final ISnapshotNode node, final int level, final List<ISnapshotNode> children, final long sum) {
+				final int id = node.getID();
+				if (id >= 0 && id != Integer.MAX_VALUE) {
+					Assert.assertFalse("twice "+id, seen[id]); //$NON-NLS-1$
+					seen[id] = true;
+					final long weight = model.getWeight(node);
+					Assert.assertEquals("size "+id, graph.sizes[id], weight); //$NON-NLS-1$
+					instanceSums[graph.classes[id]] += weight;
+				}
+				if (model.isBucket(id)) {
+					// the instances of a bucket only add up to its weight on average
+					Assert.assertTrue("bucket size "+id, !children.isEmpty() && children.size() <= ClassHierarchyTreeModelImpl.BUCKET_SIZE); //$NON-NLS-1$
+				} else if (!children.isEmpty()) {
+					Assert.assertEquals("weight "+id, sum, model.getWeight(node)); //$NON-NLS-1$
+				}
+			}
+		});
+		for (int i = 0; i < OBJECTS; i++) {
+			Assert.assertTrue("missing "+i, seen[i]); //$NON-NLS-1$
+		}
+		// the buckets of a class add up to its weight, and so do its instances
+		for (int c = 0; c < TestSnapshot.CLASSES; c++) {
+			Assert.assertEquals("class "+c, model.getWeight(model.createNode(~c)), instanceSums[c]); //$NON-NLS-1$
+		}
+	}
+
+	@Test
+	public void testClassIds() throws Exception {
+		final ClassHierarchyTreeModelImpl byLoader = createModel(graph, ClassGrouping.CLASSLOADER);
+		for (Iterator<ISnapshotNode> i = byLoader.getChildren(byLoader.getRoot()); i.hasNext(); ) {
+			final ISnapshotNode loader = i.next();
+			Assert.assertEquals("loader "+loader.getID(), graph.classes[~loader.getID()], byLoader.getClassId(loader)); //$NON-NLS-1$
+			Assert.assertEquals("merged classes", -1, byLoader.getClassId(new OthersNodeImpl(loader, 2, 0))); //$NON-NLS-1$
+			for (Iterator<ISnapshotNode> j = byLoader.getChildren(loader); j.hasNext(); ) {
+				final ISnapshotNode clazz = j.next();
+				final int c = ~clazz.getID();
+				Assert.assertEquals("class "+c, c, byLoader.getClassId(clazz)); //$NON-NLS-1$
+				Assert.assertEquals("merged instances "+c, c, byLoader.getClassId(new OthersNodeImpl(clazz, 2, 0))); //$NON-NLS-1$
+				for (Iterator<ISnapshotNode> k = byLoader.getChildren(clazz); k.hasNext(); ) {
+					final ISnapshotNode bucket = k.next();
+					Assert.assertEquals("bucket "+bucket.getID(), c, byLoader.getClassId(bucket)); //$NON-NLS-1$
+					Assert.assertEquals("merged bucket instances "+bucket.getID(), c, byLoader.getClassId(new OthersNodeImpl(bucket, 2, 0))); //$NON-NLS-1$
+				}
+			}
+		}
+		final ISnapshotNode pkg = model.getChildren(model.getRoot()).next();
+		Assert.assertEquals("package", -1, model.getClassId(pkg)); //$NON-NLS-1$
+		Assert.assertEquals("merged packages", -1, model.getClassId(new OthersNodeImpl(model.getRoot(), 2, 0))); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testBucketsReadLazily() {
+		final ISnapshotNode clazz = model.createNode(~0);
+		final long before = graph.sizeLookups.get();
+		final List<ISnapshotNode> buckets = new ArrayList<ISnapshotNode>();
+		for (Iterator<ISnapshotNode> i = model.getChildren(clazz); i.hasNext(); ) {
+			final ISnapshotNode bucket = i.next();
+			Assert.assertTrue("bucket "+bucket.getID(), model.isBucket(bucket.getID())); //$NON-NLS-1$
+			buckets.add(bucket);
+		}
+		Assert.assertTrue(buckets.size() > 1);
+		Assert.assertEquals("sizes read listing the buckets", before, graph.sizeLookups.get()); //$NON-NLS-1$
+		final Iterator<ISnapshotNode> i = model.getChildren(buckets.get(0));
+		while (i.hasNext()) {
+			i.next();
+		}
+		Assert.assertTrue("sizes read expanding a bucket", graph.sizeLookups.get() - before <= ClassHierarchyTreeModelImpl.BUCKET_SIZE); //$NON-NLS-1$
+	}
+
+	/**
+	 * Creates the model grouping the classes of the graph, as
+	 * {@link ClassHierarchyTreeModelImpl#createModel(org.eclipse.mat.snapshot.ISnapshot, ClassGrouping, org.eclipse.mat.util.IProgressListener)}
+	 * does from the class histogram. The classes are spread over the last
+	 * {@link #LOADERS} object IDs as class loaders.
+	 * @param graph the graph
+	 * @param grouping the grouping of the classes
+	 * @return the model
+	 */
+	private static ClassHierarchyTreeModelImpl createModel(final TestSnapshot graph, final ClassGrouping grouping) {
+		final long[] weights = new long[TestSnapshot.CLASSES];
+		final int[] counts = new int[TestSnapshot.CLASSES];
+		for (int i = 0; i < OBJECTS; i++) {
+			weights[graph.classes[i]] += graph.sizes[i];
+			counts[graph.classes[i]]++;
+		}
+		final List<ClassHierarchyTreeModelImpl.Group> groups = new ArrayList<ClassHierarchyTreeModelImpl.Group>();
+		final Map<Object, Integer> parents = new HashMap<Object, Integer>();
+		for (int c = 0; c < TestSnapshot.CLASSES; c++) {
+			final String name = graph.getClassObject(c).getName();
+			final int loader = OBJECTS - 1 - c%LOADERS;
+			final Object key = grouping == ClassGrouping.CLASSLOADER?Integer.valueOf(loader):ClassHierarchyTreeModelImpl.getPackage(name);
+			Integer parent = parents.get(key);
+			if (parent == null) {
+				parent = Integer.valueOf(groups.size());
+				parents.put(key, parent);
+				if (grouping == ClassGrouping.CLASSLOADER) {
+					groups.add(new ClassHierarchyTreeModelImpl.Group("loader"+loader, ClassHierarchyTreeModelImpl.NONE, loader, ClassHierarchyTreeModelImpl.NONE)); //$NON-NLS-1$
+				} else {
+					groups.add(new ClassHierarchyTreeModelImpl.Group((String) key, ClassHierarchyTreeModelImpl.NONE, ClassHierarchyTreeModelImpl.NONE, ClassHierarchyTreeModelImpl.NONE));
+				}
+			}
+			final ClassHierarchyTreeModelImpl.Group group = new ClassHierarchyTreeModelImpl.Group(name, parent.intValue(), c, c);
+			group.weight = weights[c];
+			group.count = counts[c];
+			groups.get(parent.intValue()).add(groups.size());
+			groups.add(group);
+		}
+		return new ClassHierarchyTreeModelImpl(graph.getSnapshot(), groups.toArray(new ClassHierarchyTreeModelImpl.Group[groups.size()]));
+	}
+
+}
@@ -0,0 +1,145 @@
+package de.engehausen.treemap.mat.impl;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.util.VoidProgressListener;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ClusteredTreeBuilder}: it builds a spanning tree of
+ * the objects reachable from the GC roots, whose parents reference their
+ * children, with the GC roots as children of the virtual root node; each
+ * object is expanded once, and the weight of each node is its heap size
+ * plus the weights of its children. The build stops when cancelled.
+ */
+public class ClusteredTreeBuilderTest {
+
+	/** number of objects of the test graph, spanning several blocks of IDs */
+	private static final int OBJECTS = 50000;
+
+	private TestSnapshot graph;
+
+	@Before
+	public void setUp() throws Exception {
+		graph = new TestSnapshot(OBJECTS, 20);
+	}
+
+	@After
+	public void tearDown() {
+		graph.dispose();
+	}
+
+	@Test
+	public void testSpanningTree() throws Exception {
+		final IIntArray parent = HeapArrayStorage.INSTANCE.createIntArray(OBJECTS);
+		final ILongArray weight = HeapArrayStorage.INSTANCE.createLongArray(OBJECTS);
+		for (int i = 0; i < OBJECTS; i++) {
+			parent.set(i, -1);
+			weight.set(i, graph.sizes[i]);
+		}
+		final ClusteredTreeBuilder builder = new ClusteredTreeBuilder(graph.getSnapshot(), parent, weight, HeapArrayStorage.INSTANCE);
+		builder.build(new VoidProgressListener());
+		final boolean[] reachable = reachable();
+		final boolean[] root = new boolean[OBJECTS];
+		for (int r : graph.roots) {
+			root[r] = true;
+		}
+		final long[] sum = new long[OBJECTS];
+		int count = 0;
+		for (int i = 0; i < OBJECTS; i++) {
+			final int p = parent.get(i);
+			if (!reachable[i]) {
+				Assert.assertEquals("unreachable "+i, -1, p); //$NON-NLS-1$
+				Assert.assertEquals("unreachable "+i, graph.sizes[i], weight.get(i)); //$NON-NLS-1$
+			} else if (root[i]) {
+				Assert.assertEquals("root "+i, Integer.MAX_VALUE, p); //$NON-NLS-1$
+			} else {
+				Assert.assertTrue("parent "+i, references(p, i)); //$NON-NLS-1$
+				sum[p] += weight.get(i);
+			}
+			if (reachable[i]) {
+				count++;
+				Assert.assertTrue("cycle "+i, depth(parent, i) < OBJECTS); //$NON-NLS-1$
+			}
+		}
+		for (int i = 0; i < OBJECTS; i++) {
+			if (reachable[i]) {
+				Assert.assertEquals("weight "+i, graph.sizes[i] + sum[i], weight.get(i)); //$NON-NLS-1$
+			}
+		}
+		// enough objects are reachable for the checks to mean something
+		Assert.assertTrue(count > OBJECTS/2);
+		Assert.assertEquals(count, builder.getPageStatistics().getLookups());
+	}
+
+	@Test(expected = SnapshotException.class)
+	public void testCanceled() throws Exception {
+		final IIntArray parent = HeapArrayStorage.INSTANCE.createIntArray(OBJECTS);
+		for (int i = 0; i < OBJECTS; i++) {
+			parent.set(i, -1);
+		}
+		new ClusteredTreeBuilder(graph.getSnapshot(), parent, HeapArrayStorage.INSTANCE.createLongArray(OBJECTS), HeapArrayStorage.INSTANCE).build(new VoidProgressListener() {
+			@Override
+			public boolean isCanceled() {
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Marks the objects reachable from the GC roots of the test graph.
+	 * @return whether each object is reachable
+	 */
+	private boolean[] reachable() {
+		final boolean[] result = new boolean[OBJECTS];
+		final IntStack stack = new IntStack(16);
+		for (int r : graph.roots) {
+			if (!result[r]) {
+				result[r] = true;
+				stack.push(r);
+			}
+		}
+		while (!stack.isEmpty()) {
+			for (int c : graph.references[stack.pop()]) {
+				if (!result[c]) {
+					result[c] = true;
+					stack.push(c);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Indicates whether an object of the test graph references another one.
+	 * @param from the referencing object
+	 * @param to the referenced object
+	 * @return <code>true</code> if <code>from</code> references <code>to</code>.
+	 */
+	private boolean references(final int from, final int to) {
+		for (int c : graph.references[from]) {
+			if (c == to) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of ancestors of a node, stopping at the number
+	 * of objects, which only a cycle reaches.
+	 * @param parent the parent of each node
+	 * @param node the node
+	 * @return the number of ancestors, at most {@link #OBJECTS}.
+	 */
+	private static int depth(final IIntArray parent, final int node) {
+		int result = 0;
+		for (int p = parent.get(node); p != Integer.MAX_VALUE && result < OBJECTS; p = parent.get(p)) {
+			result++;
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,65 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the time {@link ColorRules} and trying each
+ * {@link ColorMatcher.ColorElement} in order take to find the first
+ * matching rule, for the rules and names of {@link ColorRulesTest}.
+ * Not a unit test, as the times depend on the machine and its load;
+ * run it with <code>ant benchmark</code> or as a Java application.
+ */
+public class ColorRulesBenchmark {
+
+	/** number of rounds measured per engine */
+	private static final int ROUNDS = 20;
+	/** number of rounds run per engine before measuring */
+	private static final int WARM_UP = 60;
+
+	/**
+	 * Runs the benchmark and prints the time per name of both engines.
+	 * @param args not used
+	 */
+	public static void main(final String[] args) {
+		for (int count : ColorRulesTest.RULE_COUNTS) {
+			final Random random = new Random(count);
+			final List<ColorMatcher.ColorElement> elements = ColorRulesTest.createRules(count, random);
+			final ColorRules rules = new ColorRules(elements);
+			final String[] names = ColorRulesTest.createNames(ColorRulesTest.NAMES, count, random);
+			// warm up both engines
+			run(elements, null, names, WARM_UP);
+			run(null, rules, names, WARM_UP);
+			final long linearStart = System.nanoTime();
+			final long linearSum = run(elements, null, names, ROUNDS);
+			final long linear = System.nanoTime() - linearStart;
+			final long compiledStart = System.nanoTime();
+			final long compiledSum = run(null, rules, names, ROUNDS);
+			final long compiled = System.nanoTime() - compiledStart;
+			if (linearSum != compiledSum) {
+				throw new IllegalStateException(count+" rules: the engines match differently"); //$NON-NLS-1$
+			}
+			System.out.println(String.format("%3d rules: linear %6.0f ns, compiled %6.0f ns per name", //$NON-NLS-1$
+				Integer.valueOf(count), Double.valueOf(linear / (double) (ROUNDS*names.length)), Double.valueOf(compiled / (double) (ROUNDS*names.length))));
+		}
+	}
+
+	/**
+	 * Matches the names with one of the engines.
+	 * @param elements the rules to try in order, or <code>null</code>
+	 * @param rules the compiled rules, used if no elements are given
+	 * @param names the names to match
+	 * @param rounds the number of times to match all names
+	 * @return the sum of the matching rule indices, to compare the engines
+	 */
+	private static long run(final List<ColorMatcher.ColorElement> elements, final ColorRules rules, final String[] names, final int rounds) {
+		long sum = 0;
+		for (int r = 0; r < rounds; r++) {
+			for (String name : names) {
+				sum += elements != null ? ColorRulesTest.matchLinear(elements, name) : rules.matchIndex(name);
+			}
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,116 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that {@link ColorRules} finds the same first matching rule as
+ * trying each {@link ColorMatcher.ColorElement} in order, for 10 to 500
+ * rules. {@link ColorRulesBenchmark} compares the time both take.
+ */
+public class ColorRulesTest {
+
+	/** the rule counts to test */
+	protected static final int[] RULE_COUNTS = { 10, 50, 150, 500 };
+	/** number of class names matched per rule count */
+	protected static final int NAMES = 2000;
+
+	@Test
+	public void testFirstMatchWins() {
+		for (int count : RULE_COUNTS) {
+			final Random random = new Random(count);
+			final List<ColorMatcher.ColorElement> elements = createRules(count, random);
+			final ColorRules rules = new ColorRules(elements);
+			for (String name : createNames(NAMES, count, random)) {
+				Assert.assertEquals(count+" rules, "+name, matchLinear(elements, name), rules.matchIndex(name)); //$NON-NLS-1$
+			}
+		}
+	}
+
+	@Test
+	public void testOverlappingRules() {
+		final List<ColorMatcher.ColorElement> elements = new ArrayList<ColorMatcher.ColorElement>();
+		elements.add(new ColorMatcher.ColorElement(0, "util.Hash", "false")); //$NON-NLS-1$ //$NON-NLS-2$
+		elements.add(new ColorMatcher.ColorElement(0, "java\\..*Map", "true")); //$NON-NLS-1$ //$NON-NLS-2$
+		elements.add(new ColorMatcher.ColorElement(0, "Map", "false")); //$NON-NLS-1$ //$NON-NLS-2$
+		elements.add(new ColorMatcher.ColorElement(0, "a.util", "false")); //$NON-NLS-1$ //$NON-NLS-2$
+		elements.add(new ColorMatcher.ColorElement(0, "(", "true")); //$NON-NLS-1$ //$NON-NLS-2$
+		final ColorRules rules = new ColorRules(elements);
+		Assert.assertEquals(0, rules.matchIndex("java.util.HashMap")); //$NON-NLS-1$
+		Assert.assertEquals(1, rules.matchIndex("java.util.TreeMap")); //$NON-NLS-1$
+		Assert.assertEquals(2, rules.matchIndex("org.foo.MapEntry")); //$NON-NLS-1$
+		Assert.assertEquals(3, rules.matchIndex("java.util.List")); //$NON-NLS-1$
+		Assert.assertEquals(-1, rules.matchIndex("org.foo.Bar")); //$NON-NLS-1$
+		Assert.assertEquals(-1, new ColorRules(new ArrayList<ColorMatcher.ColorElement>()).matchIndex("java.lang.Object")); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the index of the first matching rule by trying each rule
+	 * in order, the way the matcher worked before the rules were compiled.
+	 * @param elements the rules
+	 * @param name the name to match
+	 * @return the index of the first matching rule, or <code>-1</code>.
+	 */
+	protected static int matchLinear(final List<ColorMatcher.ColorElement> elements, final String name) {
+		final int max = elements.size();
+		for (int i = 0; i < max; i++) {
+			if (elements.get(i).match(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Creates package ownership rules: mostly package prefixes, some
+	 * class name sub-strings and every tenth rule a regular expression.
+	 * @param count the number of rules
+	 * @param random the random generator
+	 * @return the rules
+	 */
+	protected static List<ColorMatcher.ColorElement> createRules(final int count, final Random random) {
+		final List<ColorMatcher.ColorElement> result = new ArrayList<ColorMatcher.ColorElement>(count);
+		for (int i = 0; i < count; i++) {
+			final int color = random.nextInt(0x1000000);
+			if (i % 10 == 9) {
+				result.add(new ColorMatcher.ColorElement(color, "com\\.team"+random.nextInt(count)+"\\..*Impl\\d*", "true")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			} else if (i % 10 == 4) {
+				result.add(new ColorMatcher.ColorElement(color, "$Cache"+random.nextInt(count), "false")); //$NON-NLS-1$ //$NON-NLS-2$
+			} else {
+				result.add(new ColorMatcher.ColorElement(color, "com.team"+random.nextInt(count)+'.', "false")); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Creates class names, some of them matching the rules.
+	 * @param count the number of names
+	 * @param rules the number of rules
+	 * @param random the random generator
+	 * @return the names
+	 */
+	protected static String[] createNames(final int count, final int rules, final Random random) {
+		final String[] result = new String[count];
+		for (int i = 0; i < count; i++) {
+			final StringBuilder name = new StringBuilder(64);
+			switch (random.nextInt(4)) {
+				case 0:
+					name.append("java.util.concurrent.ConcurrentHashMap$Segment"); //$NON-NLS-1$
+					break;
+				case 1:
+					name.append("org.eclipse.mat.parser.model.InstanceImpl"); //$NON-NLS-1$
+					break;
+				default:
+					name.append("com.team").append(random.nextInt(2*rules)).append(".service.Order").append(random.nextBoolean()?"Impl":"$Cache").append(random.nextInt(rules)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			}
+			result[i] = name.toString();
+		}
+		return result;
+	}
+
+}
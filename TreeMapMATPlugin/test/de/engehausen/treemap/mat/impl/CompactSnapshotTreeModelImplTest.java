@@ -0,0 +1,73 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.List;
+
+import org.eclipse.mat.util.VoidProgressListener;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ISnapshotNode;
+
+/**
+ * Tests the compact model built for <code>-compact</code>: it represents
+ * the same tree as the full model, finds the same parents without storing
+ * them (see {@link TreeWalk}), is read from the cache again and takes at most half the memory
+ * of the full model.
+ */
+public class CompactSnapshotTreeModelImplTest {
+
+	/** number of objects of the test graph */
+	private static final int OBJECTS = 50000;
+
+	private TestSnapshot graph;
+
+	@Before
+	public void setUp() throws Exception {
+		graph = new TestSnapshot(OBJECTS, 26);
+	}
+
+	@After
+	public void tearDown() {
+		graph.dispose();
+	}
+
+	@Test
+	public void testSameTree() throws Exception {
+		final WeightedSnapshotTreeModelImpl full = (WeightedSnapshotTreeModelImpl) WeightedSnapshotTreeModelImpl.createModel(graph.getSnapshot(), TraversalMode.SEQUENTIAL, new VoidProgressListener());
+		final CompactSnapshotTreeModelImpl compact = (CompactSnapshotTreeModelImpl) CompactSnapshotTreeModelImpl.createModel(graph.getSnapshot(), TraversalMode.SEQUENTIAL, 0, new VoidProgressListener());
+		final List<ISnapshotNode> nodes = compare(full, compact);
+		// enough nodes are reachable for the checks to mean something
+		Assert.assertTrue(nodes.size() > OBJECTS/2);
+		Assert.assertTrue(compact.getMemoryFootprint()+" of "+full.getMemoryFootprint(), 2*compact.getMemoryFootprint() <= full.getMemoryFootprint()); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testCachedTree() throws Exception {
+		final IWeightedTreeModel<ISnapshotNode> built = CompactSnapshotTreeModelImpl.createModel(graph.getSnapshot(), TraversalMode.SEQUENTIAL, 0, new VoidProgressListener());
+		final IWeightedTreeModel<ISnapshotNode> cached = CompactSnapshotTreeModelImpl.createModel(graph.getSnapshot(), TraversalMode.SEQUENTIAL, 0, new VoidProgressListener());
+		Assert.assertTrue(built != cached);
+		compare(built, cached);
+	}
+
+	/**
+	 * Walks both models and checks that each node has the same children
+	 * in the same order and the same weight.
+	 * @param expected the model to compare with
+	 * @param actual the model to check
+	 * @return the nodes visited, including the root node.
+	 */
+	private static List<ISnapshotNode> compare(final IWeightedTreeModel<ISnapshotNode> expected, final IWeightedTreeModel<ISnapshotNode> actual) {
+		Assert.assertNull(actual.getParent(actual.getRoot()));
+		return TreeWalk.walk(actual, new TreeWalk.NodeCheck() {
+			@Override
+			public void check(final ISnapshotNode node, final int level, final List<ISnapshotNode> children, final long sum) {
+				Assert.assertEquals("weight "+node.getID(), expected.getWeight(node), actual.getWeight(node)); //$NON-NLS-1$
+				Assert.assertArrayEquals("children "+node.getID(), WeightedSnapshotTreeModelImplTest.children(expected, node), WeightedSnapshotTreeModelImplTest.children(actual, node)); //$NON-NLS-1$
+			}
+		});
+	}
+
+}
@@ -0,0 +1,116 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.mat.util.VoidProgressListener;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.Metric;
+
+/**
+ * Tests the parts of the object graph shown for <code>-objects</code>,
+ * <code>-depth</code> and <code>-minweight</code>: the trees built by
+ * {@link FocusedTreeModelImpl} and the cached trees pruned by
+ * {@link PrunedTreeModel} keep no node deeper than the depth or lighter
+ * than the minimum weight, sort the children by weight and keep the
+ * weights of the nodes left out in their parents.
+ */
+public class FocusedTreeModelImplTest {
+
+	/** number of objects of the test graph */
+	private static final int OBJECTS = 50000;
+	/** the depth limit to test */
+	private static final int DEPTH = 4;
+	/** the minimum weight to test */
+	private static final long MIN_WEIGHT = 100;
+
+	private TestSnapshot graph;
+
+	@Before
+	public void setUp() throws Exception {
+		graph = new TestSnapshot(OBJECTS, 25);
+	}
+
+	@After
+	public void tearDown() {
+		graph.dispose();
+	}
+
+	@Test
+	public void testFocusedTree() throws Exception {
+		final int[] objects = { 10, 2000, 30000 };
+		final FocusedTreeModelImpl model = FocusedTreeModelImpl.createModel(graph.getSnapshot(), objects, 0, 0, new Metric[0], new VoidProgressListener());
+		final List<ISnapshotNode> nodes = checkInvariants(model, 0, 0, true);
+		Assert.assertEquals(model.size(), nodes.size() - 1);
+		Assert.assertEquals(objects.length, WeightedSnapshotTreeModelImplTest.children(model, model.getRoot()).length);
+	}
+
+	@Test
+	public void testFocusedTreeLimits() throws Exception {
+		final FocusedTreeModelImpl model = FocusedTreeModelImpl.createModel(graph.getSnapshot(), graph.roots, DEPTH, MIN_WEIGHT, new Metric[0], new VoidProgressListener());
+		checkInvariants(model, DEPTH, MIN_WEIGHT, false);
+	}
+
+	@Test
+	public void testPrunedTree() throws Exception {
+		final IWeightedTreeModel<ISnapshotNode> source = WeightedSnapshotTreeModelImpl.createModel(graph.getSnapshot(), new VoidProgressListener());
+		final PrunedTreeModel model = new PrunedTreeModel(source, DEPTH, MIN_WEIGHT);
+		final List<ISnapshotNode> nodes = checkInvariants(model, DEPTH, MIN_WEIGHT, false);
+		// enough nodes are kept for the checks to mean something
+		Assert.assertTrue(nodes.size() > graph.roots.length/10);
+		for (ISnapshotNode node : nodes) {
+			Assert.assertEquals("weight "+node.getID(), source.getWeight(node), model.getWeight(node)); //$NON-NLS-1$
+			// the children left out are the light ones and those too deep
+			final int level = model.getLevel(node);
+			int expected = 0;
+			for (Iterator<ISnapshotNode> i = source.getChildren(node); i.hasNext(); ) {
+				if (source.getWeight(i.next()) >= MIN_WEIGHT && level < DEPTH) {
+					expected++;
+				}
+			}
+			Assert.assertEquals("children "+node.getID(), expected, WeightedSnapshotTreeModelImplTest.children(model, node).length); //$NON-NLS-1$
+		}
+		// without limits, the tree is the one of the wrapped model
+		final PrunedTreeModel all = new PrunedTreeModel(source, 0, 0);
+		Assert.assertArrayEquals(WeightedSnapshotTreeModelImplTest.children(source, source.getRoot()), WeightedSnapshotTreeModelImplTest.children(all, all.getRoot()));
+	}
+
+	/**
+	 * Checks that the children of each node are sorted by weight, have the
+	 * node as parent, are no deeper than the depth and at least as heavy as
+	 * the minimum weight, and that the weight of each node is its size plus
+	 * the weights of its children, plus those of the children left out.
+	 * @param model the model to check
+	 * @param depth the depth limit, <code>0</code> for none
+	 * @param minWeight the minimum weight
+	 * @param complete <code>true</code> if no node is left out
+	 * @return the nodes of the model, the root first
+	 */
+	private List<ISnapshotNode> checkInvariants(final IWeightedTreeModel<ISnapshotNode> model, final int depth, final long minWeight, final boolean complete) {
+		return TreeWalk.walk(model, new TreeWalk.NodeCheck() {
+			@Override
+			public void check(final ISnapshotNode node, final int level, final List<ISnapshotNode> children, final long sum) {
+				Assert.assertTrue("depth "+node.getID(), depth == 0 || level <= depth); //$NON-NLS-1$
+				final long own;
+				if (node.getID() != Integer.MAX_VALUE) {
+					Assert.assertTrue("light "+node.getID(), model.getWeight(node) >= minWeight); //$NON-NLS-1$
+					own = graph.sizes[node.getID()];
+				} else {
+					own = 0;
+				}
+				if (complete) {
+					Assert.assertEquals("weight "+node.getID(), own + sum, model.getWeight(node)); //$NON-NLS-1$
+				} else {
+					Assert.assertTrue("weight "+node.getID(), own + sum <= model.getWeight(node)); //$NON-NLS-1$
+				}
+			}
+		});
+	}
+
+}
@@ -0,0 +1,117 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.mat.snapshot.model.GCRootInfo;
+import org.eclipse.mat.util.VoidProgressListener;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.IMetricTreeModel;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.Metric;
+
+/**
+ * Tests the groups {@link GCRootGroupingTreeModel} puts below the root
+ * node: each GC root is in the group of its set of GC root types, the
+ * groups are sorted by weight, and their weights are the sums of their
+ * children for each metric.
+ */
+public class GCRootGroupingTreeModelTest {
+
+	/** number of objects of the test graph */
+	private static final int OBJECTS = 50000;
+
+	private TestSnapshot graph;
+
+	@Before
+	public void setUp() throws Exception {
+		graph = new TestSnapshot(OBJECTS, 23);
+	}
+
+	@After
+	public void tearDown() {
+		graph.dispose();
+	}
+
+	@Test
+	public void testGroupsByType() throws Exception {
+		final IWeightedTreeModel<ISnapshotNode> source = WeightedSnapshotTreeModelImpl.createModel(graph.getSnapshot(), TraversalMode.SEQUENTIAL, new Metric[] { Metric.COUNT }, new VoidProgressListener());
+		final GCRootGroupingTreeModel model = (GCRootGroupingTreeModel) GCRootGroupingTreeModel.createModel(source, RootGrouping.TYPE, new VoidProgressListener());
+		final Metric[] metrics = model.getMetrics();
+		Assert.assertEquals(2, metrics.length);
+		final ISnapshotNode root = model.getRoot();
+		// the GC root type set of each group
+		final Map<Integer, Integer> masks = new HashMap<Integer, Integer>();
+		final List<ISnapshotNode> groups = checkChildren(model, root);
+		Assert.assertEquals(3, groups.size());
+		int roots = 0;
+		for (ISnapshotNode group : groups) {
+			Assert.assertTrue("group "+group.getID(), group.getID() < 0); //$NON-NLS-1$
+			for (ISnapshotNode child : checkChildren(model, group)) {
+				final Integer mask = Integer.valueOf(mask(TestSnapshot.getGCRootInfo(child.getID())));
+				final Integer previous = masks.put(mask, Integer.valueOf(group.getID()));
+				Assert.assertTrue("root "+child.getID(), previous == null || previous.intValue() == group.getID()); //$NON-NLS-1$
+				// below the groups, the tree is the one of the wrapped model
+				Assert.assertArrayEquals("children "+child.getID(), WeightedSnapshotTreeModelImplTest.children(source, child), WeightedSnapshotTreeModelImplTest.children(model, child)); //$NON-NLS-1$
+				roots++;
+			}
+		}
+		Assert.assertEquals(3, masks.size());
+		Assert.assertEquals(WeightedSnapshotTreeModelImplTest.children(source, source.getRoot()).length, roots);
+		for (Metric metric : metrics) {
+			Assert.assertEquals(metric.name(), ((IMetricTreeModel) source).getWeight(source.getRoot(), metric), model.getWeight(root, metric));
+		}
+	}
+
+	/**
+	 * Checks that the children of a node are sorted by weight and have the
+	 * node as parent, and that the weight of the node is the sum of the
+	 * weights of its children for each metric.
+	 * @param model the model to check
+	 * @param node the node
+	 * @return the children of the node
+	 */
+	private static List<ISnapshotNode> checkChildren(final GCRootGroupingTreeModel model, final ISnapshotNode node) {
+		final List<ISnapshotNode> result = new ArrayList<ISnapshotNode>();
+		final Metric[] metrics = model.getMetrics();
+		final long[] sums = new long[metrics.length];
+		long previous = Long.MAX_VALUE;
+		for (Iterator<ISnapshotNode> i = model.getChildren(node); i.hasNext(); ) {
+			final ISnapshotNode child = i.next();
+			final long weight = model.getWeight(child);
+			Assert.assertTrue("order "+child.getID(), weight <= previous); //$NON-NLS-1$
+			Assert.assertEquals("parent "+child.getID(), node, model.getParent(child)); //$NON-NLS-1$
+			for (int m = 0; m < metrics.length; m++) {
+				sums[m] += model.getWeight(child, metrics[m]);
+			}
+			previous = weight;
+			result.add(child);
+		}
+		for (int m = 0; m < metrics.length; m++) {
+			Assert.assertEquals("weight "+node.getID()+' '+metrics[m], sums[m], model.getWeight(node, metrics[m])); //$NON-NLS-1$
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the set of GC root types of a GC root.
+	 * @param infos the GC root information
+	 * @return the bit mask of the types
+	 */
+	private static int mask(final GCRootInfo[] infos) {
+		int mask = 0;
+		for (GCRootInfo info : infos) {
+			mask |= info.getType();
+		}
+		return mask;
+	}
+
+}
@@ -0,0 +1,104 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.mat.util.VoidProgressListener;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ISnapshotNode;
+
+/**
+ * Tests the {@link LevelOfDetailTreeModel}: the children lighter than the
+ * minimum weight are merged into one leaf per parent whose weight is the
+ * sum of theirs, so that the weights of the children of a node add up to
+ * the same as in the wrapped model; a single light child is kept, and
+ * without a minimum weight the children are the wrapped ones.
+ */
+public class LevelOfDetailTreeModelTest {
+
+	/** number of objects of the test graph */
+	private static final int OBJECTS = 50000;
+	/** size of the area of the tree map, in pixels */
+	private static final int WIDTH = 200;
+	private static final int HEIGHT = 100;
+	/** pixels a node needs to be shown on its own */
+	private static final int MIN_AREA = 4;
+
+	private TestSnapshot graph;
+
+	@Before
+	public void setUp() throws Exception {
+		graph = new TestSnapshot(OBJECTS, 18);
+	}
+
+	@After
+	public void tearDown() {
+		graph.dispose();
+	}
+
+	@Test
+	public void testAggregateWeights() throws Exception {
+		final IWeightedTreeModel<ISnapshotNode> source = WeightedSnapshotTreeModelImpl.createModel(graph.getSnapshot(), TraversalMode.SEQUENTIAL, new VoidProgressListener());
+		final LevelOfDetailTreeModel model = LevelOfDetailTreeModel.create(source, source.getRoot(), WIDTH, HEIGHT, MIN_AREA);
+		final long min = (long) Math.ceil(source.getWeight(source.getRoot())*(double) MIN_AREA/(WIDTH*HEIGHT));
+		Assert.assertTrue(min > 0);
+		final int[] merged = new int[1];
+		final List<ISnapshotNode> nodes = TreeWalk.walk(model, new TreeWalk.NodeCheck() {
+			@Override
+			public void check(final ISnapshotNode node, final int level, final List<ISnapshotNode> children, final long sum) {
+				if (node instanceof OthersNodeImpl) {
+					Assert.assertTrue(children.isEmpty());
+					Assert.assertTrue("count "+model.getParent(node).getID(), ((OthersNodeImpl) node).getCount() > 1); //$NON-NLS-1$
+					return;
+				}
+				Assert.assertEquals("weight "+node.getID(), source.getWeight(node), model.getWeight(node)); //$NON-NLS-1$
+				int sourceCount = 0;
+				long sourceSum = 0;
+				for (Iterator<ISnapshotNode> i = source.getChildren(node); i.hasNext(); ) {
+					sourceCount++;
+					sourceSum += source.getWeight(i.next());
+				}
+				int count = 0;
+				int light = 0;
+				for (ISnapshotNode child : children) {
+					if (child instanceof OthersNodeImpl) {
+						count += ((OthersNodeImpl) child).getCount();
+						light++;
+						merged[0]++;
+					} else {
+						count++;
+						if (model.getWeight(child) < min) {
+							light++;
+						}
+					}
+				}
+				Assert.assertEquals("sum "+node.getID(), sourceSum, sum); //$NON-NLS-1$
+				Assert.assertEquals("count "+node.getID(), sourceCount, count); //$NON-NLS-1$
+				Assert.assertTrue("light "+node.getID(), light <= 1); //$NON-NLS-1$
+			}
+		});
+		// the nodes were merged, and the walk reached below the root
+		Assert.assertTrue(merged[0] > 0);
+		Assert.assertTrue(nodes.size() > merged[0] + 1);
+		Assert.assertTrue(nodes.size() < TreeWalk.walk(source, null).size());
+	}
+
+	@Test
+	public void testNoMinimum() throws Exception {
+		final IWeightedTreeModel<ISnapshotNode> source = WeightedSnapshotTreeModelImpl.createModel(graph.getSnapshot(), TraversalMode.SEQUENTIAL, new VoidProgressListener());
+		final LevelOfDetailTreeModel model = new LevelOfDetailTreeModel(source, 0);
+		final List<ISnapshotNode> nodes = TreeWalk.walk(model, new TreeWalk.NodeCheck() {
+			@Override
+			public void check(final ISnapshotNode node, final int level, final List<ISnapshotNode> children, final long sum) {
+				Assert.assertArrayEquals("children "+node.getID(), WeightedSnapshotTreeModelImplTest.children(source, node), WeightedSnapshotTreeModelImplTest.children(model, node)); //$NON-NLS-1$
+			}
+		});
+		Assert.assertEquals(TreeWalk.walk(source, null).size(), nodes.size());
+	}
+
+}
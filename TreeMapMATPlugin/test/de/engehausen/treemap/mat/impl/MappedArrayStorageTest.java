@@ -0,0 +1,127 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the arrays of {@link MappedArrayStorage}: values are read back
+ * on both sides of the boundary between two segments, also when mapped
+ * again read-only from a position within a file, as by the cache; the
+ * temporary files do not outlive the mapping. The files are sparse, so
+ * arrays of more than one segment take little disk space.
+ */
+public class MappedArrayStorageTest {
+
+	/** elements per segment of an <code>int</code> array */
+	private static final int INT_SEGMENT = 1<<27;
+	/** elements per segment of a <code>long</code> array */
+	private static final int LONG_SEGMENT = 1<<26;
+	/** elements of the arrays after the first segment */
+	private static final int TAIL = 16;
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("treemap", ".test"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (!directory.delete() || !directory.mkdir()) {
+			throw new IllegalStateException(directory.toString());
+		}
+	}
+
+	@After
+	public void tearDown() {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testIntSegments() throws Exception {
+		final IIntArray array = new MappedArrayStorage(directory).createIntArray(INT_SEGMENT + TAIL);
+		Assert.assertEquals(INT_SEGMENT + TAIL, array.length());
+		final int[] indices = boundary(INT_SEGMENT);
+		for (int i = 0; i < indices.length; i++) {
+			Assert.assertEquals(0, array.get(indices[i]));
+			array.set(indices[i], -1 - i);
+		}
+		for (int i = 0; i < indices.length; i++) {
+			Assert.assertEquals("index "+indices[i], -1 - i, array.get(indices[i])); //$NON-NLS-1$
+		}
+		Assert.assertEquals(0, array.get(INT_SEGMENT + 1));
+		Assert.assertEquals(0, directory.list().length);
+	}
+
+	@Test
+	public void testLongSegments() throws Exception {
+		final ILongArray array = new MappedArrayStorage(directory).createLongArray(LONG_SEGMENT + TAIL);
+		Assert.assertEquals(LONG_SEGMENT + TAIL, array.length());
+		final int[] indices = boundary(LONG_SEGMENT);
+		for (int i = 0; i < indices.length; i++) {
+			Assert.assertEquals(0, array.get(indices[i]));
+			array.set(indices[i], (long) i<<40 | i);
+		}
+		for (int i = 0; i < indices.length; i++) {
+			Assert.assertEquals("index "+indices[i], (long) i<<40 | i, array.get(indices[i])); //$NON-NLS-1$
+		}
+		Assert.assertEquals(0, array.get(LONG_SEGMENT + 1));
+		Assert.assertEquals(0, directory.list().length);
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		final MappedArrayStorage storage = new MappedArrayStorage(directory);
+		Assert.assertEquals(0, storage.createIntArray(0).length());
+		Assert.assertEquals(0, storage.createLongArray(0).length());
+	}
+
+	@Test
+	public void testReadOnlyAtPosition() throws Exception {
+		final long position = 12;
+		final int length = LONG_SEGMENT + TAIL;
+		final int[] indices = boundary(LONG_SEGMENT);
+		final File file = new File(directory, "mapped.bin"); //$NON-NLS-1$
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		try {
+			raf.setLength(position + 8L*length);
+			for (int i = 0; i < indices.length; i++) {
+				raf.seek(position + 8L*indices[i]);
+				raf.writeLong(-1L - i);
+			}
+			final ILongArray longs = new MappedLongArray(raf.getChannel(), MapMode.READ_ONLY, position, length);
+			final IIntArray ints = new MappedIntArray(raf.getChannel(), MapMode.READ_ONLY, position, 2*length);
+			Assert.assertEquals(length, longs.length());
+			Assert.assertEquals(2*length, ints.length());
+			for (int i = 0; i < indices.length; i++) {
+				Assert.assertEquals("index "+indices[i], -1L - i, longs.get(indices[i])); //$NON-NLS-1$
+				// the high and low half of the long, in big-endian order
+				Assert.assertEquals("index "+indices[i], -1, ints.get(2*indices[i])); //$NON-NLS-1$
+				Assert.assertEquals("index "+indices[i], -1 - i, ints.get(2*indices[i] + 1)); //$NON-NLS-1$
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the indices around the boundary of the first two segments,
+	 * and the first and last index of an array of one segment and {@link #TAIL}
+	 * elements.
+	 * @param segment the number of elements per segment
+	 * @return the indices, in ascending order
+	 */
+	private static int[] boundary(final int segment) {
+		return new int[] { 0, segment - 2, segment - 1, segment, segment + 2, segment + TAIL - 1 };
+	}
+
+}
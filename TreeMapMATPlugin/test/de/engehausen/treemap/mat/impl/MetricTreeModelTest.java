@@ -0,0 +1,130 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.mat.util.VoidProgressListener;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.IMetricTreeModel;
+import de.engehausen.treemap.mat.ISnapshotNode;
+import de.engehausen.treemap.mat.Metric;
+
+/**
+ * Tests the metrics computed by {@link WeightedSnapshotTreeModelImpl} and
+ * the switching between them by {@link MetricTreeModel}: for each metric,
+ * the children of a node are sorted by its weights, the parents stay the
+ * same, and the weights add up as the metric defines.
+ */
+public class MetricTreeModelTest {
+
+	/** number of objects of the test graph */
+	private static final int OBJECTS = 50000;
+	/** depth of the pruned and the focused models */
+	private static final int DEPTH = 6;
+	/** minimum size of a node of the pruned and the focused models */
+	private static final long MIN_WEIGHT = 512;
+
+	private TestSnapshot graph;
+
+	@Before
+	public void setUp() throws Exception {
+		graph = new TestSnapshot(OBJECTS, 24);
+	}
+
+	@After
+	public void tearDown() {
+		graph.dispose();
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		final IWeightedTreeModel<ISnapshotNode> source = WeightedSnapshotTreeModelImpl.createModel(graph.getSnapshot(), TraversalMode.SEQUENTIAL, new Metric[] { Metric.COUNT, Metric.RETAINED }, new VoidProgressListener());
+		Assert.assertSame(source, MetricTreeModel.create(source, Metric.SIZE));
+		for (Metric metric : Metric.values()) {
+			final IWeightedTreeModel<ISnapshotNode> model = MetricTreeModel.create(source, metric);
+			Assert.assertEquals(metric, MetricTreeModel.metricOf(model));
+			checkInvariants(source, model, metric);
+		}
+	}
+
+	@Test
+	public void testWrappedOrder() throws Exception {
+		final Metric[] metrics = { Metric.COUNT, Metric.RETAINED };
+		final IWeightedTreeModel<ISnapshotNode> source = WeightedSnapshotTreeModelImpl.createModel(graph.getSnapshot(), TraversalMode.SEQUENTIAL, metrics, new VoidProgressListener());
+		final IWeightedTreeModel<ISnapshotNode> grouped = GCRootGroupingTreeModel.createModel(source, RootGrouping.TYPE, new VoidProgressListener());
+		final IWeightedTreeModel<ISnapshotNode> pruned = new PrunedTreeModel(grouped, DEPTH, MIN_WEIGHT);
+		final IWeightedTreeModel<ISnapshotNode> focused = FocusedTreeModelImpl.createModel(graph.getSnapshot(), graph.roots, DEPTH, MIN_WEIGHT, metrics, new VoidProgressListener());
+		for (Metric metric : Metric.values()) {
+			checkOrder(grouped, MetricTreeModel.create(grouped, metric));
+			checkOrder(pruned, MetricTreeModel.create(pruned, metric));
+			checkOrder(focused, MetricTreeModel.create(focused, metric));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingMetric() throws Exception {
+		final IWeightedTreeModel<ISnapshotNode> source = WeightedSnapshotTreeModelImpl.createModel(graph.getSnapshot(), TraversalMode.SEQUENTIAL, new Metric[] { Metric.COUNT }, new VoidProgressListener());
+		MetricTreeModel.create(source, Metric.RETAINED);
+	}
+
+	/**
+	 * Checks that the children of each node are sorted by the weights of
+	 * the metric and are the same as the ones of the wrapped model.
+	 * @param source the wrapped model
+	 * @param model the model weighted by the metric
+	 */
+	private static void checkOrder(final IWeightedTreeModel<ISnapshotNode> source, final IWeightedTreeModel<ISnapshotNode> model) {
+		TreeWalk.walk(model, new TreeWalk.NodeCheck() {
+			@Override
+			public void check(final ISnapshotNode node, final int level, final List<ISnapshotNode> children, final long sum) {
+				final Set<ISnapshotNode> expected = new HashSet<ISnapshotNode>();
+				for (Iterator<ISnapshotNode> i = source.getChildren(node); i.hasNext(); ) {
+					expected.add(i.next());
+				}
+				Assert.assertEquals("children "+node.getID(), expected, new HashSet<ISnapshotNode>(children)); //$NON-NLS-1$
+			}
+		});
+	}
+
+	/**
+	 * Checks that the children of each node are sorted by the weights of
+	 * the metric and have the node as parent, and that the weight of each
+	 * object is computed from the weights of its children as the metric
+	 * defines.
+	 * @param source the model providing the metrics
+	 * @param model the model weighted by the metric
+	 * @param metric the metric
+	 */
+	private void checkInvariants(final IWeightedTreeModel<ISnapshotNode> source, final IWeightedTreeModel<ISnapshotNode> model, final Metric metric) {
+		TreeWalk.walk(model, new TreeWalk.NodeCheck() {
+			@Override
+			public void check(final ISnapshotNode node, final int level, final List<ISnapshotNode> children, final long sum) {
+				final long weight = model.getWeight(node);
+				final int id = node.getID();
+				if (id == Integer.MAX_VALUE) {
+					Assert.assertEquals(metric+" root", sum, weight); //$NON-NLS-1$
+					return;
+				}
+				Assert.assertEquals(metric.name(), ((IMetricTreeModel) source).getWeight(node, metric), weight);
+				if (metric == Metric.SIZE) {
+					Assert.assertEquals(metric+" "+id, graph.sizes[id] + sum, weight); //$NON-NLS-1$
+				} else if (metric == Metric.COUNT) {
+					Assert.assertEquals(metric+" "+id, 1 + sum, weight); //$NON-NLS-1$
+				} else if (children.isEmpty()) {
+					Assert.assertEquals(metric+" "+id, graph.getRetainedSize(id), weight); //$NON-NLS-1$
+				} else {
+					// the retained size, or the shallow size plus the estimates of the children
+					Assert.assertEquals(metric+" "+id, Math.max(graph.getRetainedSize(id), graph.sizes[id] + sum), weight); //$NON-NLS-1$
+				}
+			}
+		});
+	}
+
+}
@@ -0,0 +1,135 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that {@link ModelCache} loads what it stored, keeps the models
+ * of different keys apart and does not use a stale or broken file.
+ */
+public class ModelCacheTest {
+
+	/** number of objects of the test graph */
+	private static final int OBJECTS = 1000;
+	private static final String KEY = "SEQUENTIAL"; //$NON-NLS-1$
+	private static final String OTHER_KEY = "CLUSTERED"; //$NON-NLS-1$
+
+	private TestSnapshot graph;
+
+	@Before
+	public void setUp() throws Exception {
+		graph = new TestSnapshot(OBJECTS, 5);
+	}
+
+	@After
+	public void tearDown() {
+		graph.dispose();
+	}
+
+	@Test
+	public void testStoreAndLoad() throws Exception {
+		Assert.assertFalse(new ModelCache(graph.getSnapshot(), KEY).load());
+		store(KEY, 1);
+		final ModelCache cache = new ModelCache(graph.getSnapshot(), KEY);
+		Assert.assertTrue(cache.load());
+		check(cache, 1);
+	}
+
+	@Test
+	public void testKeys() throws Exception {
+		store(KEY, 1);
+		store(OTHER_KEY, 2);
+		final ModelCache cache = new ModelCache(graph.getSnapshot(), KEY);
+		final ModelCache other = new ModelCache(graph.getSnapshot(), OTHER_KEY);
+		Assert.assertFalse(cache.getFile().equals(other.getFile()));
+		Assert.assertTrue(cache.load());
+		Assert.assertTrue(other.load());
+		check(cache, 1);
+		check(other, 2);
+	}
+
+	@Test
+	public void testChangedDump() throws Exception {
+		store(KEY, 1);
+		final File dump = new File(graph.info.getPath());
+		final RandomAccessFile raf = new RandomAccessFile(dump, "rw"); //$NON-NLS-1$
+		try {
+			raf.setLength(16);
+		} finally {
+			raf.close();
+		}
+		Assert.assertFalse(new ModelCache(graph.getSnapshot(), KEY).load());
+	}
+
+	@Test
+	public void testOtherVersion() throws Exception {
+		final File file = store(KEY, 1);
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		try {
+			raf.seek(4);
+			final int version = raf.readInt();
+			raf.seek(4);
+			raf.writeInt(version+1);
+		} finally {
+			raf.close();
+		}
+		Assert.assertFalse(new ModelCache(graph.getSnapshot(), KEY).load());
+	}
+
+	@Test
+	public void testTruncatedFile() throws Exception {
+		final File file = store(KEY, 1);
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		try {
+			raf.setLength(raf.length() - 4);
+		} finally {
+			raf.close();
+		}
+		Assert.assertFalse(new ModelCache(graph.getSnapshot(), KEY).load());
+	}
+
+	/**
+	 * Stores an <code>int</code> and a <code>long</code> array of one
+	 * element per object, holding multiples of the object IDs.
+	 * @param key the key to store the arrays under
+	 * @param factor the factor of the values
+	 * @return the cache file
+	 * @throws IOException in case of error
+	 */
+	protected File store(final String key, final int factor) throws IOException {
+		final IIntArray ints = HeapArrayStorage.INSTANCE.createIntArray(OBJECTS);
+		final ILongArray longs = HeapArrayStorage.INSTANCE.createLongArray(OBJECTS);
+		for (int i = 0; i < OBJECTS; i++) {
+			ints.set(i, factor*i);
+			longs.set(i, factor*(long) i<<32);
+		}
+		final ModelCache cache = new ModelCache(graph.getSnapshot(), key);
+		cache.store(new IIntArray[] { ints }, new ILongArray[] { longs });
+		return cache.getFile();
+	}
+
+	/**
+	 * Checks the arrays loaded by the cache against the stored ones.
+	 * @param cache the loaded cache
+	 * @param factor the factor of the values
+	 */
+	protected void check(final ModelCache cache, final int factor) {
+		Assert.assertEquals(1, cache.getInts().length);
+		Assert.assertEquals(1, cache.getLongs().length);
+		final IIntArray ints = cache.getInts()[0];
+		final ILongArray longs = cache.getLongs()[0];
+		Assert.assertEquals(OBJECTS, ints.length());
+		Assert.assertEquals(OBJECTS, longs.length());
+		for (int i = 0; i < OBJECTS; i++) {
+			Assert.assertEquals(factor*i, ints.get(i));
+			Assert.assertEquals(factor*(long) i<<32, longs.get(i));
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package de.engehausen.treemap.mat.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the weights of {@link PackedLongArray}: values up to 32 bits and
+ * the ones held in full are read back, also from the arrays taken over
+ * as from the cache, and the values held in full must come in ascending
+ * index order and fit into the room given for them.
+ */
+public class PackedLongArrayTest {
+
+	/** the values to set: packed ones, the largest packed one and ones held in full */
+	private static final long[] VALUES = { 0, 17, PackedLongArray.MAX_PACKED_VALUE, PackedLongArray.MAX_PACKED_VALUE+1, 5, 1L<<40, Long.MAX_VALUE, 0xffffffffL, 3 };
+
+	@Test
+	public void testValues() throws Exception {
+		final PackedLongArray array = new PackedLongArray(HeapArrayStorage.INSTANCE, VALUES.length, 4);
+		for (int i = 0; i < VALUES.length; i++) {
+			array.set(i, VALUES[i]);
+		}
+		check(array);
+		Assert.assertEquals(4, array.getOverflowIndices().length());
+		Assert.assertEquals(4L*VALUES.length + 12L*4, array.getMemoryFootprint());
+		check(new PackedLongArray(array.getData(), array.getOverflowIndices(), array.getOverflowValues()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManyOverflows() throws Exception {
+		final PackedLongArray array = new PackedLongArray(HeapArrayStorage.INSTANCE, 4, 1);
+		array.set(0, 1L<<33);
+		array.set(1, 1L<<34);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOverflowOrder() throws Exception {
+		final PackedLongArray array = new PackedLongArray(HeapArrayStorage.INSTANCE, 4, 2);
+		array.set(2, 1L<<33);
+		array.set(1, 1L<<34);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegative() throws Exception {
+		new PackedLongArray(HeapArrayStorage.INSTANCE, 1, 0).set(0, -1);
+	}
+
+	/**
+	 * Checks that the array holds {@link #VALUES}.
+	 * @param array the array
+	 */
+	private static void check(final PackedLongArray array) {
+		Assert.assertEquals(VALUES.length, array.length());
+		for (int i = 0; i < VALUES.length; i++) {
+			Assert.assertEquals("value "+i, VALUES[i], array.get(i)); //$NON-NLS-1$
+		}
+	}
+
+}
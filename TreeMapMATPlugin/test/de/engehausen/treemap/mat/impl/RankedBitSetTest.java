@@ -0,0 +1,67 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link RankedBitSet}: the rank of each index is the number of
+ * set bits before it, also at the boundaries of words and of the blocks
+ * of 512 bits of the rank directory, and for sets whose last block is
+ * full or partly used; the same holds for a set created from the arrays
+ * of another one, as from the cache.
+ */
+public class RankedBitSetTest {
+
+	/** lengths of the sets: empty, within a word, at and around block boundaries */
+	private static final int[] LENGTHS = { 0, 1, 63, 64, 511, 512, 513, 1024, 5000 };
+
+	@Test
+	public void testRank() throws Exception {
+		final Random random = new Random(8);
+		for (int length : LENGTHS) {
+			// sparse, dense and all bits set
+			for (int density : new int[] { 10, 50, 100 }) {
+				final boolean[] bits = new boolean[length];
+				final RankedBitSet set = new RankedBitSet(HeapArrayStorage.INSTANCE, length);
+				for (int i = 0; i < length; i++) {
+					if (random.nextInt(100) < density) {
+						bits[i] = true;
+						set.set(i);
+					}
+				}
+				set.buildRanks();
+				final String name = length+"/"+density; //$NON-NLS-1$
+				check(name, bits, set);
+				check(name, bits, new RankedBitSet(set.getWords(), set.getRanks()));
+			}
+		}
+	}
+
+	@Test
+	public void testMemoryFootprint() throws Exception {
+		final RankedBitSet set = new RankedBitSet(HeapArrayStorage.INSTANCE, 1025);
+		// 17 words and the ranks of 3 blocks plus the total
+		Assert.assertEquals(8L*17 + 4L*4, set.getMemoryFootprint());
+	}
+
+	/**
+	 * Checks the bits, rank of each index and cardinality of a set.
+	 * @param name the name of the set in the failure messages
+	 * @param bits the expected bits
+	 * @param set the set to check
+	 */
+	private static void check(final String name, final boolean[] bits, final RankedBitSet set) {
+		int rank = 0;
+		for (int i = 0; i < bits.length; i++) {
+			Assert.assertEquals(name+" bit "+i, bits[i], set.get(i)); //$NON-NLS-1$
+			Assert.assertEquals(name+" rank "+i, rank, set.rank(i)); //$NON-NLS-1$
+			if (bits[i]) {
+				rank++;
+			}
+		}
+		Assert.assertEquals(name, rank, set.cardinality());
+	}
+
+}
@@ -0,0 +1,133 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+
+import org.eclipse.mat.util.VoidProgressListener;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ISnapshotNode;
+
+/**
+ * Tests {@link SnapshotNodeCache} and measures how many bytes walking
+ * the nodes of a {@link WeightedSnapshotTreeModelImpl} allocates once
+ * the nodes are cached, the way the layout and painting walk them.
+ */
+public class SnapshotNodeCacheTest {
+
+	/** number of objects of the test graph; all fit into the cache */
+	private static final int OBJECTS = 20000;
+	/** number of walks before measuring */
+	private static final int WARM_UP = 5;
+	/** number of walks measured */
+	private static final int WALKS = 20;
+	/**
+	 * bytes allocated per node visit at most; only the child iterators
+	 * remain (about 10 bytes per visit), while creating a node object for
+	 * each child and parent allocates about 40 bytes per visit
+	 */
+	private static final double MAX_BYTES_PER_VISIT = 16;
+
+	private TestSnapshot graph;
+
+	@Before
+	public void setUp() throws Exception {
+		graph = new TestSnapshot(OBJECTS, 9);
+	}
+
+	@After
+	public void tearDown() {
+		graph.dispose();
+	}
+
+	@Test
+	public void testSameInstance() {
+		final SnapshotNodeCache cache = new SnapshotNodeCache(4);
+		final ISnapshotNode node = cache.get(3);
+		Assert.assertEquals(3, node.getID());
+		Assert.assertSame(node, cache.get(3));
+		Assert.assertSame(cache.get(Integer.MAX_VALUE), cache.get(Integer.MAX_VALUE));
+		// 19 shares the slot of 3 and replaces it
+		Assert.assertEquals(19, cache.get(19).getID());
+		final ISnapshotNode replaced = cache.get(3);
+		Assert.assertEquals(3, replaced.getID());
+		Assert.assertEquals(node, replaced);
+	}
+
+	@Test
+	public void testAllocationRate() throws Exception {
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		final Method allocated = allocatedBytesMethod();
+		Assume.assumeTrue(allocated != null);
+		final IWeightedTreeModel<ISnapshotNode> model = WeightedSnapshotTreeModelImpl.createModel(graph.getSnapshot(), new VoidProgressListener());
+		final ISnapshotNode[] stack = new ISnapshotNode[OBJECTS+1];
+		long visits = 0;
+		for (int i = 0; i < WARM_UP; i++) {
+			visits = walk(model, stack);
+		}
+		final Long threadID = Long.valueOf(Thread.currentThread().getId());
+		final long before = ((Long) allocated.invoke(threads, threadID)).longValue();
+		for (int i = 0; i < WALKS; i++) {
+			walk(model, stack);
+		}
+		final long bytes = ((Long) allocated.invoke(threads, threadID)).longValue() - before;
+		final double perVisit = bytes / (double) (WALKS*visits);
+		Assert.assertTrue(bytes+" bytes for "+WALKS*visits+" visits, "+perVisit+" per visit", perVisit < MAX_BYTES_PER_VISIT); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	/**
+	 * Visits all nodes of the model, asking each for its children, parent
+	 * and weight like the layout does.
+	 * @param model the model to walk
+	 * @param stack the stack of nodes to visit, large enough for all nodes
+	 * @return the number of nodes visited
+	 */
+	private static long walk(final IWeightedTreeModel<ISnapshotNode> model, final ISnapshotNode[] stack) {
+		long visits = 0;
+		long weights = 0;
+		int top = 0;
+		stack[top++] = model.getRoot();
+		while (top > 0) {
+			final ISnapshotNode node = stack[--top];
+			visits++;
+			weights += model.getWeight(node);
+			if (model.getParent(node) == null && node.getID() != Integer.MAX_VALUE) {
+				Assert.fail("no parent: "+node.getID()); //$NON-NLS-1$
+			}
+			if (model.hasChildren(node)) {
+				for (Iterator<ISnapshotNode> i = model.getChildren(node); i.hasNext(); ) {
+					stack[top++] = i.next();
+				}
+			}
+		}
+		Assert.assertTrue(weights >= 0);
+		return visits;
+	}
+
+	/**
+	 * Returns the method measuring the bytes allocated by a thread, which
+	 * is not available on all virtual machines.
+	 * @return the method, or <code>null</code> if not available.
+	 */
+	private static Method allocatedBytesMethod() {
+		try {
+			final Class<?> type = Class.forName("com.sun.management.ThreadMXBean"); //$NON-NLS-1$
+			if (!type.isInstance(ManagementFactory.getThreadMXBean())) {
+				return null;
+			}
+			return type.getMethod("getThreadAllocatedBytes", long.class); //$NON-NLS-1$
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,321 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.snapshot.SnapshotInfo;
+import org.eclipse.mat.snapshot.model.GCRootInfo;
+import org.eclipse.mat.snapshot.model.IClass;
+
+/**
+ * Random object graph standing in for a heap dump in the tests. The
+ * {@link ISnapshot} is a dynamic proxy answering only the calls the
+ * models make; any other call fails with an {@link UnsupportedOperationException}.
+ * The object IDs of the classes are their indices (see {@link #classes});
+ * {@link ISnapshot#getObject(int)} only answers classes.
+ * <p>The graph contains chains of objects, objects with many references,
+ * cycles and objects which are not reachable from any GC root. The cache
+ * files the models write are placed in a temporary directory, which is
+ * removed by {@link #dispose()}.
+ */
+public class TestSnapshot implements InvocationHandler {
+
+	/** number of classes of the objects */
+	public static final int CLASSES = 50;
+	/** packages of the class names */
+	private static final String[] PACKAGES = { "java.lang.", "java.util.", "com.acme.", "org.foo.", "net.x." }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+
+	/** the outbound references of each object */
+	public final int[][] references;
+	/** the shallow size of each object */
+	public final long[] sizes;
+	/** the class index of each object */
+	public final int[] classes;
+	/** the GC roots */
+	public final int[] roots;
+	/** the number of objects whose size was looked up */
+	public final AtomicLong sizeLookups = new AtomicLong();
+	protected final boolean[] gcRoot;
+	protected final File directory;
+	protected final SnapshotInfo info;
+	protected final ISnapshot snapshot;
+	protected final IClass[] classObjects;
+	/** the inbound references of each object, computed when first asked for */
+	private int[][] referrers;
+
+	/**
+	 * Creates the random graph.
+	 * @param count the number of objects
+	 * @param seed the seed of the random graph
+	 * @throws IOException if the temporary directory cannot be created
+	 */
+	public TestSnapshot(final int count, final long seed) throws IOException {
+		final Random random = new Random(seed);
+		references = new int[count][];
+		sizes = new long[count];
+		classes = new int[count];
+		for (int i = 0; i < count; i++) {
+			sizes[i] = random.nextInt(5) == 0 ? 0 : 16 + random.nextInt(200);
+			classes[i] = random.nextInt(Math.min(count, CLASSES));
+			if (i % 1000 < 300 && i + 1 < count) {
+				references[i] = new int[] { i + 1 };
+			} else {
+				final int refs = random.nextInt(10) == 0 ? random.nextInt(60) : random.nextInt(4);
+				references[i] = new int[refs];
+				for (int j = 0; j < refs; j++) {
+					references[i][j] = random.nextInt(count);
+				}
+			}
+		}
+		final Set<Integer> rootSet = new LinkedHashSet<Integer>();
+		while (rootSet.size() < Math.max(1, count/50)) {
+			rootSet.add(Integer.valueOf(random.nextInt(count)));
+		}
+		roots = new int[rootSet.size()];
+		gcRoot = new boolean[count];
+		int i = 0;
+		for (Integer root : rootSet) {
+			roots[i++] = root.intValue();
+			gcRoot[root.intValue()] = true;
+		}
+		long used = 0;
+		for (long size : sizes) {
+			used += size;
+		}
+		final ClassLoader loader = getClass().getClassLoader();
+		classObjects = new IClass[Math.min(count, CLASSES)];
+		for (int j = 0; j < classObjects.length; j++) {
+			final String name = PACKAGES[j%PACKAGES.length]+'C'+j+(j%7 == 0?"[]":""); //$NON-NLS-1$ //$NON-NLS-2$
+			classObjects[j] = (IClass) Proxy.newProxyInstance(loader, new Class<?>[] { IClass.class }, new ClassHandler(this, j, name));
+		}
+		directory = File.createTempFile("treemap", ".test"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (!directory.delete() || !directory.mkdir()) {
+			throw new IOException(directory.getPath());
+		}
+		final File dump = new File(directory, "dump.hprof"); //$NON-NLS-1$
+		if (!dump.createNewFile()) {
+			throw new IOException(dump.getPath());
+		}
+		info = new SnapshotInfo(dump.getPath(), new File(directory, "dump.").getPath(), null, 8, new Date(), count, roots.length, classObjects.length, 1, used); //$NON-NLS-1$
+		snapshot = (ISnapshot) Proxy.newProxyInstance(loader, new Class<?>[] { ISnapshot.class }, this);
+	}
+
+	/**
+	 * Returns the snapshot of the graph.
+	 * @return the snapshot, never <code>null</code>.
+	 */
+	public ISnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Returns the class of the given index.
+	 * @param index the class index, see {@link #classes}
+	 * @return the class, never <code>null</code>.
+	 */
+	public IClass getClassObject(final int index) {
+		return classObjects[index];
+	}
+
+	/**
+	 * Removes the temporary directory and the cache files in it.
+	 */
+	public void dispose() {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	@Override
+	// non-javadoc: see interface
+	public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+		final String name = method.getName();
+		if ("getSnapshotInfo".equals(name)) { //$NON-NLS-1$
+			return info;
+		} else if ("getGCRoots".equals(name)) { //$NON-NLS-1$
+			return roots.clone();
+		} else if ("getOutboundReferentIds".equals(name)) { //$NON-NLS-1$
+			return references[id(args)].clone();
+		} else if ("getInboundRefererIds".equals(name)) { //$NON-NLS-1$
+			return getReferrers()[id(args)].clone();
+		} else if ("isGCRoot".equals(name)) { //$NON-NLS-1$
+			return Boolean.valueOf(gcRoot[id(args)]);
+		} else if ("getGCRootInfo".equals(name)) { //$NON-NLS-1$
+			return gcRoot[id(args)] ? getGCRootInfo(id(args)) : null;
+		} else if ("getHeapSize".equals(name)) { //$NON-NLS-1$
+			if (args[0] instanceof int[]) {
+				sizeLookups.addAndGet(((int[]) args[0]).length);
+				long sum = 0;
+				for (int id : (int[]) args[0]) {
+					sum += sizes[id];
+				}
+				return Long.valueOf(sum);
+			}
+			sizeLookups.incrementAndGet();
+			return Long.valueOf(sizes[id(args)]);
+		} else if ("getRetainedHeapSize".equals(name)) { //$NON-NLS-1$
+			return Long.valueOf(getRetainedSize(id(args)));
+		} else if ("getClassOf".equals(name)) { //$NON-NLS-1$
+			return classObjects[classes[id(args)]];
+		} else if ("getClasses".equals(name)) { //$NON-NLS-1$
+			return Arrays.asList(classObjects);
+		} else if ("getObject".equals(name)) { //$NON-NLS-1$
+			return classObjects[id(args)];
+		} else if ("isClass".equals(name) || "isArray".equals(name)) { //$NON-NLS-1$ //$NON-NLS-2$
+			return Boolean.FALSE;
+		} else if ("mapIdToAddress".equals(name)) { //$NON-NLS-1$
+			return Long.valueOf(8L*id(args));
+		} else if ("dispose".equals(name)) { //$NON-NLS-1$
+			return null;
+		} else if ("hashCode".equals(name)) { //$NON-NLS-1$
+			return Integer.valueOf(System.identityHashCode(proxy));
+		} else if ("equals".equals(name)) { //$NON-NLS-1$
+			return Boolean.valueOf(proxy == args[0]);
+		} else if ("toString".equals(name)) { //$NON-NLS-1$
+			return directory.getPath();
+		}
+		throw new UnsupportedOperationException(name);
+	}
+
+	/**
+	 * Returns the retained size MAT would compute for an object; here, up
+	 * to three times its size, depending on its ID.
+	 * @param id the object ID
+	 * @return the retained size
+	 */
+	public long getRetainedSize(final int id) {
+		return sizes[id]*(1 + id%3);
+	}
+
+	/**
+	 * Returns the GC root information of a GC root: depending on its ID,
+	 * it is a system class, a Java local, or a Java local and a native static.
+	 * @param id the ID of the GC root
+	 * @return the GC root information, never <code>null</code>.
+	 */
+	public static GCRootInfo[] getGCRootInfo(final int id) {
+		switch (id % 3) {
+			case 0:
+				return new GCRootInfo[] { new RootInfo(8L*id, GCRootInfo.Type.SYSTEM_CLASS) };
+			case 1:
+				return new GCRootInfo[] { new RootInfo(8L*id, GCRootInfo.Type.JAVA_LOCAL) };
+			default:
+				return new GCRootInfo[] { new RootInfo(8L*id, GCRootInfo.Type.JAVA_LOCAL), new RootInfo(8L*id, GCRootInfo.Type.NATIVE_STATIC) };
+		}
+	}
+
+	/**
+	 * Returns the inbound references of each object, the inverse of
+	 * {@link #references}.
+	 * @return the referrers of each object, never <code>null</code>.
+	 */
+	private synchronized int[][] getReferrers() {
+		if (referrers == null) {
+			final int[] counts = new int[references.length];
+			for (int[] refs : references) {
+				for (int r : refs) {
+					counts[r]++;
+				}
+			}
+			referrers = new int[references.length][];
+			for (int i = 0; i < counts.length; i++) {
+				referrers[i] = new int[counts[i]];
+				counts[i] = 0;
+			}
+			for (int i = 0; i < references.length; i++) {
+				for (int r : references[i]) {
+					referrers[r][counts[r]++] = i;
+				}
+			}
+		}
+		return referrers;
+	}
+
+	private static int id(final Object[] args) {
+		return ((Integer) args[0]).intValue();
+	}
+
+	/**
+	 * GC root information without a thread.
+	 */
+	private static class RootInfo extends GCRootInfo {
+
+		private static final long serialVersionUID = 1L;
+
+		protected RootInfo(final long anAddress, final int aType) {
+			super(anAddress, 0, aType);
+		}
+
+	}
+
+	/**
+	 * Answers the calls to a class of the graph.
+	 */
+	private static class ClassHandler implements InvocationHandler {
+
+		private final TestSnapshot graph;
+		private final int index;
+		private final String name;
+
+		protected ClassHandler(final TestSnapshot aGraph, final int anIndex, final String aName) {
+			graph = aGraph;
+			index = anIndex;
+			name = aName;
+		}
+
+		@Override
+		// non-javadoc: see interface
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String methodName = method.getName();
+			if ("getName".equals(methodName) || "getDisplayName".equals(methodName)) { //$NON-NLS-1$ //$NON-NLS-2$
+				return name;
+			} else if ("getObjectId".equals(methodName)) { //$NON-NLS-1$
+				return Integer.valueOf(index);
+			} else if ("isArrayType".equals(methodName)) { //$NON-NLS-1$
+				return Boolean.valueOf(name.endsWith("[]")); //$NON-NLS-1$
+			} else if ("getClassLoaderId".equals(methodName)) { //$NON-NLS-1$
+				return Integer.valueOf(0);
+			} else if ("getSuperClass".equals(methodName)) { //$NON-NLS-1$
+				return null;
+			} else if ("getObjectIds".equals(methodName)) { //$NON-NLS-1$
+				// in descending ID order, as the model must not rely on any order
+				int count = 0;
+				for (int c : graph.classes) {
+					if (c == index) {
+						count++;
+					}
+				}
+				final int[] ids = new int[count];
+				for (int i = 0; i < graph.classes.length; i++) {
+					if (graph.classes[i] == index) {
+						ids[--count] = i;
+					}
+				}
+				return ids;
+			} else if ("hashCode".equals(methodName)) { //$NON-NLS-1$
+				return Integer.valueOf(index);
+			} else if ("equals".equals(methodName)) { //$NON-NLS-1$
+				return Boolean.valueOf(proxy == args[0]);
+			} else if ("toString".equals(methodName)) { //$NON-NLS-1$
+				return name;
+			}
+			throw new UnsupportedOperationException(methodName);
+		}
+
+	}
+
+}
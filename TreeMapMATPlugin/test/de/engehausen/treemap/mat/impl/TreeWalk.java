@@ -0,0 +1,73 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Assert;
+
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ISnapshotNode;
+
+/**
+ * Breadth-first walk over a weighted tree model in the tests, checking
+ * what all models have in common: the children of each node come by
+ * descending weight and have the node as parent, and a node has children
+ * if and only if it says so. What else a test expects of a node is checked
+ * by a {@link NodeCheck} once the children of the node have been read.
+ */
+public class TreeWalk {
+
+	/**
+	 * Checks of a test for each node of the walk.
+	 */
+	public interface NodeCheck {
+
+		/**
+		 * Checks a node after its children have been read.
+		 * @param node the node
+		 * @param level the level of the node, the root node being at level <code>0</code>
+		 * @param children the children of the node, in the order of the model
+		 * @param sum the sum of the weights of the children
+		 */
+		void check(ISnapshotNode node, int level, List<ISnapshotNode> children, long sum);
+
+	}
+
+	/**
+	 * Walks all nodes of a model, the root first.
+	 * @param model the model to walk
+	 * @param check the checks of the test, <code>null</code> for none
+	 * @return the nodes of the model, the root first
+	 */
+	public static List<ISnapshotNode> walk(final IWeightedTreeModel<ISnapshotNode> model, final NodeCheck check) {
+		final List<ISnapshotNode> nodes = new ArrayList<ISnapshotNode>();
+		final List<Integer> levels = new ArrayList<Integer>();
+		nodes.add(model.getRoot());
+		levels.add(Integer.valueOf(0));
+		for (int n = 0; n < nodes.size(); n++) {
+			final ISnapshotNode node = nodes.get(n);
+			final int level = levels.get(n).intValue();
+			final List<ISnapshotNode> children = new ArrayList<ISnapshotNode>();
+			long sum = 0;
+			long previous = Long.MAX_VALUE;
+			for (Iterator<ISnapshotNode> i = model.getChildren(node); i.hasNext(); ) {
+				final ISnapshotNode child = i.next();
+				final long weight = model.getWeight(child);
+				Assert.assertTrue("order "+child.getID(), weight <= previous); //$NON-NLS-1$
+				Assert.assertEquals("parent "+child.getID(), node, model.getParent(child)); //$NON-NLS-1$
+				previous = weight;
+				sum += weight;
+				children.add(child);
+				nodes.add(child);
+				levels.add(Integer.valueOf(level+1));
+			}
+			Assert.assertEquals("hasChildren "+node.getID(), !children.isEmpty(), model.hasChildren(node)); //$NON-NLS-1$
+			if (check != null) {
+				check.check(node, level, children, sum);
+			}
+		}
+		return nodes;
+	}
+
+}
@@ -0,0 +1,222 @@
+package de.engehausen.treemap.mat.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.mat.SnapshotException;
+import org.eclipse.mat.collect.BitField;
+import org.eclipse.mat.snapshot.ISnapshot;
+import org.eclipse.mat.util.VoidProgressListener;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.engehausen.treemap.IWeightedTreeModel;
+import de.engehausen.treemap.mat.ISnapshotNode;
+
+/**
+ * Tests that {@link WeightedSnapshotTreeModelImpl} can be read by several
+ * threads at the same time: each reader must always see the same child
+ * lists a single reader sees.
+ */
+public class WeightedSnapshotTreeModelImplTest {
+
+	/** number of objects of the test graph */
+	private static final int OBJECTS = 50000;
+	/** number of reading threads */
+	private static final int THREADS = 8;
+	/** number of nodes each thread reads */
+	private static final int READS = 200000;
+
+	private TestSnapshot graph;
+
+	@Before
+	public void setUp() throws Exception {
+		graph = new TestSnapshot(OBJECTS, 17);
+	}
+
+	@After
+	public void tearDown() {
+		graph.dispose();
+	}
+
+	@Test
+	public void testConcurrentReaders() throws Exception {
+		for (TraversalMode mode : TraversalMode.values()) {
+			readConcurrently(WeightedSnapshotTreeModelImpl.createModel(graph.getSnapshot(), mode, new VoidProgressListener()));
+		}
+	}
+
+	@Test
+	public void testChildListInvariants() throws Exception {
+		for (TraversalMode mode : TraversalMode.values()) {
+			checkInvariants(WeightedSnapshotTreeModelImpl.createModel(graph.getSnapshot(), mode, new VoidProgressListener()));
+		}
+	}
+
+	@Test
+	public void testSequentialTree() throws Exception {
+		final ISnapshot snapshot = graph.getSnapshot();
+		final WeightedSnapshotTreeModelImpl model = new WeightedSnapshotTreeModelImpl(snapshot, TraversalMode.SEQUENTIAL, HeapArrayStorage.INSTANCE);
+		model.initialize(new VoidProgressListener());
+		final int[] parent = new int[OBJECTS];
+		final long[] weight = new long[OBJECTS];
+		final BitField visited = new BitField(OBJECTS);
+		final int[] gcroots = snapshot.getGCRoots();
+		final IntStack stack = new IntStack(400);
+		for (int i = gcroots.length - 1; i >= 0; i--) {
+			traverseGCRoot(snapshot, gcroots[i], visited, stack, parent, weight);
+		}
+		long total = 0;
+		for (int i = 0; i < OBJECTS; i++) {
+			if (visited.get(i)) {
+				Assert.assertEquals("parent "+i, parent[i], model.parent.get(i)); //$NON-NLS-1$
+				Assert.assertEquals("weight "+i, weight[i], model.weight.get(i)); //$NON-NLS-1$
+				if (parent[i] == Integer.MAX_VALUE) {
+					total += weight[i];
+				}
+			}
+		}
+		Assert.assertEquals(total, model.getWeight(model.getRoot()));
+	}
+
+	/**
+	 * Builds the tree of the objects reachable from a GC root as the
+	 * first versions of {@link WeightedSnapshotTreeModelImpl} did, which
+	 * the sequential traversal must reproduce: an object is marked as
+	 * visited when it is popped, and the last object pushing it before
+	 * becomes its parent.
+	 * @param snapshot the snapshot
+	 * @param root the root node
+	 * @param visited bit field of already visited nodes
+	 * @param stack the empty stack of the traversal
+	 * @param parent the parents of the nodes
+	 * @param weight the weights of the nodes
+	 * @throws SnapshotException in case of error
+	 */
+	protected static void traverseGCRoot(final ISnapshot snapshot, final int root, final BitField visited, final IntStack stack, final int[] parent, final long[] weight) throws SnapshotException {
+		stack.push(root);
+		parent[root] = Integer.MAX_VALUE;
+		while (!stack.isEmpty()) {
+			final int node = stack.pop();
+			if (!visited.get(node)) {
+				visited.set(node);
+				final long w = snapshot.getHeapSize(node);
+				weight[node] = w;
+				for (int runner = parent[node]; runner != Integer.MAX_VALUE; runner = parent[runner]) {
+					weight[runner] += w;
+				}
+				final int[] children = snapshot.getOutboundReferentIds(node);
+				for (int i = children.length - 1; i >= 0; i--) {
+					final int c = children[i];
+					if (!visited.get(c) && !snapshot.isGCRoot(c)) {
+						parent[c] = node;
+						stack.push(c);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads random nodes of the model from several threads at the same
+	 * time and compares their child lists to those read by one thread.
+	 * @param model the model to read
+	 * @throws Exception in case of error
+	 */
+	protected void readConcurrently(final IWeightedTreeModel<ISnapshotNode> model) throws Exception {
+		final int[][] expected = new int[OBJECTS][];
+		for (int i = 0; i < OBJECTS; i++) {
+			expected[i] = children(model, new SnapshotNodeImpl(i));
+		}
+		final int[] rootChildren = children(model, model.getRoot());
+		final CountDownLatch start = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			final List<Future<Integer>> results = new ArrayList<Future<Integer>>(THREADS);
+			for (int t = 0; t < THREADS; t++) {
+				final long seed = t;
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						start.await();
+						final Random random = new Random(seed);
+						int checked = 0;
+						for (int i = 0; i < READS; i++) {
+							final int id = random.nextInt(OBJECTS+1);
+							if (id == OBJECTS) {
+								Assert.assertArrayEquals("root", rootChildren, children(model, model.getRoot())); //$NON-NLS-1$
+							} else {
+								final ISnapshotNode node = new SnapshotNodeImpl(id);
+								Assert.assertEquals("hasChildren "+id, expected[id].length > 0, model.hasChildren(node)); //$NON-NLS-1$
+								Assert.assertArrayEquals("children "+id, expected[id], children(model, node)); //$NON-NLS-1$
+							}
+							checked++;
+						}
+						return Integer.valueOf(checked);
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<Integer> result : results) {
+				Assert.assertEquals(READS, result.get().intValue());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Checks that the children of each node are sorted by weight, have
+	 * the node as parent and that the weight of each node is its size
+	 * plus the weights of its children.
+	 * @param model the model to check
+	 */
+	protected void checkInvariants(final IWeightedTreeModel<ISnapshotNode> model) {
+		final long[] reachable = new long[1];
+		TreeWalk.walk(model, new TreeWalk.NodeCheck() {
+			@Override
+			public void check(final ISnapshotNode node, final int level, final List<ISnapshotNode> children, final long sum) {
+				if (node.getID() == Integer.MAX_VALUE) {
+					Assert.assertEquals("root", sum, model.getWeight(node)); //$NON-NLS-1$
+				} else {
+					reachable[0] += graph.sizes[node.getID()];
+					Assert.assertEquals("weight "+node.getID(), graph.sizes[node.getID()] + sum, model.getWeight(node)); //$NON-NLS-1$
+				}
+			}
+		});
+		Assert.assertEquals(reachable[0], model.getWeight(model.getRoot()));
+	}
+
+	/**
+	 * Returns the IDs of the children of the given node, in the order
+	 * of the model.
+	 * @param model the model to read
+	 * @param node the node
+	 * @return the child IDs, never <code>null</code>.
+	 */
+	protected static int[] children(final IWeightedTreeModel<ISnapshotNode> model, final ISnapshotNode node) {
+		int[] result = new int[4];
+		int count = 0;
+		for (Iterator<ISnapshotNode> i = model.getChildren(node); i.hasNext(); ) {
+			if (count == result.length) {
+				final int[] larger = new int[2*count];
+				System.arraycopy(result, 0, larger, 0, count);
+				result = larger;
+			}
+			result[count++] = i.next().getID();
+		}
+		final int[] trimmed = new int[count];
+		System.arraycopy(result, 0, trimmed, 0, count);
+		return trimmed;
+	}
+
+}